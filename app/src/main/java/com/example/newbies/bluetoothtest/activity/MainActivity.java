@@ -10,19 +10,24 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
 import android.view.View;
 import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.ListView;
-import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.newbies.bluetoothtest.R;
 import com.example.newbies.bluetoothtest.util.BluetoothConnectUtil;
+import com.example.newbies.bluetoothtest.util.discovery.DeviceCache;
+import com.example.newbies.bluetoothtest.util.discovery.DeviceListDiff;
+import com.example.newbies.bluetoothtest.util.discovery.DiscoveredDevice;
+import com.example.newbies.bluetoothtest.view.DeviceListAdapter;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.locks.ReentrantLock;
@@ -32,20 +37,64 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 public class MainActivity extends AppCompatActivity implements View.OnClickListener{
 
+    private static final String TAG = "MainActivity";
+
     private ListView bluetoothListView;
     private Button setVisibility;
     private Button search;
-    private ArrayAdapter<String> devicesListAdapter;
+    private DeviceListAdapter devicesListAdapter;
     private BluetoothAdapter bluetoothAdapter;
     /**
      * 打开蓝牙的请求码，注意：这个请求码必须大于0
      */
     private final int REQUEST_ENABLE_BT = 1;
-    private ArrayList<String> data = new ArrayList<>();
+    /**
+     * 列表刷新的最小间隔(毫秒)，扫描期间的变化攒够一批再刷新
+     */
+    private static final long LIST_UPDATE_INTERVAL_MILLIS = 300;
+    /**
+     * 检查过期设备的间隔(毫秒)
+     */
+    private static final long EVICT_INTERVAL_MILLIS = 5000;
     /**
      * 创建一个用于接收ACTION_FOUND广播的广播接收器，可以获取到发现设备的相关信息
      */
     private final BroadcastReceiver receiver = new ActionFoundBroadcastReceiver();
+    /**
+     * 处理扫描结果的后台线程，广播接收器和设备缓存都在这个线程中运行，不占用UI线程
+     */
+    private HandlerThread discoveryThread;
+    private Handler discoveryHandler;
+    /**
+     * 扫描到的设备，只在后台线程中访问
+     */
+    private final DeviceCache deviceCache = new DeviceCache();
+    /**
+     * 下一次刷新列表的时间，没有安排刷新时为-1，只在后台线程中访问
+     */
+    private long nextFlushMillis = -1;
+    /**
+     * 把缓存中的变化交给列表
+     */
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            nextFlushMillis = -1;
+            deviceCache.evictExpired(SystemClock.elapsedRealtime());
+            final DeviceListDiff diff = deviceCache.drainChanges();
+            if(!diff.isEmpty()){
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        devicesListAdapter.apply(diff);
+                    }
+                });
+            }
+            if(deviceCache.hasExpirable()){
+                scheduleFlush(EVICT_INTERVAL_MILLIS);
+            }
+        }
+    };
     private BluetoothConnectUtil bluetoothConnectUtil;
 
     @Override
@@ -78,23 +127,49 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
             startActivityForResult(enableBluetooth,REQUEST_ENABLE_BT);
         }
 
-       devicesListAdapter = new ArrayAdapter<String>(this,android.R.layout.simple_list_item_1);
-        //得到已配对蓝牙
-        Set<BluetoothDevice> pairedDevices = bluetoothAdapter.getBondedDevices();
-        //如果已经存在配对好了的蓝牙
-        if (pairedDevices.size() > 0) {
-            //遍历已配对蓝牙
-            for (BluetoothDevice device : pairedDevices) {
-                devicesListAdapter.add(device.getName() + "\n" + device.getAddress());
+        devicesListAdapter = new DeviceListAdapter(this);
+        discoveryThread = new HandlerThread("BluetoothDiscovery");
+        discoveryThread.start();
+        discoveryHandler = new Handler(discoveryThread.getLooper());
+
+        //得到已配对蓝牙，放进缓存中，与扫描到的设备一起显示
+        final Set<BluetoothDevice> pairedDevices = bluetoothAdapter.getBondedDevices();
+        discoveryHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                long now = SystemClock.elapsedRealtime();
+                for (BluetoothDevice device : pairedDevices) {
+                    deviceCache.update(new DiscoveredDevice(device, device.getAddress(), device.getName(),
+                            DiscoveredDevice.NO_RSSI, true, now));
+                }
+                scheduleFlush(0);
             }
-        }
+        });
 
-        //注册广播接收器
+        //注册广播接收器，发现设备、扫描结束和配对状态变化的广播都在后台线程中处理
         IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_FOUND);
-        registerReceiver(receiver, filter);
-        //注册监听附近设备关闭的广播接收器
-        IntentFilter finish = new IntentFilter(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
-        this.registerReceiver(receiver, finish);
+        filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
+        filter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+        registerReceiver(receiver, filter, null, discoveryHandler);
+
+        //蓝牙已经打开时，提前连接最近连接过的已配对设备
+        if(bluetoothAdapter.isEnabled()){
+            bluetoothConnectUtil.warmUp(pairedDevices);
+        }
+    }
+
+    /**
+     * 安排一次列表刷新，已经安排了更早的刷新时不做任何事情，只在后台线程中调用
+     * @param delayMillis
+     */
+    private void scheduleFlush(long delayMillis){
+        long flushMillis = SystemClock.elapsedRealtime() + delayMillis;
+        if(nextFlushMillis >= 0 && nextFlushMillis <= flushMillis){
+            return;
+        }
+        discoveryHandler.removeCallbacks(flushTask);
+        discoveryHandler.postDelayed(flushTask, delayMillis);
+        nextFlushMillis = flushMillis;
     }
 
     protected void initView(){
@@ -114,14 +189,9 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                 //取消扫描，也就是取消监听附件的设备，这样可以很好的降低设备功耗
                 bluetoothAdapter.cancelDiscovery();
 
-                //得到设备的Mac地址，一共占据17个字符，且是最后17个字符
-                String info = ((TextView)view).getText().toString();
-                String address = info.substring(info.length() - 17);
-
-                //通过Mac地址得到BluetoothDevice实例
-                BluetoothDevice device = bluetoothAdapter.getRemoteDevice(address);
-                bluetoothConnectUtil.connect(device,false);
-                System.out.println("当前： " + Thread.currentThread().getId());
+                //列表项中直接保存了BluetoothDevice实例，同时尝试两种连接方式
+                BluetoothDevice device = devicesListAdapter.getItem(position).getDevice();
+                bluetoothConnectUtil.connectRacing(device);
             }
         });
     }
@@ -139,7 +209,8 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 //                startActivity(discoverableIntent);
                 break;
             case R.id.search:
-                System.out.println("当前的线程时： " + Thread.currentThread().getId());
+                //输出当前的连接指标
+                Log.d(TAG, bluetoothConnectUtil.getMetricsSnapshot().toString());
 //                //如果已经在进行搜索设备，那么就取消搜索
 //                if (bluetoothAdapter.isDiscovering()) {
 //                    bluetoothAdapter.cancelDiscovery();
@@ -152,23 +223,35 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         }
     }
 
+    /**
+     * 在后台线程中运行，只更新缓存，列表由{@link #flushTask}按批刷新
+     */
     class ActionFoundBroadcastReceiver extends BroadcastReceiver{
         @Override
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
             // 当查找到蓝牙设备时
             if (BluetoothDevice.ACTION_FOUND.equals(action)) {
-                // 从广播中得到一个蓝牙设备
+                // 从广播中得到一个蓝牙设备，同一个设备会被多次发现，由缓存去重
                 BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                //如果该未配对，那么加入到listView适配器中
-                if(device.getBondState() != BluetoothDevice.BOND_BONDED){
-                    devicesListAdapter.add(device.getName() + "\n" + device.getAddress());
-                    devicesListAdapter.notifyDataSetChanged();
+                int rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, (short) DiscoveredDevice.NO_RSSI);
+                boolean changed = deviceCache.update(new DiscoveredDevice(device, device.getAddress(), device.getName(),
+                        rssi, device.getBondState() == BluetoothDevice.BOND_BONDED, SystemClock.elapsedRealtime()));
+                if(changed){
+                    scheduleFlush(LIST_UPDATE_INTERVAL_MILLIS);
                 }
             }
-//            else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
-//                Toast.makeText(context, "查询完成", Toast.LENGTH_SHORT).show();
-//            }
+            else if (BluetoothDevice.ACTION_BOND_STATE_CHANGED.equals(action)) {
+                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                int state = intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE, BluetoothDevice.BOND_NONE);
+                if(deviceCache.updateBondState(device.getAddress(), state == BluetoothDevice.BOND_BONDED)){
+                    scheduleFlush(LIST_UPDATE_INTERVAL_MILLIS);
+                }
+            }
+            else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
+                //扫描结束，立即显示剩下的变化
+                scheduleFlush(0);
+            }
             //PS:执行设备发现对于蓝牙适配器而言是一个非常繁重的操作过程，并且会消耗大量资源,因此当设备连接过后，应该让其不能被检测到
         }
     }
@@ -180,7 +263,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
      */
     @Override
     public void onActivityResult (int requestCode, int resultCode, Intent data){
-        System.err.println(requestCode + "   " + resultCode);
+        Log.d(TAG, "onActivityResult: " + requestCode + "   " + resultCode);
         //开始查找设备
 //        bluetoothAdapter.startDiscovery();
     }
@@ -191,6 +274,8 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         super.onDestroy();
         //不要忘记在活动关闭时取消注册
         unregisterReceiver(receiver);
-        bluetoothConnectUtil.cancelConnect();
+        discoveryThread.quit();
+        //取消连接并释放线程池
+        bluetoothConnectUtil.shutdown();
     }
 }
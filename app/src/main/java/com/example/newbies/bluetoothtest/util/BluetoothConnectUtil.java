@@ -2,275 +2,1506 @@ package com.example.newbies.bluetoothtest.util;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothServerSocket;
-import android.bluetooth.BluetoothSocket;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.widget.Toast;
+
+import com.example.newbies.bluetoothtest.util.bulk.BulkSource;
+import com.example.newbies.bluetoothtest.util.bulk.BulkTransfer;
+import com.example.newbies.bluetoothtest.util.bulk.BulkTransferListener;
+import com.example.newbies.bluetoothtest.util.bulk.BulkTransferManager;
+import com.example.newbies.bluetoothtest.util.bulk.MappedFileSource;
+import com.example.newbies.bluetoothtest.util.compress.Codecs;
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+import com.example.newbies.bluetoothtest.util.frame.FrameEncoder;
+import com.example.newbies.bluetoothtest.util.message.MessageCodec;
+import com.example.newbies.bluetoothtest.util.message.MessageRegistry;
+import com.example.newbies.bluetoothtest.util.message.TypedMessageHandler;
+import com.example.newbies.bluetoothtest.util.metrics.LinkMetrics;
+import com.example.newbies.bluetoothtest.util.metrics.MetricsSnapshot;
+import com.example.newbies.bluetoothtest.util.rpc.RpcCall;
+import com.example.newbies.bluetoothtest.util.rpc.RpcHandler;
+import com.example.newbies.bluetoothtest.util.rpc.RpcManager;
+import com.example.newbies.bluetoothtest.util.store.MessageLog;
+import com.example.newbies.bluetoothtest.util.store.StoreAndForward;
+import com.example.newbies.bluetoothtest.util.stream.MessageHub;
+import com.example.newbies.bluetoothtest.util.stream.MessageStream;
+import com.example.newbies.bluetoothtest.util.transfer.BackpressureListener;
+import com.example.newbies.bluetoothtest.util.transfer.Channel;
+import com.example.newbies.bluetoothtest.util.transfer.CoalescingWriter;
+import com.example.newbies.bluetoothtest.util.transfer.ConnectCandidate;
+import com.example.newbies.bluetoothtest.util.transfer.ConnectionStateMachine;
+import com.example.newbies.bluetoothtest.util.transfer.IoExecutor;
+import com.example.newbies.bluetoothtest.util.transfer.MessageListener;
+import com.example.newbies.bluetoothtest.util.transfer.OutboundFrame;
+import com.example.newbies.bluetoothtest.util.transfer.Publisher;
+import com.example.newbies.bluetoothtest.util.transfer.PeerCache;
+import com.example.newbies.bluetoothtest.util.transfer.ReceiveBufferPool;
+import com.example.newbies.bluetoothtest.util.transfer.ReceivedMessage;
+import com.example.newbies.bluetoothtest.util.transfer.ReconnectPolicy;
+import com.example.newbies.bluetoothtest.util.transfer.Session;
+import com.example.newbies.bluetoothtest.util.transfer.SessionListener;
+import com.example.newbies.bluetoothtest.util.transfer.SessionRegistry;
+import com.example.newbies.bluetoothtest.util.transfer.TimerWheel;
+import com.example.newbies.bluetoothtest.util.transport.RfcommTransport;
+import com.example.newbies.bluetoothtest.util.transport.Transport;
+import com.example.newbies.bluetoothtest.util.transport.TransportServerSocket;
+import com.example.newbies.bluetoothtest.util.transport.TransportSocket;
+
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.UUID;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ * @author NewBies
+ * @date 2018/1/7
+ */
+public class BluetoothConnectUtil {
+
+    /**
+     * 初始状态
+     */
+    public static final int STATE_NONE = ConnectionStateMachine.STATE_NONE;
+    /**
+     * 准备连接状态，针对于该设备为服务端
+     */
+    public static final int STATE_READY_TO_CONNECT = ConnectionStateMachine.STATE_LISTENING;
+    /**
+     * 正在连接状态
+     */
+    public static final int STATE_CONNECTING = ConnectionStateMachine.STATE_CONNECTING;
+    /**
+     * 已连接状态
+     */
+    public static final int STATE_CONNECTED = ConnectionStateMachine.STATE_CONNECTED;
+    /**
+     * 连接丢失状态，随后会回到准备连接状态或者初始状态
+     */
+    public static final int STATE_LOST = ConnectionStateMachine.STATE_LOST;
+    /**
+     * 并发连接时相邻两个尝试启动的默认间隔(毫秒)，大多数成功的蓝牙连接在这段时间内完成，
+     * 快速的连接不会被多余的尝试打扰，慢的或者卡住的连接也不会拖住后面的尝试
+     */
+    public static final long DEFAULT_CONNECT_STAGGER_MILLIS = 1000;
+    /**
+     * 保存设备缓存的文件名
+     */
+    private static final String PEER_CACHE_FILE_NAME = "peer_cache";
+    /**
+     * 默认的心跳间隔和存活期限(毫秒)
+     */
+    public static final long DEFAULT_HEARTBEAT_INTERVAL_MILLIS = 5000;
+    public static final long DEFAULT_LIVENESS_TIMEOUT_MILLIS = 15000;
+
+    /**
+     * 服务端接受连接时允许的起始状态
+     */
+    private static final int ACCEPTABLE_STATES = ConnectionStateMachine.bit(STATE_READY_TO_CONNECT)
+            | ConnectionStateMachine.bit(STATE_CONNECTING);
+    /**
+     * 开始监听时允许的起始状态
+     */
+    private static final int LISTENABLE_STATES = ConnectionStateMachine.bit(STATE_NONE)
+            | ConnectionStateMachine.bit(STATE_LOST);
+    /**
+     * 正在连接或已连接，单连接模式下重启服务端时需要从这两个状态回到初始状态
+     */
+    private static final int BUSY_STATES = ConnectionStateMachine.bit(STATE_CONNECTING)
+            | ConnectionStateMachine.bit(STATE_CONNECTED);
+    /**
+     * 发起连接时允许的起始状态
+     */
+    private static final int CONNECTABLE_STATES = ConnectionStateMachine.bit(STATE_NONE)
+            | ConnectionStateMachine.bit(STATE_READY_TO_CONNECT)
+            | ConnectionStateMachine.bit(STATE_CONNECTED)
+            | ConnectionStateMachine.bit(STATE_LOST);
+
+    /**
+     * 蓝牙连接状态机，所有状态转换都是原子的
+     */
+    private final ConnectionStateMachine stateMachine = new ConnectionStateMachine();
+    /**
+     * 保护监听任务和连接任务这几个字段，只在建立和取消连接时使用，收发数据不需要获取该锁
+     */
+    private final Object taskLock = new Object();
+    /**
+     * 上下文对象，在普通JVM上运行时为null
+     */
+    private Context context;
+    /**
+     * 传输层实现，默认为蓝牙RFCOMM
+     */
+    private final Transport transport;
+    /**
+     * 执行监听、连接和数据传输任务的共享线程池
+     */
+    private final IoExecutor ioExecutor;
+    /**
+     * 线程池是否由本对象创建，只有自己创建的线程池才在shutdown时关闭
+     */
+    private final boolean ownsExecutor;
+    /**
+     * 需要配对连接的服务端任务
+     */
+    private AcceptTask secureAcceptTask;
+    /**
+     * 不需要配对连接的服务端任务
+     */
+    private AcceptTask insecureAcceptTask;
+    /**
+     * 客户端建立连接的任务
+     */
+    private ConnectTask connectTask;
+    /**
+     * 等待执行的重连任务
+     */
+    private ScheduledFuture<?> reconnectFuture;
+    /**
+     * 自动重连策略，为null时不自动重连
+     */
+    private volatile ReconnectPolicy reconnectPolicy;
+    /**
+     * 最近一次主动连接的候选目标和错开时间，重连时使用同样的方式
+     */
+    private volatile ConnectCandidate[] lastCandidates;
+    private volatile long lastStaggerMillis;
+    /**
+     * 已知设备上次连接成功的参数，连接时优先尝试上次成功的方式
+     */
+    private final PeerCache peerCache = new PeerCache();
+    /**
+     * 保存设备缓存的文件，没有上下文时为null，只在内存中缓存
+     */
+    private final File peerCacheFile;
+    private boolean peerCacheLoaded;
+    /**
+     * 是否允许自动重连，主动连接时打开，取消连接或者熔断时关闭
+     */
+    private volatile boolean reconnectArmed;
+    /**
+     * 最近一次主动连接建立的会话ID，只有它断开时才自动重连
+     */
+    private volatile int outgoingSessionId = -1;
+    /**
+     * 连续重连的次数，连接成功后清零
+     */
+    private final AtomicInteger reconnectAttempts = new AtomicInteger();
+    private final Random random = new Random();
+    /**
+     * 所有进行数据传输的会话，单连接模式下最多只有一个
+     */
+    private final SessionRegistry sessionRegistry = new SessionRegistry();
+    /**
+     * 是否为多连接模式，多连接模式下建立连接后服务端继续监听，可以同时与多个设备通信
+     */
+    private volatile boolean multiConnectionEnabled;
+    /**
+     * 会话建立和断开的监听器
+     */
+    private volatile SessionListener sessionListener;
+    /**
+     * 发送的数据帧是否附加CRC校验码
+     */
+    private volatile boolean crcEnabled;
+    /**
+     * 发送队列的容量、批量写入大小以及最长等待合并时间
+     */
+    private volatile int writeQueueCapacity = CoalescingWriter.DEFAULT_QUEUE_CAPACITY;
+    private volatile int writeBatchSize = CoalescingWriter.DEFAULT_BATCH_SIZE;
+    private volatile long writeLingerMillis = CoalescingWriter.DEFAULT_LINGER_MILLIS;
+    /**
+     * 逻辑通道的配置
+     */
+    private volatile Channel[] channels = Channel.defaults();
+    /**
+     * 希望使用的压缩算法，按偏好排序，默认不压缩
+     */
+    private volatile int[] compressionCodecs = new int[0];
+    /**
+     * 心跳间隔和存活期限，间隔为0表示不发送心跳
+     */
+    private volatile long heartbeatIntervalMillis = DEFAULT_HEARTBEAT_INTERVAL_MILLIS;
+    private volatile long livenessTimeoutMillis = DEFAULT_LIVENESS_TIMEOUT_MILLIS;
+    /**
+     * 本端的接收窗口，为0表示不进行流量控制
+     */
+    private volatile int receiveWindow = Session.DEFAULT_RECEIVE_WINDOW;
+    /**
+     * 反压的回调
+     */
+    private volatile BackpressureListener backpressureListener;
+    /**
+     * 接收缓冲区池，在多次连接之间共享
+     */
+    private volatile ReceiveBufferPool receiveBufferPool = new ReceiveBufferPool();
+    /**
+     * 接收消息的监听器
+     */
+    private volatile MessageListener messageListener;
+    /**
+     * 运行指标，所有会话共享
+     */
+    private final LinkMetrics metrics = new LinkMetrics();
+    /**
+     * 大块数据传输管理器，处理文件等大块数据的分块发送和续传
+     */
+    private final BulkTransferManager bulkTransferManager;
+    /**
+     * 管理RPC调用等大量短期超时的时间轮
+     */
+    private final TimerWheel timerWheel;
+    /**
+     * 请求/响应式调用的管理器
+     */
+    private final RpcManager rpcManager;
+    /**
+     * 可以订阅的接收消息流
+     */
+    private final MessageHub messageHub;
+    /**
+     * 断开期间暂存待发送消息的存储转发
+     */
+    private final StoreAndForward storeAndForward;
+    /**
+     * 向多个会话发布消息，负载只编码一次
+     */
+    private final Publisher publisher;
+    /**
+     * 已注册的二进制消息类型
+     */
+    private final MessageRegistry messageRegistry = new MessageRegistry();
+    /**
+     * 交给每个会话的消息监听器，转发给当前设置的监听器，这样可以在连接建立后再设置监听器
+     */
+    private final MessageListener messageDispatcher = new MessageListener() {
+        @Override
+        public void onMessage(ReceivedMessage message) {
+            if(bulkTransferManager.onMessage(message) || rpcManager.onMessage(message)
+                    || storeAndForward.onMessage(message, receiveBufferPool)
+                    || messageRegistry.onMessage(message)){
+                return;
+            }
+            messageHub.publish(message);
+            MessageListener listener = messageListener;
+            if(listener == null){
+                message.release();
+                return;
+            }
+            listener.onMessage(message);
+        }
+    };
+    /**
+     * 交给每个会话的反压回调，转发给当前设置的回调
+     */
+    private final BackpressureListener backpressureDispatcher = new BackpressureListener() {
+        @Override
+        public void onWritable(Session session) {
+            BackpressureListener listener = backpressureListener;
+            if(listener != null){
+                listener.onWritable(session);
+            }
+        }
+    };
+    /**
+     * 会话意外断开时的回调
+     */
+    private final Session.Callback sessionCallback = new Session.Callback() {
+        @Override
+        public void onSessionLost(Session session, IOException cause) {
+            cause.printStackTrace();
+            connectionLost(session);
+        }
+    };
+
+    public BluetoothConnectUtil(Context context, BluetoothAdapter bluetoothAdapter){
+        this(context, new RfcommTransport(bluetoothAdapter));
+    }
+
+    /**
+     * 使用指定的传输层，可以在没有蓝牙的环境下运行，此时context可以为null
+     * @param context
+     * @param transport
+     */
+    public BluetoothConnectUtil(Context context, Transport transport){
+        this(context, transport, null);
+    }
+
+    /**
+     * 使用指定的传输层和线程池，多个实例可以共享同一个线程池
+     * @param context
+     * @param transport
+     * @param ioExecutor 为null时创建自己的线程池
+     */
+    public BluetoothConnectUtil(Context context, Transport transport, IoExecutor ioExecutor){
+        this.context = context;
+        this.peerCacheFile = context == null ? null : new File(context.getFilesDir(), PEER_CACHE_FILE_NAME);
+        this.transport = transport;
+        this.ownsExecutor = ioExecutor == null;
+        this.ioExecutor = ioExecutor == null ? new IoExecutor() : ioExecutor;
+        this.bulkTransferManager = new BulkTransferManager(this.ioExecutor);
+        this.timerWheel = new TimerWheel(this.ioExecutor);
+        this.rpcManager = new RpcManager(timerWheel, metrics);
+        this.messageHub = new MessageHub(timerWheel, metrics);
+        this.storeAndForward = new StoreAndForward(timerWheel, messageDispatcher);
+        this.publisher = new Publisher(timerWheel, new Publisher.Callback() {
+            @Override
+            public void onSlowConsumer(Session session) {
+                disconnect(session.getId());
+            }
+        });
+        if(peerCacheFile != null){
+            //在后台读取设备缓存，不阻塞UI线程
+            this.ioExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    loadPeerCache();
+                }
+            });
+        }
+    }
+
+    /**
+     * 建立服务端，该方法需要同步，因为该方法在建立连接任务中连接失败时会被调用，在传输数据任务中连接丢失时也会被访问，在UI线程中第一次建立连接也会被访问
+     */
+    public void setUpServerSocket(){
+        synchronized (taskLock) {
+            //多连接模式下服务端与已有的会话互不影响
+            if(!multiConnectionEnabled){
+                if(connectTask != null){
+                    connectTask.cancel();
+                    connectTask = null;
+                }
+
+                closeAllSessions();
+                stateMachine.transitionFrom(BUSY_STATES, STATE_NONE);
+            }
+
+            if(secureAcceptTask == null){
+                secureAcceptTask = new AcceptTask(true);
+                secureAcceptTask.start();
+            }
+            if(insecureAcceptTask == null){
+                insecureAcceptTask = new AcceptTask(false);
+                insecureAcceptTask.start();
+            }
+            if(secureAcceptTask.isListening() || insecureAcceptTask.isListening()){
+                stateMachine.transitionFrom(LISTENABLE_STATES, STATE_READY_TO_CONNECT);
+            }
+        }
+    }
+
+    /**
+     * 建立连接，这里也需要同步，该方法是在点击事件中执行，点击事件应该是异步的，也就是说，多次点击，则会多次对该方法调用
+     */
+    public void connect(BluetoothDevice device, boolean secure){
+        connect(device.getAddress(), secure);
+    }
+
+    /**
+     * 通过地址建立连接，设置了重连策略时，连接失败或者连接丢失后会自动按照策略重连该设备
+     * @param address 远程设备的地址
+     * @param secure 是否需要配对的安全连接
+     */
+    public void connect(String address, boolean secure){
+        connect(new ConnectCandidate[]{new ConnectCandidate(address, secure)}, 0);
+    }
+
+    /**
+     * 同时尝试不需要配对的连接和安全连接，先成功的一方胜出
+     * 不需要配对的连接先启动，避免未配对时弹出配对请求，安全连接错开{@link #DEFAULT_CONNECT_STAGGER_MILLIS}后启动
+     * @param device
+     */
+    public void connectRacing(BluetoothDevice device){
+        connect(new ConnectCandidate[]{
+                new ConnectCandidate(device.getAddress(), false),
+                new ConnectCandidate(device.getAddress(), true)
+        }, DEFAULT_CONNECT_STAGGER_MILLIS);
+    }
+
+    /**
+     * 预热连接：在已配对的设备中选出最近成功连接过的设备，按最近连接的顺序并发尝试，
+     * 每个设备使用上次成功的连接方式，适合在应用启动时调用，让常用的设备在用户操作之前就连接好
+     * 设备缓存在后台读取，因此连接也在后台发起
+     * @param bondedDevices 已配对的设备
+     */
+    public void warmUp(Collection<BluetoothDevice> bondedDevices){
+        final Collection<String> addresses = new HashSet<>();
+        for(BluetoothDevice device : bondedDevices){
+            addresses.add(device.getAddress());
+        }
+        try {
+            ioExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    loadPeerCache();
+                    List<ConnectCandidate> candidates = new ArrayList<>();
+                    for(PeerCache.Peer peer : peerCache.getPeers()){
+                        if(addresses.contains(peer.getAddress())){
+                            candidates.add(new ConnectCandidate(peer.getAddress(), peer.isSecure()));
+                        }
+                    }
+                    if(!candidates.isEmpty() && sessionRegistry.isEmpty()){
+                        connect(candidates.toArray(new ConnectCandidate[candidates.size()]), DEFAULT_CONNECT_STAGGER_MILLIS);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return 已知设备的连接参数缓存
+     */
+    public PeerCache getPeerCache() {
+        return peerCache;
+    }
+
+    private void loadPeerCache(){
+        synchronized (peerCache) {
+            if(peerCacheLoaded || peerCacheFile == null){
+                return;
+            }
+            peerCacheLoaded = true;
+        }
+        try {
+            peerCache.load(peerCacheFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void savePeerCache(){
+        if(peerCacheFile == null){
+            return;
+        }
+        //多个连接可能同时成功，写文件需要排队
+        synchronized (peerCacheFile) {
+            try {
+                peerCache.save(peerCacheFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 并发地尝试多个候选目标，例如同一设备的不同连接方式，或者多个可以提供服务的设备
+     * 候选目标按顺序错开启动，某个尝试失败时立即启动下一个，第一个成功的连接胜出，其余的尝试被取消。
+     * 蓝牙的一次连接往往需要几秒，逐个尝试时连接耗时是所有失败尝试的总和，并发尝试时只取决于最快成功的那个
+     * @param candidates 候选目标，按偏好排序
+     * @param staggerMillis 相邻两个尝试启动的间隔(毫秒)，为0时同时启动
+     */
+    public void connect(ConnectCandidate[] candidates, long staggerMillis){
+        if(candidates.length == 0){
+            throw new IllegalArgumentException("至少需要一个候选目标");
+        }
+        if(staggerMillis < 0){
+            throw new IllegalArgumentException("非法的启动间隔：" + staggerMillis);
+        }
+        ConnectCandidate[] copy = candidates.clone();
+        synchronized (taskLock) {
+            cancelReconnect();
+            reconnectAttempts.set(0);
+            lastCandidates = copy;
+            lastStaggerMillis = staggerMillis;
+            reconnectArmed = true;
+        }
+        startConnect(copy, staggerMillis);
+    }
+
+    /**
+     * 启动连接任务
+     * @param candidates 候选目标
+     * @param staggerMillis 相邻两个尝试启动的间隔(毫秒)
+     */
+    private void startConnect(ConnectCandidate[] candidates, long staggerMillis){
+        synchronized (taskLock) {
+            //取消正在进行连接的任务
+            if(connectTask != null){
+                connectTask.cancel();
+                connectTask = null;
+            }
+            //取消正在进行通信的会话，多连接模式下保留已有的会话，状态也保持为已连接
+            if(!multiConnectionEnabled){
+                closeAllSessions();
+            }
+            if(!multiConnectionEnabled || !stateMachine.is(STATE_CONNECTED)){
+                //将状态设置为正在连接
+                stateMachine.transitionFrom(CONNECTABLE_STATES, STATE_CONNECTING);
+            }
+            //启动用于连接的任务
+            connectTask = new ConnectTask(candidates, staggerMillis);
+            connectTask.start();
+        }
+        showToast("正在连接");
+    }
+
+    /**
+     * 开启进行数据传输的会话，该方法会在接收连接时被调用，也会在作为客户端连接成功时被调用，
+     * 如果该设备作为客户端去连接服务端，那么该方法被调用，但是如果此时有其他设备来连接该设备且连接成功，那么该设备
+     * 又将会作为服务端调用此方法，这里就存在线程对资源的抢占了。
+     * 单连接模式下通过状态机的CAS转换决定谁能建立连接，失败的一方直接关闭自己的套接字，因此不会出现重复连接
+     * 多连接模式下不会取消已有的会话和服务端任务，每个连接都会得到一个新的会话
+     * @param socket 已建立的连接
+     * @return 是否建立了会话
+     */
+    public boolean setUpTransferDataThread(TransportSocket socket){
+        return openSession(socket) != null;
+    }
+
+    /**
+     * 为已建立的连接创建会话
+     * @param socket
+     * @return 新的会话，没有建立会话时返回null
+     */
+    private Session openSession(TransportSocket socket){
+        if(!multiConnectionEnabled){
+            if(stateMachine.transitionFrom(ACCEPTABLE_STATES, STATE_CONNECTED) < 0){
+                // Either not ready or already connected. Terminate new socket.
+                closeQuietly(socket);
+                return null;
+            }
+            synchronized (taskLock) {
+                //取消进行连接的任务，如果连接就是由它建立的，它已经把自己移除了
+                if(connectTask != null){
+                    connectTask.cancel();
+                    connectTask = null;
+                }
+                //取消服务端任务
+                if(secureAcceptTask != null){
+                    secureAcceptTask.cancel();
+                    secureAcceptTask = null;
+                }
+                if(insecureAcceptTask != null){
+                    insecureAcceptTask.cancel();
+                    insecureAcceptTask = null;
+                }
+            }
+        }
+        else if(!stateMachine.is(STATE_CONNECTED)
+                && stateMachine.transitionFrom(ACCEPTABLE_STATES, STATE_CONNECTED) < 0
+                && !stateMachine.is(STATE_CONNECTED)){
+            closeQuietly(socket);
+            return null;
+        }
+
+        Session session;
+        try {
+            session = new Session(sessionRegistry.nextId(), socket, new FrameEncoder(crcEnabled), receiveBufferPool,
+                    messageDispatcher, sessionCallback, ioExecutor, writeQueueCapacity, writeBatchSize, writeLingerMillis,
+                    channels, metrics);
+        } catch (IOException e) {
+            //得不到输入输出流，按照连接丢失处理
+            e.printStackTrace();
+            closeQuietly(socket);
+            if(sessionRegistry.isEmpty()){
+                onAllSessionsLost();
+            }
+            return null;
+        }
+        session.setCompression(compressionCodecs);
+        session.setFlowControl(receiveWindow);
+        session.setBackpressureListener(backpressureDispatcher);
+        long interval = heartbeatIntervalMillis;
+        if(interval > 0){
+            session.setHeartbeat(ioExecutor, interval, livenessTimeoutMillis);
+        }
+        sessionRegistry.add(session);
+        //在开始读取之前登记，暂停的大块数据传输会在该会话上续传
+        bulkTransferManager.onSessionOpened(session);
+        rpcManager.onSessionOpened(session);
+        storeAndForward.onSessionOpened(session);
+        publisher.onSessionOpened(session);
+        try {
+            session.start();
+        } catch (RejectedExecutionException e) {
+            //线程池已经关闭，放弃该连接
+            e.printStackTrace();
+            session.close();
+            sessionRegistry.remove(session);
+            bulkTransferManager.onSessionClosed(session);
+            rpcManager.onSessionClosed(session);
+            storeAndForward.onSessionClosed(session);
+            publisher.onSessionClosed(session);
+            if(sessionRegistry.isEmpty()){
+                onAllSessionsLost();
+            }
+            return null;
+        }
+
+        SessionListener listener = sessionListener;
+        if(listener != null){
+            listener.onSessionOpened(session);
+        }
+        return session;
+    }
+
+    /**
+     * 当活动被摧毁时取消所有任务
+     */
+    public void cancelConnect(){
+        //取消连接时，取消相关任务，状态还原
+        showToast("取消连接");
+        synchronized (taskLock) {
+            reconnectArmed = false;
+            cancelReconnect();
+            if (connectTask != null) {
+                connectTask.cancel();
+                connectTask = null;
+            }
+
+            closeAllSessions();
+
+            if (secureAcceptTask != null) {
+                secureAcceptTask.cancel();
+                secureAcceptTask = null;
+            }
+
+            if (insecureAcceptTask != null) {
+                insecureAcceptTask.cancel();
+                insecureAcceptTask = null;
+            }
+            stateMachine.reset();
+        }
+    }
+
+    /**
+     * 取消所有任务并关闭线程池，之后该对象不能再使用
+     */
+    public void shutdown(){
+        cancelConnect();
+        bulkTransferManager.shutdown();
+        rpcManager.shutdown();
+        storeAndForward.shutdown();
+        publisher.shutdown();
+        messageHub.complete();
+        timerWheel.stop();
+        if(ownsExecutor){
+            ioExecutor.shutdown();
+        }
+    }
+
+    /**
+     * 显示提示信息，Toast必须在主线程中创建，没有上下文时(例如在普通JVM上运行)不做任何事情
+     * @param text
+     */
+    private void showToast(final String text){
+        if(context == null){
+            return;
+        }
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(context, text, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /**
+     * 连接失败
+     * @param task 失败的连接任务
+     */
+    private void connectionFailed(ConnectTask task){
+        synchronized (taskLock) {
+            //已经有新的连接任务替代了它
+            if(connectTask != task){
+                return;
+            }
+            connectTask = null;
+        }
+        //当连接失败时重启服务端，状态归零
+        stateMachine.transition(STATE_CONNECTING, STATE_NONE);
+        this.setUpServerSocket();
+        scheduleReconnect();
+    }
+
+    /**
+     * 连接丢失
+     * @param session 丢失连接的会话
+     */
+    private void connectionLost(Session session){
+        if(!sessionRegistry.remove(session)){
+            return;
+        }
+        notifySessionClosed(session);
+        //多连接模式下只需要在没有任何会话时还原状态
+        if(sessionRegistry.isEmpty()){
+            onAllSessionsLost();
+        }
+        //主动建立的连接丢失后自动重连
+        if(session.getId() == outgoingSessionId){
+            scheduleReconnect();
+        }
+    }
+
+    /**
+     * 按照重连策略安排下一次重连，连续失败次数达到上限时熔断，只保持监听
+     */
+    private void scheduleReconnect(){
+        ReconnectPolicy policy = reconnectPolicy;
+        if(policy == null || !reconnectArmed || lastCandidates == null){
+            return;
+        }
+        int attempt = reconnectAttempts.getAndIncrement();
+        if(attempt >= policy.getMaxAttempts()){
+            reconnectArmed = false;
+            reconnectAttempts.set(0);
+            return;
+        }
+        long delay = policy.delayMillis(attempt, random);
+        synchronized (taskLock) {
+            cancelReconnect();
+            try {
+                reconnectFuture = ioExecutor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        reconnect();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                //线程池已经关闭
+                reconnectArmed = false;
+            }
+        }
+    }
+
+    /**
+     * 执行一次重连，如果期间已经通过其他方式连接上了就不再打扰现有的连接
+     */
+    private void reconnect(){
+        ConnectCandidate[] candidates = lastCandidates;
+        if(!reconnectArmed || candidates == null){
+            return;
+        }
+        if(multiConnectionEnabled ? isConnectedToAny(candidates) : stateMachine.is(STATE_CONNECTED)){
+            reconnectAttempts.set(0);
+            return;
+        }
+        metrics.onReconnect();
+        startConnect(candidates, lastStaggerMillis);
+    }
+
+    private boolean isConnectedToAny(ConnectCandidate[] candidates){
+        for(Session session : sessionRegistry.getAll()){
+            for(ConnectCandidate candidate : candidates){
+                if(candidate.getAddress().equals(session.getRemoteAddress())){
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 取消等待执行的重连任务，调用时需要持有taskLock
+     */
+    private void cancelReconnect(){
+        if(reconnectFuture != null){
+            reconnectFuture.cancel(false);
+            reconnectFuture = null;
+        }
+    }
+
+    /**
+     * 设置自动重连策略，为null时关闭自动重连
+     * @param reconnectPolicy
+     */
+    public void setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+        this.reconnectPolicy = reconnectPolicy;
+    }
+
+    /**
+     * @return 当前连续重连的次数
+     */
+    public int getReconnectAttempts() {
+        return reconnectAttempts.get();
+    }
+
+    /**
+     * 最后一个会话断开后，经过连接丢失状态，重启服务端
+     */
+    private void onAllSessionsLost(){
+        stateMachine.transition(STATE_CONNECTED, STATE_LOST);
+        this.setUpServerSocket();
+    }
+
+    private static void closeQuietly(TransportSocket socket){
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 关闭所有会话
+     */
+    private void closeAllSessions(){
+        for(Session session : sessionRegistry.removeAll()){
+            session.close();
+            notifySessionClosed(session);
+        }
+    }
+
+    private void notifySessionClosed(Session session){
+        bulkTransferManager.onSessionClosed(session);
+        rpcManager.onSessionClosed(session);
+        storeAndForward.onSessionClosed(session);
+        publisher.onSessionClosed(session);
+        SessionListener listener = sessionListener;
+        if(listener != null){
+            listener.onSessionClosed(session);
+        }
+    }
+
+    /**
+     * @return 当前的连接状态
+     */
+    public int getConnectState() {
+        return stateMachine.getState();
+    }
+
+    /**
+     * 添加连接状态转换的监听器
+     * @param listener
+     */
+    public void addStateListener(ConnectionStateMachine.Listener listener) {
+        stateMachine.addListener(listener);
+    }
+
+    public void removeStateListener(ConnectionStateMachine.Listener listener) {
+        stateMachine.removeListener(listener);
+    }
+
+    /**
+     * 开启或关闭多连接模式，应该在建立服务端之前设置
+     * 多连接模式下建立连接后服务端继续接受其他设备的连接，每个设备对应一个独立的会话
+     * @param multiConnectionEnabled
+     */
+    public void setMultiConnectionEnabled(boolean multiConnectionEnabled) {
+        this.multiConnectionEnabled = multiConnectionEnabled;
+    }
+
+    /**
+     * 设置会话建立和断开的监听器
+     * @param sessionListener
+     */
+    public void setSessionListener(SessionListener sessionListener) {
+        this.sessionListener = sessionListener;
+    }
+
+    /**
+     * @param sessionId
+     * @return 指定ID的会话，不存在时返回null
+     */
+    public Session getSession(int sessionId) {
+        return sessionRegistry.get(sessionId);
+    }
+
+    /**
+     * @return 当前所有会话的只读视图
+     */
+    public Collection<Session> getSessions() {
+        return Collections.unmodifiableCollection(sessionRegistry.getAll());
+    }
+
+    /**
+     * 断开指定的会话
+     * @param sessionId
+     */
+    public void disconnect(int sessionId) {
+        Session session = sessionRegistry.get(sessionId);
+        if(session == null){
+            return;
+        }
+        //主动断开的连接不需要自动重连
+        if(sessionId == outgoingSessionId){
+            outgoingSessionId = -1;
+        }
+        session.close();
+        connectionLost(session);
+    }
+
+    /**
+     * 设置发送的数据帧是否附加CRC校验码，接收端会根据帧的标志位自动校验，因此两端不需要保持一致
+     * 该设置在下一次建立数据传输时生效
+     * @param crcEnabled
+     */
+    public void setCrcEnabled(boolean crcEnabled) {
+        this.crcEnabled = crcEnabled;
+    }
+
+    /**
+     * 设置发送队列的参数，在下一次建立数据传输时生效
+     * @param queueCapacity 队列容量(帧数)，队列满时write会返回false
+     * @param batchSize 批量写入大小(字节)，合并的数据达到该大小时立即写出
+     * @param lingerMillis 最长等待合并时间(毫秒)，为0时队列一空就写出
+     */
+    public void setWriteOptions(int queueCapacity, int batchSize, long lingerMillis) {
+        this.writeQueueCapacity = queueCapacity;
+        this.writeBatchSize = batchSize;
+        this.writeLingerMillis = lingerMillis;
+    }
 
-/**
- *
- * @author NewBies
- * @date 2018/1/7
- */
-public class BluetoothConnectUtil {
+    /**
+     * @return 运行指标，可以用来清零或者记录往返延迟
+     */
+    public LinkMetrics getMetrics() {
+        return metrics;
+    }
 
     /**
-     * 初始状态
+     * 生成当前运行指标的快照，包括会话数和发送队列深度，可以在任意线程中定时调用
+     * @return
      */
-    public static final int STATE_NONE = 0;
+    public MetricsSnapshot getMetricsSnapshot() {
+        int sessions = 0;
+        int queueDepth = 0;
+        for(Session session : sessionRegistry.getAll()){
+            sessions++;
+            queueDepth += session.getQueueSize();
+        }
+        return metrics.snapshot(sessions, queueDepth);
+    }
+
     /**
-     * 准备连接状态，针对于该设备为服务端
+     * 设置逻辑通道的优先级和权重，在下一次建立数据传输时生效
+     * 普通信息在{@link Channel#CONTROL}上发送，大块数据传输在{@link Channel#BULK}上发送
+     * @param channels 通道配置，未配置的通道号使用优先级最低的通道
      */
-    public static final int STATE_READY_TO_CONNECT = 1;
+    public void setChannels(Channel... channels) {
+        int ids = 0;
+        for(Channel channel : channels){
+            if((ids & (1 << channel.getId())) != 0){
+                throw new IllegalArgumentException("重复的通道号：" + channel.getId());
+            }
+            ids |= 1 << channel.getId();
+        }
+        if(ids == 0){
+            throw new IllegalArgumentException("至少需要一个通道");
+        }
+        this.channels = channels.clone();
+    }
+
     /**
-     * 正在连接状态
+     * 设置心跳，在下一次建立数据传输时生效
+     * 超过存活期限没有收到对方的任何数据时主动断开，设置了重连策略时随后自动重连，
+     * 不需要等待蓝牙底层发现连接断开，那往往需要很长时间。心跳的往返时间记录在运行指标中
+     * @param intervalMillis 心跳间隔(毫秒)，为0时关闭心跳
+     * @param timeoutMillis 存活期限(毫秒)，不能小于心跳间隔，通常为间隔的3倍
      */
-    public static final int STATE_CONNECTING = 2;
+    public void setHeartbeat(long intervalMillis, long timeoutMillis) {
+        if(intervalMillis < 0 || (intervalMillis > 0 && timeoutMillis < intervalMillis)){
+            throw new IllegalArgumentException("非法的心跳参数");
+        }
+        this.heartbeatIntervalMillis = intervalMillis;
+        this.livenessTimeoutMillis = timeoutMillis;
+    }
+
     /**
-     * 已连接状态
+     * 设置流量控制，在下一次建立数据传输时生效
+     * 对方最多发送receiveWindow条尚未被释放的信息，本端释放消息后才归还额度，
+     * 接收端处理不过来时发送端会自动放慢，而不是让数据堆积在接收端直到卡顿或者丢失
+     * @param receiveWindow 接收窗口(信息条数)，为0时不限制对方
      */
-    public static final int STATE_CONNECTED = 3;
+    public void setFlowControl(int receiveWindow) {
+        if(receiveWindow < 0){
+            throw new IllegalArgumentException("非法的接收窗口：" + receiveWindow);
+        }
+        this.receiveWindow = receiveWindow;
+    }
+
     /**
-     * 蓝牙连接状态变量
+     * 设置反压的回调，{@link #trySend(int, String)}返回{@link Session#SEND_REJECTED}之后，
+     * 该会话又可以发送时通知一次
+     * @param backpressureListener
      */
-    private int connectState;
+    public void setBackpressureListener(BackpressureListener backpressureListener) {
+        this.backpressureListener = backpressureListener;
+    }
+
     /**
-     * 上下文对象
+     * 开启负载压缩，在下一次建立数据传输时生效
+     * 连接建立后双方交换各自能解压的算法，使用对方也支持的第一个算法，没有共同的算法时不压缩
+     * 文本、JSON之类的数据压缩效果明显，已经压缩过的数据会被自动识别并跳过
+     * @param codecIds 算法编号，见{@link Codecs}，按偏好排序，不传表示关闭压缩
      */
-    private Context context;
+    public void setCompression(int... codecIds) {
+        for(int codecId : codecIds){
+            if(!Codecs.isSupported(codecId)){
+                throw new IllegalArgumentException("不支持的压缩算法：" + codecId);
+            }
+        }
+        this.compressionCodecs = codecIds.clone();
+    }
+
     /**
-     * 蓝牙适配器实例
+     * 所有会话收到的消息组成的流，可以同时有多个订阅，与{@link #setMessageListener(MessageListener)}互不影响
+     * 订阅者在自己的线程池中处理消息，不会阻塞读线程，例如：
+     * messages().filter(MessageFilters.channel(Channel.TELEMETRY)).batch(32, 100).subscribe(subscriber, executor)
+     * 订阅者收到的每条消息同样必须释放，处理不过来时对方会因为没有接收额度而放慢发送
+     * @return
      */
-    private BluetoothAdapter bluetoothAdapter;
+    public MessageStream<ReceivedMessage> messages() {
+        return messageHub;
+    }
+
     /**
-     * 此应用程序唯一的UUID
+     * 设置接收消息的监听器，收到的每条消息使用完毕后必须释放
+     * @param messageListener
      */
-    private static final UUID MY_UUID_SECURE = UUID.fromString("aa87c0d0-afac-11de-8a39-0800200c9a66");
-    private static final UUID MY_UUID_INSECURE = UUID.fromString("ace255c0-200a-11e0-ac64-0800200c9a66");
+    public void setMessageListener(MessageListener messageListener) {
+        this.messageListener = messageListener;
+    }
+
     /**
-     * 需要配对连接的服务器线程
+     * 设置接收缓冲区池的参数，在下一次建立数据传输时生效
+     * @param direct 是否使用直接内存
+     * @param bufferSize 每个缓冲区的大小
+     * @param maxPooled 最多缓存的缓冲区个数
      */
-    private AcceptThread secureAcceptThread;
+    public void setReceiveBufferOptions(boolean direct, int bufferSize, int maxPooled) {
+        this.receiveBufferPool = new ReceiveBufferPool(direct, bufferSize, maxPooled);
+    }
+
     /**
-     * 不需要配对连接的服务器线程
+     * 发送信息，每条信息会被封装为一个独立的数据帧，接收端能够按照原样还原出每一条信息
+     * 该方法只是把数据放入发送队列，不会阻塞调用线程，可以在UI线程中调用
+     * 多连接模式下信息会发送给所有会话，等同于{@link #broadcast(String)}
+     * 开启存储转发后，未连接时信息写入日志，连接建立后按顺序发出；日志中还有积压时新的信息同样排在日志末尾
+     * @param message
+     * @return 未连接或者发送队列已满时返回false，调用者可以稍后重试或者丢弃该信息
      */
-    private AcceptThread insecureAcceptThread;
+    public boolean write(String message) {
+        if(storeAndForward.isEnabled()){
+            int result = storeAndForward.offer(message.getBytes(), stateMachine.is(STATE_CONNECTED));
+            if(result != StoreAndForward.OFFER_BYPASSED){
+                return result == StoreAndForward.OFFER_STORED;
+            }
+        }
+        return broadcast(message) > 0;
+    }
+
     /**
-     * 客户端建立连接的线程
+     * 开启存储转发，未连接时{@link #write(String)}的信息写入内存映射的日志文件，
+     * 进程重启后仍然保留，连接建立后按顺序发给第一个可用的会话，对方确认后从日志中删除
+     * @param file 日志文件，为null时关闭存储转发
+     * @param capacity 新建日志文件的大小(字节)
+     * @param overflowPolicy 日志已满时的处理，见{@link MessageLog#OVERFLOW_DROP_OLDEST}和{@link MessageLog#OVERFLOW_REJECT}
+     * @throws IOException 无法打开日志文件
      */
-    private ConnectThread connectThread;
+    public void setStoreAndForward(File file, int capacity, int overflowPolicy) throws IOException {
+        storeAndForward.setLog(file == null ? null : MessageLog.open(file, capacity, overflowPolicy));
+    }
+
     /**
-     * 进行数据传输的线程
+     * @return 存储转发日志中尚未被对方确认的信息条数
      */
-    private DataTransmissionThread dataTransmissionThread;
+    public int getStoredMessageCount() {
+        return storeAndForward.getPendingCount();
+    }
 
-    public BluetoothConnectUtil(Context context, BluetoothAdapter bluetoothAdapter){
-        this.context = context;
-        this.bluetoothAdapter = bluetoothAdapter;
+    /**
+     * 向指定的会话发送信息
+     * @param sessionId 会话ID
+     * @param message
+     * @return 会话不存在或者发送队列已满时返回false
+     */
+    public boolean write(int sessionId, String message) {
+        Session session = sessionRegistry.get(sessionId);
+        return session != null && session.write(message.getBytes());
     }
 
     /**
-     * 建立服务端，该方法应该为同步方法，因为该方法在建立连接线程中连接失败时会被调用，在传输数据线程中连接丢失时也会被访问，在UI线程中第一次建立连接也会被访问
+     * 在指定的逻辑通道上向指定的会话发送信息
+     * @param sessionId 会话ID
+     * @param channel 通道号，见{@link Channel}
+     * @param message
+     * @return 会话不存在或者该通道的发送队列已满时返回false
+     * @throws IllegalArgumentException 通道号超出0到{@link Frame#MAX_CHANNEL}的范围
      */
-    public synchronized void setUpServerSocket(){
-        if(connectThread != null){
-            connectThread.cancel();
-            connectThread = null;
-        }
+    public boolean write(int sessionId, int channel, String message) {
+        //先创建帧，会话不存在时同样检查通道号
+        OutboundFrame frame = new OutboundFrame(Frame.TYPE_DATA, channel, ByteBuffer.wrap(message.getBytes()));
+        Session session = sessionRegistry.get(sessionId);
+        return session != null && session.write(frame);
+    }
 
-        if(dataTransmissionThread != null){
-            dataTransmissionThread.cancel();
-            dataTransmissionThread = null;
-        }
+    /**
+     * 向指定的会话发送信息，不会阻塞，并报告反压的情况
+     * @param sessionId 会话ID
+     * @param message
+     * @return 见{@link #trySend(int, int, byte[])}
+     */
+    public int trySend(int sessionId, String message) {
+        return trySend(sessionId, Channel.CONTROL, message.getBytes());
+    }
 
-        if(secureAcceptThread == null){
-            secureAcceptThread = new AcceptThread(true);
-            secureAcceptThread.start();
-        }
-        if(insecureAcceptThread == null){
-            insecureAcceptThread = new AcceptThread(false);
-            insecureAcceptThread.start();
+    /**
+     * 在指定的逻辑通道上向指定的会话发送数据，不会阻塞，并报告反压的情况
+     * 对方的接收额度用完时数据暂存在本地，额度恢复后按顺序发出；暂存也满时拒绝，
+     * 调用者应该暂停发送，等待{@link BackpressureListener#onWritable(Session)}后再继续
+     * @param sessionId 会话ID
+     * @param channel 通道号，见{@link Channel}
+     * @param payload
+     * @return {@link Session#SEND_ACCEPTED}、{@link Session#SEND_BUFFERED}、{@link Session#SEND_REJECTED}，
+     * 会话不存在时返回{@link Session#SEND_CLOSED}
+     */
+    public int trySend(int sessionId, int channel, byte[] payload) {
+        Session session = sessionRegistry.get(sessionId);
+        if(session == null){
+            return Session.SEND_CLOSED;
         }
+        return session.send(new OutboundFrame(Frame.TYPE_DATA, channel, ByteBuffer.wrap(payload)));
+    }
 
+    /**
+     * 注册一种二进制消息类型，双方需要用相同的编号注册
+     * 消息由编解码器直接写入帧的负载、直接从接收缓冲区读出，比拼接和解析文本紧凑得多
+     * @param typeId 类型编号，越小编码越短
+     * @param type 消息的类
+     * @param codec
+     */
+    public <T> void registerMessageType(int typeId, Class<T> type, MessageCodec<T> codec) {
+        messageRegistry.register(typeId, type, codec);
     }
 
     /**
-     * 建立连接，这里也应该为同步方法，该方法是在点击事件中执行，点击事件应该是异步的，也就是说，多次点击，则会多次对该方法调用
+     * 设置某一类型消息的处理器，处理器在读线程中执行
+     * 没有处理器的类型化消息按原样交给消息监听器和消息流，帧类型为{@link Frame#TYPE_TYPED}
+     * @param type 已注册的类
+     * @param handler
      */
-    public synchronized void connect(BluetoothDevice device, boolean secure){
-        //取消正在进行连接的线程
-        if(connectState == STATE_CONNECTING){
-            if(connectThread != null){
-                connectThread.cancel();
-                connectThread = null;
-            }
+    public <T> void setMessageHandler(Class<T> type, TypedMessageHandler<? super T> handler) {
+        messageRegistry.setHandler(type, handler);
+    }
+
+    /**
+     * 向指定的会话发送一条已注册类型的消息，不会阻塞，受流量控制
+     * @param sessionId 会话ID
+     * @param message
+     * @return 见{@link #trySend(int, int, byte[])}
+     */
+    public int send(int sessionId, Object message) {
+        return send(sessionId, Channel.CONTROL, message);
+    }
+
+    /**
+     * 在指定的逻辑通道上向指定的会话发送一条已注册类型的消息
+     * @param sessionId 会话ID
+     * @param channel 通道号，见{@link Channel}
+     * @param message
+     * @return 见{@link #trySend(int, int, byte[])}
+     */
+    public int send(int sessionId, int channel, Object message) {
+        Session session = sessionRegistry.get(sessionId);
+        if(session == null){
+            return Session.SEND_CLOSED;
         }
-        //取消正在进行通信的线程
-       if(connectState == STATE_CONNECTED){
-            if(dataTransmissionThread != null){
-                dataTransmissionThread.cancel();
-                dataTransmissionThread = null;
-            }
-       }
-       //启动用于连接的线程
-       connectThread = new ConnectThread(device, secure);
-       connectThread.start();
-       Toast.makeText(context, "正在连接", Toast.LENGTH_SHORT).show();
+        return session.send(new OutboundFrame(Frame.TYPE_TYPED, channel, messageRegistry.encode(message)));
     }
 
     /**
-     * 开启进行数据传输的线程，该方法应该为同步方法，因为该方法会在服务器建立时会调用。同时在接收连接时也会被调用，
-     * 如果该设备作为客户端去连接服务端，那么该方法被调用，但是如果此时有其他设备来连接该设备且连接成功，那么该设备
-     * 又将会作为服务端调用此方法，这里就存在线程对资源的抢占了
+     * 按键合并发送，适合传感器读数之类很快就会过时的数据
+     * 同一个键的上一条数据还没有发出时被新数据原地替换，链路拥塞时对方只会收到每个键的最新值，
+     * 等待发送的数据不会越积越多，过时的数据也不会再占用带宽
+     * @param sessionId 会话ID
+     * @param channel 通道号，见{@link Channel}
+     * @param key 合并的键，例如传感器编号，需要正确实现equals和hashCode
+     * @param payload
+     * @return 见{@link Session#sendLatest(Object, OutboundFrame)}，会话不存在时返回{@link Session#SEND_CLOSED}
      */
-    public synchronized void setUpTransferDataThread(BluetoothSocket socket){
-        //取消进行连接的线程
-        if(connectThread != null){
-            connectThread.cancel();
-            connectThread = null;
+    public int sendLatest(int sessionId, int channel, Object key, byte[] payload) {
+        Session session = sessionRegistry.get(sessionId);
+        if(session == null){
+            return Session.SEND_CLOSED;
         }
-        //取消进行数据传输的线程
-        if(dataTransmissionThread != null){
-            dataTransmissionThread.cancel();
-            dataTransmissionThread = null;
+        return session.sendLatest(key, new OutboundFrame(Frame.TYPE_DATA, channel, ByteBuffer.wrap(payload)));
+    }
+
+    /**
+     * 按键合并发送一条已注册类型的消息，见{@link #sendLatest(int, int, Object, byte[])}
+     * @param sessionId 会话ID
+     * @param channel 通道号，见{@link Channel}
+     * @param key 合并的键
+     * @param message
+     * @return 见{@link Session#sendLatest(Object, OutboundFrame)}，会话不存在时返回{@link Session#SEND_CLOSED}
+     */
+    public int sendLatest(int sessionId, int channel, Object key, Object message) {
+        Session session = sessionRegistry.get(sessionId);
+        if(session == null){
+            return Session.SEND_CLOSED;
         }
-        //取消服务端线程
-        if(secureAcceptThread != null){
-            secureAcceptThread.cancel();
-            secureAcceptThread = null;
+        return session.sendLatest(key, new OutboundFrame(Frame.TYPE_TYPED, channel, messageRegistry.encode(message)));
+    }
+
+    /**
+     * 向所有会话发送信息，信息只编码一次
+     * @param message
+     * @return 成功放入发送队列的会话数
+     */
+    public int broadcast(String message) {
+        if (!stateMachine.is(STATE_CONNECTED)) {
+            return 0;
         }
-        if(insecureAcceptThread != null){
-            insecureAcceptThread.cancel();
-            insecureAcceptThread = null;
+        byte[] out = message.getBytes();
+        int count = 0;
+        for(Session session : sessionRegistry.getAll()){
+            if(session.write(out)){
+                count++;
+            }
         }
-
-        dataTransmissionThread = new DataTransmissionThread(socket);
-        dataTransmissionThread.start();
+        return count;
     }
 
     /**
-     * 当活动被摧毁时取消所有线程
+     * 向指定的一组会话发送信息，信息只编码一次
+     * @param sessionIds
+     * @param message
+     * @return 成功放入发送队列的会话数
      */
-    public void cancelConnect(){
-        //取消连接时，取消相关线程，状态还原
-        Toast.makeText(context, "取消连接", Toast.LENGTH_SHORT).show();
-        if (connectThread != null) {
-            connectThread.cancel();
-            connectThread = null;
+    public int write(int[] sessionIds, String message) {
+        byte[] out = message.getBytes();
+        int count = 0;
+        for(int sessionId : sessionIds){
+            Session session = sessionRegistry.get(sessionId);
+            if(session != null && session.write(out)){
+                count++;
+            }
         }
+        return count;
+    }
 
-        if (dataTransmissionThread != null) {
-            dataTransmissionThread.cancel();
-            dataTransmissionThread = null;
-        }
+    /**
+     * 向所有会话发布数据，数据只编码一次，所有会话共享同一块只读的负载
+     * 某个会话处理不过来时按照它的慢消费者策略处理，不会影响其他会话，见{@link #setSlowConsumerPolicy(int)}
+     * @param channel 通道号，见{@link Channel}
+     * @param payload 发布后不能再修改
+     * @return 放入发送队列或者等待补发的会话数
+     */
+    public int publish(int channel, byte[] payload) {
+        return publisher.publish(Frame.TYPE_DATA, channel, ByteBuffer.wrap(payload));
+    }
+
+    /**
+     * 向所有会话发布一条已注册类型的消息，消息只编码一次
+     * @param channel 通道号，见{@link Channel}
+     * @param message
+     * @return 放入发送队列或者等待补发的会话数
+     */
+    public int publish(int channel, Object message) {
+        return publisher.publish(Frame.TYPE_TYPED, channel, messageRegistry.encode(message));
+    }
+
+    /**
+     * 向指定的一组会话发布一条已注册类型的消息，消息只编码一次
+     * @param sessionIds
+     * @param channel 通道号，见{@link Channel}
+     * @param message
+     * @return 放入发送队列或者等待补发的会话数
+     */
+    public int publish(int[] sessionIds, int channel, Object message) {
+        return publisher.publish(sessionIds, Frame.TYPE_TYPED, channel, messageRegistry.encode(message));
+    }
+
+    /**
+     * 设置之后建立的会话在发布时使用的慢消费者策略，默认为{@link Publisher#SLOW_CONSUMER_DROP}
+     * @param policy 见{@link Publisher#SLOW_CONSUMER_DROP}、{@link Publisher#SLOW_CONSUMER_CONFLATE}、
+     * {@link Publisher#SLOW_CONSUMER_DISCONNECT}
+     */
+    public void setSlowConsumerPolicy(int policy) {
+        publisher.setDefaultPolicy(policy);
+    }
+
+    /**
+     * 设置指定会话在发布时使用的慢消费者策略
+     * @param sessionId 会话ID
+     * @param policy 见{@link #setSlowConsumerPolicy(int)}
+     * @return 会话不存在时返回false
+     */
+    public boolean setSlowConsumerPolicy(int sessionId, int policy) {
+        return publisher.setPolicy(sessionId, policy);
+    }
+
+    /**
+     * @return 发布时因为会话处理不过来而丢弃的消息条数
+     */
+    public long getPublishDroppedCount() {
+        return publisher.getDroppedCount();
+    }
+
+    /**
+     * 设置大块数据传输的监听器，对方请求发送数据时由它决定是否接受以及写入哪里
+     * @param listener
+     */
+    public void setBulkTransferListener(BulkTransferListener listener) {
+        bulkTransferManager.setListener(listener);
+    }
 
-        if (secureAcceptThread != null) {
-            secureAcceptThread.cancel();
-            secureAcceptThread = null;
+    /**
+     * 向指定的会话发送文件，文件通过内存映射分块读取，不会一次性读入内存
+     * 连接断开后传输暂停，与同一设备重新连接后自动从对方最后确认的位置续传
+     * @param sessionId 会话ID
+     * @param file
+     * @return 传输对象，可以查询进度或者取消，会话不存在时返回null
+     * @throws IOException 无法打开文件
+     */
+    public BulkTransfer sendFile(int sessionId, File file) throws IOException {
+        Session session = sessionRegistry.get(sessionId);
+        if(session == null){
+            return null;
         }
+        return bulkTransferManager.send(session, file.getName(), new MappedFileSource(file));
+    }
 
-        if (insecureAcceptThread != null) {
-            insecureAcceptThread.cancel();
-            insecureAcceptThread = null;
+    /**
+     * 向指定的会话发送大块数据
+     * @param sessionId 会话ID
+     * @param name 数据的名称
+     * @param source 数据来源，传输结束时关闭，例如{@link com.example.newbies.bluetoothtest.util.bulk.InputStreamSource}
+     * @return 传输对象，会话不存在时返回null
+     */
+    public BulkTransfer send(int sessionId, String name, BulkSource source) {
+        Session session = sessionRegistry.get(sessionId);
+        if(session == null){
+            return null;
         }
-        connectState = STATE_NONE;
+        return bulkTransferManager.send(session, name, source);
     }
 
     /**
-     * 连接失败
+     * @return 所有未结束的大块数据传输
      */
-    private void connectionFailed(){
-        //当连接失败时重启服务端，状态归零
-        this.connectState = STATE_NONE;
-        this.setUpServerSocket();
+    public Collection<BulkTransfer> getBulkTransfers() {
+        return bulkTransferManager.getTransfers();
     }
 
     /**
-     * 连接丢失
+     * 注册RPC方法的处理器，对方可以通过{@link #call(int, String, byte[])}调用
+     * @param method 方法名
+     * @param handler
      */
-    private void connectionLost(){
-        //当连接丢失时重启服务端，状态归零
-        this.connectState = STATE_NONE;
-        this.setUpServerSocket();
+    public void registerRpcHandler(String method, RpcHandler handler) {
+        rpcManager.register(method, handler);
+    }
+
+    public void unregisterRpcHandler(String method) {
+        rpcManager.unregister(method);
     }
 
     /**
-     * 发送信息
-     * @param message
+     * 使用默认的超时时间发起RPC调用
+     * @param sessionId 会话ID
+     * @param method 方法名
+     * @param params 参数
+     * @return 调用对象，会话不存在时返回null
      */
-    public void write(String message) {
-        byte[] out = message.getBytes();
+    public RpcCall call(int sessionId, String method, byte[] params) {
+        return call(sessionId, method, params, RpcManager.DEFAULT_TIMEOUT_MILLIS);
+    }
 
-        if (connectState != STATE_CONNECTED) {
-            return;
+    /**
+     * 发起RPC调用，不会阻塞，不需要等待上一个调用返回就可以发起下一个
+     * 可以通过{@link RpcCall#get()}等待结果，也可以添加回调
+     * @param sessionId 会话ID
+     * @param method 方法名
+     * @param params 参数
+     * @param timeoutMillis 超时时间(毫秒)
+     * @return 调用对象，会话不存在时返回null
+     */
+    public RpcCall call(int sessionId, String method, byte[] params, long timeoutMillis) {
+        Session session = sessionRegistry.get(sessionId);
+        if(session == null){
+            return null;
         }
-
-        dataTransmissionThread.write(out);
+        return rpcManager.call(session, method, params, timeoutMillis);
     }
 
-    private class AcceptThread extends Thread {
-        private final BluetoothServerSocket serverSocket;
+    /**
+     * 服务端任务，阻塞等待客户端的连接
+     */
+    private class AcceptTask implements Runnable {
+        private final TransportServerSocket serverSocket;
+        /**
+         * 任务可能在开始执行之前就被取消，此时不应该再进入accept
+         */
+        private volatile boolean cancelled;
 
-        public AcceptThread(boolean secure) {
-            BluetoothServerSocket tempServerSocket = null;
+        public AcceptTask(boolean secure) {
+            TransportServerSocket tempServerSocket = null;
             try {
-                if(secure){
-                    tempServerSocket = bluetoothAdapter.listenUsingRfcommWithServiceRecord("蓝牙连接测试1",MY_UUID_SECURE);
-                }
-                else {
-                    tempServerSocket = bluetoothAdapter.listenUsingInsecureRfcommWithServiceRecord("蓝牙连接测试2",MY_UUID_INSECURE);
-                }
-
-            } catch (IOException e) { }
+                tempServerSocket = transport.listen(secure);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
             serverSocket = tempServerSocket;
-            connectState = STATE_READY_TO_CONNECT;
+        }
+
+        /**
+         * @return 是否成功建立了监听
+         */
+        public boolean isListening() {
+            return serverSocket != null && !cancelled;
+        }
+
+        /**
+         * 在单独的线程中等待连接
+         */
+        public void start() {
+            try {
+                ioExecutor.executeBlocking(this);
+            } catch (RejectedExecutionException e) {
+                e.printStackTrace();
+                cancel();
+            }
         }
 
         @Override
         public void run() {
-            BluetoothSocket socket = null;
+            //监听失败，例如蓝牙未开启
+            if(serverSocket == null){
+                return;
+            }
+            TransportSocket socket = null;
             // 继续监听，直到发生异常或超时
             //只有当该设备为服务端时才能接受连接请求，比如说，该设备正在连接其他设备时，这是该设备就作为客户端，那么这个时候它就不能接受来自其他客户端的连接
-            while (connectState != STATE_CONNECTED) {
+            while (!cancelled && (multiConnectionEnabled || !stateMachine.is(STATE_CONNECTED))) {
                 try {
                     socket = serverSocket.accept();
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    if(!cancelled){
+                        e.printStackTrace();
+                    }
                     break;
                 }
                 //如果连接被建立
                 if (socket != null) {
-                    synchronized (this) {
-                        switch (connectState) {
-                            case STATE_READY_TO_CONNECT:
-                            case STATE_CONNECTING:
-                                //开启数据通信线程
-                                setUpTransferDataThread(socket);
-                                break;
-                            case STATE_NONE:
-                            case STATE_CONNECTED:
-                                // Either not ready or already connected. Terminate new socket.
-                                try {
-                                    socket.close();
-                                } catch (IOException e) {
-                                    e.printStackTrace();
-                                }
-                                break;
-                            default:
-                                break;
-                        }
+                    //开启数据通信，是否接受由状态机决定
+                    setUpTransferDataThread(socket);
+                    //多连接模式下继续监听
+                    if (multiConnectionEnabled) {
+                        continue;
                     }
 
                     try {
                         //释放服务器套接字及其所有资源
                         serverSocket.close();
                     } catch (IOException e) {
-                        Toast.makeText(context, "服务器连接出错", Toast.LENGTH_SHORT).show();
+                        showToast("服务器连接出错");
                         e.printStackTrace();
                     }
                 }
@@ -278,9 +1509,13 @@ public class BluetoothConnectUtil {
         }
 
         /**
-         * 将取消侦听套接字，并导致线程完成
+         * 将取消侦听套接字，并导致任务完成
          */
         public void cancel() {
+            cancelled = true;
+            if(serverSocket == null){
+                return;
+            }
             try {
                 serverSocket.close();
             } catch (IOException e) {
@@ -290,131 +1525,231 @@ public class BluetoothConnectUtil {
     }
 
     /**
-     * 此线程用于建立连接
+     * 此任务用于建立连接
+     * 有多个候选目标时按顺序错开启动，每隔staggerMillis启动下一个，某个尝试失败时立即启动下一个，
+     * 第一个连接成功的尝试胜出，其余的尝试被取消并关闭各自的套接字。所有尝试都失败才算连接失败
      */
-    private class ConnectThread extends Thread{
-        private final BluetoothSocket socket;
-        private final BluetoothDevice device;
+    private class ConnectTask {
+        private final ConnectCandidate[] candidates;
+        private final long staggerMillis;
+        private final Attempt[] attempts;
+        private final long startNanos = System.nanoTime();
+        private final Runnable launchNextTask = new Runnable() {
+            @Override
+            public void run() {
+                launchNext();
+            }
+        };
+        /**
+         * 以下字段由任务自身的锁保护
+         */
+        private int launched;
+        private int failed;
+        private Attempt winner;
+        private ScheduledFuture<?> staggerFuture;
+        private volatile boolean cancelled;
 
-        public ConnectThread(BluetoothDevice device, boolean secure) {
-            this.device = device;
-            BluetoothSocket tempSocket = null;
+        public ConnectTask(ConnectCandidate[] candidates, long staggerMillis) {
+            //上次连接成功的方式排在最前面
+            this.candidates = peerCache.order(candidates);
+            this.staggerMillis = staggerMillis;
+            this.attempts = new Attempt[candidates.length];
+        }
 
-            //通过给定的BluetoothDevice获取到用于连接的BluetoothSocket
-            try {
-                if (secure) {
-                    tempSocket = device.createRfcommSocketToServiceRecord(MY_UUID_SECURE);
-                } else {
-                    tempSocket = device.createInsecureRfcommSocketToServiceRecord(MY_UUID_INSECURE);
+        /**
+         * 启动第一个尝试，没有错开时间时同时启动所有尝试
+         */
+        public void start() {
+            metrics.onConnectStarted();
+            launchNext();
+        }
+
+        private void launchNext() {
+            while(true){
+                Attempt attempt;
+                synchronized (this) {
+                    if(cancelled || winner != null || launched >= attempts.length){
+                        return;
+                    }
+                    attempt = new Attempt(this, candidates[launched]);
+                    attempts[launched++] = attempt;
+                    if(staggerFuture != null){
+                        staggerFuture.cancel(false);
+                        staggerFuture = null;
+                    }
+                    if(launched < attempts.length && staggerMillis > 0){
+                        try {
+                            staggerFuture = ioExecutor.schedule(launchNextTask, staggerMillis, TimeUnit.MILLISECONDS);
+                        } catch (RejectedExecutionException e) {
+                            //线程池已经关闭，剩下的尝试会在失败时依次启动
+                        }
+                    }
+                }
+                try {
+                    //连接会阻塞到成功或者超时，使用单独的线程
+                    ioExecutor.executeBlocking(attempt);
+                } catch (RejectedExecutionException e) {
+                    e.printStackTrace();
+                    onAttemptFailed();
+                    return;
+                }
+                if(staggerMillis > 0){
+                    return;
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
             }
-            socket = tempSocket;
-            //将状态设置为正在连接
-            connectState = STATE_CONNECTING;
         }
 
-        @Override
-        public void run() {
-            //取消搜索
-            bluetoothAdapter.cancelDiscovery();
+        /**
+         * 一个尝试失败，立即启动下一个，所有尝试都失败时才算连接失败
+         */
+        private void onAttemptFailed() {
+            boolean allFailed;
+            synchronized (this) {
+                if(cancelled || winner != null){
+                    return;
+                }
+                failed++;
+                allFailed = failed == attempts.length;
+            }
+            if(allFailed){
+                metrics.onConnectFailed();
+                connectionFailed(this);
+            }
+            else{
+                launchNext();
+            }
+        }
 
-            //建立连接
-            try {
-                //这是一个阻塞调用，只会返回一个成功的连接或异常
-               System.out.println("点击一次"+ Thread.currentThread().getId() );
-                socket.connect();
-            } catch (IOException e) {
-                e.printStackTrace();
-                try {
-                    socket.close();
-                } catch (IOException e2) {
-                    e.printStackTrace();
+        /**
+         * 一个尝试连接成功，只有第一个成功的尝试被采用
+         * @param attempt
+         * @param socket 已连接的套接字
+         */
+        private void onAttemptConnected(Attempt attempt, TransportSocket socket) {
+            synchronized (this) {
+                if(cancelled || winner != null){
+                    closeQuietly(socket);
+                    return;
                 }
-                //建立连接失败
-                connectionFailed();
-                return;
+                winner = attempt;
             }
+            long connectNanos = System.nanoTime() - startNanos;
+            metrics.onConnected(connectNanos);
+            peerCache.onConnected(attempt.candidate, TimeUnit.NANOSECONDS.toMillis(connectNanos));
+            savePeerCache();
+            cancelOthers(attempt);
 
-            synchronized (this){
-                connectThread = null;
+            synchronized (taskLock){
+                //已经被新的连接任务替代或者被取消
+                if(connectTask != this){
+                    closeQuietly(socket);
+                    return;
+                }
+                connectTask = null;
             }
 
             //建立数据通信
-            setUpTransferDataThread(socket);
+            Session session = openSession(socket);
+            if(session != null){
+                outgoingSessionId = session.getId();
+                reconnectAttempts.set(0);
+            }
         }
 
-        public void cancel() {
-            try {
-                socket.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+        /**
+         * 取消除了胜出者之外的所有尝试
+         * @param keep 胜出的尝试，为null时取消全部
+         */
+        private void cancelOthers(Attempt keep) {
+            Attempt[] started;
+            synchronized (this) {
+                if(staggerFuture != null){
+                    staggerFuture.cancel(false);
+                    staggerFuture = null;
+                }
+                started = attempts.clone();
+            }
+            for(Attempt attempt : started){
+                if(attempt != null && attempt != keep){
+                    attempt.cancel();
+                }
             }
         }
+
+        public void cancel() {
+            cancelled = true;
+            cancelOthers(null);
+        }
     }
 
     /**
-     * 此线程在与远程设备连接期间运行。它处理所有传入和传出的传输。
+     * 对一个候选目标的连接尝试
      */
-    private class DataTransmissionThread extends Thread {
-        private final BluetoothSocket socket;
-        private final InputStream inputStream;
-        private final OutputStream outputStream;
-
-        public DataTransmissionThread(BluetoothSocket socket) {
-            this.socket = socket;
-            InputStream tempInputStream = null;
-            OutputStream tempOutputStream = null;
-
-            //得到客户端的输入流和输出流
-            try {
-                tempInputStream = socket.getInputStream();
-                tempOutputStream = socket.getOutputStream();
-            } catch (IOException e) {}
+    private class Attempt implements Runnable {
+        private final ConnectTask task;
+        private final ConnectCandidate candidate;
+        /**
+         * 以下字段由尝试自身的锁保护
+         */
+        private TransportSocket socket;
+        private boolean cancelled;
 
-            inputStream = tempInputStream;
-            outputStream = tempOutputStream;
-            connectState = STATE_CONNECTED;
+        Attempt(ConnectTask task, ConnectCandidate candidate) {
+            this.task = task;
+            this.candidate = candidate;
         }
 
         @Override
         public void run() {
-            byte[] buffer = new byte[1024];
-            int bytes;
-
-            // Keep listening to the InputStream while connected
-            while (connectState == STATE_CONNECTED) {
-                try {
-                    //从输入流中读取数据，接收数据时使用了线程
-                    bytes = inputStream.read(buffer);
-                    System.err.println(bytes);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    //连接丢失
-                    connectionLost();
-                    break;
+            TransportSocket tempSocket;
+            //通过给定的地址获取到用于连接的套接字
+            try {
+                tempSocket = transport.createSocket(candidate.getAddress(), candidate.isSecure());
+            } catch (IOException e) {
+                e.printStackTrace();
+                peerCache.onFailed(candidate);
+                task.onAttemptFailed();
+                return;
+            }
+            synchronized (this) {
+                if(cancelled){
+                    closeQuietly(tempSocket);
+                    return;
                 }
+                socket = tempSocket;
             }
-        }
 
-        /**
-         * 传输数据时不存在线程
-         * @param buffer
-         */
-        public void write(byte[] buffer) {
+            //建立连接，蓝牙传输层会在连接前取消搜索
             try {
-                outputStream.write(buffer);
+                //这是一个阻塞调用，只会返回一个成功的连接或异常
+                tempSocket.connect();
             } catch (IOException e) {
+                closeQuietly(tempSocket);
+                //被主动取消时不需要处理
+                if(isCancelled()){
+                    return;
+                }
                 e.printStackTrace();
+                //建立连接失败
+                peerCache.onFailed(candidate);
+                task.onAttemptFailed();
+                return;
             }
+            task.onAttemptConnected(this, tempSocket);
+        }
+
+        private synchronized boolean isCancelled() {
+            return cancelled;
         }
 
         public void cancel() {
-            try {
-                socket.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+            TransportSocket current;
+            synchronized (this) {
+                cancelled = true;
+                current = socket;
+            }
+            if(current != null){
+                closeQuietly(current);
             }
         }
     }
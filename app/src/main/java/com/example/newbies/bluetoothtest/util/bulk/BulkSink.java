@@ -0,0 +1,25 @@
+package com.example.newbies.bluetoothtest.util.bulk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 大块数据传输的接收目标，数据块校验通过后按顺序写入
+ * @author NewBies
+ * @date 2018/1/17
+ */
+public interface BulkSink {
+
+    /**
+     * 追加一个数据块，在读线程中调用
+     * @param data position到limit之间为数据，调用返回后不能再访问
+     * @throws IOException 写入失败时传输会被取消
+     */
+    void write(ByteBuffer data) throws IOException;
+
+    /**
+     * 传输结束时调用，无论成功还是失败
+     * @param completed 是否已经收到全部数据
+     */
+    void close(boolean completed);
+}
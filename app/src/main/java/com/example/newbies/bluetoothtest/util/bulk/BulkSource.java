@@ -0,0 +1,34 @@
+package com.example.newbies.bluetoothtest.util.bulk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 大块数据传输的数据来源，按顺序分块读取，整个数据不需要一次性放入内存
+ * @author NewBies
+ * @date 2018/1/17
+ */
+public interface BulkSource extends Closeable {
+
+    /**
+     * @return 数据的总长度(字节)
+     */
+    long length();
+
+    /**
+     * 从当前位置读取数据填满dst的剩余空间，只有到达末尾时才会读到更少的数据
+     * @param dst 堆内缓冲区
+     * @return 读取的字节数，已经到达末尾时返回-1
+     * @throws IOException
+     */
+    int read(ByteBuffer dst) throws IOException;
+
+    /**
+     * 移动到指定位置，断点续传时如果对方的进度不在发送窗口之内才会调用
+     * @param position
+     * @return 不支持移动到该位置时返回false
+     * @throws IOException
+     */
+    boolean seek(long position) throws IOException;
+}
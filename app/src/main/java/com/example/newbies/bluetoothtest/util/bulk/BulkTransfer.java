@@ -0,0 +1,150 @@
+package com.example.newbies.bluetoothtest.util.bulk;
+
+import com.example.newbies.bluetoothtest.util.transfer.Session;
+
+/**
+ * 一次大块数据传输，发送和接收两端各有一个
+ * 连接断开后传输进入暂停状态，与同一个设备重新建立会话时自动从对方最后确认的位置续传
+ * @author NewBies
+ * @date 2018/1/17
+ */
+public abstract class BulkTransfer {
+
+    /**
+     * 等待对方接受
+     */
+    public static final int STATE_PENDING = 0;
+    /**
+     * 正在传输
+     */
+    public static final int STATE_RUNNING = 1;
+    /**
+     * 连接断开，等待重新连接后续传
+     */
+    public static final int STATE_PAUSED = 2;
+    /**
+     * 传输完成
+     */
+    public static final int STATE_COMPLETED = 3;
+    /**
+     * 传输失败或者被取消
+     */
+    public static final int STATE_FAILED = 4;
+
+    final BulkTransferManager manager;
+    final long id;
+    final String name;
+    final long length;
+    /**
+     * 当前使用的会话，暂停时为null，由子类在持有自身锁时修改
+     */
+    Session session;
+    private volatile String remoteAddress;
+    volatile int state = STATE_PENDING;
+    /**
+     * 已经被确认(发送端)或者已经写入(接收端)的字节数
+     */
+    volatile long transferredBytes;
+
+    BulkTransfer(BulkTransferManager manager, long id, String name, long length){
+        this.manager = manager;
+        this.id = id;
+        this.name = name;
+        this.length = length;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return 发送端给出的名称，例如文件名
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return 数据的总长度
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return 已经完成传输的字节数
+     */
+    public long getTransferredBytes() {
+        return transferredBytes;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * @return 对方设备的地址，续传时根据它匹配新的会话
+     */
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public boolean isFinished() {
+        int current = state;
+        return current == STATE_COMPLETED || current == STATE_FAILED;
+    }
+
+    /**
+     * @return 是否由本设备发送
+     */
+    public abstract boolean isOutgoing();
+
+    /**
+     * 取消传输并通知对方
+     */
+    public void cancel() {
+        manager.cancel(this);
+    }
+
+    /**
+     * 绑定到一个会话，调用时需要持有自身的锁
+     * @param session
+     */
+    void bind(Session session) {
+        this.session = session;
+        this.remoteAddress = session.getRemoteAddress();
+    }
+
+    /**
+     * 会话断开，未结束的传输进入暂停状态
+     * @param session 断开的会话
+     */
+    synchronized void detach(Session session) {
+        if(this.session != session){
+            return;
+        }
+        this.session = null;
+        if(!isFinished()){
+            state = STATE_PAUSED;
+        }
+    }
+
+    /**
+     * 结束传输，只有第一次调用会成功
+     * @param finalState 完成或者失败
+     * @return 之前已经结束时返回false
+     */
+    synchronized boolean finish(int finalState) {
+        if(isFinished()){
+            return false;
+        }
+        state = finalState;
+        session = null;
+        return true;
+    }
+
+    /**
+     * 释放数据来源或者接收目标
+     */
+    abstract void release();
+}
@@ -0,0 +1,31 @@
+package com.example.newbies.bluetoothtest.util.bulk;
+
+import java.io.IOException;
+
+/**
+ * 大块数据传输的回调，在读线程或者传输线程中调用，不要执行耗时操作
+ * @author NewBies
+ * @date 2018/1/17
+ */
+public interface BulkTransferListener {
+
+    /**
+     * 对方请求发送数据
+     * @param transfer 接收端的传输，可以读取名称和长度
+     * @return 接收数据的目标，返回null表示拒绝
+     */
+    BulkSink onOffer(BulkTransfer transfer);
+
+    /**
+     * 传输完成，发送端在收到最后的确认时调用，接收端在写入最后一个数据块后调用
+     * @param transfer
+     */
+    void onCompleted(BulkTransfer transfer);
+
+    /**
+     * 传输失败或者被取消
+     * @param transfer
+     * @param cause
+     */
+    void onFailed(BulkTransfer transfer, IOException cause);
+}
@@ -0,0 +1,415 @@
+package com.example.newbies.bluetoothtest.util.bulk;
+
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+import com.example.newbies.bluetoothtest.util.transfer.IoExecutor;
+import com.example.newbies.bluetoothtest.util.transfer.OutboundFrame;
+import com.example.newbies.bluetoothtest.util.transfer.ReceiveBufferPool;
+import com.example.newbies.bluetoothtest.util.transfer.ReceivedMessage;
+import com.example.newbies.bluetoothtest.util.transfer.Session;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大块数据传输管理器，负责流式发送文件等大块数据，以及断开后的续传
+ * 协议(所有整数均为大端)：
+ * OFFER  | 传输ID(8) | 总长度(8) | 块大小(4) | 窗口大小(4) | 名称长度(2) | 名称(UTF-8) |  发送端 -> 接收端
+ * ACCEPT | 传输ID(8) | 开始位置(8) |  接收端 -> 发送端，续传时开始位置为已经收到的字节数
+ * CHUNK  | 传输ID(8) | 位置(8) | CRC32(4) | 数据 |  发送端 -> 接收端
+ * ACK    | 传输ID(8) | 位置(8) |  累计确认，位置之前的数据都已经写入
+ * NACK   | 传输ID(8) | 位置(8) |  请求从该位置重新发送
+ * CANCEL | 传输ID(8) | 0(8) |  任意一端取消传输，接收端拒绝传输时也使用它
+ * 数据块在大块数据通道上发送，其余的控制帧在控制通道上发送，因此确认不会排在反方向的数据块后面。
+ * 控制帧在发送队列已满时会稍后重试，不会丢失，直到会话断开
+ * @author NewBies
+ * @date 2018/1/17
+ */
+public class BulkTransferManager {
+
+    /**
+     * 数据块帧的头部长度
+     */
+    public static final int CHUNK_HEADER_LENGTH = 20;
+    /**
+     * 默认的数据块大小，加上头部正好是一个默认大小的接收缓冲区，接收端不需要临时分配缓冲区
+     */
+    public static final int DEFAULT_CHUNK_SIZE = ReceiveBufferPool.DEFAULT_BUFFER_SIZE - CHUNK_HEADER_LENGTH;
+    /**
+     * 默认的窗口大小(数据块个数)，即最多有多少个数据块等待确认
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 32;
+    /**
+     * 发送队列已满时重试的间隔(毫秒)
+     */
+    static final long RETRY_DELAY_MILLIS = 5;
+
+    /**
+     * 记住最近完成的接收传输的个数
+     */
+    private static final int MAX_COMPLETED_REMEMBERED = 64;
+    private static final int CONTROL_LENGTH = 16;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final IoExecutor executor;
+    private final ConcurrentHashMap<Long, OutgoingTransfer> outgoing = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, IncomingTransfer> incoming = new ConcurrentHashMap<>();
+    /**
+     * 当前所有会话，用于回复控制帧
+     */
+    private final ConcurrentHashMap<Integer, Session> sessions = new ConcurrentHashMap<>();
+    /**
+     * 最近完成的接收传输的ID和长度。最后的确认可能因为连接断开而没有送达，
+     * 对方续传时直接回复已全部收到，而不是当作新的传输从头开始
+     */
+    private final Map<Long, Long> completedIncoming = new LinkedHashMap<Long, Long>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+            return size() > MAX_COMPLETED_REMEMBERED;
+        }
+    };
+    private final Random random = new Random();
+    private volatile BulkTransferListener listener;
+
+    /**
+     * @param executor 执行发送任务和重试的线程池
+     */
+    public BulkTransferManager(IoExecutor executor){
+        this.executor = executor;
+    }
+
+    public void setListener(BulkTransferListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 使用默认的块大小和窗口大小发送数据
+     * @param session 发送的会话
+     * @param name 数据的名称，例如文件名
+     * @param source 数据来源，传输结束时关闭
+     * @return
+     */
+    public BulkTransfer send(Session session, String name, BulkSource source) {
+        return send(session, name, source, DEFAULT_CHUNK_SIZE, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * 发送数据，不会阻塞，对方接受后才开始发送数据块
+     * @param session 发送的会话
+     * @param name 数据的名称，例如文件名
+     * @param source 数据来源，传输结束时关闭
+     * @param chunkSize 数据块大小，加上头部不能超过帧的最大负载长度
+     * @param windowSize 窗口大小，占用的内存约为块大小乘以窗口大小
+     * @return
+     */
+    public BulkTransfer send(Session session, String name, BulkSource source, int chunkSize, int windowSize) {
+        if(chunkSize <= 0 || chunkSize + CHUNK_HEADER_LENGTH > Frame.DEFAULT_MAX_PAYLOAD_LENGTH || windowSize <= 0){
+            throw new IllegalArgumentException("非法的块大小或窗口大小");
+        }
+        long id;
+        OutgoingTransfer transfer;
+        do {
+            id = random.nextLong();
+            transfer = new OutgoingTransfer(this, id, name, source, executor, chunkSize, windowSize);
+        } while(outgoing.putIfAbsent(id, transfer) != null);
+        transfer.start(session);
+        return transfer;
+    }
+
+    /**
+     * @return 所有未结束的传输
+     */
+    public List<BulkTransfer> getTransfers() {
+        List<BulkTransfer> transfers = new ArrayList<>();
+        transfers.addAll(outgoing.values());
+        transfers.addAll(incoming.values());
+        return transfers;
+    }
+
+    /**
+     * 会话建立，与同一设备之间暂停的发送在该会话上续传，需要在会话开始读取数据之前调用
+     * @param session
+     */
+    public void onSessionOpened(Session session) {
+        sessions.put(session.getId(), session);
+        String address = session.getRemoteAddress();
+        for(OutgoingTransfer transfer : outgoing.values()){
+            if(transfer.getState() == BulkTransfer.STATE_PAUSED && address != null
+                    && address.equals(transfer.getRemoteAddress())){
+                transfer.start(session);
+            }
+        }
+    }
+
+    /**
+     * 会话断开，使用它的传输进入暂停状态
+     * @param session
+     */
+    public void onSessionClosed(Session session) {
+        sessions.remove(session.getId());
+        detachAll(outgoing.values(), session);
+        detachAll(incoming.values(), session);
+    }
+
+    private static void detachAll(Collection<? extends BulkTransfer> transfers, Session session) {
+        for(BulkTransfer transfer : transfers){
+            transfer.detach(session);
+        }
+    }
+
+    /**
+     * 处理大块数据传输的帧，其他类型的帧不做处理
+     * @param message
+     * @return 是否已经处理，已经处理的消息由本方法释放
+     */
+    public boolean onMessage(ReceivedMessage message) {
+        int type = message.getType();
+        if(type < Frame.TYPE_BULK_OFFER || type > Frame.TYPE_BULK_CANCEL){
+            return false;
+        }
+        try {
+            Session session = sessions.get(message.getSessionId());
+            ByteBuffer data = message.getData();
+            if(session != null && data.remaining() >= CONTROL_LENGTH){
+                dispatch(session, type, data);
+            }
+        } finally {
+            message.release();
+        }
+        return true;
+    }
+
+    private void dispatch(Session session, int type, ByteBuffer data) {
+        int position = data.position();
+        long id = data.getLong(position);
+        long offset = data.getLong(position + 8);
+        switch (type){
+            case Frame.TYPE_BULK_OFFER:
+                onOffer(session, id, offset, data);
+                break;
+            case Frame.TYPE_BULK_CHUNK:
+                IncomingTransfer receiving = incoming.get(id);
+                if(receiving != null && data.remaining() >= CHUNK_HEADER_LENGTH){
+                    int checksum = data.getInt(position + 16);
+                    data.position(position + CHUNK_HEADER_LENGTH);
+                    receiving.onChunk(offset, checksum, data);
+                }
+                break;
+            case Frame.TYPE_BULK_ACCEPT:
+                OutgoingTransfer accepted = outgoing.get(id);
+                if(accepted != null){
+                    try {
+                        accepted.onAccept(offset);
+                    } catch (IOException e) {
+                        fail(accepted, e, true);
+                    }
+                }
+                break;
+            case Frame.TYPE_BULK_ACK:
+                OutgoingTransfer acked = outgoing.get(id);
+                if(acked != null){
+                    acked.onAck(offset);
+                }
+                break;
+            case Frame.TYPE_BULK_NACK:
+                OutgoingTransfer nacked = outgoing.get(id);
+                if(nacked != null){
+                    nacked.onNack(offset);
+                }
+                break;
+            case Frame.TYPE_BULK_CANCEL:
+                BulkTransfer cancelled = outgoing.get(id);
+                if(cancelled == null){
+                    cancelled = incoming.get(id);
+                }
+                if(cancelled != null){
+                    fail(cancelled, new IOException("对方取消了传输"), false);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 收到传输请求，已知的传输在新的会话上恢复，新的传输由监听器决定是否接受
+     */
+    private void onOffer(Session session, long id, long length, ByteBuffer data) {
+        int position = data.position();
+        if(data.remaining() < CONTROL_LENGTH + 10){
+            return;
+        }
+        Long completedLength;
+        synchronized (completedIncoming) {
+            completedLength = completedIncoming.get(id);
+        }
+        if(completedLength != null){
+            sendControl(session, Frame.TYPE_BULK_ACCEPT, id, completedLength);
+            return;
+        }
+        IncomingTransfer transfer = incoming.get(id);
+        if(transfer == null){
+            int chunkSize = data.getInt(position + 16);
+            int windowSize = data.getInt(position + 20);
+            int nameLength = data.getShort(position + 24) & 0xFFFF;
+            if(data.remaining() < CONTROL_LENGTH + 10 + nameLength){
+                return;
+            }
+            byte[] nameBytes = new byte[nameLength];
+            data.position(position + CONTROL_LENGTH + 10);
+            data.get(nameBytes);
+            transfer = new IncomingTransfer(this, id, new String(nameBytes, UTF_8), length, chunkSize, windowSize);
+            BulkTransferListener current = listener;
+            BulkSink sink = current == null ? null : current.onOffer(transfer);
+            if(sink == null){
+                transfer.finish(BulkTransfer.STATE_FAILED);
+                sendControl(session, Frame.TYPE_BULK_CANCEL, id, 0);
+                return;
+            }
+            incoming.put(id, transfer);
+            sendControl(session, Frame.TYPE_BULK_ACCEPT, id, transfer.accept(session, sink));
+            if(length == 0){
+                sendControl(session, Frame.TYPE_BULK_ACK, id, 0);
+                complete(transfer);
+            }
+            return;
+        }
+        sendControl(session, Frame.TYPE_BULK_ACCEPT, id, transfer.accept(session, null));
+    }
+
+    /**
+     * 发送传输请求
+     */
+    void sendOffer(Session session, OutgoingTransfer transfer) {
+        byte[] nameBytes = transfer.getName() == null ? new byte[0] : transfer.getName().getBytes(UTF_8);
+        int nameLength = Math.min(nameBytes.length, 0xFFFF);
+        ByteBuffer payload = ByteBuffer.allocate(CONTROL_LENGTH + 10 + nameLength);
+        payload.putLong(transfer.getId());
+        payload.putLong(transfer.getLength());
+        payload.putInt(transfer.getChunkSize());
+        payload.putInt(transfer.getWindowSize());
+        payload.putShort((short) nameLength);
+        payload.put(nameBytes, 0, nameLength);
+        payload.flip();
+        sendReliably(session, new OutboundFrame(Frame.TYPE_BULK_OFFER, payload));
+    }
+
+    /**
+     * 发送控制帧
+     * @param session
+     * @param type 帧类型
+     * @param id 传输ID
+     * @param offset 位置
+     */
+    void sendControl(Session session, int type, long id, long offset) {
+        ByteBuffer payload = ByteBuffer.allocate(CONTROL_LENGTH);
+        payload.putLong(id);
+        payload.putLong(offset);
+        payload.flip();
+        sendReliably(session, new OutboundFrame(type, payload));
+    }
+
+    /**
+     * 发送队列已满时稍后重试，直到发送成功或者会话关闭
+     * @param session
+     * @param frame
+     */
+    private void sendReliably(final Session session, final OutboundFrame frame) {
+        if(session.write(frame) || session.isClosed()){
+            return;
+        }
+        try {
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    sendReliably(session, frame);
+                }
+            }, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //线程池已经关闭
+        }
+    }
+
+    /**
+     * 取消传输并通知对方
+     * @param transfer
+     */
+    void cancel(BulkTransfer transfer) {
+        fail(transfer, new IOException("传输已取消"), true);
+    }
+
+    /**
+     * 传输完成
+     * @param transfer
+     */
+    void complete(BulkTransfer transfer) {
+        if(!transfer.finish(BulkTransfer.STATE_COMPLETED)){
+            return;
+        }
+        remove(transfer);
+        if(!transfer.isOutgoing()){
+            synchronized (completedIncoming) {
+                completedIncoming.put(transfer.getId(), transfer.getLength());
+            }
+        }
+        transfer.release();
+        BulkTransferListener current = listener;
+        if(current != null){
+            current.onCompleted(transfer);
+        }
+    }
+
+    /**
+     * 传输失败
+     * @param transfer
+     * @param cause
+     * @param notifyPeer 是否通知对方取消
+     */
+    void fail(BulkTransfer transfer, IOException cause, boolean notifyPeer) {
+        Session session;
+        synchronized (transfer) {
+            session = transfer.session;
+        }
+        if(!transfer.finish(BulkTransfer.STATE_FAILED)){
+            return;
+        }
+        remove(transfer);
+        transfer.release();
+        if(notifyPeer && session != null){
+            sendControl(session, Frame.TYPE_BULK_CANCEL, transfer.getId(), 0);
+        }
+        BulkTransferListener current = listener;
+        if(current != null){
+            current.onFailed(transfer, cause);
+        }
+    }
+
+    private void remove(BulkTransfer transfer) {
+        if(transfer.isOutgoing()){
+            outgoing.remove(transfer.getId(), transfer);
+        }
+        else{
+            incoming.remove(transfer.getId(), transfer);
+        }
+    }
+
+    /**
+     * 停止所有未结束的传输，不通知对方
+     */
+    public void shutdown() {
+        IOException cause = new IOException("传输已停止");
+        for(BulkTransfer transfer : getTransfers()){
+            fail(transfer, cause, false);
+        }
+        sessions.clear();
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.newbies.bluetoothtest.util.bulk;
+
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+import com.example.newbies.bluetoothtest.util.transfer.Session;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * 接收端的传输
+ * 数据块必须按顺序到达，校验通过后立即写入接收目标，每收到若干个数据块发送一次累计确认。
+ * 校验失败或者出现不连续的数据块时请求对方从当前位置重新发送，重复的数据块直接丢弃
+ * @author NewBies
+ * @date 2018/1/17
+ */
+class IncomingTransfer extends BulkTransfer {
+
+    private final int chunkSize;
+    /**
+     * 每收到多少个数据块确认一次
+     */
+    private final int ackInterval;
+    private final CRC32 crc = new CRC32();
+    private BulkSink sink;
+    private int chunksSinceAck;
+    /**
+     * 最近一次请求重传的位置，避免窗口内后续的数据块重复请求
+     */
+    private long nackOffset = -1;
+    /**
+     * 数据位于直接内存时计算校验码使用的临时数组
+     */
+    private byte[] scratch;
+
+    IncomingTransfer(BulkTransferManager manager, long id, String name, long length, int chunkSize, int windowSize){
+        super(manager, id, name, length);
+        this.chunkSize = chunkSize;
+        this.ackInterval = Math.max(1, windowSize / 4);
+    }
+
+    @Override
+    public boolean isOutgoing() {
+        return false;
+    }
+
+    /**
+     * 接受传输，或者在新的会话上恢复传输
+     * @param session
+     * @param sink 首次接受时的接收目标，恢复时为null
+     * @return 从哪里开始接收
+     */
+    synchronized long accept(Session session, BulkSink sink) {
+        if(sink != null){
+            this.sink = sink;
+        }
+        bind(session);
+        state = STATE_RUNNING;
+        chunksSinceAck = 0;
+        nackOffset = -1;
+        return transferredBytes;
+    }
+
+    /**
+     * 收到一个数据块，在读线程中调用
+     * @param offset 数据块的位置
+     * @param checksum 发送端计算的CRC32
+     * @param data 数据
+     */
+    void onChunk(long offset, int checksum, ByteBuffer data) {
+        Session current;
+        int replyType;
+        long replyOffset;
+        synchronized (this) {
+            current = session;
+            long expected = transferredBytes;
+            if(state != STATE_RUNNING || current == null || offset < expected){
+                //重复的数据块
+                return;
+            }
+            int length = data.remaining();
+            if(offset > expected || length > chunkSize || length > this.length - expected
+                    || checksum != checksum(data)){
+                if(nackOffset == expected){
+                    return;
+                }
+                nackOffset = expected;
+                replyType = Frame.TYPE_BULK_NACK;
+                replyOffset = expected;
+            }
+            else{
+                if(!writeToSink(data)){
+                    return;
+                }
+                nackOffset = -1;
+                transferredBytes = expected + length;
+                if(transferredBytes < this.length && ++chunksSinceAck < ackInterval){
+                    return;
+                }
+                chunksSinceAck = 0;
+                replyType = Frame.TYPE_BULK_ACK;
+                replyOffset = transferredBytes;
+            }
+        }
+        manager.sendControl(current, replyType, id, replyOffset);
+        if(replyType == Frame.TYPE_BULK_ACK && replyOffset == length){
+            manager.complete(this);
+        }
+    }
+
+    /**
+     * 写入接收目标，出错时取消传输
+     * @param data
+     * @return 是否写入成功
+     */
+    private boolean writeToSink(ByteBuffer data) {
+        try {
+            sink.write(data);
+            return true;
+        } catch (IOException e) {
+            manager.fail(this, e, true);
+            return false;
+        }
+    }
+
+    private int checksum(ByteBuffer data) {
+        int length = data.remaining();
+        crc.reset();
+        if(data.hasArray()){
+            crc.update(data.array(), data.arrayOffset() + data.position(), length);
+        }
+        else{
+            if(scratch == null || scratch.length < length){
+                scratch = new byte[length];
+            }
+            int position = data.position();
+            data.get(scratch, 0, length);
+            data.position(position);
+            crc.update(scratch, 0, length);
+        }
+        return (int) crc.getValue();
+    }
+
+    @Override
+    void release() {
+        BulkSink current;
+        synchronized (this) {
+            current = sink;
+            sink = null;
+        }
+        if(current != null){
+            current.close(state == STATE_COMPLETED);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.newbies.bluetoothtest.util.bulk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 以输入流作为数据来源，只能向前移动
+ * 尚未被确认的数据块保存在发送窗口中，因此连接断开后仍然可以从最后确认的位置续传
+ * @author NewBies
+ * @date 2018/1/17
+ */
+public class InputStreamSource implements BulkSource {
+
+    private final InputStream inputStream;
+    private final long length;
+    private long position;
+
+    /**
+     * @param inputStream 数据来源
+     * @param length 数据的总长度
+     */
+    public InputStreamSource(InputStream inputStream, long length){
+        this.inputStream = inputStream;
+        this.length = length;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if(position >= length){
+            return -1;
+        }
+        int wanted = (int) Math.min(dst.remaining(), length - position);
+        byte[] array = dst.array();
+        int offset = dst.arrayOffset() + dst.position();
+        int count = 0;
+        while(count < wanted){
+            int n = inputStream.read(array, offset + count, wanted - count);
+            if(n < 0){
+                throw new IOException("输入流提前结束");
+            }
+            count += n;
+        }
+        dst.position(dst.position() + count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public boolean seek(long position) throws IOException {
+        if(position < this.position || position > length){
+            return false;
+        }
+        while(this.position < position){
+            long skipped = inputStream.skip(position - this.position);
+            if(skipped <= 0){
+                return false;
+            }
+            this.position += skipped;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+}
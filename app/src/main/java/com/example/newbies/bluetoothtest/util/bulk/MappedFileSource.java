@@ -0,0 +1,93 @@
+package com.example.newbies.bluetoothtest.util.bulk;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 以内存映射文件作为数据来源
+ * 文件按区域分段映射，每次只映射一个区域，不会占用与文件大小相同的地址空间，数据由系统按需换入
+ * @author NewBies
+ * @date 2018/1/17
+ */
+public class MappedFileSource implements BulkSource {
+
+    /**
+     * 默认每次映射的区域大小
+     */
+    public static final int DEFAULT_REGION_SIZE = 8 * 1024 * 1024;
+
+    private final FileInputStream inputStream;
+    private final FileChannel channel;
+    private final long length;
+    private final int regionSize;
+    /**
+     * 当前映射的区域及其在文件中的起始位置
+     */
+    private MappedByteBuffer region;
+    private long regionStart;
+    private long position;
+
+    public MappedFileSource(File file) throws IOException {
+        this(file, DEFAULT_REGION_SIZE);
+    }
+
+    /**
+     * @param file 要发送的文件
+     * @param regionSize 每次映射的区域大小
+     * @throws IOException
+     */
+    public MappedFileSource(File file, int regionSize) throws IOException {
+        this.inputStream = new FileInputStream(file);
+        this.channel = inputStream.getChannel();
+        this.length = channel.size();
+        this.regionSize = regionSize;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if(position >= length){
+            return -1;
+        }
+        int count = 0;
+        while(dst.hasRemaining() && position < length){
+            if(region == null || position < regionStart || position >= regionStart + region.capacity()){
+                regionStart = position;
+                region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart,
+                        Math.min(regionSize, length - regionStart));
+            }
+            int offset = (int) (position - regionStart);
+            int n = Math.min(dst.remaining(), region.capacity() - offset);
+            region.limit(offset + n);
+            region.position(offset);
+            dst.put(region);
+            region.limit(region.capacity());
+            position += n;
+            count += n;
+        }
+        return count;
+    }
+
+    @Override
+    public boolean seek(long position) throws IOException {
+        if(position < 0 || position > length){
+            return false;
+        }
+        this.position = position;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        region = null;
+        inputStream.close();
+    }
+}
@@ -0,0 +1,329 @@
+package com.example.newbies.bluetoothtest.util.bulk;
+
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+import com.example.newbies.bluetoothtest.util.transfer.Channel;
+import com.example.newbies.bluetoothtest.util.transfer.IoExecutor;
+import com.example.newbies.bluetoothtest.util.transfer.OutboundFrame;
+import com.example.newbies.bluetoothtest.util.transfer.Session;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * 发送端的传输
+ * 数据从来源按块读入一个固定大小的环形窗口，窗口中是已读取但尚未被确认的数据块，
+ * 窗口满时暂停读取，等待对方确认后再继续。数据块的缓冲区和对应的帧都是预先分配好的，发送过程中不再分配对象。
+ * 收到重传请求或者续传时，直接从窗口中重新发送，因此输入流这样不能回退的来源也可以续传。
+ * 数据块上一次的发送还在发送队列中时，等它被写出后才会重发或者改写，写线程不会读到改写了一半的缓冲区
+ * @author NewBies
+ * @date 2018/1/17
+ */
+class OutgoingTransfer extends BulkTransfer implements Runnable {
+
+    /**
+     * 窗口中的一个数据块，缓冲区中是完整的CHUNK帧负载
+     */
+    private static class Chunk {
+        final ByteBuffer buffer;
+        final OutboundFrame frame;
+        /**
+         * 放入发送队列后尚未被写入器释放的次数，不为0时写线程可能还在读取缓冲区，不能改写也不能再次放入队列
+         */
+        final AtomicInteger pendingWrites = new AtomicInteger();
+        long offset;
+        int length;
+
+        Chunk(int capacity){
+            buffer = ByteBuffer.allocate(capacity);
+            frame = new OutboundFrame(Frame.TYPE_BULK_CHUNK, Channel.BULK, buffer){
+                @Override
+                protected void onReleased() {
+                    pendingWrites.decrementAndGet();
+                }
+            };
+        }
+    }
+
+    private final BulkSource source;
+    private final IoExecutor executor;
+    private final int chunkSize;
+    private final Chunk[] window;
+    private final CRC32 crc = new CRC32();
+    /**
+     * 窗口中第一个数据块的下标以及数据块的个数
+     */
+    private int head;
+    private int count;
+    /**
+     * 对方已确认的位置，窗口的起点
+     */
+    private long ackedOffset;
+    /**
+     * 下一个要发送的位置
+     */
+    private long sentOffset;
+    /**
+     * 已经从来源读取到的位置，窗口的终点
+     */
+    private long readOffset;
+    /**
+     * 发送任务是否已经提交
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    /**
+     * 发送队列或者线程池已满时，等待一段时间后再提交发送任务
+     */
+    private final Runnable retryTask = new Runnable() {
+        @Override
+        public void run() {
+            scheduled.set(false);
+            schedule();
+        }
+    };
+
+    OutgoingTransfer(BulkTransferManager manager, long id, String name, BulkSource source,
+                     IoExecutor executor, int chunkSize, int windowSize){
+        super(manager, id, name, source.length());
+        this.source = source;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        this.window = new Chunk[windowSize];
+        for(int i = 0; i < windowSize; i++){
+            window[i] = new Chunk(BulkTransferManager.CHUNK_HEADER_LENGTH + chunkSize);
+        }
+    }
+
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    int getWindowSize() {
+        return window.length;
+    }
+
+    @Override
+    public boolean isOutgoing() {
+        return true;
+    }
+
+    /**
+     * 绑定到新的会话并发送传输请求，续传时也是如此
+     * @param session
+     */
+    void start(Session session) {
+        synchronized (this) {
+            if(isFinished()){
+                return;
+            }
+            bind(session);
+            state = STATE_PENDING;
+        }
+        manager.sendOffer(session, this);
+    }
+
+    /**
+     * 对方接受了传输
+     * @param offset 对方已经收到的位置，从这里开始发送
+     * @throws IOException 无法从该位置续传
+     */
+    void onAccept(long offset) throws IOException {
+        synchronized (this) {
+            if(state != STATE_PENDING || session == null){
+                return;
+            }
+            if(offset >= ackedOffset && offset <= readOffset){
+                advance(offset);
+            }
+            else{
+                //对方的进度不在窗口内，丢弃整个窗口，从来源的指定位置重新读取
+                if(offset > length || !source.seek(offset)){
+                    throw new IOException("无法从" + offset + "续传");
+                }
+                head = 0;
+                count = 0;
+                ackedOffset = offset;
+                readOffset = offset;
+                transferredBytes = offset;
+            }
+            sentOffset = offset;
+            state = STATE_RUNNING;
+        }
+        afterAck(offset);
+    }
+
+    /**
+     * 对方确认收到了offset之前的所有数据
+     * @param offset
+     */
+    void onAck(long offset) {
+        synchronized (this) {
+            if(state != STATE_RUNNING || offset <= ackedOffset || offset > readOffset){
+                return;
+            }
+            advance(offset);
+            if(sentOffset < offset){
+                sentOffset = offset;
+            }
+        }
+        afterAck(offset);
+    }
+
+    /**
+     * 对方收到了校验失败或者不连续的数据块，从offset开始重新发送
+     * @param offset
+     */
+    void onNack(long offset) {
+        synchronized (this) {
+            if(state != STATE_RUNNING || offset < ackedOffset || offset > readOffset){
+                return;
+            }
+            advance(offset);
+            sentOffset = offset;
+        }
+        afterAck(offset);
+    }
+
+    private void afterAck(long offset) {
+        if(offset == length){
+            manager.complete(this);
+        }
+        else{
+            schedule();
+        }
+    }
+
+    /**
+     * 移除窗口中offset之前的数据块
+     * @param offset
+     */
+    private void advance(long offset) {
+        while(count > 0){
+            Chunk chunk = window[head];
+            if(chunk.offset + chunk.length > offset){
+                break;
+            }
+            head = (head + 1) % window.length;
+            count--;
+        }
+        ackedOffset = offset;
+        transferredBytes = offset;
+    }
+
+    /**
+     * 提交发送任务，已经提交过则什么也不做
+     */
+    void schedule() {
+        if(!scheduled.compareAndSet(false, true)){
+            return;
+        }
+        try {
+            executor.execute(this);
+        } catch (RejectedExecutionException e) {
+            //线程池暂时饱和，稍后重新提交
+            try {
+                executor.schedule(retryTask, BulkTransferManager.RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException stopped) {
+                scheduled.set(false);
+                manager.fail(this, new IOException("线程池已经关闭", stopped), true);
+            }
+        }
+    }
+
+    /**
+     * 发送窗口内尚未发送的数据块，窗口未满时继续从来源读取
+     */
+    @Override
+    public void run() {
+        IOException failure = null;
+        //发送队列已满或者数据块还在等待写出，稍后再试
+        boolean retry = false;
+        synchronized (this) {
+            try {
+                while(state == STATE_RUNNING && session != null){
+                    if(sentOffset < readOffset){
+                        Chunk chunk = window[(head + (int) ((sentOffset - ackedOffset) / chunkSize)) % window.length];
+                        //重传时上一次的发送可能还在队列中，同一个缓冲区不能同时排队两次
+                        if(chunk.pendingWrites.get() > 0){
+                            retry = true;
+                            break;
+                        }
+                        chunk.pendingWrites.incrementAndGet();
+                        if(!session.write(chunk.frame)){
+                            chunk.pendingWrites.decrementAndGet();
+                            retry = true;
+                            break;
+                        }
+                        sentOffset = chunk.offset + chunk.length;
+                        continue;
+                    }
+                    if(readOffset >= length || count == window.length){
+                        break;
+                    }
+                    Chunk next = window[(head + count) % window.length];
+                    //已经确认的数据块可能仍有一份重传在队列中，写出之后才能改写
+                    if(next.pendingWrites.get() > 0){
+                        retry = true;
+                        break;
+                    }
+                    fill(next);
+                    count++;
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            if(!retry){
+                scheduled.set(false);
+            }
+        }
+        if(failure != null){
+            manager.fail(this, failure, true);
+        }
+        else if(retry){
+            try {
+                executor.schedule(retryTask, BulkTransferManager.RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * 从来源读取下一个数据块，格式：| 传输ID(8) | 位置(8) | CRC32(4) | 数据 |
+     * @param chunk
+     * @throws IOException
+     */
+    private void fill(Chunk chunk) throws IOException {
+        int header = BulkTransferManager.CHUNK_HEADER_LENGTH;
+        int wanted = (int) Math.min(chunkSize, length - readOffset);
+        ByteBuffer buffer = chunk.buffer;
+        buffer.clear();
+        buffer.position(header);
+        buffer.limit(header + wanted);
+        if(source.read(buffer) != wanted){
+            throw new IOException("数据来源提前结束");
+        }
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + header, wanted);
+        buffer.putLong(0, id);
+        buffer.putLong(8, readOffset);
+        buffer.putInt(16, (int) crc.getValue());
+        buffer.position(0);
+        chunk.offset = readOffset;
+        chunk.length = wanted;
+        readOffset += wanted;
+    }
+
+    @Override
+    void release() {
+        try {
+            source.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
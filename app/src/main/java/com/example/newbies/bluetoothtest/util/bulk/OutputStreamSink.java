@@ -0,0 +1,47 @@
+package com.example.newbies.bluetoothtest.util.bulk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 将收到的数据写入输出流，例如FileOutputStream
+ * @author NewBies
+ * @date 2018/1/17
+ */
+public class OutputStreamSink implements BulkSink {
+
+    private final OutputStream outputStream;
+    /**
+     * 数据位于直接内存时使用的临时数组
+     */
+    private byte[] scratch;
+
+    public OutputStreamSink(OutputStream outputStream){
+        this.outputStream = outputStream;
+    }
+
+    @Override
+    public void write(ByteBuffer data) throws IOException {
+        int length = data.remaining();
+        if(data.hasArray()){
+            outputStream.write(data.array(), data.arrayOffset() + data.position(), length);
+        }
+        else{
+            if(scratch == null || scratch.length < length){
+                scratch = new byte[length];
+            }
+            data.get(scratch, 0, length);
+            outputStream.write(scratch, 0, length);
+        }
+    }
+
+    @Override
+    public void close(boolean completed) {
+        try {
+            outputStream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.newbies.bluetoothtest.util.compress;
+
+import java.io.IOException;
+
+/**
+ * 压缩算法，每个会话的每个方向各持有一个实例，不是线程安全的
+ * @author NewBies
+ * @date 2018/1/19
+ */
+public interface Codec {
+
+    /**
+     * @return 算法编号，写在压缩负载的第一个字节，见{@link Codecs}
+     */
+    int getId();
+
+    /**
+     * @return 是否在消息之间保留状态(例如字典)，有状态的算法要求解压顺序与压缩顺序一致，压缩后的数据必须发送出去
+     */
+    boolean isStateful();
+
+    /**
+     * @param length 原始长度
+     * @return 压缩后可能的最大长度
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * 压缩
+     * @param src 原始数据
+     * @param offset 起始位置
+     * @param length 长度
+     * @param dst 输出缓冲区
+     * @param dstOffset 输出的起始位置，之后至少有{@link #maxCompressedLength(int)}字节的空间
+     * @return 压缩后的长度
+     */
+    int compress(byte[] src, int offset, int length, byte[] dst, int dstOffset);
+
+    /**
+     * 解压
+     * @param src 压缩的数据
+     * @param offset 起始位置
+     * @param length 长度
+     * @param dst 输出缓冲区
+     * @param dstOffset 输出的起始位置
+     * @param rawLength 原始长度，dst中至少有这么多空间
+     * @throws IOException 数据格式错误或者解压后的长度与原始长度不一致
+     */
+    void decompress(byte[] src, int offset, int length, byte[] dst, int dstOffset, int rawLength) throws IOException;
+}
@@ -0,0 +1,73 @@
+package com.example.newbies.bluetoothtest.util.compress;
+
+import java.util.zip.Deflater;
+
+/**
+ * 压缩算法的编号和创建方法
+ * @author NewBies
+ * @date 2018/1/19
+ */
+public final class Codecs {
+
+    /**
+     * 逐条消息压缩的Deflate
+     */
+    public static final int DEFLATE = 1;
+    /**
+     * 整个会话共用字典的Deflate
+     */
+    public static final int DEFLATE_STREAM = 2;
+    /**
+     * 快速的LZ算法
+     */
+    public static final int LZ = 3;
+
+    private static final boolean STREAMING_SUPPORTED = DeflateCodec.isStreamingSupported();
+
+    private Codecs(){
+    }
+
+    /**
+     * 默认的偏好顺序：优先使用压缩率最高的流模式Deflate，不支持时依次退回
+     * @return
+     */
+    public static int[] defaults(){
+        return new int[]{DEFLATE_STREAM, DEFLATE, LZ};
+    }
+
+    /**
+     * @param id 算法编号
+     * @return 当前环境是否支持该算法
+     */
+    public static boolean isSupported(int id){
+        return id == DEFLATE || id == LZ || (id == DEFLATE_STREAM && STREAMING_SUPPORTED);
+    }
+
+    /**
+     * @return 当前环境支持的所有算法，握手时发送给对方
+     */
+    public static int[] supported(){
+        return STREAMING_SUPPORTED ? new int[]{DEFLATE, DEFLATE_STREAM, LZ} : new int[]{DEFLATE, LZ};
+    }
+
+    /**
+     * 创建一个新的算法实例
+     * @param id 算法编号
+     * @return 不支持时返回null
+     */
+    public static Codec create(int id){
+        if(!isSupported(id)){
+            return null;
+        }
+        switch (id){
+            case DEFLATE:
+                return new DeflateCodec(false, Deflater.DEFAULT_COMPRESSION);
+            case DEFLATE_STREAM:
+                return new DeflateCodec(true, Deflater.DEFAULT_COMPRESSION);
+            case LZ:
+                return new LzCodec();
+            default:
+                return null;
+        }
+    }
+}
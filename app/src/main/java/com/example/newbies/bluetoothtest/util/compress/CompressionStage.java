@@ -0,0 +1,121 @@
+package com.example.newbies.bluetoothtest.util.compress;
+
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+import com.example.newbies.bluetoothtest.util.frame.PayloadCompressor;
+
+/**
+ * 发送端的压缩环节，交给{@link com.example.newbies.bluetoothtest.util.frame.FrameEncoder}使用
+ * 压缩后的负载格式：| 算法编号(1) | 原始长度(4，大端) | 压缩数据 |
+ * 太短的消息不压缩；压缩效果不明显时认为数据不可压缩，接下来的若干条消息直接跳过，
+ * 连续不可压缩时跳过的条数成倍增加，避免对图片、固件这类数据白白消耗CPU；
+ * 有状态的算法即使变长也要发送压缩结果，对方按{@link Frame#maxCompressedPayloadLength(int)}接收
+ * @author NewBies
+ * @date 2018/1/19
+ */
+public class CompressionStage implements PayloadCompressor {
+
+    /**
+     * 压缩负载的头部长度
+     */
+    public static final int HEADER_LENGTH = 5;
+    /**
+     * 逐条压缩时，短于该长度的消息不压缩
+     */
+    public static final int DEFAULT_MIN_LENGTH = 64;
+    /**
+     * 有状态的算法可以借助字典压缩更短的消息
+     */
+    public static final int DEFAULT_STATEFUL_MIN_LENGTH = 16;
+    /**
+     * 连续不可压缩时最多跳过的消息数
+     */
+    private static final int MAX_SKIP = 64;
+
+    private final Codec codec;
+    private final int minLength;
+    /**
+     * 还要跳过的消息数
+     */
+    private int skip;
+    /**
+     * 连续不可压缩的次数
+     */
+    private int misses;
+    private volatile long rawBytes;
+    private volatile long compressedBytes;
+
+    public CompressionStage(Codec codec){
+        this(codec, codec.isStateful() ? DEFAULT_STATEFUL_MIN_LENGTH : DEFAULT_MIN_LENGTH);
+    }
+
+    /**
+     * @param codec 压缩算法
+     * @param minLength 短于该长度的消息不压缩
+     */
+    public CompressionStage(Codec codec, int minLength){
+        //有状态的算法总是发送压缩结果，最坏情况下的长度必须在对方接受的范围内
+        int max = Frame.DEFAULT_MAX_PAYLOAD_LENGTH;
+        if(HEADER_LENGTH + codec.maxCompressedLength(max) > Frame.maxCompressedPayloadLength(max)){
+            throw new IllegalArgumentException("压缩算法的最大输出长度超出了帧的限制：" + codec.getId());
+        }
+        this.codec = codec;
+        this.minLength = minLength;
+    }
+
+    public int getCodecId() {
+        return codec.getId();
+    }
+
+    /**
+     * @return 压缩前的总字节数，只统计经过压缩的消息
+     */
+    public long getRawBytes() {
+        return rawBytes;
+    }
+
+    /**
+     * @return 压缩后的总字节数
+     */
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return HEADER_LENGTH + codec.maxCompressedLength(length);
+    }
+
+    @Override
+    public int compress(byte[] src, int offset, int length, byte[] dst) {
+        if(length < minLength){
+            return -1;
+        }
+        if(skip > 0){
+            skip--;
+            return -1;
+        }
+        int compressedLength = HEADER_LENGTH + codec.compress(src, offset, length, dst, HEADER_LENGTH);
+        //至少节省十分之一才算有效
+        if(compressedLength > length - length / 10){
+            if(misses < 6){
+                misses++;
+            }
+            skip = Math.min(1 << misses, MAX_SKIP);
+            //有状态的算法已经更新了字典，压缩结果必须发送出去
+            if(!codec.isStateful()){
+                return -1;
+            }
+        }
+        else{
+            misses = 0;
+        }
+        dst[0] = (byte) codec.getId();
+        dst[1] = (byte) (length >>> 24);
+        dst[2] = (byte) (length >>> 16);
+        dst[3] = (byte) (length >>> 8);
+        dst[4] = (byte) length;
+        rawBytes += length;
+        compressedBytes += compressedLength;
+        return compressedLength;
+    }
+}
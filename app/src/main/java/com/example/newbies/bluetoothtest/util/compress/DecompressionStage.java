@@ -0,0 +1,50 @@
+package com.example.newbies.bluetoothtest.util.compress;
+
+import com.example.newbies.bluetoothtest.util.frame.PayloadDecompressor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 接收端的解压环节，交给{@link com.example.newbies.bluetoothtest.util.frame.FrameDecoder}使用
+ * 根据负载第一个字节的算法编号选择算法，每种算法的实例在第一次用到时创建，之后一直复用，
+ * 解压的输出缓冲区也是复用的，只在遇到更长的消息时扩容
+ * @author NewBies
+ * @date 2018/1/19
+ */
+public class DecompressionStage implements PayloadDecompressor {
+
+    private final Codec[] codecs = new Codec[8];
+    private byte[] output = new byte[256];
+    private ByteBuffer view = ByteBuffer.wrap(output);
+
+    @Override
+    public ByteBuffer decompress(byte[] src, int offset, int length, int maxLength) throws IOException {
+        if(length < CompressionStage.HEADER_LENGTH){
+            throw new IOException("压缩负载不完整");
+        }
+        int id = src[offset] & 0xff;
+        int rawLength = ((src[offset + 1] & 0xff) << 24) | ((src[offset + 2] & 0xff) << 16)
+                | ((src[offset + 3] & 0xff) << 8) | (src[offset + 4] & 0xff);
+        if(rawLength < 0 || rawLength > maxLength){
+            throw new IOException("非法的原始长度：" + rawLength);
+        }
+        Codec codec = id < codecs.length ? codecs[id] : null;
+        if(codec == null){
+            codec = Codecs.create(id);
+            if(codec == null){
+                throw new IOException("不支持的压缩算法：" + id);
+            }
+            codecs[id] = codec;
+        }
+        if(output.length < rawLength){
+            output = new byte[Math.max(rawLength, output.length * 2)];
+            view = ByteBuffer.wrap(output);
+        }
+        codec.decompress(src, offset + CompressionStage.HEADER_LENGTH, length - CompressionStage.HEADER_LENGTH,
+                output, 0, rawLength);
+        view.clear();
+        view.limit(rawLength);
+        return view;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.newbies.bluetoothtest.util.compress;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 基于Deflate的压缩算法
+ * 逐条模式下每条消息单独压缩；流模式下整个会话共用一个压缩流，每条消息以SYNC_FLUSH结束，
+ * 后面的消息可以引用前面消息中的内容作为字典，对重复度高的短消息(例如JSON格式的遥测数据)效果明显
+ * @author NewBies
+ * @date 2018/1/19
+ */
+public class DeflateCodec implements Codec {
+
+    private final boolean streaming;
+    private final int level;
+    private Deflater deflater;
+    private Inflater inflater;
+
+    /**
+     * @param streaming 是否为流模式
+     * @param level 压缩级别，0到9
+     */
+    public DeflateCodec(boolean streaming, int level){
+        this.streaming = streaming;
+        this.level = level;
+    }
+
+    /**
+     * 流模式依赖Deflater的SYNC_FLUSH，Android API 19之前没有该方法
+     * @return 当前环境是否支持流模式
+     */
+    static boolean isStreamingSupported(){
+        try {
+            Deflater probe = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            probe.deflate(new byte[16], 0, 16, Deflater.SYNC_FLUSH);
+            probe.end();
+            return true;
+        } catch (NoSuchMethodError e) {
+            return false;
+        } catch (NoSuchFieldError e) {
+            return false;
+        }
+    }
+
+    @Override
+    public int getId() {
+        return streaming ? Codecs.DEFLATE_STREAM : Codecs.DEFLATE;
+    }
+
+    @Override
+    public boolean isStateful() {
+        return streaming;
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        //存储块的开销加上SYNC_FLUSH的空块，留出足够的余量，流模式下输出缓冲区不足会破坏压缩流
+        return length + (length >> 3) + 64;
+    }
+
+    @Override
+    public int compress(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+        if(deflater == null){
+            deflater = new Deflater(level, true);
+        }
+        int capacity = maxCompressedLength(length);
+        int count;
+        if(streaming){
+            deflater.setInput(src, offset, length);
+            count = 0;
+            //SYNC_FLUSH在输出缓冲区足够时一次完成，循环只是为了保险
+            do {
+                count += deflater.deflate(dst, dstOffset + count, capacity - count, Deflater.SYNC_FLUSH);
+            } while(!deflater.needsInput() && count < capacity);
+        }
+        else{
+            deflater.reset();
+            deflater.setInput(src, offset, length);
+            deflater.finish();
+            count = 0;
+            while(!deflater.finished() && count < capacity){
+                count += deflater.deflate(dst, dstOffset + count, capacity - count);
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void decompress(byte[] src, int offset, int length, byte[] dst, int dstOffset, int rawLength) throws IOException {
+        if(inflater == null){
+            inflater = new Inflater(true);
+        }
+        if(!streaming){
+            inflater.reset();
+        }
+        inflater.setInput(src, offset, length);
+        int count = 0;
+        try {
+            while(count < rawLength){
+                int n = inflater.inflate(dst, dstOffset + count, rawLength - count);
+                if(n == 0 && (inflater.needsInput() || inflater.finished() || inflater.needsDictionary())){
+                    break;
+                }
+                count += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("解压失败", e);
+        }
+        if(count != rawLength){
+            throw new IOException("解压后的长度不正确：" + count + "，应为" + rawLength);
+        }
+    }
+}
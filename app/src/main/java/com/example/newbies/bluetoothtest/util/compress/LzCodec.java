@@ -0,0 +1,189 @@
+package com.example.newbies.bluetoothtest.util.compress;
+
+import java.io.IOException;
+
+/**
+ * 快速的LZ压缩算法，数据格式与LZ4的块格式相同
+ * 压缩率不如Deflate，但压缩和解压都只需要少量的比较和拷贝，适合CPU较弱的设备或者数据量很大的场合。
+ * 每个序列：| 标记(高4位为字面量长度，低4位为匹配长度-4) | 扩展的字面量长度 | 字面量 | 偏移(2字节，小端) | 扩展的匹配长度 |
+ * 最后一个序列只有字面量
+ * @author NewBies
+ * @date 2018/1/19
+ */
+public class LzCodec implements Codec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_BITS = 12;
+    private static final int MAX_OFFSET = 0xFFFF;
+    /**
+     * 最后5个字节总是作为字面量，最后一个匹配至少在末尾12个字节之前开始
+     */
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+
+    /**
+     * 4字节序列的哈希表，保存最近一次出现的位置。
+     * 不需要在消息之间清空，残留的位置在使用前都会检查范围并比较实际内容
+     */
+    private final int[] table = new int[1 << HASH_BITS];
+
+    @Override
+    public int getId() {
+        return Codecs.LZ;
+    }
+
+    @Override
+    public boolean isStateful() {
+        return false;
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    @Override
+    public int compress(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+        int end = offset + length;
+        int matchLimit = end - MF_LIMIT;
+        int anchor = offset;
+        int ip = offset;
+        int op = dstOffset;
+        while(ip < matchLimit){
+            int sequence = readInt(src, ip);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int ref = table[hash];
+            table[hash] = ip;
+            if(ref < offset || ref >= ip || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence){
+                ip++;
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            int limit = end - LAST_LITERALS;
+            while(ip + matchLength < limit && src[ref + matchLength] == src[ip + matchLength]){
+                matchLength++;
+            }
+            op = writeSequence(src, anchor, ip - anchor, dst, op, ip - ref, matchLength);
+            ip += matchLength;
+            anchor = ip;
+        }
+        //剩余的字面量
+        int literalLength = end - anchor;
+        op = writeLength(dst, op, literalLength);
+        System.arraycopy(src, anchor, dst, op, literalLength);
+        return op + literalLength - dstOffset;
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literalLength, byte[] dst, int op,
+                                     int matchOffset, int matchLength){
+        int tokenIndex = op;
+        op = writeLength(dst, op, literalLength);
+        System.arraycopy(src, literalStart, dst, op, literalLength);
+        op += literalLength;
+        dst[op++] = (byte) matchOffset;
+        dst[op++] = (byte) (matchOffset >>> 8);
+        int extra = matchLength - MIN_MATCH;
+        if(extra >= 15){
+            dst[tokenIndex] |= 15;
+            op = writeExtra(dst, op, extra - 15);
+        }
+        else{
+            dst[tokenIndex] |= extra;
+        }
+        return op;
+    }
+
+    /**
+     * 写入标记字节，字面量长度放在高4位，超过14的部分写在标记之后
+     * @return 下一个写入位置
+     */
+    private static int writeLength(byte[] dst, int op, int literalLength){
+        if(literalLength >= 15){
+            dst[op++] = (byte) (15 << 4);
+            return writeExtra(dst, op, literalLength - 15);
+        }
+        dst[op++] = (byte) (literalLength << 4);
+        return op;
+    }
+
+    private static int writeExtra(byte[] dst, int op, int remaining){
+        while(remaining >= 255){
+            dst[op++] = (byte) 255;
+            remaining -= 255;
+        }
+        dst[op++] = (byte) remaining;
+        return op;
+    }
+
+    private static int readInt(byte[] src, int index){
+        return (src[index] & 0xff) | ((src[index + 1] & 0xff) << 8)
+                | ((src[index + 2] & 0xff) << 16) | ((src[index + 3] & 0xff) << 24);
+    }
+
+    @Override
+    public void decompress(byte[] src, int offset, int length, byte[] dst, int dstOffset, int rawLength) throws IOException {
+        int ip = offset;
+        int end = offset + length;
+        int op = dstOffset;
+        int outEnd = dstOffset + rawLength;
+        while(true){
+            if(ip >= end){
+                throw new IOException("压缩数据不完整");
+            }
+            int token = src[ip++] & 0xff;
+            int literalLength = token >>> 4;
+            if(literalLength == 15){
+                int b;
+                do {
+                    if(ip >= end){
+                        throw new IOException("压缩数据不完整");
+                    }
+                    b = src[ip++] & 0xff;
+                    literalLength += b;
+                } while(b == 255);
+            }
+            if(literalLength > end - ip || literalLength > outEnd - op){
+                throw new IOException("字面量长度越界");
+            }
+            System.arraycopy(src, ip, dst, op, literalLength);
+            ip += literalLength;
+            op += literalLength;
+            if(ip == end){
+                break;
+            }
+
+            if(end - ip < 2){
+                throw new IOException("压缩数据不完整");
+            }
+            int matchOffset = (src[ip] & 0xff) | ((src[ip + 1] & 0xff) << 8);
+            ip += 2;
+            if(matchOffset == 0 || matchOffset > op - dstOffset){
+                throw new IOException("非法的匹配偏移：" + matchOffset);
+            }
+            int matchLength = token & 15;
+            if(matchLength == 15){
+                int b;
+                do {
+                    if(ip >= end){
+                        throw new IOException("压缩数据不完整");
+                    }
+                    b = src[ip++] & 0xff;
+                    matchLength += b;
+                } while(b == 255);
+            }
+            matchLength += MIN_MATCH;
+            if(matchLength > outEnd - op){
+                throw new IOException("匹配长度越界");
+            }
+            //匹配可能与输出重叠，逐字节拷贝
+            int from = op - matchOffset;
+            for(int i = 0; i < matchLength; i++){
+                dst[op + i] = dst[from + i];
+            }
+            op += matchLength;
+        }
+        if(op != outEnd){
+            throw new IOException("解压后的长度不正确：" + (op - dstOffset) + "，应为" + rawLength);
+        }
+    }
+}
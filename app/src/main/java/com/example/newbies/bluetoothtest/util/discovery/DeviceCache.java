@@ -0,0 +1,172 @@
+package com.example.newbies.bluetoothtest.util.discovery;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 扫描到的设备的缓存，以Mac地址为键去重
+ * 扫描过程中同一个设备会被反复发现，每次只更新缓存，只有新设备、名称或配对状态变化、
+ * 信号强度变化超过阈值时才记为变化，由{@link #drainChanges()}一次性取出交给列表，
+ * 这样设备很多时列表不会在每个广播上刷新。超过有效期没有再被发现的设备会被移除，已配对的设备除外
+ * 该类不是线程安全的，应该只在一个线程中使用
+ * @author NewBies
+ * @date 2018/1/21
+ */
+public class DeviceCache {
+
+    /**
+     * 默认的有效期(毫秒)，经典蓝牙的一轮扫描大约12秒，留出两轮多的余量
+     */
+    public static final long DEFAULT_TTL_MILLIS = 30000;
+    /**
+     * 默认的信号强度变化阈值(dBm)，小于该值的波动不刷新列表
+     */
+    public static final int DEFAULT_RSSI_THRESHOLD = 5;
+
+    private final long ttlMillis;
+    private final int rssiThreshold;
+    private final Map<String, DiscoveredDevice> devices = new LinkedHashMap<>();
+    /**
+     * 上次取出变化之后发生变化的设备
+     */
+    private final Map<String, DiscoveredDevice> changed = new LinkedHashMap<>();
+    /**
+     * 上次取出变化之后被移除的设备
+     */
+    private final Set<String> removed = new LinkedHashSet<>();
+    /**
+     * 列表中当前显示的版本，判断变化时与它比较，这样缓慢的信号强度漂移累积起来也会显示出来
+     */
+    private final Map<String, DiscoveredDevice> published = new HashMap<>();
+
+    public DeviceCache(){
+        this(DEFAULT_TTL_MILLIS, DEFAULT_RSSI_THRESHOLD);
+    }
+
+    /**
+     * @param ttlMillis 有效期(毫秒)
+     * @param rssiThreshold 信号强度变化阈值(dBm)
+     */
+    public DeviceCache(long ttlMillis, int rssiThreshold){
+        this.ttlMillis = ttlMillis;
+        this.rssiThreshold = rssiThreshold;
+    }
+
+    /**
+     * 记录扫描到的设备
+     * @param device
+     * @return 是否产生了需要刷新列表的变化
+     */
+    public boolean update(DiscoveredDevice device){
+        String address = device.getAddress();
+        devices.put(address, device);
+        DiscoveredDevice shown = changed.containsKey(address) ? changed.get(address) : published.get(address);
+        if(shown != null && !removed.contains(address) && !isSignificant(shown, device)){
+            return false;
+        }
+        changed.put(address, device);
+        removed.remove(address);
+        return true;
+    }
+
+    /**
+     * 更新已知设备的配对状态
+     * @param address
+     * @param bonded
+     * @return 是否产生了需要刷新列表的变化
+     */
+    public boolean updateBondState(String address, boolean bonded){
+        DiscoveredDevice old = devices.get(address);
+        if(old == null || old.isBonded() == bonded){
+            return false;
+        }
+        return update(new DiscoveredDevice(old.getDevice(), address, old.getName(), old.getRssi(), bonded,
+                old.getLastSeenMillis()));
+    }
+
+    private boolean isSignificant(DiscoveredDevice old, DiscoveredDevice device){
+        if(old.isBonded() != device.isBonded()){
+            return true;
+        }
+        if(old.getName() == null ? device.getName() != null : !old.getName().equals(device.getName())){
+            return true;
+        }
+        if(old.getRssi() == DiscoveredDevice.NO_RSSI || device.getRssi() == DiscoveredDevice.NO_RSSI){
+            return old.getRssi() != device.getRssi();
+        }
+        return Math.abs(old.getRssi() - device.getRssi()) >= rssiThreshold;
+    }
+
+    /**
+     * 移除超过有效期的设备
+     * @param nowMillis 当前时间，与{@link DiscoveredDevice#getLastSeenMillis()}使用同一个时钟
+     * @return 移除的个数
+     */
+    public int evictExpired(long nowMillis){
+        int count = 0;
+        Iterator<DiscoveredDevice> iterator = devices.values().iterator();
+        while(iterator.hasNext()){
+            DiscoveredDevice device = iterator.next();
+            if(!device.isBonded() && nowMillis - device.getLastSeenMillis() > ttlMillis){
+                iterator.remove();
+                changed.remove(device.getAddress());
+                removed.add(device.getAddress());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return 是否有会过期的设备，没有时不需要定期检查
+     */
+    public boolean hasExpirable(){
+        for(DiscoveredDevice device : devices.values()){
+            if(!device.isBonded()){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public DiscoveredDevice get(String address){
+        return devices.get(address);
+    }
+
+    public int size(){
+        return devices.size();
+    }
+
+    /**
+     * 取出上次调用之后的所有变化
+     * @return
+     */
+    public DeviceListDiff drainChanges(){
+        List<DiscoveredDevice> added = new ArrayList<>();
+        List<DiscoveredDevice> updated = new ArrayList<>();
+        List<String> gone = new ArrayList<>();
+        for(String address : removed){
+            //在两次取出之间出现又消失的设备不需要通知
+            if(published.remove(address) != null){
+                gone.add(address);
+            }
+        }
+        for(DiscoveredDevice device : changed.values()){
+            if(published.put(device.getAddress(), device) == null){
+                added.add(device);
+            }
+            else{
+                updated.add(device);
+            }
+        }
+        removed.clear();
+        changed.clear();
+        return new DeviceListDiff(added, updated, gone);
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.newbies.bluetoothtest.util.discovery;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 两次刷新之间设备列表的变化
+ * @author NewBies
+ * @date 2018/1/21
+ */
+public final class DeviceListDiff {
+
+    private final List<DiscoveredDevice> added;
+    private final List<DiscoveredDevice> updated;
+    private final List<String> removed;
+
+    DeviceListDiff(List<DiscoveredDevice> added, List<DiscoveredDevice> updated, List<String> removed){
+        this.added = Collections.unmodifiableList(added);
+        this.updated = Collections.unmodifiableList(updated);
+        this.removed = Collections.unmodifiableList(removed);
+    }
+
+    /**
+     * @return 新出现的设备，按发现的顺序排列
+     */
+    public List<DiscoveredDevice> getAdded() {
+        return added;
+    }
+
+    /**
+     * @return 信息发生了变化的设备
+     */
+    public List<DiscoveredDevice> getUpdated() {
+        return updated;
+    }
+
+    /**
+     * @return 已经过期被移除的设备地址
+     */
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && updated.isEmpty() && removed.isEmpty();
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.newbies.bluetoothtest.util.discovery;
+
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * 扫描到的一个设备在某一时刻的信息，创建后不再修改，可以直接交给UI线程
+ * @author NewBies
+ * @date 2018/1/21
+ */
+public final class DiscoveredDevice {
+
+    /**
+     * 没有信号强度时的取值，例如已配对但尚未扫描到的设备
+     */
+    public static final int NO_RSSI = Short.MIN_VALUE;
+
+    private final BluetoothDevice device;
+    private final String address;
+    private final String name;
+    private final int rssi;
+    private final boolean bonded;
+    private final long lastSeenMillis;
+
+    /**
+     * @param device 设备实例，连接时直接使用，不需要再通过地址查找
+     * @param address Mac地址
+     * @param name 设备名称，可能为null
+     * @param rssi 信号强度(dBm)，没有时为{@link #NO_RSSI}
+     * @param bonded 是否已配对
+     * @param lastSeenMillis 最近一次扫描到的时间，使用{@link android.os.SystemClock#elapsedRealtime()}
+     */
+    public DiscoveredDevice(BluetoothDevice device, String address, String name, int rssi, boolean bonded, long lastSeenMillis){
+        this.device = device;
+        this.address = address;
+        this.name = name;
+        this.rssi = rssi;
+        this.bonded = bonded;
+        this.lastSeenMillis = lastSeenMillis;
+    }
+
+    public BluetoothDevice getDevice() {
+        return device;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getRssi() {
+        return rssi;
+    }
+
+    public boolean isBonded() {
+        return bonded;
+    }
+
+    public long getLastSeenMillis() {
+        return lastSeenMillis;
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.newbies.bluetoothtest.util.frame;
+
+/**
+ * 数据帧的格式定义
+ * 帧格式：| 负载长度(4字节，大端) | 类型(1字节) | 标志位(1字节) | 负载 | CRC32(4字节，可选) |
+ * 标志位的低4位为标志，高4位为逻辑通道号
+ * @author NewBies
+ * @date 2018/1/8
+ */
+public final class Frame {
+
+    /**
+     * 帧头长度：长度(4) + 类型(1) + 标志位(1)
+     */
+    public static final int HEADER_LENGTH = 6;
+    /**
+     * CRC校验码的长度
+     */
+    public static final int CRC_LENGTH = 4;
+    /**
+     * 标志位：帧尾带有CRC32校验码
+     */
+    public static final int FLAG_CRC = 0x01;
+    /**
+     * 标志位：负载经过了压缩，负载的第一个字节为压缩算法的编号
+     */
+    public static final int FLAG_COMPRESSED = 0x02;
+    /**
+     * 通道号在标志位中的偏移
+     */
+    public static final int CHANNEL_SHIFT = 4;
+    /**
+     * 最大的通道号
+     */
+    public static final int MAX_CHANNEL = 15;
+    /**
+     * 默认的最大负载长度，超过该长度的帧视为非法数据
+     */
+    public static final int DEFAULT_MAX_PAYLOAD_LENGTH = 64 * 1024;
+
+    /**
+     * 帧类型：普通数据
+     */
+    public static final int TYPE_DATA = 0x01;
+    /**
+     * 帧类型：会话建立时交换的握手信息，例如双方支持的压缩算法
+     */
+    public static final int TYPE_HELLO = 0x02;
+    /**
+     * 帧类型：心跳请求和响应，负载为发送方的时间戳(8字节)，响应原样返回，用于检测连接是否存活和估计往返时间
+     */
+    public static final int TYPE_PING = 0x03;
+    public static final int TYPE_PONG = 0x04;
+    /**
+     * 帧类型：接收方归还的接收额度，负载为累计已经处理完的数据帧个数(4字节)，用于流量控制
+     */
+    public static final int TYPE_CREDIT = 0x05;
+    /**
+     * 帧类型：已注册类型的二进制消息，负载以变长的类型编号开头，见util.message包
+     */
+    public static final int TYPE_TYPED = 0x06;
+    /**
+     * 帧类型：大块数据传输的请求、接受、数据块、确认、重传请求和取消，协议见util.bulk包
+     */
+    public static final int TYPE_BULK_OFFER = 0x10;
+    public static final int TYPE_BULK_ACCEPT = 0x11;
+    public static final int TYPE_BULK_CHUNK = 0x12;
+    public static final int TYPE_BULK_ACK = 0x13;
+    public static final int TYPE_BULK_NACK = 0x14;
+    public static final int TYPE_BULK_CANCEL = 0x15;
+    /**
+     * 帧类型：RPC请求和响应，协议见util.rpc包
+     */
+    public static final int TYPE_RPC_REQUEST = 0x20;
+    public static final int TYPE_RPC_RESPONSE = 0x21;
+    /**
+     * 帧类型：存储转发的消息和确认，协议见util.store包
+     */
+    public static final int TYPE_STORED = 0x30;
+    public static final int TYPE_STORED_ACK = 0x31;
+
+    private Frame(){
+    }
+
+    /**
+     * 计算一个完整帧所占的字节数
+     * @param payloadLength 负载长度
+     * @param crc 是否带有CRC校验码
+     * @return
+     */
+    public static int frameLength(int payloadLength, boolean crc){
+        return HEADER_LENGTH + payloadLength + (crc ? CRC_LENGTH : 0);
+    }
+
+    /**
+     * 压缩后的负载允许比原始负载的上限多出的部分：不可压缩的数据经过有状态的算法后会略微变长，
+     * 这类算法更新过字典后不能改为发送原始数据，接收端需要为此留出余量
+     * @param maxPayloadLength 原始负载的最大长度
+     * @return 带有{@link #FLAG_COMPRESSED}标志的帧允许的最大负载长度
+     */
+    public static int maxCompressedPayloadLength(int maxPayloadLength){
+        return maxPayloadLength + (maxPayloadLength >> 3) + 1024;
+    }
+
+    /**
+     * 组合标志位
+     * @param crc 是否带有CRC校验码
+     * @param channel 通道号
+     * @return
+     */
+    public static int flags(boolean crc, int channel){
+        return (crc ? FLAG_CRC : 0) | ((channel & MAX_CHANNEL) << CHANNEL_SHIFT);
+    }
+
+    /**
+     * 组合标志位
+     * @param crc 是否带有CRC校验码
+     * @param compressed 负载是否经过压缩
+     * @param channel 通道号
+     * @return
+     */
+    public static int flags(boolean crc, boolean compressed, int channel){
+        return flags(crc, channel) | (compressed ? FLAG_COMPRESSED : 0);
+    }
+
+    /**
+     * @param flags 标志位
+     * @return 标志位中的通道号
+     */
+    public static int channelOf(int flags){
+        return (flags >>> CHANNEL_SHIFT) & MAX_CHANNEL;
+    }
+}
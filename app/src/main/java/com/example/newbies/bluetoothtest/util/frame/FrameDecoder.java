@@ -0,0 +1,216 @@
+package com.example.newbies.bluetoothtest.util.frame;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * 数据帧解码器，负责把输入流中的字节重新组装成一个个完整的帧
+ * 数据直接读入内部缓冲区，完整的帧以缓冲区视图的形式交给{@link FrameListener}，
+ * 不会对每次读到的数据块做额外拷贝，只有残留的半帧数据在缓冲区用尽时才会被移动到缓冲区头部
+ * 该类不是线程安全的，应该只在读线程中使用
+ * @author NewBies
+ * @date 2018/1/8
+ */
+public class FrameDecoder {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final FrameListener listener;
+    /**
+     * 允许的最大负载长度
+     */
+    private final int maxPayloadLength;
+    /**
+     * 压缩的帧允许的最大负载长度，见{@link Frame#maxCompressedPayloadLength(int)}
+     */
+    private final int maxCompressedLength;
+    private final CRC32 crc32 = new CRC32();
+    /**
+     * 负载解压器，为null时收到压缩的帧视为数据格式错误
+     */
+    private PayloadDecompressor decompressor;
+    private byte[] buffer;
+    /**
+     * buffer的视图，用于将负载交给监听器，只在缓冲区扩容时重新创建
+     */
+    private ByteBuffer view;
+    /**
+     * 下一个待解析字节的位置
+     */
+    private int readIndex;
+    /**
+     * 下一个可写入字节的位置
+     */
+    private int writeIndex;
+
+    public FrameDecoder(FrameListener listener){
+        this(listener, Frame.DEFAULT_MAX_PAYLOAD_LENGTH);
+    }
+
+    public FrameDecoder(FrameListener listener, int maxPayloadLength){
+        this.listener = listener;
+        this.maxPayloadLength = maxPayloadLength;
+        this.maxCompressedLength = Frame.maxCompressedPayloadLength(maxPayloadLength);
+        this.buffer = new byte[Math.min(INITIAL_CAPACITY, Frame.frameLength(maxPayloadLength, true))];
+        this.view = ByteBuffer.wrap(buffer);
+    }
+
+    /**
+     * 设置负载解压器，应该在开始读取之前设置
+     * @param decompressor
+     */
+    public void setDecompressor(PayloadDecompressor decompressor) {
+        this.decompressor = decompressor;
+    }
+
+    /**
+     * 从输入流中读取一次数据，并解析出其中所有完整的帧
+     * 这是一个阻塞调用
+     * @param in 输入流
+     * @return 本次读到的字节数，流结束时返回-1
+     * @throws IOException 读取失败或者数据格式错误
+     */
+    public int readFrom(InputStream in) throws IOException {
+        ensureWritable();
+        int count = in.read(buffer, writeIndex, buffer.length - writeIndex);
+        if(count < 0){
+            return -1;
+        }
+        writeIndex += count;
+        parse();
+        return count;
+    }
+
+    /**
+     * 解码一段外部提供的数据，适用于数据不是直接来自输入流的场景
+     * @param src 数据
+     * @param offset 起始位置
+     * @param length 长度
+     * @throws IOException 数据格式错误
+     */
+    public void decode(byte[] src, int offset, int length) throws IOException {
+        while(length > 0){
+            ensureWritable();
+            int count = Math.min(length, buffer.length - writeIndex);
+            System.arraycopy(src, offset, buffer, writeIndex, count);
+            writeIndex += count;
+            offset += count;
+            length -= count;
+            parse();
+        }
+    }
+
+    /**
+     * 丢弃所有尚未解析的数据，连接重建时调用
+     */
+    public void reset(){
+        readIndex = 0;
+        writeIndex = 0;
+    }
+
+    private void parse() throws IOException {
+        while(writeIndex - readIndex >= Frame.HEADER_LENGTH){
+            int payloadLength = ((buffer[readIndex] & 0xff) << 24)
+                    | ((buffer[readIndex + 1] & 0xff) << 16)
+                    | ((buffer[readIndex + 2] & 0xff) << 8)
+                    | (buffer[readIndex + 3] & 0xff);
+            int type = buffer[readIndex + 4] & 0xff;
+            int flags = buffer[readIndex + 5] & 0xff;
+            //压缩的帧解压后仍然不能超过maxPayloadLength，由解压器检查
+            int limit = (flags & Frame.FLAG_COMPRESSED) != 0 ? maxCompressedLength : maxPayloadLength;
+            if(payloadLength < 0 || payloadLength > limit){
+                throw new IOException("非法的帧长度：" + payloadLength);
+            }
+            boolean crc = (flags & Frame.FLAG_CRC) != 0;
+            int frameLength = Frame.frameLength(payloadLength, crc);
+            //半帧数据，等待下一次读取
+            if(writeIndex - readIndex < frameLength){
+                ensureCapacity(frameLength);
+                return;
+            }
+
+            int payloadOffset = readIndex + Frame.HEADER_LENGTH;
+            if(crc){
+                crc32.reset();
+                crc32.update(buffer, payloadOffset, payloadLength);
+                int crcOffset = payloadOffset + payloadLength;
+                int expected = ((buffer[crcOffset] & 0xff) << 24)
+                        | ((buffer[crcOffset + 1] & 0xff) << 16)
+                        | ((buffer[crcOffset + 2] & 0xff) << 8)
+                        | (buffer[crcOffset + 3] & 0xff);
+                if(expected != (int) crc32.getValue()){
+                    throw new IOException("数据帧CRC校验失败");
+                }
+            }
+
+            readIndex += frameLength;
+            if((flags & Frame.FLAG_COMPRESSED) != 0){
+                if(decompressor == null){
+                    throw new IOException("收到了压缩的数据帧，但没有设置解压器");
+                }
+                listener.onFrame(type, Frame.channelOf(flags),
+                        decompressor.decompress(buffer, payloadOffset, payloadLength, maxPayloadLength));
+                continue;
+            }
+            view.clear();
+            view.position(payloadOffset);
+            view.limit(payloadOffset + payloadLength);
+            listener.onFrame(type, Frame.channelOf(flags), view);
+        }
+        if(readIndex == writeIndex){
+            readIndex = 0;
+            writeIndex = 0;
+        }
+    }
+
+    /**
+     * 保证缓冲区中还有可写入的空间
+     */
+    private void ensureWritable(){
+        if(writeIndex < buffer.length){
+            return;
+        }
+        if(readIndex > 0){
+            compact();
+        }
+        else {
+            grow(buffer.length * 2);
+        }
+    }
+
+    /**
+     * 保证缓冲区能够容纳一个完整的帧
+     * @param frameLength 帧长度
+     */
+    private void ensureCapacity(int frameLength){
+        if(buffer.length < frameLength){
+            grow(frameLength);
+        }
+        else if(buffer.length - readIndex < frameLength){
+            compact();
+        }
+    }
+
+    /**
+     * 将残留的半帧数据移动到缓冲区头部
+     */
+    private void compact(){
+        int remaining = writeIndex - readIndex;
+        System.arraycopy(buffer, readIndex, buffer, 0, remaining);
+        readIndex = 0;
+        writeIndex = remaining;
+    }
+
+    private void grow(int minCapacity){
+        int capacity = Math.max(minCapacity, buffer.length * 2);
+        byte[] newBuffer = new byte[capacity];
+        int remaining = writeIndex - readIndex;
+        System.arraycopy(buffer, readIndex, newBuffer, 0, remaining);
+        buffer = newBuffer;
+        view = ByteBuffer.wrap(buffer);
+        readIndex = 0;
+        writeIndex = remaining;
+    }
+}
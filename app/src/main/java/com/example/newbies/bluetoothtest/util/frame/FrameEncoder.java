@@ -0,0 +1,243 @@
+package com.example.newbies.bluetoothtest.util.frame;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * 数据帧编码器，将负载数据按照{@link Frame}定义的格式进行封装
+ * 设置了压缩器时，负载先交给压缩器，压缩器决定压缩的帧带有{@link Frame#FLAG_COMPRESSED}标志
+ * 该类不是线程安全的，每个写线程应该持有自己的编码器
+ * @author NewBies
+ * @date 2018/1/8
+ */
+public class FrameEncoder {
+
+    /**
+     * 是否在帧尾附加CRC32校验码
+     */
+    private final boolean crcEnabled;
+    private final CRC32 crc32 = new CRC32();
+    /**
+     * 直接写入输出流时使用的缓冲区，整帧一次写出，避免一帧被拆成多次写操作
+     */
+    private byte[] scratch = new byte[256];
+    /**
+     * 负载压缩器，为null时不压缩，可以在其他线程中设置
+     */
+    private volatile PayloadCompressor compressor;
+    /**
+     * 负载位于直接内存时，压缩前先拷贝到这里
+     */
+    private byte[] compressInput = new byte[0];
+    /**
+     * 压缩的输出
+     */
+    private byte[] compressOutput = new byte[0];
+
+    public FrameEncoder(boolean crcEnabled){
+        this.crcEnabled = crcEnabled;
+    }
+
+    public boolean isCrcEnabled() {
+        return crcEnabled;
+    }
+
+    /**
+     * 设置负载压缩器，之后编码的帧生效
+     * @param compressor 为null时不再压缩
+     */
+    public void setCompressor(PayloadCompressor compressor) {
+        this.compressor = compressor;
+    }
+
+    public PayloadCompressor getCompressor() {
+        return compressor;
+    }
+
+    /**
+     * 计算编码一帧最多需要的字节数，压缩后的负载可能比原始负载略长
+     * @param payloadLength 原始负载长度
+     * @return
+     */
+    public int maxFrameLength(int payloadLength){
+        PayloadCompressor current = compressor;
+        int length = current == null ? payloadLength
+                : Math.max(payloadLength, current.maxCompressedLength(payloadLength));
+        return Frame.frameLength(length, crcEnabled);
+    }
+
+    /**
+     * 将一帧数据编码到目标缓冲区中
+     * @param dst 目标缓冲区，剩余空间必须不小于{@link #maxFrameLength(int)}
+     * @param type 帧类型
+     * @param payload 负载数据
+     * @param offset 负载起始位置
+     * @param length 负载长度
+     * @return 写入的字节数
+     */
+    public int encode(ByteBuffer dst, int type, byte[] payload, int offset, int length){
+        return encode(dst, type, 0, payload, offset, length);
+    }
+
+    /**
+     * 将一帧数据编码到目标缓冲区中
+     * @param dst 目标缓冲区，剩余空间必须不小于{@link #maxFrameLength(int)}
+     * @param type 帧类型
+     * @param channel 逻辑通道号
+     * @param payload 负载数据
+     * @param offset 负载起始位置
+     * @param length 负载长度
+     * @return 写入的字节数
+     */
+    public int encode(ByteBuffer dst, int type, int channel, byte[] payload, int offset, int length){
+        PayloadCompressor current = compressor;
+        //压缩器刚刚设置时，调用者可能是按照不压缩的长度准备的缓冲区，放不下最坏情况时本帧不压缩
+        if(current != null && dst.remaining() >= Frame.frameLength(current.maxCompressedLength(length), crcEnabled)){
+            int compressedLength = compress(current, payload, offset, length);
+            if(compressedLength >= 0){
+                return put(dst, type, Frame.flags(crcEnabled, true, channel), compressOutput, 0, compressedLength);
+            }
+        }
+        return put(dst, type, Frame.flags(crcEnabled, channel), payload, offset, length);
+    }
+
+    /**
+     * 将一帧数据编码到目标缓冲区中，负载为payload的position到limit之间的数据，payload的position不会被改变
+     * @param dst 目标缓冲区，剩余空间必须不小于{@link #maxFrameLength(int)}
+     * @param type 帧类型
+     * @param payload 负载数据
+     * @return 写入的字节数
+     */
+    public int encode(ByteBuffer dst, int type, ByteBuffer payload){
+        return encode(dst, type, 0, payload);
+    }
+
+    /**
+     * 将一帧数据编码到目标缓冲区中，负载为payload的position到limit之间的数据，payload的position不会被改变
+     * @param dst 目标缓冲区，剩余空间必须不小于{@link #maxFrameLength(int)}
+     * @param type 帧类型
+     * @param channel 逻辑通道号
+     * @param payload 负载数据
+     * @return 写入的字节数
+     */
+    public int encode(ByteBuffer dst, int type, int channel, ByteBuffer payload){
+        int length = payload.remaining();
+        PayloadCompressor current = compressor;
+        if(current != null){
+            if(payload.hasArray()){
+                return encode(dst, type, channel, payload.array(), payload.arrayOffset() + payload.position(), length);
+            }
+            if(compressInput.length < length){
+                compressInput = new byte[length];
+            }
+            int position = payload.position();
+            payload.get(compressInput, 0, length);
+            payload.position(position);
+            return encode(dst, type, channel, compressInput, 0, length);
+        }
+
+        int frameLength = Frame.frameLength(length, crcEnabled);
+        if(dst.remaining() < frameLength){
+            throw new IllegalArgumentException("缓冲区剩余空间不足，需要" + frameLength + "字节");
+        }
+        dst.putInt(length);
+        dst.put((byte) type);
+        dst.put((byte) Frame.flags(crcEnabled, channel));
+        int payloadOffset = dst.position();
+        int position = payload.position();
+        dst.put(payload);
+        payload.position(position);
+        if(crcEnabled){
+            crc32.reset();
+            //直接对已经写入目标缓冲区的数据计算校验码，避免再访问一次负载
+            if(dst.hasArray()){
+                crc32.update(dst.array(), dst.arrayOffset() + payloadOffset, length);
+            }
+            else {
+                for(int i = 0; i < length; i++){
+                    crc32.update(dst.get(payloadOffset + i));
+                }
+            }
+            dst.putInt((int) crc32.getValue());
+        }
+        return frameLength;
+    }
+
+    /**
+     * 压缩到compressOutput中
+     * @return 压缩后的长度，不压缩时返回-1
+     */
+    private int compress(PayloadCompressor current, byte[] payload, int offset, int length){
+        int maxLength = current.maxCompressedLength(length);
+        if(compressOutput.length < maxLength){
+            compressOutput = new byte[maxLength];
+        }
+        return current.compress(payload, offset, length, compressOutput);
+    }
+
+    private int put(ByteBuffer dst, int type, int flags, byte[] payload, int offset, int length){
+        int frameLength = Frame.frameLength(length, crcEnabled);
+        if(dst.remaining() < frameLength){
+            throw new IllegalArgumentException("缓冲区剩余空间不足，需要" + frameLength + "字节");
+        }
+        dst.putInt(length);
+        dst.put((byte) type);
+        dst.put((byte) flags);
+        dst.put(payload, offset, length);
+        if(crcEnabled){
+            crc32.reset();
+            crc32.update(payload, offset, length);
+            dst.putInt((int) crc32.getValue());
+        }
+        return frameLength;
+    }
+
+    /**
+     * 将一帧数据编码后一次性写入输出流
+     * @param out 输出流
+     * @param type 帧类型
+     * @param payload 负载数据
+     * @param offset 负载起始位置
+     * @param length 负载长度
+     * @throws IOException
+     */
+    public void writeFrame(OutputStream out, int type, byte[] payload, int offset, int length) throws IOException {
+        ensureScratch(length);
+        int frameLength = encode(ByteBuffer.wrap(scratch), type, payload, offset, length);
+        out.write(scratch, 0, frameLength);
+    }
+
+    /**
+     * 将一帧数据编码后一次性写入输出流，payload的position不会被改变
+     * @param out 输出流
+     * @param type 帧类型
+     * @param payload 负载数据
+     * @throws IOException
+     */
+    public void writeFrame(OutputStream out, int type, ByteBuffer payload) throws IOException {
+        writeFrame(out, type, 0, payload);
+    }
+
+    /**
+     * 将一帧数据编码后一次性写入输出流，payload的position不会被改变
+     * @param out 输出流
+     * @param type 帧类型
+     * @param channel 逻辑通道号
+     * @param payload 负载数据
+     * @throws IOException
+     */
+    public void writeFrame(OutputStream out, int type, int channel, ByteBuffer payload) throws IOException {
+        ensureScratch(payload.remaining());
+        int frameLength = encode(ByteBuffer.wrap(scratch), type, channel, payload);
+        out.write(scratch, 0, frameLength);
+    }
+
+    private void ensureScratch(int payloadLength){
+        int frameLength = maxFrameLength(payloadLength);
+        if(scratch.length < frameLength){
+            scratch = new byte[Math.max(frameLength, scratch.length * 2)];
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.newbies.bluetoothtest.util.frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 数据帧解码完成后的回调
+ * @author NewBies
+ * @date 2018/1/8
+ */
+public interface FrameListener {
+
+    /**
+     * 收到一个完整的数据帧
+     * 注意：payload是解码器内部缓冲区的一个视图，其position到limit之间为负载数据，
+     * 只在该方法执行期间有效，如果需要在方法返回后继续使用，必须自行拷贝
+     * @param type 帧类型
+     * @param channel 逻辑通道号
+     * @param payload 负载数据
+     */
+    void onFrame(int type, int channel, ByteBuffer payload);
+}
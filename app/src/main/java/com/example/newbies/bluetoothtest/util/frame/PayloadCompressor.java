@@ -0,0 +1,25 @@
+package com.example.newbies.bluetoothtest.util.frame;
+
+/**
+ * 编码器使用的负载压缩器，在写线程中按帧的发送顺序调用，因此可以在帧之间保留压缩状态
+ * @author NewBies
+ * @date 2018/1/19
+ */
+public interface PayloadCompressor {
+
+    /**
+     * @param length 负载长度
+     * @return 压缩后可能的最大长度，用于准备输出缓冲区
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * 压缩负载
+     * @param src 负载数据
+     * @param offset 起始位置
+     * @param length 负载长度
+     * @param dst 输出缓冲区，长度不小于{@link #maxCompressedLength(int)}
+     * @return 压缩后的长度，返回-1表示不压缩，按原样发送
+     */
+    int compress(byte[] src, int offset, int length, byte[] dst);
+}
@@ -0,0 +1,23 @@
+package com.example.newbies.bluetoothtest.util.frame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 解码器使用的负载解压器，在读线程中按帧的接收顺序调用
+ * @author NewBies
+ * @date 2018/1/19
+ */
+public interface PayloadDecompressor {
+
+    /**
+     * 解压带有{@link Frame#FLAG_COMPRESSED}标志的帧的负载
+     * @param src 压缩的负载
+     * @param offset 起始位置
+     * @param length 长度
+     * @param maxLength 解压后允许的最大长度
+     * @return 解压后的数据，只在下一次调用之前有效
+     * @throws IOException 数据格式错误或者超过了最大长度
+     */
+    ByteBuffer decompress(byte[] src, int offset, int length, int maxLength) throws IOException;
+}
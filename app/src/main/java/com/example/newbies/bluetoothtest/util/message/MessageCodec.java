@@ -0,0 +1,24 @@
+package com.example.newbies.bluetoothtest.util.message;
+
+import java.io.IOException;
+
+/**
+ * 一种消息类型的编解码器
+ * @author NewBies
+ * @date 2018/1/26
+ */
+public interface MessageCodec<T> {
+
+    /**
+     * @param message
+     * @param writer 直接写入帧的负载
+     */
+    void encode(T message, MessageWriter writer);
+
+    /**
+     * @param reader 直接从接收缓冲区读取
+     * @return
+     * @throws IOException 数据不完整或者格式错误
+     */
+    T decode(MessageReader reader) throws IOException;
+}
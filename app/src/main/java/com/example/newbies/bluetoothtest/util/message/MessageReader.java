@@ -0,0 +1,158 @@
+package com.example.newbies.bluetoothtest.util.message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * 二进制消息的读取器，直接从接收缓冲区中读取，编码见{@link MessageWriter}
+ * 读取会移动缓冲区的position，字节串以只读视图的形式返回，不拷贝数据，
+ * 因此在消息被释放之后不能再访问
+ * @author NewBies
+ * @date 2018/1/26
+ */
+public final class MessageReader {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+
+    /**
+     * @param buffer 从position读到limit
+     */
+    public MessageReader(ByteBuffer buffer){
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return 尚未读取的字节数
+     */
+    public int remaining(){
+        return buffer.remaining();
+    }
+
+    private void require(int length) throws IOException {
+        if(buffer.remaining() < length){
+            throw new IOException("消息数据不完整");
+        }
+    }
+
+    public int readByte() throws IOException {
+        require(1);
+        return buffer.get();
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public short readShort() throws IOException {
+        require(2);
+        return buffer.getShort();
+    }
+
+    public int readInt() throws IOException {
+        require(4);
+        return buffer.getInt();
+    }
+
+    public long readLong() throws IOException {
+        require(8);
+        return buffer.getLong();
+    }
+
+    public float readFloat() throws IOException {
+        require(4);
+        return buffer.getFloat();
+    }
+
+    public double readDouble() throws IOException {
+        require(8);
+        return buffer.getDouble();
+    }
+
+    public int readVarInt() throws IOException {
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7){
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0){
+                return value;
+            }
+        }
+        throw new IOException("变长整数过长");
+    }
+
+    public long readVarLong() throws IOException {
+        long value = 0;
+        for(int shift = 0; shift < 70; shift += 7){
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0){
+                return value;
+            }
+        }
+        throw new IOException("变长整数过长");
+    }
+
+    public int readSignedVarInt() throws IOException {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public long readSignedVarLong() throws IOException {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private int readLength() throws IOException {
+        int length = readVarInt();
+        if(length < 0){
+            throw new IOException("非法的长度：" + length);
+        }
+        require(length);
+        return length;
+    }
+
+    /**
+     * 读取字节串，不拷贝数据
+     * @return 指向接收缓冲区的只读视图，消息释放后失效
+     * @throws IOException
+     */
+    public ByteBuffer readBytes() throws IOException {
+        int length = readLength();
+        ByteBuffer view = buffer.slice();
+        view.limit(length);
+        buffer.position(buffer.position() + length);
+        return view.asReadOnlyBuffer();
+    }
+
+    /**
+     * 读取字节串并拷贝出来，需要在消息释放后继续使用时调用
+     * @return
+     * @throws IOException
+     */
+    public byte[] readByteArray() throws IOException {
+        byte[] value = new byte[readLength()];
+        buffer.get(value);
+        return value;
+    }
+
+    public String readString() throws IOException {
+        int length = readLength();
+        if(length == 0){
+            return "";
+        }
+        String value;
+        if(buffer.hasArray()){
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8);
+            buffer.position(buffer.position() + length);
+        }
+        else{
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, UTF_8);
+        }
+        return value;
+    }
+}
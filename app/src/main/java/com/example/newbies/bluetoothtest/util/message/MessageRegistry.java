@@ -0,0 +1,137 @@
+package com.example.newbies.bluetoothtest.util.message;
+
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+import com.example.newbies.bluetoothtest.util.transfer.ReceivedMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 已注册的消息类型
+ * 帧格式：TYPED | 类型编号(变长) | 由该类型的编解码器写入的内容 |
+ * 双方使用相同的类型编号注册同一种消息，没有处理器的类型按普通消息交给消息监听器
+ * @author NewBies
+ * @date 2018/1/26
+ */
+public class MessageRegistry {
+
+    /**
+     * 编码时的最小初始容量
+     */
+    private static final int MIN_INITIAL_CAPACITY = 32;
+
+    private static final class Registration<T> {
+        private final int typeId;
+        private final Class<T> type;
+        private final MessageCodec<T> codec;
+        private volatile TypedMessageHandler<? super T> handler;
+        /**
+         * 最近一次编码的长度，作为下一次的初始容量，稳定后不再扩容
+         */
+        private volatile int sizeHint = MIN_INITIAL_CAPACITY;
+
+        Registration(int typeId, Class<T> type, MessageCodec<T> codec){
+            this.typeId = typeId;
+            this.type = type;
+            this.codec = codec;
+        }
+
+        ByteBuffer encode(Object message){
+            MessageWriter writer = new MessageWriter(sizeHint);
+            writer.writeVarInt(typeId);
+            codec.encode(type.cast(message), writer);
+            ByteBuffer payload = writer.finish();
+            sizeHint = Math.max(payload.remaining(), MIN_INITIAL_CAPACITY);
+            return payload;
+        }
+
+        boolean dispatch(int sessionId, MessageReader reader) throws IOException {
+            TypedMessageHandler<? super T> handler = this.handler;
+            if(handler == null){
+                return false;
+            }
+            handler.onMessage(sessionId, codec.decode(reader));
+            return true;
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, Registration<?>> byId = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Class<?>, Registration<?>> byType = new ConcurrentHashMap<>();
+
+    /**
+     * 注册一种消息类型
+     * @param typeId 类型编号，不能为负数，越小编码越短
+     * @param type 消息的类，只按类精确匹配，不匹配子类
+     * @param codec
+     * @throws IllegalArgumentException 编号或者类已经注册过
+     */
+    public synchronized <T> void register(int typeId, Class<T> type, MessageCodec<T> codec){
+        if(typeId < 0){
+            throw new IllegalArgumentException("非法的类型编号：" + typeId);
+        }
+        if(byId.containsKey(typeId) || byType.containsKey(type)){
+            throw new IllegalArgumentException("重复注册的消息类型：" + typeId + " " + type.getName());
+        }
+        Registration<T> registration = new Registration<>(typeId, type, codec);
+        byId.put(typeId, registration);
+        byType.put(type, registration);
+    }
+
+    /**
+     * 设置某一类型消息的处理器
+     * @param type 已注册的类
+     * @param handler 为null时该类型的消息交给普通的消息监听器
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void setHandler(Class<T> type, TypedMessageHandler<? super T> handler){
+        Registration<T> registration = (Registration<T>) byType.get(type);
+        if(registration == null){
+            throw new IllegalArgumentException("没有注册的消息类型：" + type.getName());
+        }
+        registration.handler = handler;
+    }
+
+    /**
+     * 编码一条消息
+     * @param message 已注册类型的消息
+     * @return 可以直接作为TYPED帧负载的缓冲区
+     * @throws IllegalArgumentException 消息的类型没有注册
+     */
+    public ByteBuffer encode(Object message){
+        Registration<?> registration = byType.get(message.getClass());
+        if(registration == null){
+            throw new IllegalArgumentException("没有注册的消息类型：" + message.getClass().getName());
+        }
+        return registration.encode(message);
+    }
+
+    /**
+     * 解码TYPED帧并交给对应的处理器
+     * @param message
+     * @return 是否已经处理，已经处理的消息由本方法释放；没有处理器的消息原样留给调用者
+     */
+    public boolean onMessage(ReceivedMessage message) {
+        if(message.getType() != Frame.TYPE_TYPED){
+            return false;
+        }
+        ByteBuffer data = message.getData();
+        int position = data.position();
+        try {
+            MessageReader reader = new MessageReader(data);
+            Registration<?> registration = byId.get(reader.readVarInt());
+            if(registration == null || !registration.dispatch(message.getSessionId(), reader)){
+                data.position(position);
+                return false;
+            }
+        } catch (IOException e) {
+            //格式错误的消息直接丢弃
+            e.printStackTrace();
+        } catch (RuntimeException e) {
+            //处理器出错不影响读线程
+            e.printStackTrace();
+        }
+        message.release();
+        return true;
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.newbies.bluetoothtest.util.message;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 二进制消息的写入器，直接写入最终作为帧负载发送的缓冲区，不经过中间的String或者byte[]
+ * 定长整数和浮点数使用大端，变长整数使用每字节7位的LEB128编码，有符号的变长整数先做ZigZag变换，
+ * 字节串和字符串先写变长的长度再写内容，字符串按UTF-8逐字符编码
+ * 空间不足时缓冲区按倍数扩大
+ * @author NewBies
+ * @date 2018/1/26
+ */
+public final class MessageWriter {
+
+    private ByteBuffer buffer;
+
+    /**
+     * @param initialCapacity 初始容量，足够放下整条消息时不会发生扩容
+     */
+    public MessageWriter(int initialCapacity){
+        this.buffer = ByteBuffer.allocate(Math.max(initialCapacity, 16));
+    }
+
+    /**
+     * 写入已有的缓冲区，从它的position开始写，空间不足时改为写入新分配的缓冲区
+     * @param buffer
+     */
+    public MessageWriter(ByteBuffer buffer){
+        this.buffer = buffer;
+    }
+
+    private void ensure(int length){
+        if(buffer.remaining() >= length){
+            return;
+        }
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + length);
+        ByteBuffer grown = buffer.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+
+    /**
+     * @return 已经写入的字节数
+     */
+    public int position(){
+        return buffer.position();
+    }
+
+    public MessageWriter writeByte(int value){
+        ensure(1);
+        buffer.put((byte) value);
+        return this;
+    }
+
+    public MessageWriter writeBoolean(boolean value){
+        return writeByte(value ? 1 : 0);
+    }
+
+    public MessageWriter writeShort(int value){
+        ensure(2);
+        buffer.putShort((short) value);
+        return this;
+    }
+
+    public MessageWriter writeInt(int value){
+        ensure(4);
+        buffer.putInt(value);
+        return this;
+    }
+
+    public MessageWriter writeLong(long value){
+        ensure(8);
+        buffer.putLong(value);
+        return this;
+    }
+
+    public MessageWriter writeFloat(float value){
+        ensure(4);
+        buffer.putFloat(value);
+        return this;
+    }
+
+    public MessageWriter writeDouble(double value){
+        ensure(8);
+        buffer.putDouble(value);
+        return this;
+    }
+
+    /**
+     * 无符号变长整数，0到127只占1个字节，负数占5个字节，有符号的值应该使用{@link #writeSignedVarInt(int)}
+     * @param value
+     * @return
+     */
+    public MessageWriter writeVarInt(int value){
+        ensure(5);
+        while((value & ~0x7F) != 0){
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+        return this;
+    }
+
+    public MessageWriter writeVarLong(long value){
+        ensure(10);
+        while((value & ~0x7FL) != 0){
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+        return this;
+    }
+
+    /**
+     * ZigZag编码的有符号变长整数，绝对值小的负数同样只占很少的字节
+     * @param value
+     * @return
+     */
+    public MessageWriter writeSignedVarInt(int value){
+        return writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    public MessageWriter writeSignedVarLong(long value){
+        return writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public MessageWriter writeBytes(byte[] value){
+        return writeBytes(value, 0, value.length);
+    }
+
+    /**
+     * 字节串：| 长度(变长) | 内容 |
+     * @param value
+     * @param offset
+     * @param length
+     * @return
+     */
+    public MessageWriter writeBytes(byte[] value, int offset, int length){
+        writeVarInt(length);
+        ensure(length);
+        buffer.put(value, offset, length);
+        return this;
+    }
+
+    /**
+     * 写入缓冲区中position到limit之间的数据，不改变它的position
+     * @param value
+     * @return
+     */
+    public MessageWriter writeBytes(ByteBuffer value){
+        int length = value.remaining();
+        writeVarInt(length);
+        ensure(length);
+        buffer.put(value.duplicate());
+        return this;
+    }
+
+    /**
+     * 字符串：| UTF-8字节数(变长) | UTF-8 |，null按空字符串处理
+     * @param value
+     * @return
+     */
+    public MessageWriter writeString(String value){
+        if(value == null){
+            return writeVarInt(0);
+        }
+        int length = utf8Length(value);
+        writeVarInt(length);
+        ensure(length);
+        int count = value.length();
+        for(int i = 0; i < count; i++){
+            char c = value.charAt(i);
+            if(c < 0x80){
+                buffer.put((byte) c);
+            }
+            else if(c < 0x800){
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+            else if(Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(value.charAt(i + 1))){
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            }
+            else if(Character.isSurrogate(c)){
+                //不成对的代理字符，与String.getBytes一样替换为'?'
+                buffer.put((byte) '?');
+            }
+            else{
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        return this;
+    }
+
+    private static int utf8Length(String value){
+        int count = value.length();
+        int length = 0;
+        for(int i = 0; i < count; i++){
+            char c = value.charAt(i);
+            if(c < 0x80){
+                length++;
+            }
+            else if(c < 0x800){
+                length += 2;
+            }
+            else if(Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(value.charAt(i + 1))){
+                length += 4;
+                i++;
+            }
+            else if(Character.isSurrogate(c)){
+                length++;
+            }
+            else{
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 结束写入
+     * @return position为0、limit为写入长度的缓冲区，之后不能再使用该写入器
+     */
+    public ByteBuffer finish(){
+        buffer.flip();
+        ByteBuffer result = buffer;
+        buffer = null;
+        return result;
+    }
+}
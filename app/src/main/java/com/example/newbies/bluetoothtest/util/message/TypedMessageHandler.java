@@ -0,0 +1,17 @@
+package com.example.newbies.bluetoothtest.util.message;
+
+/**
+ * 接收某一类型消息的回调
+ * @author NewBies
+ * @date 2018/1/26
+ */
+public interface TypedMessageHandler<T> {
+
+    /**
+     * 收到一条消息，在读线程中执行，不应该做耗时操作
+     * 消息中通过{@link MessageReader#readBytes()}得到的字节串只在该方法返回之前有效
+     * @param sessionId 消息来自的会话ID
+     * @param message
+     */
+    void onMessage(int sessionId, T message);
+}
@@ -0,0 +1,78 @@
+package com.example.newbies.bluetoothtest.util.metrics;
+
+/**
+ * 延迟直方图在某一时刻的只读副本，所有时间均以微秒为单位
+ * @author NewBies
+ * @date 2018/1/16
+ */
+public class HistogramSnapshot {
+
+    private final long[] counts;
+    private final long count;
+    private final long sumMicros;
+    private final long maxMicros;
+
+    HistogramSnapshot(long[] counts, long count, long sumMicros, long maxMicros){
+        this.counts = counts;
+        this.count = count;
+        this.sumMicros = sumMicros;
+        this.maxMicros = maxMicros;
+    }
+
+    /**
+     * @return 记录的总次数
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    public long getMeanMicros() {
+        return count == 0 ? 0 : sumMicros / count;
+    }
+
+    /**
+     * @param bucket
+     * @return 指定桶中的记录数
+     */
+    public long getBucketCount(int bucket) {
+        return counts[bucket];
+    }
+
+    /**
+     * 估算百分位数，返回所在桶的上界，因此误差不超过一倍，且不会超过最大值
+     * @param percentile 取值0到100，例如99表示p99
+     * @return 没有任何记录时返回0
+     */
+    public long getPercentileMicros(double percentile) {
+        long total = 0;
+        for(long c : counts){
+            total += c;
+        }
+        if(total == 0){
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        if(rank < 1){
+            rank = 1;
+        }
+        long seen = 0;
+        for(int i = 0; i < counts.length; i++){
+            seen += counts[i];
+            if(seen >= rank){
+                long upper = 1L << i;
+                return upper < maxMicros ? upper : maxMicros;
+            }
+        }
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + " mean=" + getMeanMicros() + "us p50=" + getPercentileMicros(50)
+                + "us p99=" + getPercentileMicros(99) + "us max=" + maxMicros + "us";
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.newbies.bluetoothtest.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁的延迟直方图
+ * 以微秒为单位按2的幂划分桶：第0个桶存放小于1微秒的值，第i个桶存放[2^(i-1), 2^i)微秒的值，
+ * 超出范围的值计入最后一个桶。记录只需要几次原子加法，不分配任何对象，可以在收发数据的线程中调用
+ * @author NewBies
+ * @date 2018/1/16
+ */
+public class LatencyHistogram {
+
+    /**
+     * 桶的个数，最后一个桶的下界约为17分钟
+     */
+    public static final int BUCKET_COUNT = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * 记录一个延迟
+     * @param nanos 延迟(纳秒)，负数按0处理
+     */
+    public void record(long nanos){
+        long micros = nanos > 0 ? nanos / 1000 : 0;
+        buckets.incrementAndGet(bucketOf(micros));
+        count.incrementAndGet();
+        sumMicros.addAndGet(micros);
+        long max = maxMicros.get();
+        while(micros > max && !maxMicros.compareAndSet(max, micros)){
+            max = maxMicros.get();
+        }
+    }
+
+    /**
+     * @param micros
+     * @return 该值所在的桶
+     */
+    static int bucketOf(long micros){
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return bucket < BUCKET_COUNT ? bucket : BUCKET_COUNT - 1;
+    }
+
+    /**
+     * 复制当前的统计数据，各个桶不是在同一时刻读取的，并发记录时总数可能有少量偏差
+     * @return
+     */
+    public HistogramSnapshot snapshot(){
+        long[] counts = new long[BUCKET_COUNT];
+        for(int i = 0; i < BUCKET_COUNT; i++){
+            counts[i] = buckets.get(i);
+        }
+        return new HistogramSnapshot(counts, count.get(), sumMicros.get(), maxMicros.get());
+    }
+
+    /**
+     * 清空所有数据
+     */
+    public void reset(){
+        for(int i = 0; i < BUCKET_COUNT; i++){
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sumMicros.set(0);
+        maxMicros.set(0);
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.newbies.bluetoothtest.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 连接的运行指标
+ * 所有记录方法都只做原子加法，不加锁也不分配对象，可以直接放在收发数据的路径上；
+ * 需要查看时通过{@link #snapshot(int, int)}得到一份只读副本。
+ * 同一个实例可以被多个会话共享，统计的是所有会话的总和
+ * @author NewBies
+ * @date 2018/1/16
+ */
+public class LinkMetrics {
+
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong messagesReceived = new AtomicLong();
+    private final AtomicLong sendRejected = new AtomicLong();
+    private final AtomicLong connectAttempts = new AtomicLong();
+    private final AtomicLong connectFailures = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong sessionsLost = new AtomicLong();
+    private final AtomicLong subscriberDropped = new AtomicLong();
+    private final LatencyHistogram connectTime = new LatencyHistogram();
+    private final LatencyHistogram timeToFirstByte = new LatencyHistogram();
+    private final LatencyHistogram roundTripTime = new LatencyHistogram();
+
+    /**
+     * 一条消息放入了发送队列
+     * @param payloadLength 负载长度
+     */
+    public void onMessageSent(int payloadLength){
+        messagesSent.incrementAndGet();
+        bytesSent.addAndGet(payloadLength);
+    }
+
+    /**
+     * 一条消息因为发送队列已满或者会话已关闭而被拒绝
+     */
+    public void onSendRejected(){
+        sendRejected.incrementAndGet();
+    }
+
+    /**
+     * 收到了一条消息
+     * @param payloadLength 负载长度
+     */
+    public void onMessageReceived(int payloadLength){
+        messagesReceived.incrementAndGet();
+        bytesReceived.addAndGet(payloadLength);
+    }
+
+    /**
+     * 一条收到的消息因为订阅者的队列已满而被丢弃
+     */
+    public void onSubscriberDropped(){
+        subscriberDropped.incrementAndGet();
+    }
+
+    public void onConnectStarted(){
+        connectAttempts.incrementAndGet();
+    }
+
+    /**
+     * @param elapsedNanos 从发起连接到连接建立的耗时
+     */
+    public void onConnected(long elapsedNanos){
+        connectTime.record(elapsedNanos);
+    }
+
+    public void onConnectFailed(){
+        connectFailures.incrementAndGet();
+    }
+
+    public void onReconnect(){
+        reconnects.incrementAndGet();
+    }
+
+    public void onSessionLost(){
+        sessionsLost.incrementAndGet();
+    }
+
+    /**
+     * @param elapsedNanos 从会话建立到收到第一帧数据的耗时
+     */
+    public void onFirstByte(long elapsedNanos){
+        timeToFirstByte.record(elapsedNanos);
+    }
+
+    /**
+     * @param rttNanos 一次往返的耗时
+     */
+    public void onRoundTrip(long rttNanos){
+        roundTripTime.record(rttNanos);
+    }
+
+    /**
+     * 生成当前指标的快照
+     * @param activeSessions 当前的会话数
+     * @param writeQueueDepth 当前所有发送队列中等待发送的帧数
+     * @return
+     */
+    public MetricsSnapshot snapshot(int activeSessions, int writeQueueDepth){
+        return new MetricsSnapshot(System.currentTimeMillis(), bytesSent.get(), bytesReceived.get(),
+                messagesSent.get(), messagesReceived.get(), sendRejected.get(), connectAttempts.get(),
+                connectFailures.get(), reconnects.get(), sessionsLost.get(), subscriberDropped.get(),
+                activeSessions, writeQueueDepth,
+                connectTime.snapshot(), timeToFirstByte.snapshot(), roundTripTime.snapshot());
+    }
+
+    /**
+     * 清零所有计数器和直方图
+     */
+    public void reset(){
+        bytesSent.set(0);
+        bytesReceived.set(0);
+        messagesSent.set(0);
+        messagesReceived.set(0);
+        sendRejected.set(0);
+        connectAttempts.set(0);
+        connectFailures.set(0);
+        reconnects.set(0);
+        sessionsLost.set(0);
+        subscriberDropped.set(0);
+        connectTime.reset();
+        timeToFirstByte.reset();
+        roundTripTime.reset();
+    }
+}
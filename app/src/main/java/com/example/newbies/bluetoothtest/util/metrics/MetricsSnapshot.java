@@ -0,0 +1,163 @@
+package com.example.newbies.bluetoothtest.util.metrics;
+
+/**
+ * 连接指标在某一时刻的只读副本，供监控界面定时拉取
+ * 计数器是从创建或上一次清零开始的累计值，需要速率时由调用者对两次快照求差
+ * @author NewBies
+ * @date 2018/1/16
+ */
+public class MetricsSnapshot {
+
+    private final long timestampMillis;
+    private final long bytesSent;
+    private final long bytesReceived;
+    private final long messagesSent;
+    private final long messagesReceived;
+    private final long sendRejected;
+    private final long connectAttempts;
+    private final long connectFailures;
+    private final long reconnects;
+    private final long sessionsLost;
+    private final long subscriberDropped;
+    private final int activeSessions;
+    private final int writeQueueDepth;
+    private final HistogramSnapshot connectTime;
+    private final HistogramSnapshot timeToFirstByte;
+    private final HistogramSnapshot roundTripTime;
+
+    MetricsSnapshot(long timestampMillis, long bytesSent, long bytesReceived, long messagesSent,
+                    long messagesReceived, long sendRejected, long connectAttempts, long connectFailures,
+                    long reconnects, long sessionsLost, long subscriberDropped, int activeSessions, int writeQueueDepth,
+                    HistogramSnapshot connectTime, HistogramSnapshot timeToFirstByte,
+                    HistogramSnapshot roundTripTime){
+        this.timestampMillis = timestampMillis;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.messagesSent = messagesSent;
+        this.messagesReceived = messagesReceived;
+        this.sendRejected = sendRejected;
+        this.connectAttempts = connectAttempts;
+        this.connectFailures = connectFailures;
+        this.reconnects = reconnects;
+        this.sessionsLost = sessionsLost;
+        this.subscriberDropped = subscriberDropped;
+        this.activeSessions = activeSessions;
+        this.writeQueueDepth = writeQueueDepth;
+        this.connectTime = connectTime;
+        this.timeToFirstByte = timeToFirstByte;
+        this.roundTripTime = roundTripTime;
+    }
+
+    /**
+     * @return 生成快照的时间(System.currentTimeMillis)
+     */
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    /**
+     * @return 放入发送队列的负载字节数
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return 收到的负载字节数
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getMessagesSent() {
+        return messagesSent;
+    }
+
+    public long getMessagesReceived() {
+        return messagesReceived;
+    }
+
+    /**
+     * @return 因为发送队列已满或者会话已关闭而没有发出的消息数
+     */
+    public long getSendRejected() {
+        return sendRejected;
+    }
+
+    public long getConnectAttempts() {
+        return connectAttempts;
+    }
+
+    public long getConnectFailures() {
+        return connectFailures;
+    }
+
+    /**
+     * @return 自动重连的次数
+     */
+    public long getReconnects() {
+        return reconnects;
+    }
+
+    /**
+     * @return 意外断开的会话数
+     */
+    public long getSessionsLost() {
+        return sessionsLost;
+    }
+
+    /**
+     * @return 订阅者处理不过来、队列已满而丢弃的消息数
+     */
+    public long getSubscriberDropped() {
+        return subscriberDropped;
+    }
+
+    public int getActiveSessions() {
+        return activeSessions;
+    }
+
+    /**
+     * @return 所有会话的发送队列中等待发送的帧数之和
+     */
+    public int getWriteQueueDepth() {
+        return writeQueueDepth;
+    }
+
+    /**
+     * @return 从发起连接到连接建立的耗时
+     */
+    public HistogramSnapshot getConnectTime() {
+        return connectTime;
+    }
+
+    /**
+     * @return 从会话建立到收到第一帧数据的耗时
+     */
+    public HistogramSnapshot getTimeToFirstByte() {
+        return timeToFirstByte;
+    }
+
+    /**
+     * @return 往返延迟
+     */
+    public HistogramSnapshot getRoundTripTime() {
+        return roundTripTime;
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSnapshot{sent=" + messagesSent + "/" + bytesSent + "B"
+                + ", received=" + messagesReceived + "/" + bytesReceived + "B"
+                + ", rejected=" + sendRejected
+                + ", connects=" + connectAttempts + "(failed " + connectFailures + ")"
+                + ", reconnects=" + reconnects
+                + ", lost=" + sessionsLost
+                + ", subscriberDropped=" + subscriberDropped
+                + ", sessions=" + activeSessions
+                + ", queue=" + writeQueueDepth
+                + ", connectTime[" + connectTime + "]"
+                + ", ttfb[" + timeToFirstByte + "]"
+                + ", rtt[" + roundTripTime + "]}";
+    }
+}
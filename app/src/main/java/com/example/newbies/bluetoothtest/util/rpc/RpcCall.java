@@ -0,0 +1,170 @@
+package com.example.newbies.bluetoothtest.util.rpc;
+
+import com.example.newbies.bluetoothtest.util.transfer.TimerWheel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 一次进行中的RPC调用，既可以像{@link Future}一样等待结果，也可以添加回调
+ * 同一个会话上可以同时有多个调用在等待响应，响应按调用ID匹配，不要求按发送顺序返回
+ * @author NewBies
+ * @date 2018/1/20
+ */
+public class RpcCall implements Future<byte[]> {
+
+    private final RpcManager manager;
+    private final int id;
+    private final int sessionId;
+    private final String method;
+    private final long startNanos = System.nanoTime();
+    /**
+     * 超时，请求发出之前设置
+     */
+    volatile TimerWheel.Timeout timeout;
+
+    private boolean done;
+    private byte[] result;
+    private RpcException error;
+    private List<RpcCallback> callbacks;
+
+    RpcCall(RpcManager manager, int id, int sessionId, String method){
+        this.manager = manager;
+        this.id = id;
+        this.sessionId = sessionId;
+        this.method = method;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    long getStartNanos() {
+        return startNanos;
+    }
+
+    /**
+     * 添加回调，调用已经结束时立即在当前线程中执行
+     * @param callback
+     * @return this
+     */
+    public RpcCall addCallback(RpcCallback callback){
+        synchronized (this) {
+            if(!done){
+                if(callbacks == null){
+                    callbacks = new ArrayList<>(1);
+                }
+                callbacks.add(callback);
+                return this;
+            }
+        }
+        notifyCallback(callback);
+        return this;
+    }
+
+    /**
+     * 取消调用，之后收到的响应会被丢弃，已经发出的请求无法撤回
+     * @param mayInterruptIfRunning 没有作用
+     * @return 调用尚未结束时返回true
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return manager.cancel(this);
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return error != null && error.getCode() == RpcException.CODE_CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public synchronized byte[] get() throws InterruptedException, ExecutionException {
+        while(!done){
+            wait();
+        }
+        return getResult();
+    }
+
+    @Override
+    public synchronized byte[] get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long remaining = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remaining;
+        while(!done){
+            if(remaining <= 0){
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            remaining = deadline - System.nanoTime();
+        }
+        return getResult();
+    }
+
+    private byte[] getResult() throws ExecutionException {
+        if(error == null){
+            return result;
+        }
+        if(error.getCode() == RpcException.CODE_CANCELLED){
+            throw new CancellationException(error.getMessage());
+        }
+        throw new ExecutionException(error);
+    }
+
+    /**
+     * 结束调用，只有第一次生效
+     * @param result 成功时的结果
+     * @param error 失败的原因，为null表示成功
+     * @return 是否由本次调用结束
+     */
+    boolean complete(byte[] result, RpcException error){
+        List<RpcCallback> pending;
+        synchronized (this) {
+            if(done){
+                return false;
+            }
+            done = true;
+            this.result = result;
+            this.error = error;
+            pending = callbacks;
+            callbacks = null;
+            notifyAll();
+        }
+        if(pending != null){
+            for(int i = 0; i < pending.size(); i++){
+                notifyCallback(pending.get(i));
+            }
+        }
+        return true;
+    }
+
+    private void notifyCallback(RpcCallback callback){
+        //回调在读线程或者定时器线程中执行，出错不能影响它们和其他回调
+        try {
+            if(error == null){
+                callback.onSuccess(this, result);
+            }
+            else{
+                callback.onFailure(this, error);
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+}
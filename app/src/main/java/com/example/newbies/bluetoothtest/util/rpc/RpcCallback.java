@@ -0,0 +1,24 @@
+package com.example.newbies.bluetoothtest.util.rpc;
+
+/**
+ * RPC调用结束的回调
+ * 在收到响应的读线程或者判定超时的定时器线程中调用，不要执行耗时操作
+ * @author NewBies
+ * @date 2018/1/20
+ */
+public interface RpcCallback {
+
+    /**
+     * 调用成功
+     * @param call
+     * @param result 对方返回的数据
+     */
+    void onSuccess(RpcCall call, byte[] result);
+
+    /**
+     * 调用失败，包括超时、会话断开和对方返回错误
+     * @param call
+     * @param cause
+     */
+    void onFailure(RpcCall call, RpcException cause);
+}
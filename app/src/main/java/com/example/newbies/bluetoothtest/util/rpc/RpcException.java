@@ -0,0 +1,52 @@
+package com.example.newbies.bluetoothtest.util.rpc;
+
+import java.io.IOException;
+
+/**
+ * RPC调用失败的原因
+ * @author NewBies
+ * @date 2018/1/20
+ */
+public class RpcException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 在超时之前没有收到响应
+     */
+    public static final int CODE_TIMEOUT = 1;
+    /**
+     * 对方的处理器返回了错误
+     */
+    public static final int CODE_REMOTE_ERROR = 2;
+    /**
+     * 对方没有注册该方法
+     */
+    public static final int CODE_NO_HANDLER = 3;
+    /**
+     * 会话在收到响应之前断开
+     */
+    public static final int CODE_SESSION_CLOSED = 4;
+    /**
+     * 发送队列已满，请求没有发出
+     */
+    public static final int CODE_REJECTED = 5;
+    /**
+     * 调用被取消
+     */
+    public static final int CODE_CANCELLED = 6;
+
+    private final int code;
+
+    public RpcException(int code, String message){
+        super(message);
+        this.code = code;
+    }
+
+    /**
+     * @return 失败的原因，见CODE_常量
+     */
+    public int getCode() {
+        return code;
+    }
+}
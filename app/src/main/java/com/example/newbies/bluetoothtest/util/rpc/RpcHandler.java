@@ -0,0 +1,17 @@
+package com.example.newbies.bluetoothtest.util.rpc;
+
+/**
+ * 处理某个方法的RPC请求
+ * @author NewBies
+ * @date 2018/1/20
+ */
+public interface RpcHandler {
+
+    /**
+     * 收到请求，在读线程中调用，不能阻塞
+     * 耗时的处理应该交给其他线程，处理完之后在任意线程中调用{@link RpcRequest#reply(byte[])}。
+     * 抛出的运行时异常会作为错误返回给对方
+     * @param request
+     */
+    void onRequest(RpcRequest request);
+}
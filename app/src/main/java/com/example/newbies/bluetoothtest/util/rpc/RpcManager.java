@@ -0,0 +1,318 @@
+package com.example.newbies.bluetoothtest.util.rpc;
+
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+import com.example.newbies.bluetoothtest.util.metrics.LinkMetrics;
+import com.example.newbies.bluetoothtest.util.transfer.OutboundFrame;
+import com.example.newbies.bluetoothtest.util.transfer.ReceivedMessage;
+import com.example.newbies.bluetoothtest.util.transfer.Session;
+import com.example.newbies.bluetoothtest.util.transfer.TimerWheel;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 请求/响应式的RPC，建立在会话的数据帧之上
+ * 协议(所有整数均为大端)：
+ * REQUEST  | 调用ID(4) | 方法名长度(1) | 方法名(UTF-8) | 参数 |  调用方 -> 处理方
+ * RESPONSE | 调用ID(4) | 状态(1) | 结果，或者UTF-8编码的错误信息 |  处理方 -> 调用方
+ * 调用不需要等待上一个调用的响应，多个调用可以同时在途，蓝牙的往返延迟较高，这样吞吐量不再受往返次数限制。
+ * 所有调用的超时由一个{@link TimerWheel}管理，不会为每个调用占用线程或者定时任务
+ * @author NewBies
+ * @date 2018/1/20
+ */
+public class RpcManager {
+
+    /**
+     * 默认的超时时间(毫秒)
+     */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+    /**
+     * 方法名的最大长度(UTF-8字节数)
+     */
+    public static final int MAX_METHOD_LENGTH = 255;
+
+    static final int STATUS_OK = 0;
+    static final int STATUS_ERROR = 1;
+    static final int STATUS_NO_HANDLER = 2;
+
+    /**
+     * 发送队列已满时重试响应的间隔(毫秒)
+     */
+    private static final long RETRY_DELAY_MILLIS = 5;
+    private static final int REQUEST_HEADER_LENGTH = 5;
+    private static final int RESPONSE_HEADER_LENGTH = 5;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final TimerWheel timerWheel;
+    private final LinkMetrics metrics;
+    private final AtomicInteger nextCallId = new AtomicInteger();
+    /**
+     * 等待响应的调用
+     */
+    private final ConcurrentHashMap<Integer, RpcCall> pending = new ConcurrentHashMap<>();
+    /**
+     * 当前所有会话，用于回复请求
+     */
+    private final ConcurrentHashMap<Integer, Session> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, RpcHandler> handlers = new ConcurrentHashMap<>();
+
+    /**
+     * @param timerWheel 管理调用超时的时间轮
+     * @param metrics 记录每次调用的往返时间
+     */
+    public RpcManager(TimerWheel timerWheel, LinkMetrics metrics){
+        this.timerWheel = timerWheel;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 注册方法的处理器，同名的处理器会被替换
+     * @param method 方法名
+     * @param handler
+     */
+    public void register(String method, RpcHandler handler){
+        if(encode(method).length > MAX_METHOD_LENGTH){
+            throw new IllegalArgumentException("方法名过长：" + method);
+        }
+        handlers.put(method, handler);
+    }
+
+    public void unregister(String method){
+        handlers.remove(method);
+    }
+
+    /**
+     * 发起调用，不会阻塞
+     * @param session 发送请求的会话
+     * @param method 方法名
+     * @param params 参数
+     * @param timeoutMillis 超时时间(毫秒)
+     * @return 调用对象，发送队列已满时返回的调用已经以{@link RpcException#CODE_REJECTED}失败
+     */
+    public RpcCall call(Session session, String method, byte[] params, long timeoutMillis){
+        byte[] methodBytes = encode(method);
+        if(methodBytes.length > MAX_METHOD_LENGTH){
+            throw new IllegalArgumentException("方法名过长：" + method);
+        }
+        int id = nextCallId.incrementAndGet();
+        final RpcCall call = new RpcCall(this, id, session.getId(), method);
+        pending.put(id, call);
+        try {
+            call.timeout = timerWheel.newTimeout(new Runnable() {
+                @Override
+                public void run() {
+                    fail(call, new RpcException(RpcException.CODE_TIMEOUT, "调用超时：" + call.getMethod()));
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            fail(call, new RpcException(RpcException.CODE_SESSION_CLOSED, "RPC已经停止"));
+            return call;
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(REQUEST_HEADER_LENGTH + methodBytes.length + params.length);
+        payload.putInt(id);
+        payload.put((byte) methodBytes.length);
+        payload.put(methodBytes);
+        payload.put(params);
+        payload.flip();
+        if(!session.write(new OutboundFrame(Frame.TYPE_RPC_REQUEST, payload))){
+            fail(call, new RpcException(session.isClosed() ? RpcException.CODE_SESSION_CLOSED
+                    : RpcException.CODE_REJECTED, "请求没有发出：" + method));
+        }
+        return call;
+    }
+
+    /**
+     * @return 等待响应的调用个数
+     */
+    public int getPendingCount(){
+        return pending.size();
+    }
+
+    public void onSessionOpened(Session session) {
+        sessions.put(session.getId(), session);
+    }
+
+    /**
+     * 会话断开，在该会话上等待响应的调用全部失败
+     * @param session
+     */
+    public void onSessionClosed(Session session) {
+        sessions.remove(session.getId());
+        failAll(session.getId(), "会话已断开");
+    }
+
+    /**
+     * 处理RPC的帧，其他类型的帧不做处理
+     * @param message
+     * @return 是否已经处理，已经处理的消息由本方法释放
+     */
+    public boolean onMessage(ReceivedMessage message) {
+        int type = message.getType();
+        if(type != Frame.TYPE_RPC_REQUEST && type != Frame.TYPE_RPC_RESPONSE){
+            return false;
+        }
+        try {
+            ByteBuffer data = message.getData();
+            if(data.remaining() >= RESPONSE_HEADER_LENGTH){
+                if(type == Frame.TYPE_RPC_REQUEST){
+                    onRequest(message.getSessionId(), data);
+                }
+                else{
+                    onResponse(message.getSessionId(), data);
+                }
+            }
+        } finally {
+            message.release();
+        }
+        return true;
+    }
+
+    private void onRequest(int sessionId, ByteBuffer data) {
+        Session session = sessions.get(sessionId);
+        if(session == null){
+            return;
+        }
+        int id = data.getInt();
+        int methodLength = data.get() & 0xFF;
+        if(data.remaining() < methodLength){
+            return;
+        }
+        byte[] methodBytes = new byte[methodLength];
+        data.get(methodBytes);
+        byte[] params = new byte[data.remaining()];
+        data.get(params);
+        String method = new String(methodBytes, UTF_8);
+
+        RpcHandler handler = handlers.get(method);
+        if(handler == null){
+            sendResponse(session, id, STATUS_NO_HANDLER, methodBytes);
+            return;
+        }
+        RpcRequest request = new RpcRequest(this, session, id, method, params);
+        try {
+            handler.onRequest(request);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            request.fail(String.valueOf(e.getMessage()));
+        }
+    }
+
+    private void onResponse(int sessionId, ByteBuffer data) {
+        int id = data.getInt();
+        RpcCall call = pending.get(id);
+        //调用ID在本端唯一，但仍然检查会话，防止断开重连后把另一个会话的响应当作结果
+        if(call == null || call.getSessionId() != sessionId || !pending.remove(id, call)){
+            return;
+        }
+        cancelTimeout(call);
+        metrics.onRoundTrip(System.nanoTime() - call.getStartNanos());
+        int status = data.get() & 0xFF;
+        byte[] body = new byte[data.remaining()];
+        data.get(body);
+        switch (status){
+            case STATUS_OK:
+                call.complete(body, null);
+                break;
+            case STATUS_NO_HANDLER:
+                call.complete(null, new RpcException(RpcException.CODE_NO_HANDLER, "对方没有注册该方法：" + call.getMethod()));
+                break;
+            default:
+                call.complete(null, new RpcException(RpcException.CODE_REMOTE_ERROR, new String(body, UTF_8)));
+                break;
+        }
+    }
+
+    /**
+     * 发送响应，发送队列已满时稍后重试，否则对方只能等到超时
+     * 超过一帧能携带的长度的响应会被一直拒绝，改为返回错误
+     * @return 会话已经关闭时返回false
+     */
+    boolean sendResponse(Session session, int id, int status, byte[] body) {
+        if(RESPONSE_HEADER_LENGTH + body.length > Frame.DEFAULT_MAX_PAYLOAD_LENGTH){
+            status = STATUS_ERROR;
+            body = encode("响应过长：" + body.length);
+        }
+        ByteBuffer payload = ByteBuffer.allocate(RESPONSE_HEADER_LENGTH + body.length);
+        payload.putInt(id);
+        payload.put((byte) status);
+        payload.put(body);
+        payload.flip();
+        return sendReliably(session, new OutboundFrame(Frame.TYPE_RPC_RESPONSE, payload));
+    }
+
+    private boolean sendReliably(final Session session, final OutboundFrame frame) {
+        if(session.write(frame)){
+            return true;
+        }
+        if(session.isClosed()){
+            return false;
+        }
+        try {
+            timerWheel.newTimeout(new Runnable() {
+                @Override
+                public void run() {
+                    sendReliably(session, frame);
+                }
+            }, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //已经停止
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 取消调用
+     * @param call
+     * @return 调用尚未结束时返回true
+     */
+    boolean cancel(RpcCall call) {
+        return fail(call, new RpcException(RpcException.CODE_CANCELLED, "调用已取消：" + call.getMethod()));
+    }
+
+    private boolean fail(RpcCall call, RpcException cause) {
+        if(!pending.remove(call.getId(), call)){
+            return false;
+        }
+        cancelTimeout(call);
+        return call.complete(null, cause);
+    }
+
+    private static void cancelTimeout(RpcCall call) {
+        TimerWheel.Timeout timeout = call.timeout;
+        if(timeout != null){
+            timeout.cancel();
+        }
+    }
+
+    private void failAll(int sessionId, String message) {
+        List<RpcCall> calls = new ArrayList<>();
+        for(RpcCall call : pending.values()){
+            if(sessionId < 0 || call.getSessionId() == sessionId){
+                calls.add(call);
+            }
+        }
+        for(RpcCall call : calls){
+            fail(call, new RpcException(RpcException.CODE_SESSION_CLOSED, message));
+        }
+    }
+
+    /**
+     * 停止所有等待响应的调用
+     */
+    public void shutdown() {
+        failAll(-1, "RPC已经停止");
+        sessions.clear();
+    }
+
+    static byte[] encode(String text) {
+        return text == null ? new byte[0] : text.getBytes(UTF_8);
+    }
+}
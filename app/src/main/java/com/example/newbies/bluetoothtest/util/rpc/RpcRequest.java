@@ -0,0 +1,70 @@
+package com.example.newbies.bluetoothtest.util.rpc;
+
+import com.example.newbies.bluetoothtest.util.transfer.Session;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 收到的一个RPC请求，每个请求只能回复一次
+ * @author NewBies
+ * @date 2018/1/20
+ */
+public class RpcRequest {
+
+    private final RpcManager manager;
+    private final Session session;
+    private final int callId;
+    private final String method;
+    private final byte[] params;
+    private final AtomicBoolean replied = new AtomicBoolean();
+
+    RpcRequest(RpcManager manager, Session session, int callId, String method, byte[] params){
+        this.manager = manager;
+        this.session = session;
+        this.callId = callId;
+        this.method = method;
+        this.params = params;
+    }
+
+    /**
+     * @return 请求来自的会话ID
+     */
+    public int getSessionId() {
+        return session.getId();
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return 请求参数
+     */
+    public byte[] getParams() {
+        return params;
+    }
+
+    public boolean isReplied() {
+        return replied.get();
+    }
+
+    /**
+     * 返回结果
+     * @param result
+     * @return 已经回复过或者会话已经关闭时返回false，发送队列已满时会稍后重试
+     */
+    public boolean reply(byte[] result){
+        return replied.compareAndSet(false, true)
+                && manager.sendResponse(session, callId, RpcManager.STATUS_OK, result);
+    }
+
+    /**
+     * 返回错误，对方的调用以{@link RpcException#CODE_REMOTE_ERROR}失败
+     * @param message 错误信息
+     * @return 已经回复过或者会话已经关闭时返回false，发送队列已满时会稍后重试
+     */
+    public boolean fail(String message){
+        return replied.compareAndSet(false, true)
+                && manager.sendResponse(session, callId, RpcManager.STATUS_ERROR, RpcManager.encode(message));
+    }
+}
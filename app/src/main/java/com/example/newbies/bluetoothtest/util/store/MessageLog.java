@@ -0,0 +1,445 @@
+package com.example.newbies.bluetoothtest.util.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * 基于内存映射文件的只追加消息日志，用于断开连接期间暂存待发送的消息
+ * 文件大小固定，整个映射到内存中，数据区作为环形缓冲区使用：新消息追加在尾部，对方确认后从头部删除，
+ * 全部确认后读写位置回到数据区的开头。追加只是顺序写内存，由系统负责写回文件，进程被杀死也不会丢失
+ * 文件格式：
+ * 文件头(64字节) | 魔数(4) | 版本(4) | 日志ID(8) | 头部序号(8) | 头部偏移(4) | 容量(4) | 保留 |
+ * 记录 | 负载长度(4) | CRC32(4，覆盖序号和负载) | 序号(8) | 负载 |，负载长度为-1表示回到数据区开头
+ * 尾部不单独保存，打开时从头部开始逐条校验，遇到校验失败或者序号不连续的记录即为尾部
+ * @author NewBies
+ * @date 2018/1/25
+ */
+public class MessageLog {
+
+    /**
+     * 默认的文件大小
+     */
+    public static final int DEFAULT_CAPACITY = 4 * 1024 * 1024;
+    /**
+     * 空间不足时删除最早的消息
+     */
+    public static final int OVERFLOW_DROP_OLDEST = 0;
+    /**
+     * 空间不足时拒绝新的消息
+     */
+    public static final int OVERFLOW_REJECT = 1;
+
+    static final int HEADER_LENGTH = 64;
+    static final int RECORD_HEADER_LENGTH = 16;
+    private static final int MAGIC = 0x42545346;
+    private static final int VERSION = 1;
+    private static final int WRAP = -1;
+    private static final int MIN_CAPACITY = 4096;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_LOG_ID = 8;
+    private static final int OFFSET_HEAD_SEQ = 16;
+    private static final int OFFSET_HEAD_OFFSET = 24;
+    private static final int OFFSET_CAPACITY = 28;
+
+    /**
+     * 读取位置，由使用者持有，日志本身不记录
+     */
+    public static final class Cursor {
+        private long seq;
+        private int offset;
+
+        private Cursor(long seq, int offset){
+            this.seq = seq;
+            this.offset = offset;
+        }
+
+        /**
+         * @return 下一条要读取的消息的序号
+         */
+        public long getSeq() {
+            return seq;
+        }
+    }
+
+    /**
+     * 读出的一条消息
+     */
+    public static final class Entry {
+        private final long seq;
+        private final byte[] payload;
+        private final int nextOffset;
+
+        private Entry(long seq, byte[] payload, int nextOffset){
+            this.seq = seq;
+            this.payload = payload;
+            this.nextOffset = nextOffset;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int overflowPolicy;
+    private final long logId;
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer seqBytes = ByteBuffer.allocate(8);
+    /**
+     * 最早一条未确认消息的序号和偏移
+     */
+    private long headSeq;
+    private int headOffset;
+    /**
+     * 下一条消息的序号和写入偏移
+     */
+    private long nextSeq;
+    private int tailOffset;
+    private int count;
+    private long evictedCount;
+    private boolean closed;
+
+    private MessageLog(RandomAccessFile file, MappedByteBuffer buffer, int overflowPolicy, boolean created){
+        this.file = file;
+        this.buffer = buffer;
+        this.capacity = buffer.capacity();
+        this.overflowPolicy = overflowPolicy;
+        if(created){
+            logId = new Random().nextLong();
+            buffer.putInt(OFFSET_MAGIC, MAGIC);
+            buffer.putInt(OFFSET_VERSION, VERSION);
+            buffer.putLong(OFFSET_LOG_ID, logId);
+            buffer.putInt(OFFSET_CAPACITY, capacity);
+            headSeq = 1;
+            headOffset = HEADER_LENGTH;
+            writeHead();
+        }
+        else{
+            logId = buffer.getLong(OFFSET_LOG_ID);
+            headSeq = buffer.getLong(OFFSET_HEAD_SEQ);
+            headOffset = buffer.getInt(OFFSET_HEAD_OFFSET);
+        }
+        recover();
+    }
+
+    /**
+     * 打开日志，文件不存在或者已经损坏时创建新的日志
+     * @param file 日志文件
+     * @param capacity 新建文件的大小，已有的文件保持原来的大小
+     * @param overflowPolicy {@link #OVERFLOW_DROP_OLDEST}或者{@link #OVERFLOW_REJECT}
+     * @return
+     * @throws IOException 无法创建或者映射文件
+     */
+    public static MessageLog open(File file, int capacity, int overflowPolicy) throws IOException {
+        if(capacity < MIN_CAPACITY){
+            throw new IllegalArgumentException("日志容量过小：" + capacity);
+        }
+        if(overflowPolicy != OVERFLOW_DROP_OLDEST && overflowPolicy != OVERFLOW_REJECT){
+            throw new IllegalArgumentException("未知的溢出策略：" + overflowPolicy);
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            long length = randomAccessFile.length();
+            boolean created = !isValid(randomAccessFile, length);
+            if(created){
+                randomAccessFile.setLength(0);
+                randomAccessFile.setLength(capacity);
+                length = capacity;
+            }
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            return new MessageLog(randomAccessFile, buffer, overflowPolicy, created);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    private static boolean isValid(RandomAccessFile file, long length) throws IOException {
+        if(length < MIN_CAPACITY || length > Integer.MAX_VALUE){
+            return false;
+        }
+        file.seek(0);
+        if(file.readInt() != MAGIC || file.readInt() != VERSION){
+            return false;
+        }
+        file.seek(OFFSET_HEAD_OFFSET);
+        int headOffset = file.readInt();
+        return file.readInt() == length && headOffset >= HEADER_LENGTH && headOffset < length;
+    }
+
+    /**
+     * 从头部开始逐条校验，找到尾部
+     */
+    private void recover(){
+        headOffset = normalize(headOffset);
+        long seq = headSeq;
+        int offset = headOffset;
+        boolean wrapped = false;
+        while(true){
+            int recordOffset = normalize(offset);
+            if(recordOffset < offset){
+                //最多回绕一次，防止损坏的数据造成死循环
+                if(wrapped){
+                    break;
+                }
+                wrapped = true;
+            }
+            Entry entry = readAt(recordOffset, seq);
+            if(entry == null){
+                offset = recordOffset;
+                break;
+            }
+            offset = entry.nextOffset;
+            seq++;
+        }
+        count = (int) (seq - headSeq);
+        nextSeq = seq;
+        tailOffset = count == 0 ? HEADER_LENGTH : offset;
+        if(count == 0){
+            headOffset = HEADER_LENGTH;
+            writeHead();
+        }
+    }
+
+    /**
+     * 记录头放不下或者遇到回绕标记时回到数据区开头
+     * @param offset
+     * @return
+     */
+    private int normalize(int offset){
+        if(capacity - offset < RECORD_HEADER_LENGTH || buffer.getInt(offset) == WRAP){
+            return HEADER_LENGTH;
+        }
+        return offset;
+    }
+
+    /**
+     * 读取并校验一条记录
+     * @param offset 记录的偏移
+     * @param expectedSeq 期望的序号
+     * @return 记录无效或者序号不符时返回null
+     */
+    private Entry readAt(int offset, long expectedSeq){
+        int length = buffer.getInt(offset);
+        if(length < 0 || length > capacity - offset - RECORD_HEADER_LENGTH){
+            return null;
+        }
+        long seq = buffer.getLong(offset + 8);
+        if(seq != expectedSeq){
+            return null;
+        }
+        byte[] payload = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset + RECORD_HEADER_LENGTH);
+        source.get(payload);
+        if(checksum(seq, payload) != buffer.getInt(offset + 4)){
+            return null;
+        }
+        return new Entry(seq, payload, offset + RECORD_HEADER_LENGTH + length);
+    }
+
+    private int checksum(long seq, byte[] payload){
+        crc.reset();
+        seqBytes.putLong(0, seq);
+        crc.update(seqBytes.array(), 0, 8);
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    private void writeHead(){
+        buffer.putLong(OFFSET_HEAD_SEQ, headSeq);
+        buffer.putInt(OFFSET_HEAD_OFFSET, headOffset);
+    }
+
+    /**
+     * @return 日志的唯一标识，接收方据此识别重复的消息
+     */
+    public long getLogId() {
+        return logId;
+    }
+
+    /**
+     * 追加一条消息
+     * @param payload
+     * @return 消息的序号，空间不足且策略为{@link #OVERFLOW_REJECT}时返回-1
+     * @throws IllegalArgumentException 消息比整个日志还大
+     * @throws IllegalStateException 日志已经关闭
+     */
+    public synchronized long append(byte[] payload){
+        if(closed){
+            throw new IllegalStateException("日志已经关闭");
+        }
+        int need = RECORD_HEADER_LENGTH + payload.length;
+        //保留至少一个字节，尾部追上头部时不会与空日志混淆
+        if(need >= capacity - HEADER_LENGTH){
+            throw new IllegalArgumentException("消息过大：" + payload.length);
+        }
+        int offset;
+        while((offset = allocate(need)) < 0){
+            if(overflowPolicy == OVERFLOW_REJECT || count == 0){
+                return -1;
+            }
+            removeHead();
+            evictedCount++;
+        }
+        long seq = nextSeq++;
+        //先写负载和校验码，最后写长度，写到一半时进程退出，恢复时校验会失败
+        ByteBuffer target = buffer.duplicate();
+        target.position(offset + RECORD_HEADER_LENGTH);
+        target.put(payload);
+        buffer.putLong(offset + 8, seq);
+        buffer.putInt(offset + 4, checksum(seq, payload));
+        buffer.putInt(offset, payload.length);
+        tailOffset = offset + need;
+        count++;
+        return seq;
+    }
+
+    /**
+     * 找到能放下need字节的位置，需要回绕时写入回绕标记
+     * @param need
+     * @return 写入位置，空间不足时返回-1
+     */
+    private int allocate(int need){
+        if(count == 0){
+            headOffset = HEADER_LENGTH;
+            tailOffset = HEADER_LENGTH;
+            headSeq = nextSeq;
+            writeHead();
+            return HEADER_LENGTH;
+        }
+        if(tailOffset > headOffset){
+            if(capacity - tailOffset >= need){
+                return tailOffset;
+            }
+            if(headOffset - HEADER_LENGTH > need){
+                if(capacity - tailOffset >= 4){
+                    buffer.putInt(tailOffset, WRAP);
+                }
+                return HEADER_LENGTH;
+            }
+            return -1;
+        }
+        return headOffset - tailOffset > need ? tailOffset : -1;
+    }
+
+    private void removeHead(){
+        int offset = normalize(headOffset);
+        int length = buffer.getInt(offset);
+        headOffset = offset + RECORD_HEADER_LENGTH + length;
+        headSeq++;
+        count--;
+        if(count == 0){
+            headOffset = HEADER_LENGTH;
+            tailOffset = HEADER_LENGTH;
+        }
+        else{
+            //头部总是指向实际的记录，否则回绕后的尾部会覆盖回绕标记
+            headOffset = normalize(headOffset);
+        }
+        writeHead();
+    }
+
+    /**
+     * 对方已经确认收到seq及之前的所有消息，从日志中删除
+     * @param seq
+     */
+    public synchronized void acknowledge(long seq){
+        if(closed){
+            return;
+        }
+        while(count > 0 && headSeq <= seq){
+            removeHead();
+        }
+    }
+
+    /**
+     * @return 指向最早一条未确认消息的读取位置
+     */
+    public synchronized Cursor cursor(){
+        return new Cursor(headSeq, headOffset);
+    }
+
+    /**
+     * 读取游标处的消息，不移动游标
+     * 游标指向的消息已经被删除或者正好是头部时移动到头部的实际位置，
+     * 日志清空后重新从文件开头写入，停在原来尾部的游标因此仍然能读到新消息
+     * @param cursor
+     * @return 已经读到尾部时返回null
+     */
+    public synchronized Entry read(Cursor cursor){
+        if(closed){
+            return null;
+        }
+        if(cursor.seq <= headSeq){
+            cursor.seq = headSeq;
+            cursor.offset = headOffset;
+        }
+        if(cursor.seq >= nextSeq){
+            return null;
+        }
+        cursor.offset = normalize(cursor.offset);
+        return readAt(cursor.offset, cursor.seq);
+    }
+
+    /**
+     * 把游标移动到entry之后
+     * @param cursor
+     * @param entry 刚从该游标读出的消息
+     */
+    public void advance(Cursor cursor, Entry entry){
+        cursor.seq = entry.seq + 1;
+        cursor.offset = entry.nextOffset;
+    }
+
+    /**
+     * @return 最早一条未确认消息的序号
+     */
+    public synchronized long getHeadSeq() {
+        return headSeq;
+    }
+
+    /**
+     * @return 未确认的消息条数
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @return 因为空间不足而被删除的消息条数
+     */
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     * 把映射的内容写回文件并关闭，之后不能再使用
+     */
+    public synchronized void close(){
+        if(closed){
+            return;
+        }
+        closed = true;
+        buffer.force();
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
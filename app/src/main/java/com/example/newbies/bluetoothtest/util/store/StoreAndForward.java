@@ -0,0 +1,405 @@
+package com.example.newbies.bluetoothtest.util.store;
+
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+import com.example.newbies.bluetoothtest.util.transfer.MessageListener;
+import com.example.newbies.bluetoothtest.util.transfer.OutboundFrame;
+import com.example.newbies.bluetoothtest.util.transfer.ReceiveBufferPool;
+import com.example.newbies.bluetoothtest.util.transfer.ReceivedMessage;
+import com.example.newbies.bluetoothtest.util.transfer.Session;
+import com.example.newbies.bluetoothtest.util.transfer.TimerWheel;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 存储转发：没有连接时把待发送的消息写入{@link MessageLog}，连接建立后按顺序发出，对方确认后从日志中删除
+ * 协议(所有整数均为大端)：
+ * STORED     | 日志ID(8) | 序号(8) | 消息 |  发送方 -> 接收方
+ * STORED_ACK | 日志ID(8) | 序号(8) |  接收方 -> 发送方，确认该序号及之前的所有消息
+ * 发送方最多同时有{@link #SEND_WINDOW}条消息等待确认，接收方每收到{@link #ACK_BATCH}条或者稍等片刻后累计确认一次，
+ * 日志中积压的消息因此可以连续地发出，由写入器合并成大块写操作。
+ * 连接在确认之前断开时，重连后从最早一条未确认的消息重新发送，接收方按日志ID和序号丢弃已经收到过的消息
+ * @author NewBies
+ * @date 2018/1/25
+ */
+public class StoreAndForward {
+
+    /**
+     * 最多同时等待确认的消息条数
+     */
+    public static final int SEND_WINDOW = 256;
+    /**
+     * 接收方每收到多少条消息确认一次
+     */
+    public static final int ACK_BATCH = 32;
+    /**
+     * 不足一批时等待确认的时间(毫秒)
+     */
+    private static final long ACK_DELAY_MILLIS = 10;
+    /**
+     * 发送队列已满时重试的间隔(毫秒)
+     */
+    private static final long RETRY_DELAY_MILLIS = 5;
+    private static final int HEADER_LENGTH = 16;
+
+    /**
+     * {@link #offer(byte[], boolean)}的结果：已写入日志
+     */
+    public static final int OFFER_STORED = 0;
+    /**
+     * {@link #offer(byte[], boolean)}的结果：不需要经过日志，调用者直接发送
+     */
+    public static final int OFFER_BYPASSED = 1;
+    /**
+     * {@link #offer(byte[], boolean)}的结果：日志已满且策略为拒绝
+     */
+    public static final int OFFER_REJECTED = 2;
+
+    /**
+     * 接收方对一个日志的接收状态
+     */
+    private final class Inbound implements Runnable {
+        private final long logId;
+        private long delivered;
+        private long acknowledged;
+        private int sessionId;
+        private TimerWheel.Timeout ackTimeout;
+
+        Inbound(long logId){
+            this.logId = logId;
+        }
+
+        /**
+         * 延迟确认到期
+         */
+        @Override
+        public void run() {
+            synchronized (this) {
+                ackTimeout = null;
+            }
+            sendAck(this);
+        }
+    }
+
+    private final TimerWheel timerWheel;
+    private final MessageListener deliveryListener;
+    private final ConcurrentHashMap<Integer, Session> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Inbound> inbounds = new ConcurrentHashMap<>();
+
+    /**
+     * 以下发送方的状态由this保护
+     */
+    private MessageLog log;
+    /**
+     * 正在转发日志的会话及其读取位置
+     */
+    private Session target;
+    private MessageLog.Cursor cursor;
+    private boolean retryScheduled;
+    private final Runnable retryTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (StoreAndForward.this) {
+                retryScheduled = false;
+            }
+            drain();
+        }
+    };
+
+    /**
+     * @param timerWheel 驱动延迟确认和重试的时间轮
+     * @param deliveryListener 收到的消息还原成普通数据帧后交给它
+     */
+    public StoreAndForward(TimerWheel timerWheel, MessageListener deliveryListener){
+        this.timerWheel = timerWheel;
+        this.deliveryListener = deliveryListener;
+    }
+
+    /**
+     * 设置发送方的日志，原来的日志会被关闭
+     * @param log 为null表示不再存储转发，接收不受影响
+     */
+    public void setLog(MessageLog log){
+        MessageLog old;
+        synchronized (this) {
+            old = this.log;
+            this.log = log;
+            cursor = log != null && target != null ? log.cursor() : null;
+        }
+        if(old != null && old != log){
+            old.close();
+        }
+        drain();
+    }
+
+    /**
+     * @return 是否开启了存储转发
+     */
+    public synchronized boolean isEnabled(){
+        return log != null;
+    }
+
+    /**
+     * @return 日志中尚未被对方确认的消息条数
+     */
+    public synchronized int getPendingCount(){
+        return log == null ? 0 : log.size();
+    }
+
+    /**
+     * 把消息写入日志，有可用的会话时立即开始转发
+     * @param payload
+     * @return 没有开启存储转发、消息超过一帧能携带的长度或者日志已满且策略为拒绝时返回false
+     */
+    public boolean append(byte[] payload){
+        if(isOversized(payload)){
+            return false;
+        }
+        synchronized (this) {
+            if(log == null || log.append(payload) < 0){
+                return false;
+            }
+        }
+        drain();
+        return true;
+    }
+
+    /**
+     * 没有连接或者日志中还有积压时把消息写入日志，保证新消息排在积压之后
+     * 检查和写入在同一个锁内完成，确认恰好清空日志时不会把消息留在日志里而没有人转发
+     * @param payload
+     * @param connected 当前是否已连接
+     * @return {@link #OFFER_STORED}、{@link #OFFER_BYPASSED}或者{@link #OFFER_REJECTED}
+     */
+    public int offer(byte[] payload, boolean connected){
+        synchronized (this) {
+            if(log == null || (connected && log.size() == 0)){
+                return OFFER_BYPASSED;
+            }
+            if(isOversized(payload) || log.append(payload) < 0){
+                return OFFER_REJECTED;
+            }
+        }
+        drain();
+        return OFFER_STORED;
+    }
+
+    /**
+     * 转发时消息前面还有头部，超长的消息写入日志后永远发不出去，还会一直占着日志的开头
+     * @param payload
+     * @return 加上头部后是否超过一帧能携带的长度
+     */
+    private static boolean isOversized(byte[] payload){
+        return HEADER_LENGTH + payload.length > Frame.DEFAULT_MAX_PAYLOAD_LENGTH;
+    }
+
+    public void onSessionOpened(Session session) {
+        sessions.put(session.getId(), session);
+        synchronized (this) {
+            if(target != null){
+                return;
+            }
+            target = session;
+            cursor = log == null ? null : log.cursor();
+        }
+        drain();
+    }
+
+    /**
+     * 会话断开，未确认的消息留在日志中，改由其他会话或者重连后的会话从头转发
+     * @param session
+     */
+    public void onSessionClosed(Session session) {
+        sessions.remove(session.getId());
+        synchronized (this) {
+            if(target != session){
+                return;
+            }
+            target = null;
+            cursor = null;
+            for(Session other : sessions.values()){
+                if(!other.isClosed()){
+                    target = other;
+                    cursor = log == null ? null : log.cursor();
+                    break;
+                }
+            }
+        }
+        drain();
+    }
+
+    /**
+     * 在窗口和发送队列允许的范围内发出日志中的消息
+     */
+    private void drain(){
+        synchronized (this) {
+            if(log == null || target == null || cursor == null){
+                return;
+            }
+            while(cursor.getSeq() - log.getHeadSeq() < SEND_WINDOW){
+                MessageLog.Entry entry = log.read(cursor);
+                if(entry == null){
+                    return;
+                }
+                byte[] message = entry.getPayload();
+                ByteBuffer payload = ByteBuffer.allocate(HEADER_LENGTH + message.length);
+                payload.putLong(log.getLogId());
+                payload.putLong(entry.getSeq());
+                payload.put(message);
+                payload.flip();
+                if(!target.write(new OutboundFrame(Frame.TYPE_STORED, payload))){
+                    //发送队列已满，稍后从同一条消息继续
+                    scheduleRetry();
+                    return;
+                }
+                log.advance(cursor, entry);
+            }
+        }
+    }
+
+    private void scheduleRetry(){
+        if(retryScheduled || target.isClosed()){
+            return;
+        }
+        try {
+            timerWheel.newTimeout(retryTask, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            retryScheduled = true;
+        } catch (RejectedExecutionException e) {
+            //已经停止
+        }
+    }
+
+    /**
+     * 处理存储转发的帧，其他类型的帧不做处理
+     * @param message
+     * @param pool 还原出的消息从该缓冲池中借出
+     * @return 是否已经处理，已经处理的消息由本方法释放
+     */
+    public boolean onMessage(ReceivedMessage message, ReceiveBufferPool pool) {
+        int type = message.getType();
+        if(type != Frame.TYPE_STORED && type != Frame.TYPE_STORED_ACK){
+            return false;
+        }
+        try {
+            ByteBuffer data = message.getData();
+            if(data.remaining() >= HEADER_LENGTH){
+                long logId = data.getLong();
+                long seq = data.getLong();
+                if(type == Frame.TYPE_STORED){
+                    onStored(message, logId, seq, pool);
+                }
+                else{
+                    onAck(logId, seq);
+                }
+            }
+        } finally {
+            message.release();
+        }
+        return true;
+    }
+
+    private void onStored(ReceivedMessage message, long logId, long seq, ReceiveBufferPool pool) {
+        Inbound inbound = inbounds.get(logId);
+        if(inbound == null){
+            Inbound created = new Inbound(logId);
+            inbound = inbounds.putIfAbsent(logId, created);
+            if(inbound == null){
+                inbound = created;
+            }
+        }
+        boolean ackNow;
+        synchronized (inbound) {
+            inbound.sessionId = message.getSessionId();
+            //重连后重发的消息已经交付过，只需要再确认一次；序号跳跃说明发送方删除了旧消息，照常接收
+            boolean duplicate = seq <= inbound.delivered;
+            if(!duplicate){
+                inbound.delivered = seq;
+            }
+            ackNow = inbound.delivered - inbound.acknowledged >= ACK_BATCH;
+            if(!ackNow && inbound.ackTimeout == null){
+                try {
+                    inbound.ackTimeout = timerWheel.newTimeout(inbound, ACK_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    ackNow = true;
+                }
+            }
+            if(duplicate){
+                message = null;
+            }
+        }
+        if(message != null){
+            pool.acquire(message.getSessionId(), Frame.TYPE_DATA, message.getChannel(), message.getData())
+                    .deliverTo(deliveryListener);
+        }
+        if(ackNow){
+            sendAck(inbound);
+        }
+    }
+
+    private void sendAck(Inbound inbound) {
+        long seq;
+        Session session;
+        synchronized (inbound) {
+            if(inbound.ackTimeout != null){
+                inbound.ackTimeout.cancel();
+                inbound.ackTimeout = null;
+            }
+            seq = inbound.delivered;
+            session = sessions.get(inbound.sessionId);
+            if(session == null){
+                return;
+            }
+        }
+        ByteBuffer payload = ByteBuffer.allocate(HEADER_LENGTH);
+        payload.putLong(0, inbound.logId);
+        payload.putLong(8, seq);
+        if(session.write(new OutboundFrame(Frame.TYPE_STORED_ACK, payload))){
+            synchronized (inbound) {
+                if(seq > inbound.acknowledged){
+                    inbound.acknowledged = seq;
+                }
+            }
+        }
+        else if(!session.isClosed()){
+            //发送队列已满，稍后再确认
+            synchronized (inbound) {
+                if(inbound.ackTimeout == null){
+                    try {
+                        inbound.ackTimeout = timerWheel.newTimeout(inbound, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException e) {
+                        //已经停止
+                    }
+                }
+            }
+        }
+    }
+
+    private void onAck(long logId, long seq) {
+        synchronized (this) {
+            if(log == null || log.getLogId() != logId){
+                return;
+            }
+            log.acknowledge(seq);
+        }
+        drain();
+    }
+
+    /**
+     * 关闭日志，未确认的消息保留在文件中，下次打开后继续转发
+     */
+    public void shutdown() {
+        MessageLog old;
+        synchronized (this) {
+            old = log;
+            log = null;
+            target = null;
+            cursor = null;
+        }
+        if(old != null){
+            old.close();
+        }
+        sessions.clear();
+    }
+}
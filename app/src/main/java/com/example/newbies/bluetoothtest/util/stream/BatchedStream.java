@@ -0,0 +1,122 @@
+package com.example.newbies.bluetoothtest.util.stream;
+
+import com.example.newbies.bluetoothtest.util.transfer.TimerWheel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量和时间窗口操作符
+ * 一组的第一项到达时才启动定时器，空闲时不占用时间轮
+ * @author NewBies
+ * @date 2018/1/24
+ */
+class BatchedStream<T> extends MessageStream<List<T>> {
+
+    private final MessageStream<T> upstream;
+    private final int maxCount;
+    private final long delayMillis;
+    /**
+     * 为true时按固定的时间段分组，否则从每组的第一项开始计时
+     */
+    private final boolean aligned;
+
+    BatchedStream(MessageStream<T> upstream, int maxCount, long delayMillis, boolean aligned){
+        super(upstream.timerWheel, upstream.metrics);
+        this.upstream = upstream;
+        this.maxCount = maxCount;
+        this.delayMillis = delayMillis;
+        this.aligned = aligned;
+    }
+
+    @Override
+    Connection connect(Downstream<? super List<T>> downstream) {
+        final Batcher batcher = new Batcher(downstream);
+        final Connection connection = upstream.connect(batcher);
+        return new Connection() {
+            @Override
+            public void disconnect() {
+                connection.disconnect();
+                batcher.discardPending();
+            }
+        };
+    }
+
+    /**
+     * 每个订阅各自的分组状态
+     */
+    private class Batcher implements Downstream<T>, Runnable {
+        private final Downstream<? super List<T>> downstream;
+        private List<T> items;
+        private TimerWheel.Timeout timeout;
+
+        Batcher(Downstream<? super List<T>> downstream){
+            this.downstream = downstream;
+        }
+
+        @Override
+        public synchronized void onItem(T item) {
+            if(items == null){
+                items = new ArrayList<>(Math.min(maxCount, 16));
+                long delay = delayMillis;
+                if(aligned){
+                    long now = System.currentTimeMillis();
+                    delay = delayMillis - now % delayMillis;
+                }
+                try {
+                    timeout = timerWheel.newTimeout(this, delay, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    //时间轮已经停止，只能按数量分组
+                    timeout = null;
+                }
+            }
+            items.add(item);
+            if(items.size() >= maxCount){
+                flush();
+            }
+        }
+
+        /**
+         * 定时器到期
+         */
+        @Override
+        public synchronized void run() {
+            timeout = null;
+            flush();
+        }
+
+        @Override
+        public synchronized void onComplete() {
+            flush();
+            downstream.onComplete();
+        }
+
+        /**
+         * 在锁内交给下游，保证定时器和读线程产生的分组不会乱序
+         */
+        private void flush(){
+            if(timeout != null){
+                timeout.cancel();
+                timeout = null;
+            }
+            List<T> batch = items;
+            items = null;
+            if(batch != null && !batch.isEmpty()){
+                downstream.onItem(batch);
+            }
+        }
+
+        synchronized void discardPending(){
+            if(timeout != null){
+                timeout.cancel();
+                timeout = null;
+            }
+            if(items != null){
+                discard(items);
+                items = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.newbies.bluetoothtest.util.stream;
+
+/**
+ * 下游与上游之间的连接
+ * @author NewBies
+ * @date 2018/1/24
+ */
+interface Connection {
+
+    /**
+     * 断开连接，之后上游不再向下游传递数据
+     */
+    void disconnect();
+}
@@ -0,0 +1,17 @@
+package com.example.newbies.bluetoothtest.util.stream;
+
+/**
+ * 操作符之间传递数据的接口，上游在读线程或者定时器线程中调用，不能阻塞
+ * @author NewBies
+ * @date 2018/1/24
+ */
+interface Downstream<T> {
+
+    /**
+     * 收到一项数据，之后由下游负责释放
+     * @param item
+     */
+    void onItem(T item);
+
+    void onComplete();
+}
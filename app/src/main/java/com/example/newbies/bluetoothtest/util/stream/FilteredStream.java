@@ -0,0 +1,46 @@
+package com.example.newbies.bluetoothtest.util.stream;
+
+/**
+ * 过滤操作符
+ * @author NewBies
+ * @date 2018/1/24
+ */
+class FilteredStream<T> extends MessageStream<T> {
+
+    private final MessageStream<T> upstream;
+    private final StreamFilter<? super T> filter;
+
+    FilteredStream(MessageStream<T> upstream, StreamFilter<? super T> filter){
+        super(upstream.timerWheel, upstream.metrics);
+        this.upstream = upstream;
+        this.filter = filter;
+    }
+
+    @Override
+    Connection connect(final Downstream<? super T> downstream) {
+        return upstream.connect(new Downstream<T>() {
+            @Override
+            public void onItem(T item) {
+                boolean accepted;
+                try {
+                    accepted = filter.accept(item);
+                } catch (RuntimeException e) {
+                    //过滤条件出错时丢弃该项，不影响读线程
+                    e.printStackTrace();
+                    accepted = false;
+                }
+                if(accepted){
+                    downstream.onItem(item);
+                }
+                else{
+                    discard(item);
+                }
+            }
+
+            @Override
+            public void onComplete() {
+                downstream.onComplete();
+            }
+        });
+    }
+}
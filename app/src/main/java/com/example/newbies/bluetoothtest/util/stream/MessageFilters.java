@@ -0,0 +1,53 @@
+package com.example.newbies.bluetoothtest.util.stream;
+
+import com.example.newbies.bluetoothtest.util.transfer.ReceivedMessage;
+
+/**
+ * 常用的消息过滤条件
+ * @author NewBies
+ * @date 2018/1/24
+ */
+public final class MessageFilters {
+
+    private MessageFilters(){
+    }
+
+    /**
+     * @param channel 逻辑通道号，见{@link com.example.newbies.bluetoothtest.util.transfer.Channel}
+     * @return 只保留该通道上的消息
+     */
+    public static StreamFilter<ReceivedMessage> channel(final int channel){
+        return new StreamFilter<ReceivedMessage>() {
+            @Override
+            public boolean accept(ReceivedMessage message) {
+                return message.getChannel() == channel;
+            }
+        };
+    }
+
+    /**
+     * @param type 帧类型，见{@link com.example.newbies.bluetoothtest.util.frame.Frame}
+     * @return 只保留该类型的消息
+     */
+    public static StreamFilter<ReceivedMessage> type(final int type){
+        return new StreamFilter<ReceivedMessage>() {
+            @Override
+            public boolean accept(ReceivedMessage message) {
+                return message.getType() == type;
+            }
+        };
+    }
+
+    /**
+     * @param sessionId 会话ID
+     * @return 只保留来自该会话的消息
+     */
+    public static StreamFilter<ReceivedMessage> session(final int sessionId){
+        return new StreamFilter<ReceivedMessage>() {
+            @Override
+            public boolean accept(ReceivedMessage message) {
+                return message.getSessionId() == sessionId;
+            }
+        };
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.newbies.bluetoothtest.util.stream;
+
+import com.example.newbies.bluetoothtest.util.metrics.LinkMetrics;
+import com.example.newbies.bluetoothtest.util.transfer.ReceivedMessage;
+import com.example.newbies.bluetoothtest.util.transfer.TimerWheel;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 消息流的源头，所有会话收到的消息从这里分发给每个订阅
+ * 每个订阅各自持有消息的一个引用，发布者自己的引用不受影响，仍然由发布者释放
+ * @author NewBies
+ * @date 2018/1/24
+ */
+public class MessageHub extends MessageStream<ReceivedMessage> {
+
+    private final CopyOnWriteArrayList<Downstream<? super ReceivedMessage>> downstreams = new CopyOnWriteArrayList<>();
+    private volatile boolean completed;
+
+    /**
+     * @param timerWheel 驱动批量和时间窗口的时间轮
+     */
+    public MessageHub(TimerWheel timerWheel){
+        this(timerWheel, new LinkMetrics());
+    }
+
+    /**
+     * @param timerWheel 驱动批量和时间窗口的时间轮
+     * @param metrics 记录订阅队列已满而丢弃的消息
+     */
+    public MessageHub(TimerWheel timerWheel, LinkMetrics metrics){
+        super(timerWheel, metrics);
+    }
+
+    @Override
+    Connection connect(final Downstream<? super ReceivedMessage> downstream) {
+        downstreams.add(downstream);
+        if(completed){
+            downstreams.remove(downstream);
+            downstream.onComplete();
+        }
+        return new Connection() {
+            @Override
+            public void disconnect() {
+                downstreams.remove(downstream);
+            }
+        };
+    }
+
+    /**
+     * @return 是否有订阅
+     */
+    public boolean hasSubscribers(){
+        return !downstreams.isEmpty();
+    }
+
+    /**
+     * 把消息分发给所有订阅，在读线程中调用，不会阻塞
+     * @param message 调用者仍然持有该消息，需要自己释放
+     */
+    public void publish(ReceivedMessage message){
+        if(completed){
+            return;
+        }
+        for(Downstream<? super ReceivedMessage> downstream : downstreams){
+            downstream.onItem(message.retain());
+        }
+    }
+
+    /**
+     * 结束消息流，所有订阅者在处理完队列中的数据后收到{@link Subscriber#onComplete()}
+     */
+    public void complete(){
+        completed = true;
+        for(Downstream<? super ReceivedMessage> downstream : downstreams){
+            downstream.onComplete();
+        }
+        downstreams.clear();
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.newbies.bluetoothtest.util.stream;
+
+import com.example.newbies.bluetoothtest.util.metrics.LinkMetrics;
+import com.example.newbies.bluetoothtest.util.transfer.ReceivedMessage;
+import com.example.newbies.bluetoothtest.util.transfer.TimerWheel;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * 可以订阅的消息流
+ * 上游(读线程)只把数据放入每个订阅自己的队列，订阅者在自己选择的线程池中按请求的数量取出数据，
+ * 订阅者处理得再慢也不会阻塞读线程。订阅者释放消息之后才会向对方归还接收额度，
+ * 因此处理不过来时对方会自动放慢发送；但接收窗口是按会话计算的，多个会话的消息汇入同一个订阅，
+ * 或者没有开启流量控制时，队列仍然可能被填满，这时新到的消息会被丢弃，并计入{@link LinkMetrics#onSubscriberDropped()}
+ * 过滤在读线程中执行，批量和时间窗口由时间轮驱动，操作符可以任意组合，每个订阅各自持有一份操作符的状态
+ * @author NewBies
+ * @date 2018/1/24
+ */
+public abstract class MessageStream<T> {
+
+    /**
+     * 默认的订阅队列容量
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 256;
+
+    final TimerWheel timerWheel;
+    /**
+     * 记录订阅队列已满而丢弃的消息
+     */
+    final LinkMetrics metrics;
+
+    MessageStream(TimerWheel timerWheel, LinkMetrics metrics){
+        this.timerWheel = timerWheel;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 把下游接到本流上
+     * @param downstream
+     * @return 用于断开的连接
+     */
+    abstract Connection connect(Downstream<? super T> downstream);
+
+    /**
+     * 订阅消息流，使用默认的队列容量
+     * @param subscriber
+     * @param executor 执行订阅者回调的线程池
+     * @return
+     */
+    public Subscription subscribe(Subscriber<? super T> subscriber, Executor executor){
+        return subscribe(subscriber, executor, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * 订阅消息流
+     * 订阅者请求的数据不足时，到达的数据暂存在队列中，队列满时丢弃新到的数据并释放，丢弃的条数计入{@link LinkMetrics}；
+     * 不能丢失数据时，队列容量应该不小于所有会话的接收窗口之和，并且开启流量控制
+     * @param subscriber
+     * @param executor 执行订阅者回调的线程池，可以是单线程的也可以是共享的
+     * @param bufferSize 队列容量
+     * @return
+     */
+    public Subscription subscribe(Subscriber<? super T> subscriber, Executor executor, int bufferSize){
+        if(bufferSize <= 0){
+            throw new IllegalArgumentException("非法的队列容量：" + bufferSize);
+        }
+        StreamSubscription<T> subscription = new StreamSubscription<>(subscriber, executor, bufferSize, metrics);
+        subscriber.onSubscribe(subscription);
+        subscription.setConnection(connect(subscription));
+        return subscription;
+    }
+
+    /**
+     * @param filter 过滤条件，在读线程中执行
+     * @return 只包含满足条件的数据的流，被过滤掉的消息会被释放
+     */
+    public MessageStream<T> filter(StreamFilter<? super T> filter){
+        return new FilteredStream<>(this, filter);
+    }
+
+    /**
+     * 批量：每凑够maxCount项，或者批内第一项到达后经过maxDelayMillis，就把这一批交给下游
+     * @param maxCount 每批的最大项数
+     * @param maxDelayMillis 一批最长等待时间(毫秒)，必须大于0，否则流量控制下可能永远凑不满一批
+     * @return
+     */
+    public MessageStream<List<T>> batch(int maxCount, long maxDelayMillis){
+        if(maxCount <= 0 || maxDelayMillis <= 0){
+            throw new IllegalArgumentException("非法的批量参数");
+        }
+        return new BatchedStream<>(this, maxCount, maxDelayMillis, false);
+    }
+
+    /**
+     * 时间窗口：按固定长度的时间段分组，同一时间段内到达的数据作为一组交给下游，没有数据的时间段不产生分组
+     * @param windowMillis 时间段长度(毫秒)
+     * @return
+     */
+    public MessageStream<List<T>> window(long windowMillis){
+        if(windowMillis <= 0){
+            throw new IllegalArgumentException("非法的时间窗口：" + windowMillis);
+        }
+        return new BatchedStream<>(this, Integer.MAX_VALUE, windowMillis, true);
+    }
+
+    /**
+     * 释放一组消息，订阅批量或者时间窗口的订阅者处理完一组后调用
+     * @param messages
+     */
+    public static void releaseAll(Collection<ReceivedMessage> messages){
+        for(ReceivedMessage message : messages){
+            message.release();
+        }
+    }
+
+    /**
+     * 丢弃一项数据，消息以及操作符产生的消息列表会被释放
+     * @param item
+     */
+    static void discard(Object item){
+        if(item instanceof ReceivedMessage){
+            ((ReceivedMessage) item).release();
+        }
+        else if(item instanceof Collection){
+            for(Object element : (Collection<?>) item){
+                discard(element);
+            }
+        }
+    }
+}
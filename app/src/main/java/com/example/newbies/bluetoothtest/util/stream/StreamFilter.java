@@ -0,0 +1,15 @@
+package com.example.newbies.bluetoothtest.util.stream;
+
+/**
+ * 消息流的过滤条件，在读线程中执行，不能做耗时操作
+ * @author NewBies
+ * @date 2018/1/24
+ */
+public interface StreamFilter<T> {
+
+    /**
+     * @param item
+     * @return 是否保留该项数据
+     */
+    boolean accept(T item);
+}
@@ -0,0 +1,178 @@
+package com.example.newbies.bluetoothtest.util.stream;
+
+import com.example.newbies.bluetoothtest.util.metrics.LinkMetrics;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一次订阅，持有订阅者的队列
+ * 上游只把数据放入队列，投递任务在订阅者的线程池中执行，同一时刻最多只有一个投递任务，
+ * 与{@link com.example.newbies.bluetoothtest.util.transfer.CoalescingWriter}的写任务一样，只在有数据可以投递时才提交
+ * 队列有容量上限，满了之后新到的数据被释放并计入{@link LinkMetrics#onSubscriberDropped()}，不保证不丢数据
+ * @author NewBies
+ * @date 2018/1/24
+ */
+class StreamSubscription<T> implements Subscription, Downstream<T>, Runnable {
+
+    private final Subscriber<? super T> subscriber;
+    private final Executor executor;
+    private final int bufferSize;
+    private final LinkMetrics metrics;
+    private final ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<>();
+    /**
+     * 队列中的项数，ConcurrentLinkedQueue的size()需要遍历
+     */
+    private final AtomicInteger size = new AtomicInteger();
+    /**
+     * 订阅者请求了但还没有投递的项数
+     */
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean cancelled;
+    private volatile boolean completed;
+    /**
+     * 是否已经通知过订阅者结束，只在投递任务中访问
+     */
+    private boolean terminated;
+    private volatile Connection connection;
+
+    StreamSubscription(Subscriber<? super T> subscriber, Executor executor, int bufferSize, LinkMetrics metrics){
+        this.subscriber = subscriber;
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+        this.metrics = metrics;
+    }
+
+    void setConnection(Connection connection){
+        this.connection = connection;
+        //订阅者可能在onSubscribe中就取消了
+        if(cancelled){
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public void onItem(T item) {
+        if(cancelled || completed){
+            MessageStream.discard(item);
+            return;
+        }
+        //订阅者处理不过来，丢弃新到的数据，接收窗口只限制单个会话，不能保证队列不满
+        if(size.incrementAndGet() > bufferSize){
+            size.decrementAndGet();
+            MessageStream.discard(item);
+            metrics.onSubscriberDropped();
+            return;
+        }
+        queue.offer(item);
+        if(requested.get() > 0){
+            schedule();
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        completed = true;
+        schedule();
+    }
+
+    @Override
+    public void request(long n) {
+        if(n <= 0){
+            throw new IllegalArgumentException("请求的项数必须大于0：" + n);
+        }
+        long current;
+        long next;
+        do {
+            current = requested.get();
+            next = current + n < 0 ? Long.MAX_VALUE : current + n;
+        } while(!requested.compareAndSet(current, next));
+        schedule();
+    }
+
+    @Override
+    public void cancel() {
+        if(cancelled){
+            return;
+        }
+        cancelled = true;
+        Connection connection = this.connection;
+        if(connection != null){
+            connection.disconnect();
+        }
+        //由投递任务清空队列，避免与正在进行的投递并发释放
+        schedule();
+    }
+
+    private void schedule(){
+        if(!scheduled.compareAndSet(false, true)){
+            return;
+        }
+        try {
+            executor.execute(this);
+        } catch (RejectedExecutionException e) {
+            //订阅者的线程池已经关闭，无法再投递
+            scheduled.set(false);
+            cancelled = true;
+            Connection connection = this.connection;
+            if(connection != null){
+                connection.disconnect();
+            }
+            clear();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            drain();
+        } finally {
+            scheduled.set(false);
+        }
+        //投递结束前又有新的数据、请求或者结束通知
+        boolean empty = queue.isEmpty();
+        if(cancelled ? !empty : (!empty && requested.get() > 0) || (empty && completed && !terminated)){
+            schedule();
+        }
+    }
+
+    private void drain(){
+        while(!cancelled && requested.get() > 0){
+            T item = queue.poll();
+            if(item == null){
+                break;
+            }
+            size.decrementAndGet();
+            if(requested.get() != Long.MAX_VALUE){
+                requested.decrementAndGet();
+            }
+            try {
+                subscriber.onNext(item);
+            } catch (RuntimeException e) {
+                cancel();
+                subscriber.onError(e);
+            }
+        }
+        if(cancelled){
+            clear();
+            return;
+        }
+        if(completed && queue.isEmpty() && !terminated){
+            terminated = true;
+            subscriber.onComplete();
+        }
+    }
+
+    private void clear(){
+        T item;
+        while((item = queue.poll()) != null){
+            size.decrementAndGet();
+            MessageStream.discard(item);
+        }
+    }
+}
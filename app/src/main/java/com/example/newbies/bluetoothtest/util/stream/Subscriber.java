@@ -0,0 +1,34 @@
+package com.example.newbies.bluetoothtest.util.stream;
+
+/**
+ * 消息流的订阅者
+ * 所有回调都在订阅时指定的线程池中依次执行，同一个订阅者不会被并发调用
+ * 收到的{@link com.example.newbies.bluetoothtest.util.transfer.ReceivedMessage}归订阅者所有，处理完毕后必须释放
+ * @author NewBies
+ * @date 2018/1/24
+ */
+public interface Subscriber<T> {
+
+    /**
+     * 订阅成功，在订阅的线程中立即执行，之后只有调用{@link Subscription#request(long)}才会收到数据
+     * @param subscription
+     */
+    void onSubscribe(Subscription subscription);
+
+    /**
+     * 收到一项数据
+     * @param item
+     */
+    void onNext(T item);
+
+    /**
+     * {@link #onNext(Object)}抛出了异常，订阅已经取消
+     * @param e
+     */
+    void onError(Throwable e);
+
+    /**
+     * 消息流已经结束，不会再有数据
+     */
+    void onComplete();
+}
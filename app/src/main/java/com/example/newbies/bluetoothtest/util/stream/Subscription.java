@@ -0,0 +1,20 @@
+package com.example.newbies.bluetoothtest.util.stream;
+
+/**
+ * 一次订阅，订阅者通过它控制接收的速度
+ * @author NewBies
+ * @date 2018/1/24
+ */
+public interface Subscription {
+
+    /**
+     * 请求再接收n项数据，可以在任意线程中调用，多次请求会累加
+     * @param n 大于0，{@link Long#MAX_VALUE}表示不限制
+     */
+    void request(long n);
+
+    /**
+     * 取消订阅，尚未交给订阅者的数据会被释放
+     */
+    void cancel();
+}
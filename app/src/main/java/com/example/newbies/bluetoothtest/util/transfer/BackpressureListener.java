@@ -0,0 +1,16 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+/**
+ * 发送端反压的回调
+ * 会话的本地暂存已满时发送会被拒绝，暂存回落到一半以下时回调一次，调用者可以据此恢复发送，不需要轮询
+ * @author NewBies
+ * @date 2018/1/24
+ */
+public interface BackpressureListener {
+
+    /**
+     * 之前被拒绝过发送的会话又可以发送了，在I/O线程中执行
+     * @param session
+     */
+    void onWritable(Session session);
+}
@@ -0,0 +1,69 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+
+/**
+ * 逻辑通道的配置
+ * 一个连接上可以同时承载多个逻辑通道，每个通道有独立的发送队列。
+ * 发送时优先级高(数值小)的通道总是先发送；优先级相同的通道按照权重分配带宽，
+ * 这样大块数据传输不会阻塞控制命令，同时也不会被完全饿死
+ * @author NewBies
+ * @date 2018/1/18
+ */
+public class Channel {
+
+    /**
+     * 控制命令，优先级最高，普通的{@code write}默认使用该通道
+     */
+    public static final int CONTROL = 0;
+    /**
+     * 遥测数据
+     */
+    public static final int TELEMETRY = 1;
+    /**
+     * 大块数据传输
+     */
+    public static final int BULK = 2;
+
+    private final int id;
+    private final int priority;
+    private final int weight;
+
+    /**
+     * @param id 通道号，取值0到{@link Frame#MAX_CHANNEL}
+     * @param priority 优先级，数值越小越优先
+     * @param weight 与同优先级的其他通道分配带宽时的权重，不小于1
+     */
+    public Channel(int id, int priority, int weight){
+        if(id < 0 || id > Frame.MAX_CHANNEL || weight < 1){
+            throw new IllegalArgumentException("非法的通道参数");
+        }
+        this.id = id;
+        this.priority = priority;
+        this.weight = weight;
+    }
+
+    /**
+     * 默认的通道配置：控制命令单独占用最高优先级，遥测数据和大块数据共享次一级的优先级，带宽按3:1分配
+     * @return
+     */
+    public static Channel[] defaults(){
+        return new Channel[]{
+                new Channel(CONTROL, 0, 1),
+                new Channel(TELEMETRY, 1, 3),
+                new Channel(BULK, 1, 1)
+        };
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+}
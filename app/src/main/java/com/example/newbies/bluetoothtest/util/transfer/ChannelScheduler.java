@@ -0,0 +1,199 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多通道发送队列
+ * 每个通道一个有界队列，取出时先按优先级严格排序，同一优先级内使用差额轮询(DRR)：
+ * 每轮给通道增加 权重*QUANTUM 字节的额度，额度足够发送队首的帧时才发送，因此带宽按权重分配，与帧的大小无关。
+ * 放入可以在任意线程中进行，取出只能由写任务这一个线程进行
+ * @author NewBies
+ * @date 2018/1/18
+ */
+class ChannelScheduler {
+
+    /**
+     * 权重为1的通道每轮获得的额度(字节)
+     */
+    static final int QUANTUM = 1024;
+
+    /**
+     * 一个通道的队列和轮询状态
+     */
+    private static class Lane {
+        final int priority;
+        final int quantum;
+        final BlockingQueue<OutboundFrame> queue;
+        int deficit;
+        /**
+         * 本轮是否已经增加过额度
+         */
+        boolean credited;
+
+        Lane(Channel channel, int capacity){
+            this.priority = channel.getPriority();
+            this.quantum = channel.getWeight() * QUANTUM;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+    }
+
+    /**
+     * 按通道号索引的队列，未配置的通道号使用优先级最低的队列
+     */
+    private final Lane[] lanesById = new Lane[Frame.MAX_CHANNEL + 1];
+    /**
+     * 按优先级从高到低分组的队列
+     */
+    private final Lane[][] groups;
+    private final int[] cursors;
+    private final Lane[] allLanes;
+    /**
+     * 所有队列中的帧数，取出时在它上面等待
+     */
+    private final Semaphore available = new Semaphore(0);
+
+    /**
+     * @param channels 通道配置，通道号不能重复
+     * @param capacity 每个通道的队列容量
+     */
+    ChannelScheduler(Channel[] channels, int capacity){
+        if(channels.length == 0){
+            throw new IllegalArgumentException("至少需要一个通道");
+        }
+        Channel[] sorted = channels.clone();
+        Arrays.sort(sorted, new Comparator<Channel>() {
+            @Override
+            public int compare(Channel a, Channel b) {
+                return a.getPriority() < b.getPriority() ? -1 : (a.getPriority() == b.getPriority() ? 0 : 1);
+            }
+        });
+        allLanes = new Lane[sorted.length];
+        List<Lane[]> groupList = new ArrayList<>();
+        List<Lane> group = new ArrayList<>();
+        for(int i = 0; i < sorted.length; i++){
+            Channel channel = sorted[i];
+            if(lanesById[channel.getId()] != null){
+                throw new IllegalArgumentException("重复的通道号：" + channel.getId());
+            }
+            Lane lane = new Lane(channel, capacity);
+            lanesById[channel.getId()] = lane;
+            allLanes[i] = lane;
+            if(!group.isEmpty() && group.get(0).priority != lane.priority){
+                groupList.add(group.toArray(new Lane[group.size()]));
+                group.clear();
+            }
+            group.add(lane);
+        }
+        groupList.add(group.toArray(new Lane[group.size()]));
+        groups = groupList.toArray(new Lane[groupList.size()][]);
+        cursors = new int[groups.length];
+        Lane fallback = allLanes[allLanes.length - 1];
+        for(int i = 0; i < lanesById.length; i++){
+            if(lanesById[i] == null){
+                lanesById[i] = fallback;
+            }
+        }
+    }
+
+    /**
+     * 放入对应通道的队列，不会阻塞
+     * @param frame
+     * @return 该通道的队列已满时返回false
+     */
+    boolean offer(OutboundFrame frame){
+        //通道号在创建OutboundFrame时已经检查过，未配置的通道号映射到优先级最低的通道
+        if(!lanesById[frame.getChannel()].queue.offer(frame)){
+            return false;
+        }
+        available.release();
+        return true;
+    }
+
+    /**
+     * 取出下一帧，不会阻塞
+     * @return 所有队列都为空时返回null
+     */
+    OutboundFrame poll(){
+        return available.tryAcquire() ? next() : null;
+    }
+
+    /**
+     * 取出下一帧，队列为空时最多等待指定的时间
+     * @param timeout
+     * @param unit
+     * @return 超时返回null
+     * @throws InterruptedException
+     */
+    OutboundFrame poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return available.tryAcquire(timeout, unit) ? next() : null;
+    }
+
+    /**
+     * @return 所有队列中的帧数
+     */
+    int size(){
+        return available.availablePermits();
+    }
+
+    boolean isEmpty(){
+        return available.availablePermits() == 0;
+    }
+
+    private OutboundFrame next(){
+        for(int i = 0; i < groups.length; i++){
+            OutboundFrame frame = groups[i].length == 1 ? groups[i][0].queue.poll() : nextInGroup(i);
+            if(frame != null){
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 在同一优先级的通道之间按差额轮询取出一帧
+     * @param index 分组下标
+     * @return 该组的队列都为空时返回null
+     */
+    private OutboundFrame nextInGroup(int index){
+        Lane[] lanes = groups[index];
+        int cursor = cursors[index];
+        int emptySeen = 0;
+        while(emptySeen < lanes.length){
+            Lane lane = lanes[cursor];
+            OutboundFrame head = lane.queue.peek();
+            if(head == null){
+                //空闲的通道不积累额度
+                lane.deficit = 0;
+                lane.credited = false;
+                cursor = (cursor + 1) % lanes.length;
+                emptySeen++;
+                continue;
+            }
+            emptySeen = 0;
+            if(!lane.credited){
+                lane.deficit += lane.quantum;
+                lane.credited = true;
+            }
+            int size = head.getPayload().remaining();
+            if(lane.deficit >= size){
+                lane.deficit -= size;
+                cursors[index] = cursor;
+                return lane.queue.poll();
+            }
+            //额度不足，留到下一轮
+            lane.credited = false;
+            cursor = (cursor + 1) % lanes.length;
+        }
+        cursors[index] = cursor;
+        return null;
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+import com.example.newbies.bluetoothtest.util.frame.FrameEncoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 异步合并写入器
+ * 调用者只把数据帧放入有界队列中，由写任务将多个小帧合并成一次较大的写操作，
+ * 当合并的数据达到批量大小，或者等待时间超过了设定的时限，或者队列中已经没有数据时才真正写出。
+ * 队列满时{@link #offer(OutboundFrame)}会立即返回false，调用者据此进行反压处理，而不会被阻塞
+ * 每个逻辑通道有独立的队列，由{@link ChannelScheduler}按优先级和权重决定下一帧，高优先级的帧不会排在大块数据后面
+ * 写任务只在队列中有数据时才会被提交到线程池，发送完毕后立即归还线程，同一时刻最多只有一个写任务在执行；
+ * 线程池暂时饱和时稍后重新提交，不会因此断开连接
+ * @author NewBies
+ * @date 2018/1/10
+ */
+public class CoalescingWriter implements Runnable {
+
+    /**
+     * 默认的每个通道的队列容量(帧数)
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+    /**
+     * 默认的批量写入大小(字节)
+     */
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+    /**
+     * 默认的最长等待合并时间(毫秒)
+     */
+    public static final long DEFAULT_LINGER_MILLIS = 2;
+    /**
+     * 线程池饱和时重新提交写任务的间隔(毫秒)
+     */
+    static final long RETRY_DELAY_MILLIS = 5;
+
+    /**
+     * 写操作失败时的回调
+     */
+    public interface ErrorListener {
+        void onWriteError(IOException e);
+    }
+
+    /**
+     * 一次写任务结束、队列暂时清空时的回调，在写线程中执行
+     */
+    public interface DrainListener {
+        void onDrained();
+    }
+
+    private final OutputStream outputStream;
+    private final FrameEncoder frameEncoder;
+    private final ChannelScheduler queue;
+    /**
+     * 合并缓冲区，只在写线程中访问
+     */
+    private final ByteBuffer batch;
+    private final long lingerNanos;
+    private final ErrorListener errorListener;
+    /**
+     * 执行写任务的线程池
+     */
+    private final IoExecutor executor;
+    /**
+     * 写任务是否已经提交，保证同一时刻最多只有一个写任务
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean closed;
+    private volatile DrainListener drainListener;
+    /**
+     * 线程池饱和后重新提交写任务
+     */
+    private final Runnable retryTask = new Runnable() {
+        @Override
+        public void run() {
+            scheduled.set(false);
+            if(!closed && !queue.isEmpty()){
+                schedule();
+            }
+        }
+    };
+
+    public CoalescingWriter(OutputStream outputStream, FrameEncoder frameEncoder, ErrorListener errorListener,
+                            IoExecutor executor){
+        this(outputStream, frameEncoder, errorListener, executor,
+                DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_LINGER_MILLIS);
+    }
+
+    public CoalescingWriter(OutputStream outputStream, FrameEncoder frameEncoder, ErrorListener errorListener,
+                            IoExecutor executor, int queueCapacity, int batchSize, long lingerMillis){
+        this(outputStream, frameEncoder, errorListener, executor, queueCapacity, batchSize, lingerMillis,
+                Channel.defaults());
+    }
+
+    /**
+     * @param channels 逻辑通道的配置，未配置的通道号使用优先级最低的通道
+     */
+    public CoalescingWriter(OutputStream outputStream, FrameEncoder frameEncoder, ErrorListener errorListener,
+                            IoExecutor executor, int queueCapacity, int batchSize, long lingerMillis,
+                            Channel[] channels){
+        this.outputStream = outputStream;
+        this.executor = executor;
+        this.frameEncoder = frameEncoder;
+        this.errorListener = errorListener;
+        this.queue = new ChannelScheduler(channels, queueCapacity);
+        this.batch = ByteBuffer.allocate(batchSize);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+    }
+
+    /**
+     * 将一帧数据放入控制通道的发送队列，不会阻塞
+     * @param type 帧类型
+     * @param payload 负载数据
+     * @return 队列已满或者写入器已关闭时返回false
+     */
+    public boolean offer(int type, byte[] payload){
+        return offer(new OutboundFrame(type, ByteBuffer.wrap(payload)));
+    }
+
+    /**
+     * 将一帧数据放入发送队列，不会阻塞
+     * @param frame
+     * @return 该通道的队列已满或者写入器已关闭时返回false
+     */
+    public boolean offer(OutboundFrame frame){
+        if(closed || !queue.offer(frame)){
+            return false;
+        }
+        if(closed){
+            //与close并发，close可能已经清空过队列
+            discardQueued();
+            return true;
+        }
+        schedule();
+        return true;
+    }
+
+    /**
+     * 设置队列清空时的回调，调用者可以据此把暂存在别处的数据放入队列
+     * @param drainListener
+     */
+    public void setDrainListener(DrainListener drainListener) {
+        this.drainListener = drainListener;
+    }
+
+    /**
+     * @return 所有通道的队列中等待发送的帧数
+     */
+    public int getQueueSize(){
+        return queue.size();
+    }
+
+    /**
+     * 关闭写入器，队列中尚未发送的数据会被丢弃
+     * 正在执行的写任务最多在一个合并时限后结束，阻塞中的写操作需要关闭套接字来中断
+     */
+    public void close(){
+        closed = true;
+        discardQueued();
+    }
+
+    /**
+     * 逐个取出并释放队列中的帧，与写任务并发时每一帧只会被其中一方取出
+     */
+    private void discardQueued(){
+        OutboundFrame frame;
+        while((frame = queue.poll()) != null){
+            frame.onReleased();
+        }
+    }
+
+    /**
+     * 提交写任务，已经提交过则什么也不做
+     */
+    private void schedule(){
+        if(!scheduled.compareAndSet(false, true)){
+            return;
+        }
+        try {
+            executor.execute(this);
+        } catch (RejectedExecutionException e) {
+            //线程池暂时饱和，保持已提交的状态，稍后由定时器重新提交
+            try {
+                executor.schedule(retryTask, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException stopped) {
+                scheduled.set(false);
+                if(!closed){
+                    errorListener.onWriteError(new IOException("线程池已经关闭", stopped));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            OutboundFrame frame = queue.poll();
+            long deadline = System.nanoTime() + lingerNanos;
+            while(frame != null && !closed){
+                append(frame);
+                frame = queue.poll();
+                //队列暂时为空且合并的数据还不多，在时限内再等一等
+                if(frame == null && batch.position() > 0){
+                    long remaining = deadline - System.nanoTime();
+                    if(remaining > 0){
+                        frame = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    }
+                }
+            }
+            if(frame != null){
+                //已经关闭，取出的这一帧不再发送
+                frame.onReleased();
+            }
+            if(!closed){
+                flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if(!closed){
+                errorListener.onWriteError(e);
+            }
+        } finally {
+            batch.clear();
+            scheduled.set(false);
+        }
+        //任务结束前又有新的数据进入队列
+        if(!closed && !queue.isEmpty()){
+            schedule();
+        }
+        else if(!closed && drainListener != null){
+            drainListener.onDrained();
+        }
+    }
+
+    private void append(OutboundFrame frame) throws IOException {
+        try {
+            ByteBuffer payload = frame.claim();
+            int frameLength = frameEncoder.maxFrameLength(payload.remaining());
+            if(frameLength > batch.remaining()){
+                flush();
+            }
+            //大帧不经过合并缓冲区，直接写出
+            if(frameLength > batch.capacity()){
+                frameEncoder.writeFrame(outputStream, frame.getType(), frame.getChannel(), payload);
+                return;
+            }
+            frameEncoder.encode(batch, frame.getType(), frame.getChannel(), payload);
+        } finally {
+            //负载已经复制到合并缓冲区或者写出，之后不再访问
+            frame.onReleased();
+        }
+    }
+
+    private void flush() throws IOException {
+        if(batch.position() == 0){
+            return;
+        }
+        outputStream.write(batch.array(), batch.arrayOffset(), batch.position());
+        outputStream.flush();
+        batch.clear();
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 按键合并的一帧数据，写入器开始编码之前负载可以被同一个键的新数据原地替换，
+ * 新数据沿用旧数据在队列中的位置，不会重新排队，也不会多占用对方的接收额度
+ * @author NewBies
+ * @date 2018/1/28
+ */
+class ConflatedFrame extends OutboundFrame {
+
+    private final Session owner;
+    private final Object key;
+    private ByteBuffer latest;
+    private boolean claimed;
+
+    ConflatedFrame(Session owner, Object key, OutboundFrame frame){
+        super(frame.getType(), frame.getChannel(), frame.getPayload());
+        this.owner = owner;
+        this.key = key;
+        this.latest = frame.getPayload();
+    }
+
+    Object getKey() {
+        return key;
+    }
+
+    @Override
+    public synchronized ByteBuffer getPayload() {
+        return latest;
+    }
+
+    /**
+     * 之后不再接受替换，并且从所属会话的合并表中删除
+     */
+    @Override
+    ByteBuffer claim() {
+        ByteBuffer payload;
+        synchronized (this) {
+            claimed = true;
+            payload = latest;
+        }
+        //不能在持有自身的锁时进入会话的锁，替换时的加锁顺序正好相反
+        owner.onConflatedClaimed(this);
+        return payload;
+    }
+
+    /**
+     * 用新的数据替换尚未发送的负载
+     * @param frame
+     * @return 写入器已经开始编码或者类型、通道不同时返回false，需要作为新的一帧发送
+     */
+    synchronized boolean replace(OutboundFrame frame) {
+        if(claimed || frame.getType() != getType() || frame.getChannel() != getChannel()){
+            return false;
+        }
+        latest = frame.getPayload();
+        return true;
+    }
+}
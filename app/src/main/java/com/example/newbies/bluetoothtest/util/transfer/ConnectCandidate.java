@@ -0,0 +1,54 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+/**
+ * 一个可以尝试连接的目标：远程设备的地址加上连接方式
+ * @author NewBies
+ * @date 2018/1/22
+ */
+public final class ConnectCandidate {
+
+    private final String address;
+    private final boolean secure;
+
+    /**
+     * @param address 远程设备的地址
+     * @param secure 是否需要配对的安全连接
+     */
+    public ConnectCandidate(String address, boolean secure){
+        if(address == null){
+            throw new IllegalArgumentException("地址不能为空");
+        }
+        this.address = address;
+        this.secure = secure;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public boolean isSecure() {
+        return secure;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o){
+            return true;
+        }
+        if(!(o instanceof ConnectCandidate)){
+            return false;
+        }
+        ConnectCandidate other = (ConnectCandidate) o;
+        return secure == other.secure && address.equals(other.address);
+    }
+
+    @Override
+    public int hashCode() {
+        return address.hashCode() * 31 + (secure ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return address + (secure ? "(secure)" : "(insecure)");
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 无锁的连接状态机
+ * 所有状态转换都通过CAS完成，只有转换表中允许的转换才会成功：
+ * NONE -> LISTENING -> CONNECTING -> CONNECTED -> LOST，以及失败和取消时回到NONE或LISTENING
+ * 多个线程同时尝试同一个转换时只有一个会成功，因此可以用来避免重复建立连接
+ * @author NewBies
+ * @date 2018/1/14
+ */
+public class ConnectionStateMachine {
+
+    /**
+     * 初始状态
+     */
+    public static final int STATE_NONE = 0;
+    /**
+     * 服务端正在监听
+     */
+    public static final int STATE_LISTENING = 1;
+    /**
+     * 正在连接
+     */
+    public static final int STATE_CONNECTING = 2;
+    /**
+     * 已连接
+     */
+    public static final int STATE_CONNECTED = 3;
+    /**
+     * 连接丢失，尚未恢复
+     */
+    public static final int STATE_LOST = 4;
+
+    /**
+     * 每个状态允许转换到的目标状态，以位掩码表示
+     */
+    private static final int[] ALLOWED = {
+            //NONE
+            bit(STATE_LISTENING) | bit(STATE_CONNECTING),
+            //LISTENING
+            bit(STATE_NONE) | bit(STATE_CONNECTING) | bit(STATE_CONNECTED),
+            //CONNECTING
+            bit(STATE_NONE) | bit(STATE_LISTENING) | bit(STATE_CONNECTED),
+            //CONNECTED
+            bit(STATE_NONE) | bit(STATE_CONNECTING) | bit(STATE_LOST),
+            //LOST
+            bit(STATE_NONE) | bit(STATE_LISTENING) | bit(STATE_CONNECTING)
+    };
+
+    /**
+     * 状态转换的回调
+     */
+    public interface Listener {
+
+        /**
+         * 状态发生了转换，在执行转换的线程中调用
+         * 并发的转换可能以不同于实际发生的顺序通知，需要最新状态时应该读取{@link #getState()}
+         * @param oldState 转换前的状态
+         * @param newState 转换后的状态
+         */
+        void onStateChanged(int oldState, int newState);
+    }
+
+    private final AtomicInteger state = new AtomicInteger(STATE_NONE);
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param state
+     * @return 状态对应的位，用于组合多个起始状态
+     */
+    public static int bit(int state){
+        return 1 << state;
+    }
+
+    /**
+     * @param from
+     * @param to
+     * @return 转换表是否允许从from转换到to
+     */
+    public static boolean isAllowed(int from, int to){
+        return from >= 0 && from < ALLOWED.length && (ALLOWED[from] & bit(to)) != 0;
+    }
+
+    public int getState(){
+        return state.get();
+    }
+
+    public boolean is(int expected){
+        return state.get() == expected;
+    }
+
+    /**
+     * 仅当当前状态为from时转换到to
+     * @param from 期望的当前状态
+     * @param to 目标状态
+     * @return 转换成功返回true
+     */
+    public boolean transition(int from, int to){
+        if(!isAllowed(from, to) || !state.compareAndSet(from, to)){
+            return false;
+        }
+        notifyListeners(from, to);
+        return true;
+    }
+
+    /**
+     * 当前状态属于fromMask中的任意一个时转换到to
+     * @param fromMask 允许的起始状态，由{@link #bit(int)}组合而成
+     * @param to 目标状态
+     * @return 转换前的状态，没有发生转换时返回-1
+     */
+    public int transitionFrom(int fromMask, int to){
+        while(true){
+            int current = state.get();
+            if((bit(current) & fromMask) == 0 || !isAllowed(current, to)){
+                return -1;
+            }
+            if(state.compareAndSet(current, to)){
+                notifyListeners(current, to);
+                return current;
+            }
+        }
+    }
+
+    /**
+     * 无条件回到初始状态，用于取消所有连接
+     * @return 之前的状态
+     */
+    public int reset(){
+        int previous = state.getAndSet(STATE_NONE);
+        if(previous != STATE_NONE){
+            notifyListeners(previous, STATE_NONE);
+        }
+        return previous;
+    }
+
+    public void addListener(Listener listener){
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener){
+        listeners.remove(listener);
+    }
+
+    private void notifyListeners(int oldState, int newState){
+        for(Listener listener : listeners){
+            listener.onStateChanged(oldState, newState);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 共享的I/O线程池和定时器
+ * 监听、连接和读循环会长期阻塞，通过{@link #executeBlocking(Runnable)}在单独的线程中执行，不受线程数上限的限制，
+ * 会话再多也不会占满执行短任务的线程；写操作、投递和发送任务只在有事可做时才占用线程，
+ * 由数量有限的线程执行，线程都忙时在有界队列中排队，队列也满时才抛出{@link RejectedExecutionException}
+ * 线程在多次重连之间被重复使用，空闲的线程在一段时间后自动回收
+ * @author NewBies
+ * @date 2018/1/13
+ */
+public class IoExecutor implements Executor {
+
+    /**
+     * 默认的最大线程数
+     */
+    public static final int DEFAULT_MAX_THREADS = 16;
+    /**
+     * 默认的任务队列容量
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    /**
+     * 空闲线程的存活时间(秒)
+     */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor ioPool;
+    /**
+     * 执行长期阻塞任务的线程池，每个任务一个线程
+     */
+    private final ThreadPoolExecutor blockingPool;
+    /**
+     * 定时任务使用的单线程调度器，定时任务不应该执行阻塞操作
+     */
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    public IoExecutor(){
+        this("BluetoothIO", DEFAULT_MAX_THREADS);
+    }
+
+    public IoExecutor(String name, int maxThreads){
+        this(name, maxThreads, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param name 线程名前缀
+     * @param maxThreads 执行短任务的最大线程数，不包括阻塞任务的线程
+     * @param queueCapacity 线程都忙时最多排队的任务数
+     */
+    public IoExecutor(String name, int maxThreads, int queueCapacity){
+        ioPool = new ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueCapacity), new NamedThreadFactory(name));
+        ioPool.allowCoreThreadTimeOut(true);
+        blockingPool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new NamedThreadFactory(name + "-Blocking"));
+        scheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory(name + "-Timer"));
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * 执行一个短时间的I/O任务，线程都忙时排队
+     * @param task
+     * @throws RejectedExecutionException 队列已满或者已经关闭
+     */
+    @Override
+    public void execute(Runnable task) {
+        ioPool.execute(task);
+    }
+
+    /**
+     * 在单独的线程中执行一个长期阻塞的任务，例如读循环、监听和连接
+     * @param task
+     * @throws RejectedExecutionException 已经关闭
+     */
+    public void executeBlocking(Runnable task) {
+        blockingPool.execute(task);
+    }
+
+    /**
+     * 延迟执行一个任务，任务在定时器线程中执行，不能阻塞
+     * @param task
+     * @param delay
+     * @param unit
+     * @return
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit){
+        return scheduler.schedule(task, delay, unit);
+    }
+
+    /**
+     * 以固定的间隔周期性地执行一个任务，任务在定时器线程中执行，不能阻塞
+     * @param task
+     * @param initialDelay
+     * @param period
+     * @param unit
+     * @return
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit){
+        return scheduler.scheduleAtFixedRate(task, initialDelay, period, unit);
+    }
+
+    /**
+     * @return 定时器，供需要{@link ScheduledExecutorService}的组件使用
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return 当前正在执行任务的线程数
+     */
+    public int getActiveCount(){
+        return ioPool.getActiveCount() + blockingPool.getActiveCount();
+    }
+
+    /**
+     * 关闭线程池，正在执行的阻塞任务需要由调用者关闭对应的套接字来结束
+     */
+    public void shutdown(){
+        scheduler.shutdownNow();
+        ioPool.shutdown();
+        blockingPool.shutdown();
+    }
+
+    /**
+     * 等待所有任务结束
+     * @param timeout
+     * @param unit
+     * @return 在超时之前结束时返回true
+     * @throws InterruptedException
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return ioPool.awaitTermination(timeout, unit)
+                && blockingPool.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        NamedThreadFactory(String name){
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + "-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
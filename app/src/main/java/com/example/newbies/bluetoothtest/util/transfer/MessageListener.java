@@ -0,0 +1,16 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+/**
+ * 接收消息的回调
+ * @author NewBies
+ * @date 2018/1/11
+ */
+public interface MessageListener {
+
+    /**
+     * 收到一条消息，该方法在读线程中执行，不应该做耗时操作
+     * 使用完毕后必须调用{@link ReceivedMessage#release()}，可以在其他线程中释放
+     * @param message
+     */
+    void onMessage(ReceivedMessage message);
+}
@@ -0,0 +1,77 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 等待发送的一帧数据
+ * @author NewBies
+ * @date 2018/1/10
+ */
+public class OutboundFrame {
+
+    /**
+     * 帧类型
+     */
+    private final int type;
+    /**
+     * 逻辑通道号，见{@link Channel}
+     */
+    private final int channel;
+    /**
+     * 负载数据，position到limit之间的数据会被发送，发送过程中不会修改它的position
+     */
+    private final ByteBuffer payload;
+
+    /**
+     * 在控制通道上发送的帧
+     * @param type
+     * @param payload
+     */
+    public OutboundFrame(int type, ByteBuffer payload){
+        this(type, Channel.CONTROL, payload);
+    }
+
+    /**
+     * @param type 帧类型
+     * @param channel 逻辑通道号，取值0到{@link Frame#MAX_CHANNEL}，帧头只有4位存放通道号
+     * @param payload
+     * @throws IllegalArgumentException 通道号超出范围
+     */
+    public OutboundFrame(int type, int channel, ByteBuffer payload){
+        if(channel < 0 || channel > Frame.MAX_CHANNEL){
+            throw new IllegalArgumentException("非法的通道号：" + channel);
+        }
+        this.type = type;
+        this.channel = channel;
+        this.payload = payload;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getChannel() {
+        return channel;
+    }
+
+    public ByteBuffer getPayload() {
+        return payload;
+    }
+
+    /**
+     * 写入器开始编码这一帧时调用，之后负载不会再改变
+     * @return 要发送的负载
+     */
+    ByteBuffer claim() {
+        return payload;
+    }
+
+    /**
+     * 写入器不再使用负载时调用：已经编码完成，或者写入器关闭时被丢弃，每次成功放入发送队列对应一次
+     * 复用负载缓冲区的帧可以在这里得知缓冲区已经可以改写，在写线程或者关闭会话的线程中执行，不能阻塞
+     */
+    protected void onReleased() {
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 已知设备的连接参数缓存
+ * 记住每个设备最近一次连接成功时使用的连接方式(安全或者不需要配对的UUID)、连接耗时和时间，
+ * 下一次连接同一设备时先尝试上次成功的方式，不再让已知会失败的方式白白消耗一次服务查询和连接超时。
+ * 超过有效期的记录不再使用，某种方式连接失败时对应的记录立即失效
+ * 可以保存到文件中，应用重新启动后仍然有效
+ * @author NewBies
+ * @date 2018/1/22
+ */
+public class PeerCache {
+
+    /**
+     * 默认的有效期(毫秒)
+     */
+    public static final long DEFAULT_TTL_MILLIS = 24 * 60 * 60 * 1000L;
+    /**
+     * 最多记住的设备个数
+     */
+    private static final int MAX_PEERS = 32;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 一个设备最近一次成功连接的参数
+     */
+    public static final class Peer {
+        private final String address;
+        private final boolean secure;
+        private final long connectMillis;
+        private final long lastConnectedMillis;
+
+        Peer(String address, boolean secure, long connectMillis, long lastConnectedMillis){
+            this.address = address;
+            this.secure = secure;
+            this.connectMillis = connectMillis;
+            this.lastConnectedMillis = lastConnectedMillis;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        /**
+         * @return 上次成功时是否为安全连接
+         */
+        public boolean isSecure() {
+            return secure;
+        }
+
+        /**
+         * @return 上次建立连接的耗时(毫秒)
+         */
+        public long getConnectMillis() {
+            return connectMillis;
+        }
+
+        /**
+         * @return 上次连接成功的时间，使用{@link System#currentTimeMillis()}
+         */
+        public long getLastConnectedMillis() {
+            return lastConnectedMillis;
+        }
+    }
+
+    private final long ttlMillis;
+    private final Map<String, Peer> peers = new HashMap<>();
+
+    public PeerCache(){
+        this(DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * @param ttlMillis 有效期(毫秒)
+     */
+    public PeerCache(long ttlMillis){
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @param address
+     * @return 未过期的记录，没有时返回null
+     */
+    public synchronized Peer get(String address){
+        Peer peer = peers.get(address);
+        if(peer != null && System.currentTimeMillis() - peer.lastConnectedMillis > ttlMillis){
+            peers.remove(address);
+            return null;
+        }
+        return peer;
+    }
+
+    /**
+     * 记录一次成功的连接
+     * @param candidate 成功的候选目标
+     * @param connectMillis 连接耗时(毫秒)
+     */
+    public synchronized void onConnected(ConnectCandidate candidate, long connectMillis){
+        peers.put(candidate.getAddress(), new Peer(candidate.getAddress(), candidate.isSecure(), connectMillis,
+                System.currentTimeMillis()));
+        if(peers.size() > MAX_PEERS){
+            peers.remove(oldest().address);
+        }
+    }
+
+    /**
+     * 记录一次失败的连接，与缓存中的连接方式相同时使该记录失效
+     * @param candidate
+     */
+    public synchronized void onFailed(ConnectCandidate candidate){
+        Peer peer = peers.get(candidate.getAddress());
+        if(peer != null && peer.secure == candidate.isSecure()){
+            peers.remove(candidate.getAddress());
+        }
+    }
+
+    private Peer oldest(){
+        Peer oldest = null;
+        for(Peer peer : peers.values()){
+            if(oldest == null || peer.lastConnectedMillis < oldest.lastConnectedMillis){
+                oldest = peer;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * 把已知能够连接成功的候选目标排到前面，其余的保持原来的顺序
+     * @param candidates
+     * @return 排序后的新数组
+     */
+    public ConnectCandidate[] order(ConnectCandidate[] candidates){
+        List<ConnectCandidate> known = new ArrayList<>();
+        List<ConnectCandidate> others = new ArrayList<>();
+        for(ConnectCandidate candidate : candidates){
+            Peer peer = get(candidate.getAddress());
+            if(peer != null && peer.secure == candidate.isSecure()){
+                known.add(candidate);
+            }
+            else{
+                others.add(candidate);
+            }
+        }
+        known.addAll(others);
+        return known.toArray(new ConnectCandidate[known.size()]);
+    }
+
+    /**
+     * @return 所有未过期的记录，最近连接的在前
+     */
+    public synchronized List<Peer> getPeers(){
+        long now = System.currentTimeMillis();
+        List<Peer> result = new ArrayList<>();
+        for(Peer peer : peers.values()){
+            if(now - peer.lastConnectedMillis <= ttlMillis){
+                result.add(peer);
+            }
+        }
+        Collections.sort(result, new Comparator<Peer>() {
+            @Override
+            public int compare(Peer a, Peer b) {
+                return a.lastConnectedMillis < b.lastConnectedMillis ? 1
+                        : a.lastConnectedMillis == b.lastConnectedMillis ? 0 : -1;
+            }
+        });
+        return result;
+    }
+
+    public synchronized void clear(){
+        peers.clear();
+    }
+
+    /**
+     * 从文件中读取记录，每行一个设备：地址 连接方式 连接耗时 连接时间
+     * 文件不存在或者格式错误的行会被忽略
+     * @param file
+     * @throws IOException 读取失败
+     */
+    public void load(File file) throws IOException {
+        if(!file.exists()){
+            return;
+        }
+        List<Peer> loaded = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+        try {
+            String line;
+            while((line = reader.readLine()) != null){
+                String[] fields = line.split(" ");
+                if(fields.length != 4){
+                    continue;
+                }
+                try {
+                    loaded.add(new Peer(fields[0], "1".equals(fields[1]), Long.parseLong(fields[2]),
+                            Long.parseLong(fields[3])));
+                } catch (NumberFormatException e) {
+                    //忽略损坏的行
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        synchronized (this) {
+            for(Peer peer : loaded){
+                Peer current = peers.get(peer.address);
+                if(current == null || current.lastConnectedMillis < peer.lastConnectedMillis){
+                    peers.put(peer.address, peer);
+                }
+            }
+        }
+    }
+
+    /**
+     * 把未过期的记录写入文件，先写入临时文件再替换，写到一半时崩溃不会破坏原来的文件
+     * @param file
+     * @throws IOException 写入失败
+     */
+    public void save(File file) throws IOException {
+        List<Peer> snapshot = getPeers();
+        File temp = new File(file.getPath() + ".tmp");
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF_8));
+        try {
+            for(Peer peer : snapshot){
+                writer.write(peer.address + " " + (peer.secure ? "1" : "0") + " " + peer.connectMillis
+                        + " " + peer.lastConnectedMillis);
+                writer.newLine();
+            }
+        } finally {
+            writer.close();
+        }
+        if(!temp.renameTo(file)){
+            throw new IOException("无法替换文件：" + file);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 向多个会话发布同一条消息
+ * 消息只编码一次，所有会话的发送队列共享同一块只读的负载，每个会话拿到的只是各自独立的视图，
+ * 发布的开销不会因为多一个会话就多一次完整的编码和复制。
+ * 每个会话各自发送，不会阻塞，处理不过来的会话(慢消费者)不会拖慢其他会话，对它的处理由策略决定：
+ * {@link #SLOW_CONSUMER_DROP}       本地暂存已满时丢弃发给它的消息
+ * {@link #SLOW_CONSUMER_CONFLATE}    它还有积压时只保留最新的一条，积压发出后再补发，适合只关心最新状态的数据
+ * {@link #SLOW_CONSUMER_DISCONNECT}  本地暂存已满时断开它，由它重新连接后再同步
+ * @author NewBies
+ * @date 2018/1/27
+ */
+public class Publisher {
+
+    /**
+     * 慢消费者的处理策略：丢弃
+     */
+    public static final int SLOW_CONSUMER_DROP = 0;
+    /**
+     * 慢消费者的处理策略：只保留最新的一条
+     */
+    public static final int SLOW_CONSUMER_CONFLATE = 1;
+    /**
+     * 慢消费者的处理策略：断开
+     */
+    public static final int SLOW_CONSUMER_DISCONNECT = 2;
+    /**
+     * 检查积压是否已经发出的间隔(毫秒)
+     */
+    private static final long RETRY_DELAY_MILLIS = 5;
+
+    /**
+     * 需要断开慢消费者时的回调
+     */
+    public interface Callback {
+        /**
+         * 在发布的线程中调用
+         * @param session 处理不过来的会话
+         */
+        void onSlowConsumer(Session session);
+    }
+
+    /**
+     * 一个会话的发布状态
+     */
+    private final class Peer implements Runnable {
+        private final Session session;
+        private volatile int policy;
+        /**
+         * 等待补发的最新一条消息，由this保护
+         */
+        private OutboundFrame latest;
+        private boolean flushScheduled;
+
+        Peer(Session session, int policy){
+            this.session = session;
+            this.policy = policy;
+        }
+
+        @Override
+        public void run() {
+            flush(this);
+        }
+    }
+
+    private final TimerWheel timerWheel;
+    private final Callback callback;
+    private final ConcurrentHashMap<Integer, Peer> peers = new ConcurrentHashMap<>();
+    private volatile int defaultPolicy = SLOW_CONSUMER_DROP;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong conflatedCount = new AtomicLong();
+
+    /**
+     * @param timerWheel 驱动补发的时间轮
+     * @param callback 策略为断开时由它断开会话
+     */
+    public Publisher(TimerWheel timerWheel, Callback callback){
+        this.timerWheel = timerWheel;
+        this.callback = callback;
+    }
+
+    /**
+     * 设置之后建立的会话使用的策略
+     * @param policy
+     */
+    public void setDefaultPolicy(int policy){
+        this.defaultPolicy = checkPolicy(policy);
+    }
+
+    /**
+     * 设置某个会话使用的策略
+     * @param sessionId
+     * @param policy
+     * @return 会话不存在时返回false
+     */
+    public boolean setPolicy(int sessionId, int policy){
+        checkPolicy(policy);
+        Peer peer = peers.get(sessionId);
+        if(peer == null){
+            return false;
+        }
+        peer.policy = policy;
+        return true;
+    }
+
+    private static int checkPolicy(int policy){
+        if(policy < SLOW_CONSUMER_DROP || policy > SLOW_CONSUMER_DISCONNECT){
+            throw new IllegalArgumentException("非法的慢消费者策略：" + policy);
+        }
+        return policy;
+    }
+
+    /**
+     * @return 因为会话处理不过来而丢弃的消息条数
+     */
+    public long getDroppedCount(){
+        return droppedCount.get();
+    }
+
+    /**
+     * @return 被更新的消息替换掉的消息条数
+     */
+    public long getConflatedCount(){
+        return conflatedCount.get();
+    }
+
+    /**
+     * 向所有会话发布
+     * @param type 帧类型
+     * @param channel 逻辑通道号
+     * @param payload 负载，position到limit之间的数据，不会被修改
+     * @return 放入发送队列或者等待补发的会话数
+     */
+    public int publish(int type, int channel, ByteBuffer payload){
+        ByteBuffer shared = payload.asReadOnlyBuffer();
+        int count = 0;
+        for(Peer peer : peers.values()){
+            if(deliver(peer, type, channel, shared)){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 向指定的一组会话发布
+     * @param sessionIds
+     * @param type 帧类型
+     * @param channel 逻辑通道号
+     * @param payload 负载，position到limit之间的数据，不会被修改
+     * @return 放入发送队列或者等待补发的会话数
+     */
+    public int publish(int[] sessionIds, int type, int channel, ByteBuffer payload){
+        ByteBuffer shared = payload.asReadOnlyBuffer();
+        int count = 0;
+        for(int sessionId : sessionIds){
+            Peer peer = peers.get(sessionId);
+            if(peer != null && deliver(peer, type, channel, shared)){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean deliver(Peer peer, int type, int channel, ByteBuffer shared){
+        //超长的帧每个会话都会拒绝，不能当成慢消费者处理，也不能留着补发
+        if(shared.remaining() > Frame.DEFAULT_MAX_PAYLOAD_LENGTH){
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        //每个会话一个视图，共享底层数据，各自的position互不影响
+        OutboundFrame frame = new OutboundFrame(type, channel, shared.duplicate());
+        int policy = peer.policy;
+        if(policy == SLOW_CONSUMER_CONFLATE){
+            return conflate(peer, frame);
+        }
+        int result = peer.session.send(frame);
+        if(result == Session.SEND_ACCEPTED || result == Session.SEND_BUFFERED){
+            return true;
+        }
+        if(result == Session.SEND_REJECTED){
+            droppedCount.incrementAndGet();
+            if(policy == SLOW_CONSUMER_DISCONNECT){
+                callback.onSlowConsumer(peer.session);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 会话没有积压时直接发送，否则替换掉等待补发的消息，不让过时的数据排在队列里
+     */
+    private boolean conflate(Peer peer, OutboundFrame frame){
+        synchronized (peer) {
+            if(peer.latest == null && peer.session.getBacklogSize() == 0){
+                int result = peer.session.send(frame);
+                if(result == Session.SEND_ACCEPTED || result == Session.SEND_BUFFERED){
+                    return true;
+                }
+                if(result == Session.SEND_CLOSED){
+                    return false;
+                }
+            }
+            else if(peer.latest != null){
+                conflatedCount.incrementAndGet();
+            }
+            peer.latest = frame;
+            scheduleFlush(peer);
+        }
+        return true;
+    }
+
+    /**
+     * 积压已经发出时补发最新的一条，否则稍后再检查
+     * @param peer
+     */
+    private void flush(Peer peer){
+        synchronized (peer) {
+            peer.flushScheduled = false;
+            OutboundFrame frame = peer.latest;
+            if(frame == null){
+                return;
+            }
+            if(peer.session.getBacklogSize() == 0){
+                int result = peer.session.send(frame);
+                if(result != Session.SEND_REJECTED){
+                    peer.latest = null;
+                    return;
+                }
+            }
+            scheduleFlush(peer);
+        }
+    }
+
+    private void scheduleFlush(Peer peer){
+        if(peer.flushScheduled || peer.session.isClosed()){
+            return;
+        }
+        try {
+            timerWheel.newTimeout(peer, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            peer.flushScheduled = true;
+        } catch (RejectedExecutionException e) {
+            //已经停止
+        }
+    }
+
+    public void onSessionOpened(Session session) {
+        peers.put(session.getId(), new Peer(session, defaultPolicy));
+    }
+
+    /**
+     * 会话断开，丢弃等待补发的消息
+     * @param session
+     */
+    public void onSessionClosed(Session session) {
+        Peer peer = peers.get(session.getId());
+        if(peer == null || peer.session != session || !peers.remove(session.getId(), peer)){
+            return;
+        }
+        synchronized (peer) {
+            peer.latest = null;
+        }
+    }
+
+    public void shutdown() {
+        for(Peer peer : peers.values()){
+            onSessionClosed(peer.session);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 接收缓冲区池
+ * 读线程从池中借出{@link ReceivedMessage}存放收到的数据，使用者释放后归还，
+ * 稳定运行时不再分配新的缓冲区，从而避免长时间接收数据时频繁GC
+ * 池使用基于数组的队列，借出和归还本身也不会分配对象
+ * @author NewBies
+ * @date 2018/1/11
+ */
+public class ReceiveBufferPool {
+
+    /**
+     * 默认的缓冲区大小
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+    /**
+     * 默认最多缓存的缓冲区个数
+     */
+    public static final int DEFAULT_MAX_POOLED = 64;
+
+    /**
+     * 是否使用直接内存
+     */
+    private final boolean direct;
+    private final int bufferSize;
+    private final BlockingQueue<ReceivedMessage> pooled;
+
+    public ReceiveBufferPool(){
+        this(false, DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+    }
+
+    /**
+     * @param direct 是否使用直接内存
+     * @param bufferSize 每个缓冲区的大小，超过该大小的消息会临时分配缓冲区，用完后不回收
+     * @param maxPooled 最多缓存的缓冲区个数
+     */
+    public ReceiveBufferPool(boolean direct, int bufferSize, int maxPooled){
+        this.direct = direct;
+        this.bufferSize = bufferSize;
+        this.pooled = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * 借出一个缓冲区并拷入负载数据
+     * @param sessionId 会话ID
+     * @param type 帧类型
+     * @param channel 逻辑通道号
+     * @param payload 负载数据，调用后它的position会移动到limit
+     * @return 引用计数为1的消息
+     */
+    public ReceivedMessage acquire(int sessionId, int type, int channel, ByteBuffer payload){
+        int length = payload.remaining();
+        ReceivedMessage message = null;
+        if(length <= bufferSize){
+            message = pooled.poll();
+        }
+        if(message == null){
+            message = new ReceivedMessage(this, allocate(Math.max(length, bufferSize)));
+        }
+        message.fill(sessionId, type, channel, payload);
+        return message;
+    }
+
+    /**
+     * @return 当前池中空闲的缓冲区个数
+     */
+    public int getPooledCount(){
+        return pooled.size();
+    }
+
+    void recycle(ReceivedMessage message){
+        //超大的临时缓冲区不回收，池满时交给GC
+        if(message.capacity() == bufferSize){
+            pooled.offer(message);
+        }
+    }
+
+    private ByteBuffer allocate(int capacity){
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 接收到的一条消息，数据存放在从{@link ReceiveBufferPool}中借出的缓冲区里
+ * 使用完毕后必须调用{@link #release()}，缓冲区才会回到缓冲池中被重复使用。
+ * 如果需要交给多个使用者，每多一个使用者先调用一次{@link #retain()}
+ * 开启流量控制时，数据帧的消息释放后才会向对方归还接收额度，长时间不释放会使对方暂停发送
+ * @author NewBies
+ * @date 2018/1/11
+ */
+public class ReceivedMessage {
+
+    private final ReceiveBufferPool pool;
+    private final ByteBuffer buffer;
+    /**
+     * 引用计数，为0时回到缓冲池
+     */
+    private final AtomicInteger refCount = new AtomicInteger();
+    private int sessionId;
+    private int type;
+    private int channel;
+    /**
+     * 释放后需要归还接收额度的会话，为null表示不参与流量控制
+     */
+    private Session creditOwner;
+
+    ReceivedMessage(ReceiveBufferPool pool, ByteBuffer buffer){
+        this.pool = pool;
+        this.buffer = buffer;
+    }
+
+    /**
+     * 从缓冲池中借出时调用，拷入负载并重置状态
+     * @param sessionId 会话ID
+     * @param type 帧类型
+     * @param channel 逻辑通道号
+     * @param payload 负载数据
+     */
+    void fill(int sessionId, int type, int channel, ByteBuffer payload){
+        this.sessionId = sessionId;
+        this.type = type;
+        this.channel = channel;
+        buffer.clear();
+        buffer.put(payload);
+        buffer.flip();
+        creditOwner = null;
+        refCount.set(1);
+    }
+
+    void setCreditOwner(Session creditOwner){
+        this.creditOwner = creditOwner;
+    }
+
+    int capacity(){
+        return buffer.capacity();
+    }
+
+    /**
+     * @return 消息来自的会话ID
+     */
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return 帧类型
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return 消息所在的逻辑通道，见{@link Channel}
+     */
+    public int getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return 消息数据，position到limit之间为有效数据，在release之后不能再访问
+     */
+    public ByteBuffer getData() {
+        return buffer;
+    }
+
+    /**
+     * 增加一个使用者
+     * @return
+     */
+    public ReceivedMessage retain(){
+        if(refCount.getAndIncrement() <= 0){
+            refCount.getAndDecrement();
+            throw new IllegalStateException("消息已经被释放");
+        }
+        return this;
+    }
+
+    /**
+     * 把消息交给监听器，监听器抛出的运行时异常只记录下来，不会中断读线程
+     * 分发期间额外持有一个引用，消息不会在此期间被回收；监听器出错时释放它还没有释放的引用
+     * @param listener 接管消息的监听器
+     */
+    public void deliverTo(MessageListener listener){
+        refCount.incrementAndGet();
+        try {
+            listener.onMessage(this);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            if(refCount.get() > 1){
+                release();
+            }
+        }
+        release();
+    }
+
+    /**
+     * 使用完毕，最后一个使用者释放后缓冲区回到缓冲池
+     */
+    public void release(){
+        int count = refCount.decrementAndGet();
+        if(count == 0){
+            //先取出会话，回到缓冲池之后该对象随时可能被重新借出
+            Session owner = creditOwner;
+            creditOwner = null;
+            pool.recycle(this);
+            if(owner != null){
+                owner.onMessageReleased();
+            }
+        }
+        else if(count < 0){
+            refCount.incrementAndGet();
+            throw new IllegalStateException("消息已经被释放");
+        }
+    }
+}
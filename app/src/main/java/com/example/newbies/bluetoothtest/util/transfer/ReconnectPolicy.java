@@ -0,0 +1,64 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+import java.util.Random;
+
+/**
+ * 自动重连策略：指数退避 + 随机抖动 + 熔断
+ * 第n次重连(从0开始)的基础等待时间为 initialDelay * multiplier^n，不超过maxDelay，
+ * 实际等待时间在基础时间上随机减少最多jitter比例，避免多个设备同时重试。
+ * 连续失败maxAttempts次后熔断，不再主动重连，设备回到监听状态等待对方连接
+ * @author NewBies
+ * @date 2018/1/15
+ */
+public class ReconnectPolicy {
+
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final double multiplier;
+    private final double jitter;
+    private final int maxAttempts;
+
+    /**
+     * 默认策略：首次等待500毫秒，每次翻倍，最长30秒，抖动20%，连续失败8次后熔断
+     */
+    public ReconnectPolicy(){
+        this(500, 30000, 2.0, 0.2, 8);
+    }
+
+    /**
+     * @param initialDelayMillis 首次重连前的等待时间(毫秒)
+     * @param maxDelayMillis 最长等待时间(毫秒)
+     * @param multiplier 每次失败后等待时间的倍数，不小于1
+     * @param jitter 随机抖动的比例，取值0到1
+     * @param maxAttempts 熔断前最多连续重连的次数
+     */
+    public ReconnectPolicy(long initialDelayMillis, long maxDelayMillis, double multiplier, double jitter, int maxAttempts){
+        if(initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis || multiplier < 1
+                || jitter < 0 || jitter > 1 || maxAttempts < 0){
+            throw new IllegalArgumentException("非法的重连参数");
+        }
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+        this.maxAttempts = maxAttempts;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * 计算第attempt次重连之前的等待时间
+     * @param attempt 重连次数，从0开始
+     * @param random 随机数生成器
+     * @return 等待时间(毫秒)
+     */
+    public long delayMillis(int attempt, Random random){
+        double delay = initialDelayMillis * Math.pow(multiplier, attempt);
+        if(delay > maxDelayMillis){
+            delay = maxDelayMillis;
+        }
+        return (long) (delay * (1 - jitter * random.nextDouble()));
+    }
+}
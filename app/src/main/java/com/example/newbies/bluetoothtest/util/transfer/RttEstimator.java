@@ -0,0 +1,99 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+/**
+ * 往返时间的平滑估计，每个会话一个
+ * 平滑往返时间和偏差按照TCP重传超时的算法计算(RFC 6298)：
+ * SRTT = 7/8 * SRTT + 1/8 * R，RTTVAR = 3/4 * RTTVAR + 1/4 * |SRTT - R|，RTO = SRTT + 4 * RTTVAR
+ * 抖动按照RTP的算法计算(RFC 3550)：相邻两次采样之差的平滑平均，J = J + (|D| - J) / 16
+ * 可以据此调整超时时间和合并等待时间，而不是使用固定的常量
+ * @author NewBies
+ * @date 2018/1/23
+ */
+public class RttEstimator {
+
+    private long smoothedNanos;
+    private long variationNanos;
+    private long jitterNanos;
+    private long lastSampleNanos;
+    private long minNanos = Long.MAX_VALUE;
+    private long samples;
+
+    /**
+     * 加入一次采样
+     * @param rttNanos 往返时间(纳秒)
+     */
+    public synchronized void onSample(long rttNanos){
+        if(rttNanos < 0){
+            return;
+        }
+        if(samples == 0){
+            smoothedNanos = rttNanos;
+            variationNanos = rttNanos / 2;
+        }
+        else{
+            variationNanos += (Math.abs(smoothedNanos - rttNanos) - variationNanos) / 4;
+            smoothedNanos += (rttNanos - smoothedNanos) / 8;
+            jitterNanos += (Math.abs(rttNanos - lastSampleNanos) - jitterNanos) / 16;
+        }
+        lastSampleNanos = rttNanos;
+        minNanos = Math.min(minNanos, rttNanos);
+        samples++;
+    }
+
+    /**
+     * @return 采样次数
+     */
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return 平滑往返时间(纳秒)，没有采样时为0
+     */
+    public synchronized long getSmoothedRttNanos() {
+        return smoothedNanos;
+    }
+
+    /**
+     * @return 往返时间的平均偏差(纳秒)
+     */
+    public synchronized long getRttVariationNanos() {
+        return variationNanos;
+    }
+
+    /**
+     * @return 抖动(纳秒)
+     */
+    public synchronized long getJitterNanos() {
+        return jitterNanos;
+    }
+
+    /**
+     * @return 最近一次采样(纳秒)
+     */
+    public synchronized long getLastRttNanos() {
+        return lastSampleNanos;
+    }
+
+    /**
+     * @return 最小往返时间(纳秒)，没有采样时为0
+     */
+    public synchronized long getMinRttNanos() {
+        return samples == 0 ? 0 : minNanos;
+    }
+
+    /**
+     * 建议的超时时间，超过该时间没有响应基本可以认为请求已经丢失
+     * @param defaultNanos 没有采样时返回的值
+     * @return SRTT + 4 * RTTVAR(纳秒)
+     */
+    public synchronized long getTimeoutNanos(long defaultNanos) {
+        return samples == 0 ? defaultNanos : smoothedNanos + 4 * variationNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "rtt=" + smoothedNanos / 1000 + "us var=" + variationNanos / 1000 + "us jitter=" + jitterNanos / 1000
+                + "us min=" + getMinRttNanos() / 1000 + "us samples=" + samples;
+    }
+}
@@ -0,0 +1,821 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+import com.example.newbies.bluetoothtest.util.compress.Codec;
+import com.example.newbies.bluetoothtest.util.compress.Codecs;
+import com.example.newbies.bluetoothtest.util.compress.CompressionStage;
+import com.example.newbies.bluetoothtest.util.compress.DecompressionStage;
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+import com.example.newbies.bluetoothtest.util.frame.FrameDecoder;
+import com.example.newbies.bluetoothtest.util.frame.FrameEncoder;
+import com.example.newbies.bluetoothtest.util.frame.FrameListener;
+import com.example.newbies.bluetoothtest.util.metrics.LinkMetrics;
+import com.example.newbies.bluetoothtest.util.transport.TransportSocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 与一个远程设备之间的会话，拥有独立的读循环和发送队列
+ * 读循环就是{@link #run()}，发送由{@link CoalescingWriter}完成，两者都作为任务在共享的线程池中执行
+ * 开启心跳后定期发送心跳帧，用响应估计往返时间，超过存活期限没有收到数据时主动断开
+ * 数据帧按接收额度进行流量控制：接收方在握手时声明接收窗口，消息被释放后归还额度，
+ * 发送方额度用完时把数据暂存在本地，暂存也满时拒绝发送，发送速度因此不会超过接收方的处理速度
+ * @author NewBies
+ * @date 2018/1/12
+ */
+public class Session implements Runnable, FrameListener, CoalescingWriter.ErrorListener,
+        CoalescingWriter.DrainListener {
+
+    /**
+     * 默认的接收窗口(数据帧个数)
+     */
+    public static final int DEFAULT_RECEIVE_WINDOW = 64;
+    /**
+     * 发送结果：已放入发送队列
+     */
+    public static final int SEND_ACCEPTED = 0;
+    /**
+     * 发送结果：对方的接收额度或者发送队列暂时用完，已暂存在本地，额度恢复后按顺序发出
+     */
+    public static final int SEND_BUFFERED = 1;
+    /**
+     * 发送结果：本地暂存已满，调用者应该暂停发送，等待{@link BackpressureListener#onWritable(Session)}
+     */
+    public static final int SEND_REJECTED = 2;
+    /**
+     * 发送结果：会话已关闭
+     */
+    public static final int SEND_CLOSED = 3;
+
+    /**
+     * 会话意外断开时的回调，主动调用{@link #close()}不会触发该回调
+     */
+    public interface Callback {
+        void onSessionLost(Session session, IOException cause);
+    }
+
+    private final int id;
+    private final TransportSocket socket;
+    private final InputStream inputStream;
+    private final FrameDecoder frameDecoder;
+    private final FrameEncoder frameEncoder;
+    private final CoalescingWriter writer;
+    private final ReceiveBufferPool bufferPool;
+    private final MessageListener messageListener;
+    private final Callback callback;
+    private final IoExecutor executor;
+    private final LinkMetrics metrics;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    /**
+     * 会话启动的时间，用于统计收到第一帧数据的耗时
+     */
+    private volatile long startNanos;
+    /**
+     * 是否已经收到过数据帧，只在读循环中访问
+     */
+    private boolean firstFrameReceived;
+    /**
+     * 本端希望使用的压缩算法，按偏好排序，为空表示不压缩
+     */
+    private int[] compressionCodecs = new int[0];
+
+    /**
+     * 握手协议的版本
+     */
+    private static final int HELLO_VERSION = 2;
+    private static final int PING_LENGTH = 8;
+    private static final int CREDIT_LENGTH = 4;
+
+    /**
+     * 往返时间的估计，由心跳的响应更新
+     */
+    private final RttEstimator rttEstimator = new RttEstimator();
+    /**
+     * 最近一次收到任何数据帧的时间
+     */
+    private volatile long lastReceivedNanos;
+    /**
+     * 心跳使用的定时器，为null表示不发送心跳
+     * 心跳间隔以秒计，直接由定时器线程按期唤醒，不经过需要按刻度推进的时间轮，
+     * 连接空闲时只有每次心跳才会唤醒CPU
+     */
+    private IoExecutor heartbeatScheduler;
+    private long heartbeatIntervalMillis;
+    private long livenessTimeoutNanos;
+    private volatile ScheduledFuture<?> heartbeatFuture;
+    private final Runnable heartbeatTask = new Runnable() {
+        @Override
+        public void run() {
+            heartbeat();
+        }
+    };
+
+    /**
+     * 本端声明的接收窗口，为0表示不限制对方
+     */
+    private int receiveWindow;
+    /**
+     * 本端累计释放的数据帧个数，以及最近一次告诉对方的值，两者都会回绕，只比较差值
+     */
+    private final AtomicInteger consumed = new AtomicInteger();
+    private final AtomicInteger granted = new AtomicInteger();
+    /**
+     * 上一次归还额度时发送队列已满，需要在队列清空后重试
+     */
+    private volatile boolean creditPending;
+
+    /**
+     * 以下发送方的状态由flowLock保护
+     */
+    private final Object flowLock = new Object();
+    /**
+     * 额度用完或者发送队列已满时暂存的数据帧
+     */
+    private final ArrayDeque<OutboundFrame> backlog = new ArrayDeque<>();
+    private final int backlogCapacity;
+    private volatile int backlogSize;
+    /**
+     * 已经放入发送队列的数据帧个数
+     */
+    private int sentCount;
+    /**
+     * sentCount不能超过的值，等于对方累计释放的个数加上对方的接收窗口
+     */
+    private int sendLimit;
+    private int peerWindow;
+    /**
+     * 对方声明了接收窗口时才限制发送
+     */
+    private boolean sendLimited;
+    /**
+     * 收到对方的第一帧之前还不知道对方的接收窗口，数据帧先暂存，避免在握手完成之前超出窗口
+     */
+    private volatile boolean peerKnown;
+    /**
+     * 拒绝过发送，暂存回落后需要通知
+     */
+    private boolean sendRejected;
+    private volatile BackpressureListener backpressureListener;
+    /**
+     * 每个键尚未发出的最新一帧，由自身保护
+     */
+    private final HashMap<Object, ConflatedFrame> conflated = new HashMap<>();
+    private long conflatedCount;
+
+    /**
+     * @param id 会话ID
+     * @param socket 已建立好的连接
+     * @param frameEncoder 发送使用的编码器，每个会话独占一个
+     * @param bufferPool 接收缓冲区池，可以在多个会话之间共享
+     * @param messageListener 接收消息的监听器
+     * @param callback 会话意外断开时的回调
+     * @param executor 执行读循环和写任务的线程池
+     * @param queueCapacity 发送队列容量
+     * @param batchSize 批量写入大小
+     * @param lingerMillis 最长等待合并时间
+     * @throws IOException 无法获取输入输出流
+     */
+    public Session(int id, TransportSocket socket, FrameEncoder frameEncoder, ReceiveBufferPool bufferPool,
+                   MessageListener messageListener, Callback callback, IoExecutor executor,
+                   int queueCapacity, int batchSize, long lingerMillis) throws IOException {
+        this(id, socket, frameEncoder, bufferPool, messageListener, callback, executor,
+                queueCapacity, batchSize, lingerMillis, Channel.defaults(), new LinkMetrics());
+    }
+
+    /**
+     * @param channels 逻辑通道的配置
+     * @param metrics 记录收发数据量等运行指标，可以在多个会话之间共享
+     */
+    public Session(int id, TransportSocket socket, FrameEncoder frameEncoder, ReceiveBufferPool bufferPool,
+                   MessageListener messageListener, Callback callback, IoExecutor executor,
+                   int queueCapacity, int batchSize, long lingerMillis, Channel[] channels,
+                   LinkMetrics metrics) throws IOException {
+        this.id = id;
+        this.socket = socket;
+        this.inputStream = socket.getInputStream();
+        this.frameDecoder = new FrameDecoder(this);
+        //解压总是开启的，对方是否压缩由对方决定
+        this.frameDecoder.setDecompressor(new DecompressionStage());
+        this.frameEncoder = frameEncoder;
+        this.writer = new CoalescingWriter(socket.getOutputStream(), frameEncoder, this, executor,
+                queueCapacity, batchSize, lingerMillis, channels);
+        this.writer.setDrainListener(this);
+        this.backlogCapacity = queueCapacity;
+        this.executor = executor;
+        this.bufferPool = bufferPool;
+        this.messageListener = messageListener;
+        this.callback = callback;
+        this.metrics = metrics;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getRemoteAddress() {
+        return socket.getRemoteAddress();
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * 设置本端希望使用的压缩算法，必须在{@link #start()}之前调用
+     * 实际使用的是对方也能解压的第一个算法，双方没有共同的算法时不压缩
+     * @param codecIds 算法编号，见{@link Codecs}，按偏好排序
+     */
+    public void setCompression(int[] codecIds){
+        compressionCodecs = codecIds.clone();
+    }
+
+    /**
+     * 开启心跳，必须在{@link #start()}之前调用
+     * 每隔intervalMillis发送一次心跳，超过timeoutMillis没有收到对方的任何数据时认为连接已经断开，
+     * 主动关闭会话并按连接丢失处理，不需要等待底层的读操作超时
+     * @param scheduler 驱动心跳的定时器
+     * @param intervalMillis 心跳间隔(毫秒)
+     * @param timeoutMillis 存活期限(毫秒)，应该是心跳间隔的数倍
+     */
+    public void setHeartbeat(IoExecutor scheduler, long intervalMillis, long timeoutMillis){
+        if(intervalMillis <= 0 || timeoutMillis < intervalMillis){
+            throw new IllegalArgumentException("非法的心跳参数");
+        }
+        this.heartbeatScheduler = scheduler;
+        this.heartbeatIntervalMillis = intervalMillis;
+        this.livenessTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * 开启流量控制，必须在{@link #start()}之前调用
+     * 对方最多发送receiveWindow个尚未被释放的数据帧，之后要等本端释放消息、归还额度才能继续发送
+     * 对方是否限制本端的发送由对方的设置决定
+     * @param receiveWindow 接收窗口(数据帧个数)，为0时不限制对方
+     */
+    public void setFlowControl(int receiveWindow){
+        if(receiveWindow < 0){
+            throw new IllegalArgumentException("非法的接收窗口：" + receiveWindow);
+        }
+        this.receiveWindow = receiveWindow;
+    }
+
+    /**
+     * 设置反压的回调，发送被拒绝之后又可以发送时通知
+     * @param backpressureListener
+     */
+    public void setBackpressureListener(BackpressureListener backpressureListener) {
+        this.backpressureListener = backpressureListener;
+    }
+
+    /**
+     * @return 往返时间的估计，开启心跳后才有采样
+     */
+    public RttEstimator getRttEstimator() {
+        return rttEstimator;
+    }
+
+    /**
+     * @return 最近一次收到数据的时间，使用{@link System#nanoTime()}
+     */
+    public long getLastReceivedNanos() {
+        return lastReceivedNanos;
+    }
+
+    /**
+     * 启动读循环并发送握手帧，写任务在有数据需要发送时才会提交
+     * @throws java.util.concurrent.RejectedExecutionException 线程池已经关闭
+     */
+    public void start(){
+        startNanos = System.nanoTime();
+        lastReceivedNanos = startNanos;
+        sendHello();
+        //读循环在会话存活期间一直阻塞，使用单独的线程
+        executor.executeBlocking(this);
+        scheduleHeartbeat();
+    }
+
+    private void scheduleHeartbeat(){
+        if(heartbeatScheduler == null || closed.get()){
+            return;
+        }
+        try {
+            heartbeatFuture = heartbeatScheduler.schedule(heartbeatTask, heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //定时器已经停止
+        }
+        //与close并发时可能刚好错过取消
+        if(closed.get()){
+            cancelHeartbeat();
+        }
+    }
+
+    private void cancelHeartbeat(){
+        ScheduledFuture<?> future = heartbeatFuture;
+        if(future != null){
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * 在定时器线程中执行，检查存活期限并发送下一次心跳
+     */
+    private void heartbeat(){
+        if(closed.get()){
+            return;
+        }
+        if(System.nanoTime() - lastReceivedNanos > livenessTimeoutNanos){
+            //关闭套接字可能阻塞，不在定时器线程中执行
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        lost(new IOException("心跳超时"));
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                lost(new IOException("心跳超时"));
+            }
+            return;
+        }
+        ByteBuffer ping = ByteBuffer.allocate(PING_LENGTH);
+        ping.putLong(0, System.nanoTime());
+        //发送队列已满说明数据还在源源不断地发出，这次心跳可以省略
+        writer.offer(new OutboundFrame(Frame.TYPE_PING, Channel.CONTROL, ping));
+        scheduleHeartbeat();
+    }
+
+    /**
+     * 握手帧：| 版本(1) | 算法个数(1) | 本端能解压的算法编号... | 接收窗口(4) |
+     */
+    private void sendHello(){
+        int[] supported = Codecs.supported();
+        ByteBuffer hello = ByteBuffer.allocate(2 + supported.length + 4);
+        hello.put((byte) HELLO_VERSION);
+        hello.put((byte) supported.length);
+        for(int codecId : supported){
+            hello.put((byte) codecId);
+        }
+        hello.putInt(receiveWindow);
+        hello.flip();
+        writer.offer(new OutboundFrame(Frame.TYPE_HELLO, Channel.CONTROL, hello));
+    }
+
+    /**
+     * 根据对方的握手帧选择压缩算法，并按对方的接收窗口限制发送
+     * 编码器只在写线程中使用，压缩按帧实际写出的顺序进行，因此切换压缩器不需要额外同步
+     * @param payload
+     */
+    private void onHello(ByteBuffer payload){
+        if(payload.remaining() < 2){
+            return;
+        }
+        int position = payload.position();
+        int count = Math.min(payload.get(position + 1) & 0xff, payload.remaining() - 2);
+        //旧版本的握手帧没有接收窗口，不限制发送
+        if(payload.remaining() >= 2 + count + 4){
+            int window = payload.getInt(position + 2 + count);
+            if(window > 0){
+                synchronized (flowLock) {
+                    peerWindow = window;
+                    sendLimit = window;
+                    sendLimited = true;
+                }
+            }
+        }
+        onPeerKnown();
+        for(int codecId : compressionCodecs){
+            for(int i = 0; i < count; i++){
+                if((payload.get(position + 2 + i) & 0xff) != codecId){
+                    continue;
+                }
+                Codec codec = Codecs.create(codecId);
+                if(codec != null){
+                    frameEncoder.setCompressor(new CompressionStage(codec));
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 在控制通道上发送数据，不会阻塞
+     * @param payload
+     * @return 本地暂存已满或者会话已关闭时返回false
+     */
+    public boolean write(byte[] payload){
+        return write(new OutboundFrame(Frame.TYPE_DATA, ByteBuffer.wrap(payload)));
+    }
+
+    /**
+     * 在指定的逻辑通道上发送数据，不会阻塞
+     * @param channel 通道号，见{@link Channel}
+     * @param payload
+     * @return 本地暂存已满或者会话已关闭时返回false
+     * @throws IllegalArgumentException 通道号超出0到{@link Frame#MAX_CHANNEL}的范围
+     */
+    public boolean write(int channel, byte[] payload){
+        return write(new OutboundFrame(Frame.TYPE_DATA, channel, ByteBuffer.wrap(payload)));
+    }
+
+    /**
+     * 发送一帧数据，不会阻塞
+     * @param frame
+     * @return 没有放入发送队列也没有暂存时返回false
+     */
+    public boolean write(OutboundFrame frame){
+        int result = send(frame);
+        return result == SEND_ACCEPTED || result == SEND_BUFFERED;
+    }
+
+    /**
+     * 发送一帧数据，不会阻塞，并报告反压的情况
+     * 数据帧和类型化消息受对方接收额度的限制，额度用完或者发送队列已满时暂存在本地，之后按顺序发出；
+     * 其他类型的帧不受限制，发送队列已满时直接拒绝；
+     * 负载超过{@link Frame#DEFAULT_MAX_PAYLOAD_LENGTH}的帧同样直接拒绝，对方的解码器收到这样的帧会断开连接
+     * @param frame
+     * @return {@link #SEND_ACCEPTED}、{@link #SEND_BUFFERED}、{@link #SEND_REJECTED}或者{@link #SEND_CLOSED}
+     */
+    public int send(OutboundFrame frame){
+        int result;
+        if(closed.get()){
+            result = SEND_CLOSED;
+        }
+        else if(isOversized(frame)){
+            result = SEND_REJECTED;
+        }
+        else if(!isFlowControlled(frame.getType())){
+            result = writer.offer(frame) ? SEND_ACCEPTED : closed.get() ? SEND_CLOSED : SEND_REJECTED;
+        }
+        else{
+            result = sendData(frame);
+        }
+        if(result == SEND_ACCEPTED || result == SEND_BUFFERED){
+            metrics.onMessageSent(frame.getPayload().remaining());
+        }
+        else{
+            metrics.onSendRejected();
+        }
+        return result;
+    }
+
+    /**
+     * 按键合并发送，适合传感器读数之类很快就会过时的数据
+     * 同一个键上一帧还在发送队列或者本地暂存中时，直接用新数据替换它，对方只会收到最新的值；
+     * 链路拥塞时等待发送的数据不会越积越多，端到端延迟也就不会随之增长
+     * 同一个键应该由一个线程发送，否则新的一帧被拒绝时，恰好并发替换进去的数据会随之丢弃
+     * @param key 合并的键，需要正确实现equals和hashCode
+     * @param frame
+     * @return 替换了尚未发出的一帧时返回{@link #SEND_BUFFERED}，否则同{@link #send(OutboundFrame)}
+     */
+    public int sendLatest(Object key, OutboundFrame frame){
+        //超长的帧不能替换进合并表，否则绕过了send中的检查
+        if(isOversized(frame)){
+            metrics.onSendRejected();
+            return SEND_REJECTED;
+        }
+        ConflatedFrame created;
+        synchronized (conflated) {
+            ConflatedFrame pending = conflated.get(key);
+            if(pending != null && pending.replace(frame)){
+                conflatedCount++;
+                return closed.get() ? SEND_CLOSED : SEND_BUFFERED;
+            }
+            created = new ConflatedFrame(this, key, frame);
+            conflated.put(key, created);
+        }
+        //send可能回调反压监听器，不能在持有锁的时候调用
+        int result = send(created);
+        if(result != SEND_ACCEPTED && result != SEND_BUFFERED){
+            created.claim();
+        }
+        return result;
+    }
+
+    /**
+     * @param frame
+     * @return 负载是否超过对方解码器允许的最大长度
+     */
+    private static boolean isOversized(OutboundFrame frame){
+        return frame.getPayload().remaining() > Frame.DEFAULT_MAX_PAYLOAD_LENGTH;
+    }
+
+    /**
+     * 写入器开始编码或者发送失败后，这一帧不再接受替换，从合并表中删除，合并表的大小因此不超过等待发送的帧数
+     * @param frame
+     */
+    void onConflatedClaimed(ConflatedFrame frame){
+        synchronized (conflated) {
+            if(conflated.get(frame.getKey()) == frame){
+                conflated.remove(frame.getKey());
+            }
+        }
+    }
+
+    /**
+     * @return 被同一个键的新数据替换掉的帧数
+     */
+    public long getConflatedCount(){
+        synchronized (conflated) {
+            return conflatedCount;
+        }
+    }
+
+    private int sendData(OutboundFrame frame){
+        boolean writable;
+        int result;
+        synchronized (flowLock) {
+            writable = drainBacklog();
+            //有暂存的数据时新数据排在后面，保证发送顺序
+            if(backlog.isEmpty() && hasCredit() && writer.offer(frame)){
+                sentCount++;
+                result = SEND_ACCEPTED;
+            }
+            else if(closed.get()){
+                result = SEND_CLOSED;
+            }
+            else if(backlog.size() >= backlogCapacity){
+                sendRejected = true;
+                result = SEND_REJECTED;
+            }
+            else{
+                backlog.addLast(frame);
+                backlogSize = backlog.size();
+                result = SEND_BUFFERED;
+            }
+        }
+        if(writable){
+            notifyWritable();
+        }
+        return result;
+    }
+
+    /**
+     * 普通数据和类型化消息受接收额度的限制，控制帧、RPC和大块数据有各自的机制
+     * @param type
+     * @return
+     */
+    private static boolean isFlowControlled(int type){
+        return type == Frame.TYPE_DATA || type == Frame.TYPE_TYPED;
+    }
+
+    private boolean hasCredit(){
+        return peerKnown && (!sendLimited || sentCount - sendLimit < 0);
+    }
+
+    /**
+     * 已经知道对方是否限制发送，发出握手期间暂存的数据帧
+     */
+    private void onPeerKnown(){
+        if(peerKnown){
+            return;
+        }
+        synchronized (flowLock) {
+            peerKnown = true;
+        }
+        drainAndNotify();
+    }
+
+    /**
+     * 在额度和发送队列允许的范围内发出暂存的数据帧，调用时必须持有flowLock
+     * @return 之前拒绝过发送且暂存已回落到一半以下
+     */
+    private boolean drainBacklog(){
+        if(backlog.isEmpty() && !sendRejected){
+            return false;
+        }
+        while(!backlog.isEmpty() && hasCredit() && writer.offer(backlog.peekFirst())){
+            backlog.pollFirst();
+            sentCount++;
+        }
+        backlogSize = backlog.size();
+        if(sendRejected && backlog.size() <= backlogCapacity / 2){
+            sendRejected = false;
+            return true;
+        }
+        return false;
+    }
+
+    private void drainAndNotify(){
+        boolean writable;
+        synchronized (flowLock) {
+            writable = drainBacklog();
+        }
+        if(writable){
+            notifyWritable();
+        }
+    }
+
+    private void notifyWritable(){
+        BackpressureListener listener = backpressureListener;
+        if(listener != null && !closed.get()){
+            listener.onWritable(this);
+        }
+    }
+
+    /**
+     * 对方归还了接收额度
+     * @param payload 对方累计释放的数据帧个数
+     */
+    private void onCredit(ByteBuffer payload){
+        if(payload.remaining() != CREDIT_LENGTH){
+            return;
+        }
+        int limit = payload.getInt(payload.position()) + peerWindow;
+        synchronized (flowLock) {
+            //额度帧可能乱序到达，只取更大的值
+            if(!sendLimited || limit - sendLimit <= 0){
+                return;
+            }
+            sendLimit = limit;
+        }
+        drainAndNotify();
+    }
+
+    /**
+     * 发送队列暂时清空，继续发出暂存的数据并重试没有发出的额度
+     */
+    @Override
+    public void onDrained() {
+        if(creditPending){
+            sendCredit();
+        }
+        if(backlogSize > 0){
+            drainAndNotify();
+        }
+    }
+
+    /**
+     * 数据帧的消息被释放，累计到窗口的四分之一时归还一次额度
+     */
+    void onMessageReleased(){
+        int count = consumed.incrementAndGet();
+        if(count - granted.get() >= Math.max(1, receiveWindow / 4)){
+            sendCredit();
+        }
+    }
+
+    private void sendCredit(){
+        if(closed.get()){
+            return;
+        }
+        int count = consumed.get();
+        ByteBuffer credit = ByteBuffer.allocate(CREDIT_LENGTH);
+        credit.putInt(0, count);
+        //额度帧在优先级最高的控制通道上发送，不会排在数据后面
+        if(!writer.offer(new OutboundFrame(Frame.TYPE_CREDIT, Channel.CONTROL, credit))){
+            creditPending = true;
+            return;
+        }
+        creditPending = false;
+        int last;
+        do {
+            last = granted.get();
+        } while(count - last > 0 && !granted.compareAndSet(last, count));
+    }
+
+    /**
+     * @return 发送队列中等待发送的帧数，包括因为没有额度而暂存的数据帧
+     */
+    public int getQueueSize(){
+        return writer.getQueueSize() + backlogSize;
+    }
+
+    /**
+     * @return 因为没有额度或者发送队列已满而暂存的数据帧个数
+     */
+    public int getBacklogSize(){
+        return backlogSize;
+    }
+
+    @Override
+    public void run() {
+        try {
+            // Keep listening to the InputStream while connected
+            while (!closed.get()) {
+                //从输入流中读取数据并解析出完整的数据帧
+                if (frameDecoder.readFrom(inputStream) < 0) {
+                    throw new IOException("输入流已关闭");
+                }
+            }
+        } catch (IOException e) {
+            lost(e);
+        } catch (RuntimeException e) {
+            //解码或者分发中的意外错误同样按连接丢失处理，否则读线程结束后会话会一直处于打开状态
+            e.printStackTrace();
+            lost(new IOException("读线程出错", e));
+        }
+    }
+
+    /**
+     * 将完整的数据帧拷入池化的缓冲区交给监听器，稳定运行时不分配任何对象
+     * @param type
+     * @param channel
+     * @param payload
+     */
+    @Override
+    public void onFrame(int type, int channel, ByteBuffer payload) {
+        //任何数据帧都说明连接还活着
+        long now = System.nanoTime();
+        lastReceivedNanos = now;
+        if(!peerKnown && type != Frame.TYPE_HELLO){
+            //旧版本的对方不发送握手帧，不限制发送
+            onPeerKnown();
+        }
+        switch (type){
+            case Frame.TYPE_HELLO:
+                onHello(payload);
+                return;
+            case Frame.TYPE_PING:
+                if(payload.remaining() == PING_LENGTH){
+                    ByteBuffer pong = ByteBuffer.allocate(PING_LENGTH);
+                    pong.put(payload);
+                    pong.flip();
+                    writer.offer(new OutboundFrame(Frame.TYPE_PONG, Channel.CONTROL, pong));
+                }
+                return;
+            case Frame.TYPE_PONG:
+                if(payload.remaining() == PING_LENGTH){
+                    long rtt = now - payload.getLong(payload.position());
+                    rttEstimator.onSample(rtt);
+                    metrics.onRoundTrip(rtt);
+                }
+                return;
+            case Frame.TYPE_CREDIT:
+                onCredit(payload);
+                return;
+            default:
+                break;
+        }
+        if(!firstFrameReceived){
+            firstFrameReceived = true;
+            metrics.onFirstByte(now - startNanos);
+        }
+        metrics.onMessageReceived(payload.remaining());
+        if(messageListener == null){
+            //没有人接收，视为立即处理完毕
+            if(isFlowControlled(type) && receiveWindow > 0){
+                onMessageReleased();
+            }
+            return;
+        }
+        ReceivedMessage message = bufferPool.acquire(id, type, channel, payload);
+        if(isFlowControlled(type) && receiveWindow > 0){
+            message.setCreditOwner(this);
+        }
+        message.deliverTo(messageListener);
+    }
+
+    /**
+     * 写操作失败时同样视为连接丢失
+     * @param e
+     */
+    @Override
+    public void onWriteError(IOException e) {
+        lost(e);
+    }
+
+    /**
+     * 主动关闭会话
+     */
+    public void close(){
+        if(closed.compareAndSet(false, true)){
+            release();
+        }
+    }
+
+    private void lost(IOException cause){
+        if(closed.compareAndSet(false, true)){
+            release();
+            metrics.onSessionLost();
+            callback.onSessionLost(this, cause);
+        }
+    }
+
+    private void release(){
+        cancelHeartbeat();
+        synchronized (flowLock) {
+            for(OutboundFrame frame : backlog){
+                frame.onReleased();
+            }
+            backlog.clear();
+            backlogSize = 0;
+        }
+        synchronized (conflated) {
+            conflated.clear();
+        }
+        writer.close();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+/**
+ * 会话建立和断开的回调，在I/O线程中执行
+ * @author NewBies
+ * @date 2018/1/12
+ */
+public interface SessionListener {
+
+    /**
+     * 与一个远程设备建立了会话
+     * @param session
+     */
+    void onSessionOpened(Session session);
+
+    /**
+     * 会话已断开，包括主动断开和连接丢失
+     * @param session
+     */
+    void onSessionClosed(Session session);
+}
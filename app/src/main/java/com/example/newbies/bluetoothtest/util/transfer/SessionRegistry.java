@@ -0,0 +1,69 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 会话注册表，按会话ID管理所有已建立的会话
+ * @author NewBies
+ * @date 2018/1/12
+ */
+public class SessionRegistry {
+
+    private final ConcurrentMap<Integer, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
+    /**
+     * @return 新的会话ID，不会重复
+     */
+    public int nextId(){
+        return nextId.getAndIncrement();
+    }
+
+    public void add(Session session){
+        sessions.put(session.getId(), session);
+    }
+
+    /**
+     * 移除会话
+     * @param session
+     * @return 会话确实在注册表中时返回true
+     */
+    public boolean remove(Session session){
+        return sessions.remove(session.getId(), session);
+    }
+
+    public Session get(int id){
+        return sessions.get(id);
+    }
+
+    public Collection<Session> getAll(){
+        return sessions.values();
+    }
+
+    public int size(){
+        return sessions.size();
+    }
+
+    public boolean isEmpty(){
+        return sessions.isEmpty();
+    }
+
+    /**
+     * 移除并返回所有会话
+     * @return
+     */
+    public List<Session> removeAll(){
+        List<Session> removed = new ArrayList<>();
+        for(Session session : sessions.values()){
+            if(sessions.remove(session.getId(), session)){
+                removed.add(session);
+            }
+        }
+        return removed;
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+import java.util.ArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 时间轮定时器，用于管理大量短期的超时，例如每个RPC调用的超时
+ * 所有超时挂在一个环形数组的槽上，由{@link IoExecutor}的定时器线程每隔一个刻度推进一格，
+ * 添加和取消都是O(1)，不需要为每个超时单独创建定时任务。精度为一个刻度，超时只会晚到不会早到。
+ * 没有待处理的超时时停止推进，空闲时不会周期性地唤醒CPU
+ * @author NewBies
+ * @date 2018/1/20
+ */
+public class TimerWheel {
+
+    /**
+     * 默认的刻度(毫秒)
+     */
+    public static final long DEFAULT_TICK_MILLIS = 10;
+    /**
+     * 默认的槽数，必须是2的幂
+     */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /**
+     * 一个待处理的超时
+     */
+    public static final class Timeout {
+        private final TimerWheel wheel;
+        private final Runnable task;
+        private final long deadlineTick;
+        private Timeout prev;
+        private Timeout next;
+        /**
+         * 是否还挂在时间轮上，由时间轮的锁保护
+         */
+        private boolean linked;
+
+        private Timeout(TimerWheel wheel, Runnable task, long deadlineTick){
+            this.wheel = wheel;
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * 取消超时
+         * @return 超时任务尚未执行时返回true
+         */
+        public boolean cancel(){
+            return wheel.remove(this);
+        }
+    }
+
+    private final IoExecutor executor;
+    private final long tickNanos;
+    private final Timeout[] slots;
+    private final int mask;
+    private final long startNanos;
+    /**
+     * 已经处理到的刻度
+     */
+    private long tick;
+    private int size;
+    private boolean stopped;
+    private ScheduledFuture<?> tickFuture;
+    /**
+     * 本次到期的任务，只在定时器线程中使用
+     */
+    private final ArrayList<Runnable> expired = new ArrayList<>();
+    private final Runnable tickTask = new Runnable() {
+        @Override
+        public void run() {
+            advance();
+        }
+    };
+
+    public TimerWheel(IoExecutor executor){
+        this(executor, DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param executor 提供定时器线程
+     * @param tickMillis 刻度(毫秒)
+     * @param wheelSize 槽数，必须是2的幂
+     */
+    public TimerWheel(IoExecutor executor, long tickMillis, int wheelSize){
+        if(tickMillis <= 0 || wheelSize <= 0 || (wheelSize & (wheelSize - 1)) != 0){
+            throw new IllegalArgumentException("非法的时间轮参数");
+        }
+        this.executor = executor;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.slots = new Timeout[wheelSize];
+        this.mask = wheelSize - 1;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * 添加一个超时，任务在定时器线程中执行，不能阻塞
+     * @param task 到期时执行的任务
+     * @param delay
+     * @param unit
+     * @return 可以用来取消的超时
+     * @throws RejectedExecutionException 时间轮已经停止
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit){
+        long elapsed = System.nanoTime() - startNanos + unit.toNanos(Math.max(delay, 0));
+        //向上取整，保证不会提前到期
+        long deadlineTick = (elapsed + tickNanos - 1) / tickNanos;
+        synchronized (this) {
+            if(stopped){
+                throw new RejectedExecutionException("时间轮已经停止");
+            }
+            if(tickFuture == null){
+                //空闲之后重新开始推进，中间的刻度没有任何超时，直接跳过
+                tick = currentTick();
+                tickFuture = executor.scheduleAtFixedRate(tickTask, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+            }
+            Timeout timeout = new Timeout(this, task, Math.max(deadlineTick, tick + 1));
+            int index = (int) (timeout.deadlineTick & mask);
+            timeout.next = slots[index];
+            if(timeout.next != null){
+                timeout.next.prev = timeout;
+            }
+            slots[index] = timeout;
+            timeout.linked = true;
+            size++;
+            return timeout;
+        }
+    }
+
+    /**
+     * @return 待处理的超时个数
+     */
+    public synchronized int size(){
+        return size;
+    }
+
+    /**
+     * 停止时间轮，未到期的超时不再执行
+     */
+    public synchronized void stop(){
+        stopped = true;
+        if(tickFuture != null){
+            tickFuture.cancel(false);
+            tickFuture = null;
+        }
+        for(int i = 0; i < slots.length; i++){
+            for(Timeout timeout = slots[i]; timeout != null; timeout = timeout.next){
+                timeout.linked = false;
+            }
+            slots[i] = null;
+        }
+        size = 0;
+    }
+
+    private long currentTick(){
+        return (System.nanoTime() - startNanos) / tickNanos;
+    }
+
+    private synchronized boolean remove(Timeout timeout){
+        if(!timeout.linked){
+            return false;
+        }
+        unlink(timeout);
+        return true;
+    }
+
+    private void unlink(Timeout timeout){
+        if(timeout.prev != null){
+            timeout.prev.next = timeout.next;
+        }
+        else{
+            slots[(int) (timeout.deadlineTick & mask)] = timeout.next;
+        }
+        if(timeout.next != null){
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.linked = false;
+        size--;
+    }
+
+    /**
+     * 推进到当前时间，定时器线程被延迟时一次处理多个刻度，最多转一整圈
+     */
+    private void advance(){
+        synchronized (this) {
+            long target = currentTick();
+            long last = Math.min(target, tick + slots.length);
+            for(long t = tick + 1; t <= last; t++){
+                Timeout timeout = slots[(int) (t & mask)];
+                while(timeout != null){
+                    Timeout next = timeout.next;
+                    if(timeout.deadlineTick <= target){
+                        unlink(timeout);
+                        expired.add(timeout.task);
+                    }
+                    timeout = next;
+                }
+            }
+            if(target > tick){
+                tick = target;
+            }
+            if(size == 0 && tickFuture != null){
+                tickFuture.cancel(false);
+                tickFuture = null;
+            }
+        }
+        for(int i = 0; i < expired.size(); i++){
+            try {
+                expired.get(i).run();
+            } catch (RuntimeException e) {
+                //一个任务出错不影响其他任务
+                e.printStackTrace();
+            }
+        }
+        expired.clear();
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.newbies.bluetoothtest.util.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * 基于环形缓冲区的单向字节管道
+ * 与{@link java.io.PipedInputStream}不同，它不会因为写线程结束而判定管道损坏，适合线程池中的任务使用
+ * @author NewBies
+ * @date 2018/1/9
+ */
+class BytePipe {
+
+    private final byte[] buffer;
+    /**
+     * 下一个可读字节的位置
+     */
+    private int readIndex;
+    /**
+     * 缓冲区中已有的字节数
+     */
+    private int size;
+    private boolean closed;
+
+    private final InputStream inputStream = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return BytePipe.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            synchronized (BytePipe.this) {
+                return size;
+            }
+        }
+
+        @Override
+        public void close() {
+            BytePipe.this.close();
+        }
+    };
+
+    private final OutputStream outputStream = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            BytePipe.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            BytePipe.this.close();
+        }
+    };
+
+    BytePipe(int capacity){
+        this.buffer = new byte[capacity];
+    }
+
+    InputStream getInputStream() {
+        return inputStream;
+    }
+
+    OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    synchronized void close(){
+        closed = true;
+        notifyAll();
+    }
+
+    private synchronized int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0){
+            return 0;
+        }
+        while(size == 0){
+            if(closed){
+                return -1;
+            }
+            waitForChange();
+        }
+        int count = Math.min(len, size);
+        int first = Math.min(count, buffer.length - readIndex);
+        System.arraycopy(buffer, readIndex, b, off, first);
+        System.arraycopy(buffer, 0, b, off + first, count - first);
+        readIndex = (readIndex + count) % buffer.length;
+        size -= count;
+        notifyAll();
+        return count;
+    }
+
+    private synchronized void write(byte[] b, int off, int len) throws IOException {
+        while(len > 0){
+            if(closed){
+                throw new IOException("管道已关闭");
+            }
+            if(size == buffer.length){
+                waitForChange();
+                continue;
+            }
+            int writeIndex = (readIndex + size) % buffer.length;
+            int count = Math.min(len, buffer.length - size);
+            int first = Math.min(count, buffer.length - writeIndex);
+            System.arraycopy(b, off, buffer, writeIndex, first);
+            System.arraycopy(b, off + first, buffer, 0, count - first);
+            size += count;
+            off += count;
+            len -= count;
+            notifyAll();
+        }
+    }
+
+    private void waitForChange() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.newbies.bluetoothtest.util.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * 基于内存管道的传输层实现，不涉及任何网络或者蓝牙硬件，用于单元测试和性能测试
+ * 共享同一个{@link Hub}的多个PipedTransport可以互相连接，每个PipedTransport以其本地地址作为标识
+ * @author NewBies
+ * @date 2018/1/9
+ */
+public class PipedTransport implements Transport {
+
+    /**
+     * 默认的管道缓冲区大小
+     */
+    public static final int DEFAULT_PIPE_CAPACITY = 64 * 1024;
+
+    private final Hub hub;
+    private final String localAddress;
+    private final int pipeCapacity;
+
+    public PipedTransport(Hub hub, String localAddress){
+        this(hub, localAddress, DEFAULT_PIPE_CAPACITY);
+    }
+
+    public PipedTransport(Hub hub, String localAddress, int pipeCapacity){
+        this.hub = hub;
+        this.localAddress = localAddress;
+        this.pipeCapacity = pipeCapacity;
+    }
+
+    @Override
+    public TransportServerSocket listen(boolean secure) throws IOException {
+        String key = Hub.keyOf(localAddress, secure);
+        PipedServerSocket serverSocket = new PipedServerSocket(key);
+        if(hub.servers.putIfAbsent(key, serverSocket) != null){
+            throw new IOException("地址已被占用：" + key);
+        }
+        return serverSocket;
+    }
+
+    @Override
+    public TransportSocket createSocket(String address, boolean secure) throws IOException {
+        return new PipedClientSocket(Hub.keyOf(address, secure), address);
+    }
+
+    /**
+     * 内存中的“网络”，记录所有正在监听的服务端
+     */
+    public static class Hub {
+        private final ConcurrentMap<String, PipedServerSocket> servers = new ConcurrentHashMap<>();
+
+        private static String keyOf(String address, boolean secure){
+            return address + (secure ? "#secure" : "#insecure");
+        }
+    }
+
+    private class PipedServerSocket implements TransportServerSocket {
+        private final String key;
+        private final BlockingQueue<PipedSocket> pending = new LinkedBlockingQueue<>();
+        private volatile boolean closed;
+
+        PipedServerSocket(String key){
+            this.key = key;
+        }
+
+        @Override
+        public TransportSocket accept() throws IOException {
+            if(closed){
+                throw new IOException("服务端已关闭");
+            }
+            try {
+                PipedSocket socket = pending.take();
+                if(closed){
+                    throw new IOException("服务端已关闭");
+                }
+                return socket;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("等待连接时被中断");
+            }
+        }
+
+        /**
+         * 客户端发起连接
+         * @param clientAddress 客户端地址
+         * @return 客户端一侧的连接
+         */
+        PipedSocket offer(String clientAddress) throws IOException {
+            if(closed){
+                throw new ConnectException("连接被拒绝：" + key);
+            }
+            BytePipe up = new BytePipe(pipeCapacity);
+            BytePipe down = new BytePipe(pipeCapacity);
+            pending.add(new PipedSocket(up, down, clientAddress));
+            return new PipedSocket(down, up, localAddress);
+        }
+
+        @Override
+        public void close() {
+            if(closed){
+                return;
+            }
+            closed = true;
+            hub.servers.remove(key, this);
+            //唤醒正在等待的accept
+            pending.add(new PipedSocket(new BytePipe(1), new BytePipe(1), null));
+        }
+    }
+
+    /**
+     * 已建立的连接，由一对方向相反的管道组成
+     */
+    private static class PipedSocket implements TransportSocket {
+        private final BytePipe in;
+        private final BytePipe out;
+        private final String remoteAddress;
+
+        PipedSocket(BytePipe in, BytePipe out, String remoteAddress){
+            this.in = in;
+            this.out = out;
+            this.remoteAddress = remoteAddress;
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out.getOutputStream();
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        @Override
+        public void close() {
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * 客户端套接字，connect之前不持有任何管道
+     */
+    private class PipedClientSocket implements TransportSocket {
+        private final String key;
+        private final String remoteAddress;
+        private volatile PipedSocket delegate;
+        private volatile boolean closed;
+
+        PipedClientSocket(String key, String remoteAddress){
+            this.key = key;
+            this.remoteAddress = remoteAddress;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            PipedServerSocket server = hub.servers.get(key);
+            if(server == null || closed){
+                throw new ConnectException("连接被拒绝：" + key);
+            }
+            delegate = server.offer(localAddress);
+            if(closed){
+                delegate.close();
+                throw new IOException("连接已关闭");
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return connected().getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return connected().getOutputStream();
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            PipedSocket socket = delegate;
+            if(socket != null){
+                socket.close();
+            }
+        }
+
+        private PipedSocket connected() throws IOException {
+            PipedSocket socket = delegate;
+            if(socket == null){
+                throw new IOException("尚未建立连接");
+            }
+            return socket;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.newbies.bluetoothtest.util.transport;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothServerSocket;
+import android.bluetooth.BluetoothSocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * 基于蓝牙RFCOMM的传输层实现
+ * @author NewBies
+ * @date 2018/1/9
+ */
+public class RfcommTransport implements Transport {
+
+    /**
+     * 此应用程序唯一的UUID
+     */
+    private static final UUID MY_UUID_SECURE = UUID.fromString("aa87c0d0-afac-11de-8a39-0800200c9a66");
+    private static final UUID MY_UUID_INSECURE = UUID.fromString("ace255c0-200a-11e0-ac64-0800200c9a66");
+    /**
+     * 蓝牙适配器实例
+     */
+    private final BluetoothAdapter bluetoothAdapter;
+
+    public RfcommTransport(BluetoothAdapter bluetoothAdapter){
+        this.bluetoothAdapter = bluetoothAdapter;
+    }
+
+    @Override
+    public TransportServerSocket listen(boolean secure) throws IOException {
+        BluetoothServerSocket serverSocket;
+        if(secure){
+            serverSocket = bluetoothAdapter.listenUsingRfcommWithServiceRecord("蓝牙连接测试1",MY_UUID_SECURE);
+        }
+        else {
+            serverSocket = bluetoothAdapter.listenUsingInsecureRfcommWithServiceRecord("蓝牙连接测试2",MY_UUID_INSECURE);
+        }
+        return new RfcommServerSocket(serverSocket);
+    }
+
+    @Override
+    public TransportSocket createSocket(String address, boolean secure) throws IOException {
+        return createSocket(bluetoothAdapter.getRemoteDevice(address), secure);
+    }
+
+    /**
+     * 通过给定的BluetoothDevice获取到用于连接的套接字
+     * @param device 远程设备
+     * @param secure 是否需要配对的安全连接
+     * @return
+     * @throws IOException
+     */
+    public TransportSocket createSocket(BluetoothDevice device, boolean secure) throws IOException {
+        BluetoothSocket socket;
+        if (secure) {
+            socket = device.createRfcommSocketToServiceRecord(MY_UUID_SECURE);
+        } else {
+            socket = device.createInsecureRfcommSocketToServiceRecord(MY_UUID_INSECURE);
+        }
+        return new RfcommSocket(socket);
+    }
+
+    private class RfcommServerSocket implements TransportServerSocket {
+        private final BluetoothServerSocket serverSocket;
+
+        RfcommServerSocket(BluetoothServerSocket serverSocket){
+            this.serverSocket = serverSocket;
+        }
+
+        @Override
+        public TransportSocket accept() throws IOException {
+            return new RfcommSocket(serverSocket.accept());
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+
+    private class RfcommSocket implements TransportSocket {
+        private final BluetoothSocket socket;
+
+        RfcommSocket(BluetoothSocket socket){
+            this.socket = socket;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            //取消搜索，搜索会大大降低连接速度，没有在搜索时不需要调用
+            if(bluetoothAdapter.isDiscovering()){
+                bluetoothAdapter.cancelDiscovery();
+            }
+            socket.connect();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return socket.getRemoteDevice().getAddress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
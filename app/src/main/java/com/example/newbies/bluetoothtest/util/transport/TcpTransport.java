@@ -0,0 +1,117 @@
+package com.example.newbies.bluetoothtest.util.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * 基于TCP的传输层实现，用于在普通JVM上进行负载测试和性能测试
+ * 安全连接监听basePort，非安全连接监听basePort + 1，以模拟蓝牙的两个服务通道
+ * 远程地址只取对方的IP，与蓝牙的MAC地址一样在重连后保持不变，可以直接传给{@link #createSocket(String, boolean)}；
+ * 同一台主机上的多个对端因此共用一个地址，断点续传、设备缓存这些按地址匹配的功能会把它们当成同一台设备
+ * @author NewBies
+ * @date 2018/1/9
+ */
+public class TcpTransport implements Transport {
+
+    private final String bindHost;
+    private final int basePort;
+
+    /**
+     * 只监听本机回环地址
+     * @param basePort 安全连接使用的端口
+     */
+    public TcpTransport(int basePort){
+        this("127.0.0.1", basePort);
+    }
+
+    public TcpTransport(String bindHost, int basePort){
+        this.bindHost = bindHost;
+        this.basePort = basePort;
+    }
+
+    @Override
+    public TransportServerSocket listen(boolean secure) throws IOException {
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getByName(bindHost), portOf(secure)));
+        return new TcpServerSocket(serverSocket);
+    }
+
+    @Override
+    public TransportSocket createSocket(String address, boolean secure) throws IOException {
+        return new TcpSocket(new Socket(), new InetSocketAddress(address, portOf(secure)));
+    }
+
+    private int portOf(boolean secure){
+        return secure ? basePort : basePort + 1;
+    }
+
+    private static class TcpServerSocket implements TransportServerSocket {
+        private final ServerSocket serverSocket;
+
+        TcpServerSocket(ServerSocket serverSocket){
+            this.serverSocket = serverSocket;
+        }
+
+        @Override
+        public TransportSocket accept() throws IOException {
+            Socket socket = serverSocket.accept();
+            socket.setTcpNoDelay(true);
+            return new TcpSocket(socket, null);
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+
+    private static class TcpSocket implements TransportSocket {
+        private final Socket socket;
+        /**
+         * 需要连接的远程地址，服务端accept得到的套接字为null
+         */
+        private final InetSocketAddress remoteAddress;
+
+        TcpSocket(Socket socket, InetSocketAddress remoteAddress){
+            this.socket = socket;
+            this.remoteAddress = remoteAddress;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            socket.setTcpNoDelay(true);
+            socket.connect(remoteAddress);
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            //服务端accept得到的端口是临时分配的，每次连接都不同，不能作为设备的标识
+            InetAddress address = socket.getInetAddress();
+            if(address == null && remoteAddress != null){
+                address = remoteAddress.getAddress();
+            }
+            return address == null ? null : address.getHostAddress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
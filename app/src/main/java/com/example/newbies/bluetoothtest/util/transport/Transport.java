@@ -0,0 +1,29 @@
+package com.example.newbies.bluetoothtest.util.transport;
+
+import java.io.IOException;
+
+/**
+ * 传输层抽象，屏蔽底层连接方式的差异
+ * 连接的建立、数据传输逻辑只依赖于该接口，因此可以在没有蓝牙的环境下(内存管道、本地TCP)运行和测试
+ * @author NewBies
+ * @date 2018/1/9
+ */
+public interface Transport {
+
+    /**
+     * 建立服务端监听
+     * @param secure 是否需要配对的安全连接
+     * @return 服务端套接字
+     * @throws IOException
+     */
+    TransportServerSocket listen(boolean secure) throws IOException;
+
+    /**
+     * 创建一个用于连接远程设备的套接字，此时并不会真正建立连接
+     * @param address 远程设备的地址
+     * @param secure 是否需要配对的安全连接
+     * @return 客户端套接字
+     * @throws IOException
+     */
+    TransportSocket createSocket(String address, boolean secure) throws IOException;
+}
@@ -0,0 +1,19 @@
+package com.example.newbies.bluetoothtest.util.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 服务端监听套接字
+ * @author NewBies
+ * @date 2018/1/9
+ */
+public interface TransportServerSocket extends Closeable {
+
+    /**
+     * 等待客户端连接，这是一个阻塞调用，只会返回一个成功的连接或异常，关闭套接字会使该方法抛出异常
+     * @return 建立好的连接
+     * @throws IOException
+     */
+    TransportSocket accept() throws IOException;
+}
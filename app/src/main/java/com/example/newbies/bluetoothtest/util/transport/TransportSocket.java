@@ -0,0 +1,30 @@
+package com.example.newbies.bluetoothtest.util.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 一条点对点连接
+ * @author NewBies
+ * @date 2018/1/9
+ */
+public interface TransportSocket extends Closeable {
+
+    /**
+     * 建立连接，这是一个阻塞调用，只会返回一个成功的连接或异常。由服务端accept得到的套接字不需要调用该方法
+     * @throws IOException
+     */
+    void connect() throws IOException;
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * 断点续传、设备缓存等功能按该地址识别同一台设备，重连后应该保持不变
+     * @return 远程设备的地址
+     */
+    String getRemoteAddress();
+}
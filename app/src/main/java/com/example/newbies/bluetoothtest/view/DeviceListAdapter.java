@@ -0,0 +1,111 @@
+package com.example.newbies.bluetoothtest.view;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import com.example.newbies.bluetoothtest.util.discovery.DeviceListDiff;
+import com.example.newbies.bluetoothtest.util.discovery.DiscoveredDevice;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 设备列表的适配器，列表项直接保存设备实例
+ * 通过{@link #apply(DeviceListDiff)}批量应用一次刷新内的所有变化，每批只通知列表一次，
+ * 已有设备的位置保持不变，新设备追加在末尾，扫描过程中列表不会来回跳动
+ * 只能在UI线程中使用
+ * @author NewBies
+ * @date 2018/1/21
+ */
+public class DeviceListAdapter extends BaseAdapter {
+
+    private final LayoutInflater inflater;
+    private final List<DiscoveredDevice> devices = new ArrayList<>();
+    /**
+     * 地址到列表位置的索引
+     */
+    private final Map<String, Integer> positions = new HashMap<>();
+
+    public DeviceListAdapter(Context context){
+        this.inflater = LayoutInflater.from(context);
+    }
+
+    /**
+     * 应用一批变化
+     * @param diff
+     */
+    public void apply(DeviceListDiff diff){
+        if(diff.isEmpty()){
+            return;
+        }
+        if(!diff.getRemoved().isEmpty()){
+            Set<String> removed = new HashSet<>(diff.getRemoved());
+            int size = 0;
+            for(int i = 0; i < devices.size(); i++){
+                DiscoveredDevice device = devices.get(i);
+                if(!removed.contains(device.getAddress())){
+                    devices.set(size++, device);
+                }
+            }
+            devices.subList(size, devices.size()).clear();
+            positions.clear();
+            for(int i = 0; i < devices.size(); i++){
+                positions.put(devices.get(i).getAddress(), i);
+            }
+        }
+        for(DiscoveredDevice device : diff.getUpdated()){
+            Integer position = positions.get(device.getAddress());
+            if(position != null){
+                devices.set(position, device);
+            }
+        }
+        for(DiscoveredDevice device : diff.getAdded()){
+            positions.put(device.getAddress(), devices.size());
+            devices.add(device);
+        }
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return devices.size();
+    }
+
+    @Override
+    public DiscoveredDevice getItem(int position) {
+        return devices.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView textView = (TextView) convertView;
+        if(textView == null){
+            textView = (TextView) inflater.inflate(android.R.layout.simple_list_item_1, parent, false);
+        }
+        DiscoveredDevice device = devices.get(position);
+        StringBuilder text = new StringBuilder();
+        text.append(device.getName() == null ? "未知设备" : device.getName());
+        if(device.getRssi() != DiscoveredDevice.NO_RSSI){
+            text.append("  ").append(device.getRssi()).append("dBm");
+        }
+        if(device.isBonded()){
+            text.append("  已配对");
+        }
+        text.append('\n').append(device.getAddress());
+        textView.setText(text);
+        return textView;
+    }
+}
@@ -1,22 +1,47 @@
 package com.example.newbies.bluetoothtest.view;
 
 import android.content.Context;
+import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.widget.FrameLayout;
 
 /**
  * 步骤一：自定义可移动组件
+ * 拖动过程中只修改translationX/Y，不需要父布局重新测量和布局；一帧之内的多个触摸事件只在下一帧应用一次，
+ * 抬起手指时才把最终位置写回布局参数，同时拖动很多个组件也不会掉帧
  * @author NewBies
  * @date 2017/12/26
  */
 public class VertexView extends android.support.v7.widget.AppCompatTextView{
 
-    private int startX;
-    private int startY;
-    private int endX;
-    private int endY;
-    private FrameLayout.LayoutParams layoutParams;
+    /**
+     * 按下时手指在屏幕上的坐标，使用屏幕坐标是因为组件自身在移动，组件内的坐标会随之变化
+     */
+    private float downRawX;
+    private float downRawY;
+    /**
+     * 按下时已有的平移量
+     */
+    private float startTranslationX;
+    private float startTranslationY;
+    /**
+     * 下一帧要应用的平移量
+     */
+    private float pendingTranslationX;
+    private float pendingTranslationY;
+    private boolean frameScheduled;
+    /**
+     * 在下一帧开始绘制之前应用最新的平移量
+     */
+    private final Runnable applyTranslation = new Runnable() {
+        @Override
+        public void run() {
+            frameScheduled = false;
+            setTranslationX(pendingTranslationX);
+            setTranslationY(pendingTranslationY);
+        }
+    };
 
     public VertexView(Context context) {
         super(context);
@@ -42,38 +67,61 @@ public class VertexView extends android.support.v7.widget.AppCompatTextView{
      */
     @Override
     public boolean onTouchEvent(MotionEvent event){
-        //步骤三：获取手机触摸点的横坐标和纵坐标
-        endX = (int)event.getX();
-        endY = (int)event.getY();
-
-        //步骤四：获取布局参数实例，注意：xx.LayoutParams这里的xx应该是该组件的父布局类型
-        //注意：这句话必须在该组件已经添加到父布局中才会起作用，所以这句话我没有写在构造函数中，而是写在这里
-        layoutParams = (FrameLayout.LayoutParams) this.getLayoutParams();
+        //步骤三：获取手机触摸点在屏幕上的横坐标和纵坐标
+        float rawX = event.getRawX();
+        float rawY = event.getRawY();
 
-        switch (event.getAction()){
+        switch (event.getActionMasked()){
             //监听按下去的事件，这个事件在每次拖动时，必定会执行，也只执行一次
             case MotionEvent.ACTION_DOWN:
                 //将按下去的点记录为起始点
-                startX = endX;
-                startY = endY;
+                downRawX = rawX;
+                downRawY = rawY;
+                startTranslationX = getTranslationX();
+                startTranslationY = getTranslationY();
                 break;
-            //步骤五：监听移动事件，该事件会在拖动时执行N次
+            //步骤四：监听移动事件，该事件会在拖动时执行N次
             case MotionEvent.ACTION_MOVE:
-                //计算移动的距离
-                int offsetX = endX - startX;
-                int offsetY = endY - startY;
-
-                //调用layout方法来重新放置它的位置
-                layoutParams.setMargins(getLeft() + offsetX, getTop() + offsetY, getRight() + offsetX, getBottom() + offsetY);
-                //刷新
-                requestLayout();
+                //只关心最新的位置，事件中批量携带的历史采样不需要逐个处理
+                pendingTranslationX = startTranslationX + rawX - downRawX;
+                pendingTranslationY = startTranslationY + rawY - downRawY;
+                //一帧之内只应用一次，平移不会触发父布局的测量和布局
+                if(!frameScheduled){
+                    frameScheduled = true;
+                    ViewCompat.postOnAnimation(this, applyTranslation);
+                }
                 break;
-            //监听抬起事件，该事件同按下去的时间一样，只执行一次
+            //步骤五：监听抬起事件，该事件同按下去的时间一样，只执行一次，在这里把最终位置写回布局参数
             case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                removeCallbacks(applyTranslation);
+                frameScheduled = false;
+                commitPosition(Math.round(startTranslationX + rawX - downRawX),
+                        Math.round(startTranslationY + rawY - downRawY));
                 break;
             default:break;
         }
         //这里应该返回true，这里涉及到了android的事件拦截机制，大致意思是，我的事件是在哪里处理，就在那里的事件返回TRUE
         return  true;
     }
+
+    /**
+     * 把平移量换算成外边距，只触发一次布局，布局和绘制在同一帧中完成，清除平移量不会造成闪烁
+     * 注意：xx.LayoutParams这里的xx应该是该组件的父布局类型
+     * @param offsetX 相对布局位置的横向偏移
+     * @param offsetY 相对布局位置的纵向偏移
+     */
+    private void commitPosition(int offsetX, int offsetY){
+        FrameLayout.LayoutParams layoutParams = (FrameLayout.LayoutParams) this.getLayoutParams();
+        if(layoutParams == null){
+            //还没有添加到父布局中，保留平移量
+            setTranslationX(offsetX);
+            setTranslationY(offsetY);
+            return;
+        }
+        setTranslationX(0);
+        setTranslationY(0);
+        layoutParams.setMargins(getLeft() + offsetX, getTop() + offsetY, getRight() + offsetX, getBottom() + offsetY);
+        setLayoutParams(layoutParams);
+    }
 }
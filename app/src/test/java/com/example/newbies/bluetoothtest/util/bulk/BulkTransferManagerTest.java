@@ -0,0 +1,241 @@
+package com.example.newbies.bluetoothtest.util.bulk;
+
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+import com.example.newbies.bluetoothtest.util.transfer.IoExecutor;
+import com.example.newbies.bluetoothtest.util.transfer.MessageListener;
+import com.example.newbies.bluetoothtest.util.transfer.ReceivedMessage;
+import com.example.newbies.bluetoothtest.util.transfer.SessionPair;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 大块数据传输的测试：损坏或丢失数据块后的重传，以及断开重连后的续传
+ * @author NewBies
+ * @date 2018/1/29
+ */
+public class BulkTransferManagerTest {
+
+    private static final int LENGTH = 300 * 1000 + 123;
+    private static final int CHUNK_SIZE = 1000;
+    private static final int WINDOW_SIZE = 8;
+
+    /**
+     * 在接收端处理之前检查数据块，返回false表示丢弃
+     */
+    private interface ChunkFilter {
+        boolean accept(long offset, ByteBuffer chunk);
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private IoExecutor executor;
+    private BulkTransferManager sender;
+    private BulkTransferManager receiver;
+    private byte[] data;
+    private File file;
+    private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    private final CountDownLatch completed = new CountDownLatch(2);
+    private final AtomicInteger nacks = new AtomicInteger();
+    private volatile ChunkFilter filter;
+    private final List<SessionPair> pairs = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        executor = new IoExecutor();
+        sender = new BulkTransferManager(executor);
+        receiver = new BulkTransferManager(executor);
+        sender.setListener(new BulkTransferListener() {
+            @Override
+            public BulkSink onOffer(BulkTransfer transfer) {
+                return null;
+            }
+
+            @Override
+            public void onCompleted(BulkTransfer transfer) {
+                completed.countDown();
+            }
+
+            @Override
+            public void onFailed(BulkTransfer transfer, IOException cause) {
+            }
+        });
+        receiver.setListener(new BulkTransferListener() {
+            @Override
+            public BulkSink onOffer(BulkTransfer transfer) {
+                return new OutputStreamSink(received);
+            }
+
+            @Override
+            public void onCompleted(BulkTransfer transfer) {
+                completed.countDown();
+            }
+
+            @Override
+            public void onFailed(BulkTransfer transfer, IOException cause) {
+            }
+        });
+
+        data = new byte[LENGTH];
+        new Random(1).nextBytes(data);
+        file = folder.newFile("blob.bin");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for(SessionPair pair : pairs){
+            pair.close();
+        }
+        sender.shutdown();
+        receiver.shutdown();
+        executor.shutdown();
+    }
+
+    /**
+     * 建立一对新的会话，客户端发送，服务端接收，数据块先经过过滤器
+     */
+    private SessionPair connect() throws Exception {
+        SessionPair pair = new SessionPair(executor, new MessageListener() {
+            @Override
+            public void onMessage(ReceivedMessage message) {
+                if(message.getType() == Frame.TYPE_BULK_NACK){
+                    nacks.incrementAndGet();
+                }
+                if(!sender.onMessage(message)){
+                    message.release();
+                }
+            }
+        }, new MessageListener() {
+            @Override
+            public void onMessage(ReceivedMessage message) {
+                ChunkFilter current = filter;
+                if(current != null && message.getType() == Frame.TYPE_BULK_CHUNK){
+                    ByteBuffer chunk = message.getData();
+                    long offset = chunk.getLong(chunk.position() + 8);
+                    if(!current.accept(offset, chunk)){
+                        message.release();
+                        return;
+                    }
+                }
+                if(!receiver.onMessage(message)){
+                    message.release();
+                }
+            }
+        });
+        pairs.add(pair);
+        //必须在会话开始读取之前登记
+        sender.onSessionOpened(pair.client);
+        receiver.onSessionOpened(pair.server);
+        pair.start();
+        return pair;
+    }
+
+    private BulkTransfer send(SessionPair pair) throws IOException {
+        return sender.send(pair.client, file.getName(), new MappedFileSource(file), CHUNK_SIZE, WINDOW_SIZE);
+    }
+
+    private void assertReceivedIntact(BulkTransfer transfer) throws InterruptedException {
+        assertTrue("传输没有在规定时间内完成", completed.await(10, TimeUnit.SECONDS));
+        assertEquals(BulkTransfer.STATE_COMPLETED, transfer.getState());
+        assertEquals(LENGTH, transfer.getTransferredBytes());
+        assertArrayEquals(data, received.toByteArray());
+    }
+
+    @Test
+    public void transfersWithoutLoss() throws Exception {
+        BulkTransfer transfer = send(connect());
+        assertReceivedIntact(transfer);
+        assertEquals(0, nacks.get());
+    }
+
+    @Test
+    public void retransmitsCorruptedChunk() throws Exception {
+        filter = new ChunkFilter() {
+            boolean corrupted;
+
+            @Override
+            public boolean accept(long offset, ByteBuffer chunk) {
+                if(!corrupted && offset == 10 * CHUNK_SIZE){
+                    corrupted = true;
+                    int index = chunk.position() + BulkTransferManager.CHUNK_HEADER_LENGTH;
+                    chunk.put(index, (byte) (chunk.get(index) ^ 0x01));
+                }
+                return true;
+            }
+        };
+        BulkTransfer transfer = send(connect());
+        assertReceivedIntact(transfer);
+        assertTrue(nacks.get() > 0);
+    }
+
+    @Test
+    public void retransmitsAfterDroppedChunk() throws Exception {
+        filter = new ChunkFilter() {
+            boolean dropped;
+
+            @Override
+            public boolean accept(long offset, ByteBuffer chunk) {
+                if(!dropped && offset == 5 * CHUNK_SIZE){
+                    dropped = true;
+                    return false;
+                }
+                return true;
+            }
+        };
+        BulkTransfer transfer = send(connect());
+        assertReceivedIntact(transfer);
+        assertTrue(nacks.get() > 0);
+    }
+
+    @Test
+    public void resumesAfterReconnect() throws Exception {
+        final CountDownLatch stalled = new CountDownLatch(1);
+        //传到一半时链路不再送达数据块，然后断开
+        filter = new ChunkFilter() {
+            @Override
+            public boolean accept(long offset, ByteBuffer chunk) {
+                if(offset >= LENGTH / 2){
+                    stalled.countDown();
+                    return false;
+                }
+                return true;
+            }
+        };
+        SessionPair first = connect();
+        BulkTransfer transfer = send(first);
+        assertTrue(stalled.await(10, TimeUnit.SECONDS));
+        first.close();
+        sender.onSessionClosed(first.client);
+        receiver.onSessionClosed(first.server);
+        assertEquals(BulkTransfer.STATE_PAUSED, transfer.getState());
+        assertTrue(received.size() > 0);
+
+        filter = null;
+        connect();
+        assertReceivedIntact(transfer);
+    }
+}
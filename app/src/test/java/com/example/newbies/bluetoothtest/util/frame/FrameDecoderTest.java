@@ -0,0 +1,243 @@
+package com.example.newbies.bluetoothtest.util.frame;
+
+import com.example.newbies.bluetoothtest.util.compress.CompressionStage;
+import com.example.newbies.bluetoothtest.util.compress.Codecs;
+import com.example.newbies.bluetoothtest.util.compress.DecompressionStage;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 数据帧编解码的测试，覆盖拆包、粘包、CRC校验、长度检查和压缩
+ * @author NewBies
+ * @date 2018/1/29
+ */
+public class FrameDecoderTest {
+
+    /**
+     * 收集解码出的帧，负载在回调返回后失效，所以拷贝一份
+     */
+    private static class Collector implements FrameListener {
+        final List<Integer> types = new ArrayList<>();
+        final List<Integer> channels = new ArrayList<>();
+        final List<byte[]> payloads = new ArrayList<>();
+
+        @Override
+        public void onFrame(int type, int channel, ByteBuffer payload) {
+            byte[] copy = new byte[payload.remaining()];
+            payload.get(copy);
+            types.add(type);
+            channels.add(channel);
+            payloads.add(copy);
+        }
+    }
+
+    /**
+     * 每次只返回一个字节的输入流
+     */
+    private static class OneByteInputStream extends InputStream {
+        private final InputStream in;
+
+        OneByteInputStream(byte[] data){
+            this.in = new ByteArrayInputStream(data);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return in.read(b, off, Math.min(len, 1));
+        }
+    }
+
+    private static byte[][] samplePayloads(){
+        Random random = new Random(1);
+        byte[][] payloads = new byte[5][];
+        int[] lengths = {0, 1, 7, 300, 5000};
+        for(int i = 0; i < lengths.length; i++){
+            payloads[i] = new byte[lengths[i]];
+            random.nextBytes(payloads[i]);
+        }
+        return payloads;
+    }
+
+    private static byte[] encodeAll(FrameEncoder encoder, byte[][] payloads){
+        ByteBuffer dst = ByteBuffer.allocate(64 * 1024);
+        for(int i = 0; i < payloads.length; i++){
+            encoder.encode(dst, Frame.TYPE_DATA, i % (Frame.MAX_CHANNEL + 1), payloads[i], 0, payloads[i].length);
+        }
+        return Arrays.copyOf(dst.array(), dst.position());
+    }
+
+    private static void assertFrames(byte[][] expected, Collector collector){
+        assertEquals(expected.length, collector.payloads.size());
+        for(int i = 0; i < expected.length; i++){
+            assertEquals(Frame.TYPE_DATA, (int) collector.types.get(i));
+            assertEquals(i % (Frame.MAX_CHANNEL + 1), (int) collector.channels.get(i));
+            assertArrayEquals(expected[i], collector.payloads.get(i));
+        }
+    }
+
+    @Test
+    public void reassemblesFramesFromOneByteReads() throws Exception {
+        byte[][] payloads = samplePayloads();
+        Collector collector = new Collector();
+        FrameDecoder decoder = new FrameDecoder(collector);
+        InputStream in = new OneByteInputStream(encodeAll(new FrameEncoder(true), payloads));
+        while(decoder.readFrom(in) >= 0){
+            //逐字节读取直到流结束
+        }
+        assertFrames(payloads, collector);
+    }
+
+    @Test
+    public void reassemblesFramesSplitAtEveryPosition() throws Exception {
+        byte[][] payloads = samplePayloads();
+        byte[] data = encodeAll(new FrameEncoder(false), payloads);
+        for(int split = 0; split <= data.length; split += 13){
+            Collector collector = new Collector();
+            FrameDecoder decoder = new FrameDecoder(collector);
+            decoder.decode(data, 0, split);
+            decoder.decode(data, split, data.length - split);
+            assertFrames(payloads, collector);
+        }
+    }
+
+    @Test
+    public void readsFramesFromPipedStream() throws Exception {
+        final byte[][] payloads = samplePayloads();
+        final byte[] data = encodeAll(new FrameEncoder(true), payloads);
+        PipedInputStream in = new PipedInputStream(256);
+        final PipedOutputStream out = new PipedOutputStream(in);
+        Thread writer = new Thread(){
+            @Override
+            public void run() {
+                try {
+                    //故意用不对齐帧边界的块写入
+                    for(int offset = 0; offset < data.length; offset += 37){
+                        out.write(data, offset, Math.min(37, data.length - offset));
+                    }
+                    out.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        writer.start();
+        Collector collector = new Collector();
+        FrameDecoder decoder = new FrameDecoder(collector);
+        while(decoder.readFrom(in) >= 0){
+            //读到写端关闭为止
+        }
+        writer.join();
+        assertFrames(payloads, collector);
+    }
+
+    @Test
+    public void rejectsCrcMismatch() throws Exception {
+        byte[] payload = "hello".getBytes("UTF-8");
+        ByteBuffer dst = ByteBuffer.allocate(64);
+        new FrameEncoder(true).encode(dst, Frame.TYPE_DATA, payload, 0, payload.length);
+        byte[] data = Arrays.copyOf(dst.array(), dst.position());
+        data[Frame.HEADER_LENGTH + 1] ^= 0x01;
+        Collector collector = new Collector();
+        try {
+            new FrameDecoder(collector).decode(data, 0, data.length);
+            fail("CRC校验应该失败");
+        } catch (IOException e) {
+            assertTrue(collector.payloads.isEmpty());
+        }
+    }
+
+    @Test
+    public void rejectsOversizedLength() throws Exception {
+        byte[] payload = new byte[101];
+        ByteBuffer dst = ByteBuffer.allocate(256);
+        new FrameEncoder(false).encode(dst, Frame.TYPE_DATA, payload, 0, payload.length);
+        try {
+            new FrameDecoder(new Collector(), 100).decode(dst.array(), 0, dst.position());
+            fail("超长的帧应该被拒绝");
+        } catch (IOException e) {
+            //预期的结果
+        }
+        //长度字段为负数，不需要等到整帧到达就能发现
+        byte[] header = {(byte) 0x80, 0, 0, 0, Frame.TYPE_DATA, 0};
+        try {
+            new FrameDecoder(new Collector()).decode(header, 0, header.length);
+            fail("负数长度应该被拒绝");
+        } catch (IOException e) {
+            //预期的结果
+        }
+    }
+
+    @Test
+    public void decodesCompressedFrames() throws Exception {
+        byte[] text = new byte[4000];
+        for(int i = 0; i < text.length; i++){
+            text[i] = (byte) ("abcdefgh".charAt(i % 8) + i / 1000);
+        }
+        byte[][] payloads = {text, new byte[]{1, 2, 3}, text};
+        FrameEncoder encoder = new FrameEncoder(true);
+        encoder.setCompressor(new CompressionStage(Codecs.create(Codecs.DEFLATE)));
+        byte[] data = encodeAll(encoder, payloads);
+        assertTrue("可压缩的负载应该被压缩", data.length < text.length);
+        assertTrue((data[5] & Frame.FLAG_COMPRESSED) != 0);
+
+        Collector collector = new Collector();
+        FrameDecoder decoder = new FrameDecoder(collector);
+        decoder.setDecompressor(new DecompressionStage());
+        decoder.decode(data, 0, data.length);
+        assertFrames(payloads, collector);
+
+        try {
+            new FrameDecoder(new Collector()).decode(data, 0, data.length);
+            fail("没有解压器时应该拒绝压缩的帧");
+        } catch (IOException e) {
+            //预期的结果
+        }
+    }
+
+    /**
+     * 流模式下不可压缩的数据同样发送压缩结果，压缩后超过原始负载的上限时对方仍然要能接收
+     */
+    @Test
+    public void decodesIncompressibleFramesOfMaximumLengthInStreamMode() throws Exception {
+        Random random = new Random(2);
+        byte[][] payloads = new byte[3][];
+        for(int i = 0; i < payloads.length; i++){
+            payloads[i] = new byte[Frame.DEFAULT_MAX_PAYLOAD_LENGTH];
+            random.nextBytes(payloads[i]);
+        }
+        FrameEncoder encoder = new FrameEncoder(true);
+        encoder.setCompressor(new CompressionStage(Codecs.create(Codecs.DEFLATE_STREAM)));
+        ByteBuffer dst = ByteBuffer.allocate(payloads.length * Frame.frameLength(
+                Frame.maxCompressedPayloadLength(Frame.DEFAULT_MAX_PAYLOAD_LENGTH), true));
+        for(int i = 0; i < payloads.length; i++){
+            encoder.encode(dst, Frame.TYPE_DATA, i % (Frame.MAX_CHANNEL + 1), payloads[i], 0, payloads[i].length);
+        }
+        assertTrue((dst.get(5) & Frame.FLAG_COMPRESSED) != 0);
+        assertTrue("随机数据压缩后应该变长", dst.position() > payloads.length * Frame.frameLength(
+                Frame.DEFAULT_MAX_PAYLOAD_LENGTH, true));
+
+        Collector collector = new Collector();
+        FrameDecoder decoder = new FrameDecoder(collector);
+        decoder.setDecompressor(new DecompressionStage());
+        decoder.decode(dst.array(), 0, dst.position());
+        assertFrames(payloads, collector);
+    }
+}
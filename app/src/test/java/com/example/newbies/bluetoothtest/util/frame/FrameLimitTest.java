@@ -0,0 +1,71 @@
+package com.example.newbies.bluetoothtest.util.frame;
+
+import com.example.newbies.bluetoothtest.util.transfer.IoExecutor;
+import com.example.newbies.bluetoothtest.util.transfer.MessageListener;
+import com.example.newbies.bluetoothtest.util.transfer.OutboundFrame;
+import com.example.newbies.bluetoothtest.util.transfer.ReceivedMessage;
+import com.example.newbies.bluetoothtest.util.transfer.Session;
+import com.example.newbies.bluetoothtest.util.transfer.SessionPair;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 发送端的长度检查与解码器一致：超长的帧在本地被拒绝，不会发给对方导致断开连接
+ * @author NewBies
+ * @date 2018/1/29
+ */
+public class FrameLimitTest {
+
+    private IoExecutor executor;
+    private SessionPair pair;
+    private final LinkedBlockingQueue<Integer> received = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        executor = new IoExecutor();
+        pair = new SessionPair(executor, new MessageListener() {
+            @Override
+            public void onMessage(ReceivedMessage message) {
+                message.release();
+            }
+        }, new MessageListener() {
+            @Override
+            public void onMessage(ReceivedMessage message) {
+                received.add(message.getData().remaining());
+                message.release();
+            }
+        });
+        pair.start();
+    }
+
+    @After
+    public void tearDown() {
+        pair.close();
+        executor.shutdown();
+    }
+
+    @Test
+    public void rejectsPayloadsLargerThanTheDecoderAccepts() throws Exception {
+        assertFalse(pair.client.write(new byte[70 * 1024]));
+        assertEquals(Session.SEND_REJECTED,
+                pair.client.send(new OutboundFrame(Frame.TYPE_DATA, ByteBuffer.allocate(Frame.DEFAULT_MAX_PAYLOAD_LENGTH + 1))));
+        assertEquals(Session.SEND_REJECTED,
+                pair.client.sendLatest("key", new OutboundFrame(Frame.TYPE_DATA, ByteBuffer.allocate(70 * 1024))));
+
+        //最大长度的帧仍然可以发送，连接保持打开
+        assertTrue(pair.client.write(new byte[Frame.DEFAULT_MAX_PAYLOAD_LENGTH]));
+        assertEquals(Integer.valueOf(Frame.DEFAULT_MAX_PAYLOAD_LENGTH), received.poll(5, TimeUnit.SECONDS));
+        assertTrue(pair.client.write(new byte[16]));
+        assertEquals(Integer.valueOf(16), received.poll(5, TimeUnit.SECONDS));
+        assertFalse(pair.client.isClosed());
+        assertFalse(pair.server.isClosed());
+    }
+}
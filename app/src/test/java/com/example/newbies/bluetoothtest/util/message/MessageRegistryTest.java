@@ -0,0 +1,136 @@
+package com.example.newbies.bluetoothtest.util.message;
+
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+import com.example.newbies.bluetoothtest.util.transfer.ReceiveBufferPool;
+import com.example.newbies.bluetoothtest.util.transfer.ReceivedMessage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 类型化消息注册表的测试：编码后按类型编号分发给处理器
+ * @author NewBies
+ * @date 2018/1/29
+ */
+public class MessageRegistryTest {
+
+    private static final class Point {
+        int x;
+        int y;
+        String label;
+    }
+
+    private static final MessageCodec<Point> POINT_CODEC = new MessageCodec<Point>() {
+        @Override
+        public void encode(Point message, MessageWriter writer) {
+            writer.writeSignedVarInt(message.x).writeSignedVarInt(message.y).writeString(message.label);
+        }
+
+        @Override
+        public Point decode(MessageReader reader) throws IOException {
+            Point point = new Point();
+            point.x = reader.readSignedVarInt();
+            point.y = reader.readSignedVarInt();
+            point.label = reader.readString();
+            return point;
+        }
+    };
+
+    private final ReceiveBufferPool pool = new ReceiveBufferPool();
+    private final List<Point> handled = new ArrayList<>();
+    private MessageRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new MessageRegistry();
+        registry.register(3, Point.class, POINT_CODEC);
+    }
+
+    private static Point point(int x, int y, String label){
+        Point point = new Point();
+        point.x = x;
+        point.y = y;
+        point.label = label;
+        return point;
+    }
+
+    private ReceivedMessage receive(ByteBuffer payload){
+        return pool.acquire(1, Frame.TYPE_TYPED, 0, payload);
+    }
+
+    @Test
+    public void dispatchesDecodedMessagesToTheHandler() {
+        registry.setHandler(Point.class, new TypedMessageHandler<Point>() {
+            @Override
+            public void onMessage(int sessionId, Point message) {
+                assertEquals(1, sessionId);
+                handled.add(message);
+            }
+        });
+        assertTrue(registry.onMessage(receive(registry.encode(point(-3, 70000, "原点附近")))));
+        assertEquals(1, handled.size());
+        assertEquals(-3, handled.get(0).x);
+        assertEquals(70000, handled.get(0).y);
+        assertEquals("原点附近", handled.get(0).label);
+        //已处理的消息由注册表释放
+        assertEquals(1, pool.getPooledCount());
+    }
+
+    @Test
+    public void leavesMessagesWithoutHandlerToTheCaller() {
+        ReceivedMessage message = receive(registry.encode(point(1, 2, "p")));
+        int position = message.getData().position();
+        assertFalse(registry.onMessage(message));
+        //数据原样保留，调用者可以自己解码
+        assertEquals(position, message.getData().position());
+        assertEquals(0, pool.getPooledCount());
+        message.release();
+
+        ByteBuffer unknownType = new MessageWriter(16).writeVarInt(99).writeInt(0).finish();
+        ReceivedMessage unknown = receive(unknownType);
+        assertFalse(registry.onMessage(unknown));
+        unknown.release();
+    }
+
+    @Test
+    public void dropsTruncatedMessages() {
+        registry.setHandler(Point.class, new TypedMessageHandler<Point>() {
+            @Override
+            public void onMessage(int sessionId, Point message) {
+                handled.add(message);
+            }
+        });
+        ByteBuffer encoded = registry.encode(point(1, 2, "label"));
+        encoded.limit(encoded.limit() - 2);
+        assertTrue(registry.onMessage(receive(encoded)));
+        assertTrue(handled.isEmpty());
+        assertEquals(1, pool.getPooledCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDuplicateTypeIds() {
+        registry.register(3, String.class, new MessageCodec<String>() {
+            @Override
+            public void encode(String message, MessageWriter writer) {
+                writer.writeString(message);
+            }
+
+            @Override
+            public String decode(MessageReader reader) throws IOException {
+                return reader.readString();
+            }
+        });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnregisteredTypesWhenEncoding() {
+        registry.encode("not registered");
+    }
+}
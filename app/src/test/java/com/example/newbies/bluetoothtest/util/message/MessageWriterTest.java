@@ -0,0 +1,156 @@
+package com.example.newbies.bluetoothtest.util.message;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * 二进制消息读写的测试：变长整数、ZigZag、UTF-8字符串的往返以及不完整的输入
+ * @author NewBies
+ * @date 2018/1/29
+ */
+public class MessageWriterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int[] INTS = {0, 1, -1, 63, -64, 64, 127, 128, 300, 16383, 16384,
+            Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE - 1, Integer.MIN_VALUE + 1};
+    private static final long[] LONGS = {0, 1, -1, 127, 128, Integer.MAX_VALUE, Integer.MIN_VALUE,
+            1L << 35, -(1L << 35), Long.MAX_VALUE, Long.MIN_VALUE};
+    private static final String[] STRINGS = {"", "hello", "héllo", "蓝牙传输", "a\u0800b\uFFFF",
+            "😀 emoji", "ASCII 和 中文 和 📡 混合"};
+
+    private static MessageReader readerOf(MessageWriter writer){
+        return new MessageReader(writer.finish());
+    }
+
+    @Test
+    public void roundTripsVarInts() throws Exception {
+        MessageWriter writer = new MessageWriter(16);
+        for(int value : INTS){
+            writer.writeVarInt(value).writeSignedVarInt(value);
+        }
+        for(long value : LONGS){
+            writer.writeVarLong(value).writeSignedVarLong(value);
+        }
+        MessageReader reader = readerOf(writer);
+        for(int value : INTS){
+            assertEquals(value, reader.readVarInt());
+            assertEquals(value, reader.readSignedVarInt());
+        }
+        for(long value : LONGS){
+            assertEquals(value, reader.readVarLong());
+            assertEquals(value, reader.readSignedVarLong());
+        }
+        assertEquals(0, reader.remaining());
+    }
+
+    @Test
+    public void encodesVarIntsCompactly() {
+        assertEquals(1, new MessageWriter(16).writeVarInt(127).position());
+        assertEquals(2, new MessageWriter(16).writeVarInt(128).position());
+        assertEquals(5, new MessageWriter(16).writeVarInt(-1).position());
+        assertEquals(10, new MessageWriter(16).writeVarLong(-1).position());
+        //ZigZag：绝对值小的负数同样很短
+        assertEquals(1, new MessageWriter(16).writeSignedVarInt(-64).position());
+        assertEquals(2, new MessageWriter(16).writeSignedVarInt(-65).position());
+        assertEquals(1, new MessageWriter(16).writeSignedVarLong(-1).position());
+        ByteBuffer encoded = new MessageWriter(16).writeVarInt(300).finish();
+        assertEquals((byte) 0xAC, encoded.get(0));
+        assertEquals((byte) 0x02, encoded.get(1));
+    }
+
+    @Test
+    public void encodesStringsLikeStringGetBytes() throws Exception {
+        for(String value : STRINGS){
+            ByteBuffer encoded = new MessageWriter(4).writeString(value).finish();
+            //字符串和同样内容的字节串编码完全相同
+            assertArrayEquals(value, value.getBytes(UTF_8), new MessageReader(encoded.duplicate()).readByteArray());
+            assertEquals(value, new MessageReader(encoded).readString());
+        }
+        //不成对的代理字符替换为'?'，与String.getBytes一致
+        String unpaired = "a\uD800b\uDC00";
+        assertArrayEquals(unpaired.getBytes(UTF_8),
+                new MessageReader(new MessageWriter(4).writeString(unpaired).finish()).readByteArray());
+        //null按空字符串处理
+        assertEquals("", new MessageReader(new MessageWriter(4).writeString(null).finish()).readString());
+    }
+
+    @Test
+    public void roundTripsMixedFieldsAndGrowsTheBuffer() throws Exception {
+        byte[] blob = new byte[1000];
+        Arrays.fill(blob, (byte) 7);
+        //初始缓冲区放不下，写入器需要换成更大的直接缓冲区
+        ByteBuffer initial = ByteBuffer.allocateDirect(8);
+        MessageWriter writer = new MessageWriter(initial);
+        writer.writeByte(0xFE).writeBoolean(true).writeShort(-2).writeInt(123456789).writeLong(-5L)
+                .writeFloat(1.5f).writeDouble(-2.25).writeBytes(blob).writeString("蓝牙")
+                .writeBytes(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        ByteBuffer encoded = writer.finish();
+        assertTrue(encoded.isDirect());
+        assertTrue(encoded.capacity() > initial.capacity());
+
+        MessageReader reader = new MessageReader(encoded);
+        assertEquals((byte) 0xFE, reader.readByte());
+        assertTrue(reader.readBoolean());
+        assertEquals(-2, reader.readShort());
+        assertEquals(123456789, reader.readInt());
+        assertEquals(-5L, reader.readLong());
+        assertEquals(1.5f, reader.readFloat(), 0);
+        assertEquals(-2.25, reader.readDouble(), 0);
+        assertArrayEquals(blob, reader.readByteArray());
+        assertEquals("蓝牙", reader.readString());
+        ByteBuffer bytes = reader.readBytes();
+        assertTrue(bytes.isReadOnly());
+        assertEquals(3, bytes.remaining());
+        assertEquals(3, bytes.get(2));
+        assertEquals(0, reader.remaining());
+    }
+
+    /**
+     * 任何截断的消息都应该以IOException失败，而不是越界异常
+     */
+    @Test
+    public void rejectsTruncatedInput() throws Exception {
+        ByteBuffer encoded = new MessageWriter(16).writeVarInt(Integer.MAX_VALUE).writeLong(7)
+                .writeString("蓝牙传输").writeBytes(new byte[20]).finish();
+        int length = encoded.remaining();
+        for(int cut = 0; cut < length; cut++){
+            ByteBuffer truncated = encoded.duplicate();
+            truncated.limit(cut);
+            MessageReader reader = new MessageReader(truncated);
+            try {
+                reader.readVarInt();
+                reader.readLong();
+                reader.readString();
+                reader.readByteArray();
+                fail("截断在" + cut + "字节处的消息应该读取失败");
+            } catch (IOException e) {
+                //预期的结果
+            }
+        }
+    }
+
+    @Test
+    public void rejectsOverlongVarIntAndNegativeLength() throws Exception {
+        byte[] overlong = {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01};
+        try {
+            new MessageReader(ByteBuffer.wrap(overlong)).readVarInt();
+            fail("超过5个字节的变长整数应该被拒绝");
+        } catch (IOException e) {
+            //预期的结果
+        }
+        ByteBuffer negative = new MessageWriter(16).writeVarInt(-1).writeInt(0).finish();
+        try {
+            new MessageReader(negative).readString();
+            fail("负数长度应该被拒绝");
+        } catch (IOException e) {
+            //预期的结果
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.newbies.bluetoothtest.util.rpc;
+
+import com.example.newbies.bluetoothtest.util.metrics.LinkMetrics;
+import com.example.newbies.bluetoothtest.util.transfer.IoExecutor;
+import com.example.newbies.bluetoothtest.util.transfer.MessageListener;
+import com.example.newbies.bluetoothtest.util.transfer.ReceivedMessage;
+import com.example.newbies.bluetoothtest.util.transfer.SessionPair;
+import com.example.newbies.bluetoothtest.util.transfer.TimerWheel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * RPC的测试：正常调用、乱序到达的响应、超时、对方报错以及会话断开
+ * @author NewBies
+ * @date 2018/1/29
+ */
+public class RpcManagerTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private IoExecutor executor;
+    private TimerWheel timerWheel;
+    /**
+     * 客户端发起调用，服务端处理
+     */
+    private RpcManager caller;
+    private RpcManager callee;
+    private SessionPair pair;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = new IoExecutor();
+        timerWheel = new TimerWheel(executor);
+        caller = new RpcManager(timerWheel, new LinkMetrics());
+        callee = new RpcManager(timerWheel, new LinkMetrics());
+        pair = new SessionPair(executor, dispatchTo(caller), dispatchTo(callee));
+        caller.onSessionOpened(pair.client);
+        callee.onSessionOpened(pair.server);
+        pair.start();
+    }
+
+    @After
+    public void tearDown() {
+        pair.close();
+        caller.shutdown();
+        callee.shutdown();
+        timerWheel.stop();
+        executor.shutdown();
+    }
+
+    private static MessageListener dispatchTo(final RpcManager manager){
+        return new MessageListener() {
+            @Override
+            public void onMessage(ReceivedMessage message) {
+                if(!manager.onMessage(message)){
+                    message.release();
+                }
+            }
+        };
+    }
+
+    private static byte[] bytes(String text){
+        return text.getBytes(UTF_8);
+    }
+
+    private static RpcException failureOf(RpcCall call) throws Exception {
+        try {
+            call.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            fail("调用应该失败");
+            return null;
+        } catch (ExecutionException e) {
+            return (RpcException) e.getCause();
+        }
+    }
+
+    @Test
+    public void returnsTheReplyOfTheHandler() throws Exception {
+        callee.register("echo", new RpcHandler() {
+            @Override
+            public void onRequest(RpcRequest request) {
+                request.reply(request.getParams());
+            }
+        });
+        RpcCall call = caller.call(pair.client, "echo", bytes("ping"), TIMEOUT_MILLIS);
+        assertArrayEquals(bytes("ping"), call.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(0, caller.getPendingCount());
+    }
+
+    @Test
+    public void callbackFailureDoesNotAffectOtherCallbacks() throws Exception {
+        callee.register("echo", new RpcHandler() {
+            @Override
+            public void onRequest(RpcRequest request) {
+                request.reply(request.getParams());
+            }
+        });
+        final CountDownLatch succeeded = new CountDownLatch(1);
+        RpcCall call = caller.call(pair.client, "echo", bytes("ping"), TIMEOUT_MILLIS);
+        call.addCallback(new RpcCallback() {
+            @Override
+            public void onSuccess(RpcCall call, byte[] result) {
+                throw new IllegalStateException("callback failed");
+            }
+
+            @Override
+            public void onFailure(RpcCall call, RpcException cause) {
+            }
+        }).addCallback(new RpcCallback() {
+            @Override
+            public void onSuccess(RpcCall call, byte[] result) {
+                succeeded.countDown();
+            }
+
+            @Override
+            public void onFailure(RpcCall call, RpcException cause) {
+            }
+        });
+        assertTrue(succeeded.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        //读线程没有受到影响
+        assertArrayEquals(bytes("pong"), caller.call(pair.client, "echo", bytes("pong"), TIMEOUT_MILLIS)
+                .get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertFalse(pair.client.isClosed());
+    }
+
+    @Test
+    public void matchesResponsesThatArriveOutOfOrder() throws Exception {
+        final int count = 50;
+        final List<RpcRequest> requests = Collections.synchronizedList(new ArrayList<RpcRequest>());
+        final CountDownLatch received = new CountDownLatch(count);
+        callee.register("later", new RpcHandler() {
+            @Override
+            public void onRequest(RpcRequest request) {
+                requests.add(request);
+                received.countDown();
+            }
+        });
+        List<RpcCall> calls = new ArrayList<>();
+        for(int i = 0; i < count; i++){
+            calls.add(caller.call(pair.client, "later", bytes("param-" + i), TIMEOUT_MILLIS));
+        }
+        assertTrue(received.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        //按请求到达的相反顺序回复，每个调用仍然拿到自己的结果
+        for(int i = count - 1; i >= 0; i--){
+            RpcRequest request = requests.get(i);
+            assertTrue(request.reply(bytes("result-" + new String(request.getParams(), UTF_8))));
+        }
+        for(int i = 0; i < count; i++){
+            assertArrayEquals(bytes("result-param-" + i), calls.get(i).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+        assertEquals(0, caller.getPendingCount());
+    }
+
+    @Test
+    public void timesOutAndIgnoresLateReply() throws Exception {
+        final List<RpcRequest> requests = Collections.synchronizedList(new ArrayList<RpcRequest>());
+        callee.register("slow", new RpcHandler() {
+            @Override
+            public void onRequest(RpcRequest request) {
+                requests.add(request);
+            }
+        });
+        RpcCall call = caller.call(pair.client, "slow", new byte[0], 100);
+        assertEquals(RpcException.CODE_TIMEOUT, failureOf(call).getCode());
+        assertEquals(0, caller.getPendingCount());
+
+        //超时之后才到达的响应被丢弃，不影响后续的调用
+        assertEquals(1, requests.size());
+        requests.get(0).reply(bytes("late"));
+        RpcCall next = caller.call(pair.client, "slow", new byte[0], TIMEOUT_MILLIS);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while(requests.size() < 2 && System.currentTimeMillis() < deadline){
+            Thread.sleep(5);
+        }
+        assertFalse(next.isDone());
+        requests.get(1).reply(bytes("on time"));
+        assertArrayEquals(bytes("on time"), next.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(RpcException.CODE_TIMEOUT, failureOf(call).getCode());
+    }
+
+    @Test
+    public void reportsMissingHandlerAndRemoteErrors() throws Exception {
+        callee.register("broken", new RpcHandler() {
+            @Override
+            public void onRequest(RpcRequest request) {
+                throw new IllegalStateException("broken handler");
+            }
+        });
+        assertEquals(RpcException.CODE_NO_HANDLER,
+                failureOf(caller.call(pair.client, "missing", new byte[0], TIMEOUT_MILLIS)).getCode());
+        RpcException error = failureOf(caller.call(pair.client, "broken", new byte[0], TIMEOUT_MILLIS));
+        assertEquals(RpcException.CODE_REMOTE_ERROR, error.getCode());
+        assertEquals("broken handler", error.getMessage());
+    }
+
+    @Test
+    public void failsPendingCallsWhenTheSessionCloses() throws Exception {
+        callee.register("never", new RpcHandler() {
+            @Override
+            public void onRequest(RpcRequest request) {
+            }
+        });
+        RpcCall call = caller.call(pair.client, "never", new byte[0], TIMEOUT_MILLIS);
+        assertEquals(1, caller.getPendingCount());
+        pair.close();
+        caller.onSessionClosed(pair.client);
+        assertEquals(RpcException.CODE_SESSION_CLOSED, failureOf(call).getCode());
+        assertEquals(0, caller.getPendingCount());
+    }
+}
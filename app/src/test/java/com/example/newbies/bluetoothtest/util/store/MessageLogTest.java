@@ -0,0 +1,207 @@
+package com.example.newbies.bluetoothtest.util.store;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 消息日志的测试：追加、确认、回绕、重新打开后的恢复以及空间不足时的处理
+ * @author NewBies
+ * @date 2018/1/29
+ */
+public class MessageLogTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int CAPACITY = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private MessageLog log;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(folder.getRoot(), "outbox.log");
+        log = MessageLog.open(file, CAPACITY, MessageLog.OVERFLOW_REJECT);
+    }
+
+    @After
+    public void tearDown() {
+        log.close();
+    }
+
+    private static byte[] message(long seq){
+        return ("message-" + seq).getBytes(UTF_8);
+    }
+
+    /**
+     * 从游标处读出所有消息
+     */
+    private List<MessageLog.Entry> readAll(MessageLog.Cursor cursor){
+        List<MessageLog.Entry> entries = new ArrayList<>();
+        MessageLog.Entry entry;
+        while((entry = log.read(cursor)) != null){
+            entries.add(entry);
+            log.advance(cursor, entry);
+        }
+        return entries;
+    }
+
+    @Test
+    public void appendsReadsAndAcknowledgesInOrder() {
+        for(int i = 1; i <= 5; i++){
+            assertEquals(i, log.append(message(i)));
+        }
+        assertEquals(5, log.size());
+        List<MessageLog.Entry> entries = readAll(log.cursor());
+        assertEquals(5, entries.size());
+        for(int i = 0; i < 5; i++){
+            assertEquals(i + 1, entries.get(i).getSeq());
+            assertArrayEquals(message(i + 1), entries.get(i).getPayload());
+        }
+
+        log.acknowledge(3);
+        assertEquals(2, log.size());
+        assertEquals(4, log.getHeadSeq());
+        //已经删除的位置上的游标自动移动到头部
+        assertEquals(4, log.read(log.cursor()).getSeq());
+    }
+
+    @Test
+    public void liveCursorReadsAfterDrainedLogRewinds() {
+        for(int i = 1; i <= 3; i++){
+            log.append(message(i));
+        }
+        MessageLog.Cursor cursor = log.cursor();
+        assertEquals(3, readAll(cursor).size());
+        log.acknowledge(3);
+        assertEquals(0, log.size());
+
+        //日志清空后从文件开头重新写入，一直持有的游标仍然要能读到新消息
+        long seq = log.append(message(4));
+        MessageLog.Entry entry = log.read(cursor);
+        assertNotNull(entry);
+        assertEquals(seq, entry.getSeq());
+        assertArrayEquals(message(4), entry.getPayload());
+    }
+
+    @Test
+    public void wrapsAroundTheEndOfTheFile() {
+        byte[] payload = new byte[300];
+        MessageLog.Cursor cursor = log.cursor();
+        long expected = 1;
+        //每次写入几条再全部确认，写入位置会多次越过文件末尾回到开头
+        for(int round = 0; round < 50; round++){
+            for(int i = 0; i < 3; i++){
+                payload[0] = (byte) round;
+                payload[1] = (byte) i;
+                assertTrue(log.append(payload) > 0);
+            }
+            List<MessageLog.Entry> entries = readAll(cursor);
+            assertEquals(3, entries.size());
+            for(int i = 0; i < 3; i++){
+                MessageLog.Entry entry = entries.get(i);
+                assertEquals(expected++, entry.getSeq());
+                assertEquals((byte) round, entry.getPayload()[0]);
+                assertEquals((byte) i, entry.getPayload()[1]);
+            }
+            //确认一部分，留下的消息跨越回绕点
+            log.acknowledge(expected - 2);
+        }
+        assertEquals(1, log.size());
+    }
+
+    @Test
+    public void recoversUnacknowledgedMessagesAfterReopen() throws Exception {
+        for(int i = 1; i <= 10; i++){
+            log.append(message(i));
+        }
+        log.acknowledge(3);
+        long logId = log.getLogId();
+        log.close();
+
+        log = MessageLog.open(file, CAPACITY, MessageLog.OVERFLOW_REJECT);
+        assertEquals(logId, log.getLogId());
+        assertEquals(7, log.size());
+        assertEquals(4, log.getHeadSeq());
+        List<MessageLog.Entry> entries = readAll(log.cursor());
+        assertEquals(7, entries.size());
+        for(int i = 0; i < 7; i++){
+            assertArrayEquals(message(i + 4), entries.get(i).getPayload());
+        }
+        assertEquals(11, log.append(message(11)));
+    }
+
+    @Test
+    public void dropsTornRecordOnRecovery() throws Exception {
+        for(int i = 1; i <= 3; i++){
+            log.append(message(i));
+        }
+        log.close();
+        //破坏最后一条记录的负载，模拟写到一半时进程退出
+        int lastOffset = MessageLog.HEADER_LENGTH + 2 * (MessageLog.RECORD_HEADER_LENGTH + message(1).length);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(lastOffset + MessageLog.RECORD_HEADER_LENGTH);
+            raf.write('X');
+        } finally {
+            raf.close();
+        }
+
+        log = MessageLog.open(file, CAPACITY, MessageLog.OVERFLOW_REJECT);
+        assertEquals(2, log.size());
+        assertEquals(2, readAll(log.cursor()).size());
+        assertEquals(3, log.append(message(3)));
+    }
+
+    @Test
+    public void rejectsWhenFullWithRejectPolicy() {
+        byte[] payload = new byte[500];
+        int appended = 0;
+        while(log.append(payload) > 0){
+            appended++;
+        }
+        assertTrue(appended > 0);
+        assertEquals(appended, log.size());
+        assertEquals(0, log.getEvictedCount());
+        //确认之后又有空间，回绕后的写入位置不能追上头部，所以确认两条
+        log.acknowledge(2);
+        assertTrue(log.append(payload) > 0);
+    }
+
+    @Test
+    public void evictsOldestWhenFullWithDropOldestPolicy() throws Exception {
+        log.close();
+        log = MessageLog.open(new File(folder.getRoot(), "evict.log"), CAPACITY, MessageLog.OVERFLOW_DROP_OLDEST);
+        byte[] payload = new byte[500];
+        for(int i = 1; i <= 30; i++){
+            payload[0] = (byte) i;
+            assertEquals(i, log.append(payload));
+        }
+        assertTrue(log.getEvictedCount() > 0);
+        assertEquals(30 - log.getEvictedCount(), log.size());
+        assertEquals(log.getEvictedCount() + 1, log.getHeadSeq());
+
+        //留下的是最新的消息，而且按顺序连续
+        List<MessageLog.Entry> entries = readAll(log.cursor());
+        assertEquals(log.size(), entries.size());
+        long seq = log.getHeadSeq();
+        for(MessageLog.Entry entry : entries){
+            assertEquals(seq, entry.getSeq());
+            assertEquals((byte) seq, entry.getPayload()[0]);
+            seq++;
+        }
+        assertEquals(31, seq);
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.newbies.bluetoothtest.util.store;
+
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+import com.example.newbies.bluetoothtest.util.transfer.IoExecutor;
+import com.example.newbies.bluetoothtest.util.transfer.MessageListener;
+import com.example.newbies.bluetoothtest.util.transfer.ReceiveBufferPool;
+import com.example.newbies.bluetoothtest.util.transfer.ReceivedMessage;
+import com.example.newbies.bluetoothtest.util.transfer.SessionPair;
+import com.example.newbies.bluetoothtest.util.transfer.TimerWheel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 存储转发在一对内存中相连的会话上的往返测试
+ * @author NewBies
+ * @date 2018/1/29
+ */
+public class StoreAndForwardTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private IoExecutor executor;
+    private TimerWheel timerWheel;
+    private final ReceiveBufferPool pool = new ReceiveBufferPool();
+    private final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+    /**
+     * 发送方和接收方
+     */
+    private StoreAndForward sender;
+    private StoreAndForward receiver;
+    private final List<SessionPair> pairs = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        executor = new IoExecutor();
+        timerWheel = new TimerWheel(executor);
+        sender = new StoreAndForward(timerWheel, new MessageListener() {
+            @Override
+            public void onMessage(ReceivedMessage message) {
+                message.release();
+            }
+        });
+        receiver = new StoreAndForward(timerWheel, new MessageListener() {
+            @Override
+            public void onMessage(ReceivedMessage message) {
+                assertEquals(Frame.TYPE_DATA, message.getType());
+                ByteBuffer data = message.getData();
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                delivered.add(new String(bytes, UTF_8));
+                message.release();
+            }
+        });
+        sender.setLog(MessageLog.open(new File(folder.getRoot(), "outbox.log"), 64 * 1024,
+                MessageLog.OVERFLOW_REJECT));
+    }
+
+    @After
+    public void tearDown() {
+        for(SessionPair pair : pairs){
+            pair.close();
+        }
+        sender.shutdown();
+        receiver.shutdown();
+        timerWheel.stop();
+        executor.shutdown();
+    }
+
+    private MessageListener dispatchTo(final StoreAndForward target){
+        return new MessageListener() {
+            @Override
+            public void onMessage(ReceivedMessage message) {
+                if(!target.onMessage(message, pool)){
+                    message.release();
+                }
+            }
+        };
+    }
+
+    /**
+     * 建立一对新的会话，客户端是发送方
+     */
+    private SessionPair connect() throws Exception {
+        SessionPair pair = new SessionPair(executor, dispatchTo(sender), dispatchTo(receiver));
+        pairs.add(pair);
+        pair.start();
+        receiver.onSessionOpened(pair.server);
+        sender.onSessionOpened(pair.client);
+        return pair;
+    }
+
+    private static byte[] message(int i){
+        return ("stored-" + i).getBytes(UTF_8);
+    }
+
+    /**
+     * 等待所有消息都被对方确认，并检查收到的正好是1到count
+     */
+    private void awaitDelivered(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while((sender.getPendingCount() > 0 || delivered.size() < count) && System.currentTimeMillis() < deadline){
+            Thread.sleep(5);
+        }
+        assertEquals(0, sender.getPendingCount());
+        assertEquals(count, delivered.size());
+        for(int i = 0; i < count; i++){
+            assertEquals("stored-" + (i + 1), delivered.get(i));
+        }
+    }
+
+    @Test
+    public void forwardsMessagesStoredWhileOffline() throws Exception {
+        for(int i = 1; i <= 100; i++){
+            assertEquals(StoreAndForward.OFFER_STORED, sender.offer(message(i), false));
+        }
+        assertEquals(100, sender.getPendingCount());
+        connect();
+        awaitDelivered(100);
+    }
+
+    @Test
+    public void forwardsAppendAfterLogDrains() throws Exception {
+        connect();
+        for(int i = 1; i <= 10; i++){
+            assertTrue(sender.append(message(i)));
+        }
+        awaitDelivered(10);
+
+        //日志已经清空，之后写入的消息同样要被转发，而不是一直留在日志里
+        for(int i = 11; i <= 15; i++){
+            assertTrue(sender.append(message(i)));
+        }
+        awaitDelivered(15);
+        //连接正常且没有积压时不需要经过日志
+        assertEquals(StoreAndForward.OFFER_BYPASSED, sender.offer(message(16), true));
+    }
+
+    @Test
+    public void resendsUnacknowledgedAfterReconnectWithoutDuplicates() throws Exception {
+        SessionPair first = connect();
+        for(int i = 1; i <= 500; i++){
+            assertTrue(sender.append(message(i)));
+        }
+        //在确认完成之前断开，部分消息已经交付但还没有被确认
+        first.close();
+        sender.onSessionClosed(first.client);
+        receiver.onSessionClosed(first.server);
+        assertTrue(sender.getPendingCount() > 0);
+
+        connect();
+        awaitDelivered(500);
+    }
+}
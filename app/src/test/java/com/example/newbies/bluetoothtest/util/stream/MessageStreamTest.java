@@ -0,0 +1,93 @@
+package com.example.newbies.bluetoothtest.util.stream;
+
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+import com.example.newbies.bluetoothtest.util.metrics.LinkMetrics;
+import com.example.newbies.bluetoothtest.util.transfer.IoExecutor;
+import com.example.newbies.bluetoothtest.util.transfer.ReceiveBufferPool;
+import com.example.newbies.bluetoothtest.util.transfer.ReceivedMessage;
+import com.example.newbies.bluetoothtest.util.transfer.TimerWheel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 订阅队列已满时丢弃新到的消息，丢弃的消息被释放并计入指标
+ * @author NewBies
+ * @date 2018/1/29
+ */
+public class MessageStreamTest {
+
+    private IoExecutor executor;
+    private TimerWheel timerWheel;
+    private final LinkMetrics metrics = new LinkMetrics();
+    private final ReceiveBufferPool pool = new ReceiveBufferPool();
+    private final LinkedBlockingQueue<Integer> received = new LinkedBlockingQueue<>();
+    private volatile Subscription subscription;
+
+    @Before
+    public void setUp() {
+        executor = new IoExecutor();
+        timerWheel = new TimerWheel(executor);
+    }
+
+    @After
+    public void tearDown() {
+        timerWheel.stop();
+        executor.shutdown();
+    }
+
+    private void publish(MessageHub hub, int value){
+        ByteBuffer payload = ByteBuffer.allocate(4);
+        payload.putInt(0, value);
+        ReceivedMessage message = pool.acquire(1, Frame.TYPE_DATA, 0, payload);
+        hub.publish(message);
+        message.release();
+    }
+
+    @Test
+    public void countsMessagesDroppedWhenTheQueueIsFull() throws Exception {
+        MessageHub hub = new MessageHub(timerWheel, metrics);
+        hub.subscribe(new Subscriber<ReceivedMessage>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                subscription = s;
+            }
+
+            @Override
+            public void onNext(ReceivedMessage item) {
+                int value = item.getData().getInt(item.getData().position());
+                item.release();
+                received.add(value);
+            }
+
+            @Override
+            public void onError(Throwable e) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        }, executor, 2);
+
+        //订阅者还没有请求数据，队列只能放下两条
+        for(int i = 0; i < 5; i++){
+            publish(hub, i);
+        }
+        assertEquals(3, metrics.snapshot(0, 0).getSubscriberDropped());
+
+        subscription.request(10);
+        assertEquals(Integer.valueOf(0), received.poll(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(1), received.poll(5, TimeUnit.SECONDS));
+        assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+        //丢弃和投递过的消息都已经归还缓冲池：队列中的两条各占一块，丢弃的三条先后复用同一块
+        assertEquals(3, pool.getPooledCount());
+        subscription.cancel();
+    }
+}
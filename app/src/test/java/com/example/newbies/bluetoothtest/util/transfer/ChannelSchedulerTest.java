@@ -0,0 +1,78 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 通道号的检查：超出帧头范围的通道号直接拒绝，不会被截断后发到别的通道上；
+ * 范围内但没有配置的通道号使用优先级最低的队列，对方收到的仍然是原来的通道号
+ * @author NewBies
+ * @date 2018/1/29
+ */
+public class ChannelSchedulerTest {
+
+    private IoExecutor executor;
+    private SessionPair pair;
+    private final LinkedBlockingQueue<Integer> channels = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        executor = new IoExecutor();
+        pair = new SessionPair(executor, new MessageListener() {
+            @Override
+            public void onMessage(ReceivedMessage message) {
+                message.release();
+            }
+        }, new MessageListener() {
+            @Override
+            public void onMessage(ReceivedMessage message) {
+                channels.add(message.getChannel());
+                message.release();
+            }
+        });
+        pair.start();
+    }
+
+    @After
+    public void tearDown() {
+        pair.close();
+        executor.shutdown();
+    }
+
+    @Test
+    public void rejectsChannelsOutsideTheFrameHeader() throws Exception {
+        int[] invalid = {-1, Frame.MAX_CHANNEL + 1, Frame.MAX_CHANNEL + 2};
+        for(int channel : invalid){
+            try {
+                pair.client.write(channel, new byte[]{1});
+                fail("通道号" + channel + "应该被拒绝");
+            } catch (IllegalArgumentException e) {
+                //预期的结果
+            }
+        }
+        try {
+            new OutboundFrame(Frame.TYPE_DATA, 17, ByteBuffer.allocate(1));
+            fail("通道号17应该被拒绝");
+        } catch (IllegalArgumentException e) {
+            //预期的结果
+        }
+        assertTrue(pair.client.write(Channel.TELEMETRY, new byte[]{1}));
+        assertEquals(Integer.valueOf(Channel.TELEMETRY), channels.poll(5, TimeUnit.SECONDS));
+        assertNull(channels.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void sendsUnconfiguredChannelsThroughTheFallbackLane() throws Exception {
+        assertTrue(pair.client.write(Frame.MAX_CHANNEL, new byte[]{1}));
+        assertEquals(Integer.valueOf(Frame.MAX_CHANNEL), channels.poll(5, TimeUnit.SECONDS));
+    }
+}
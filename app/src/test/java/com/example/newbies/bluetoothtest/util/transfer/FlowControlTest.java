@@ -0,0 +1,161 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 基于额度的流量控制的测试：接收端未释放的消息不超过接收窗口，发送端按顺序发出所有暂存的数据
+ * @author NewBies
+ * @date 2018/1/29
+ */
+public class FlowControlTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int WINDOW = 8;
+
+    private IoExecutor executor;
+    private SessionPair pair;
+    /**
+     * 接收端已经收到但还没有释放的消息
+     */
+    private final LinkedBlockingQueue<ReceivedMessage> inbox = new LinkedBlockingQueue<>();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger maxOutstanding = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        executor = new IoExecutor();
+        pair = new SessionPair(executor, new MessageListener() {
+            @Override
+            public void onMessage(ReceivedMessage message) {
+                message.release();
+            }
+        }, new MessageListener() {
+            @Override
+            public void onMessage(ReceivedMessage message) {
+                int current = outstanding.incrementAndGet();
+                if(current > maxOutstanding.get()){
+                    maxOutstanding.set(current);
+                }
+                inbox.add(message);
+            }
+        }, 32);
+        pair.server.setFlowControl(WINDOW);
+    }
+
+    @After
+    public void tearDown() {
+        pair.close();
+        executor.shutdown();
+    }
+
+    private static String text(ReceivedMessage message){
+        ByteBuffer data = message.getData();
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * 取出并释放一条消息，释放之前先减少计数，保证计数不会小于对方实际可以发送的数量
+     */
+    private String take() throws InterruptedException {
+        ReceivedMessage message = inbox.poll(10, TimeUnit.SECONDS);
+        assertNotNull("没有在规定时间内收到消息", message);
+        String text = text(message);
+        outstanding.decrementAndGet();
+        message.release();
+        return text;
+    }
+
+    /**
+     * 暂存的大小在整批发出之后才更新，对方可能已经先收到了最后一条
+     */
+    private void assertBacklogDrains() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000;
+        while(pair.client.getBacklogSize() > 0 && System.currentTimeMillis() < deadline){
+            Thread.sleep(1);
+        }
+        assertEquals(0, pair.client.getBacklogSize());
+    }
+
+    @Test
+    public void deliversManyMessagesInOrderWithinTheWindow() throws Exception {
+        final int count = 20000;
+        final Semaphore writable = new Semaphore(0);
+        pair.client.setBackpressureListener(new BackpressureListener() {
+            @Override
+            public void onWritable(Session session) {
+                writable.release();
+            }
+        });
+        pair.start();
+
+        final AtomicInteger rejected = new AtomicInteger();
+        Thread producer = new Thread(){
+            @Override
+            public void run() {
+                for(int i = 0; i < count; ){
+                    int result = pair.client.send(new OutboundFrame(Frame.TYPE_DATA,
+                            ByteBuffer.wrap(String.valueOf(i).getBytes(UTF_8))));
+                    if(result == Session.SEND_REJECTED){
+                        rejected.incrementAndGet();
+                        try {
+                            writable.tryAcquire(50, TimeUnit.MILLISECONDS);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    else if(result == Session.SEND_CLOSED){
+                        return;
+                    }
+                    else{
+                        i++;
+                    }
+                }
+            }
+        };
+        producer.start();
+        for(int i = 0; i < count; i++){
+            assertEquals(String.valueOf(i), take());
+        }
+        producer.join();
+
+        assertTrue("未释放的消息超过了接收窗口：" + maxOutstanding.get(), maxOutstanding.get() <= WINDOW);
+        assertTrue("发送端应该遇到反压", rejected.get() > 0);
+        assertBacklogDrains();
+    }
+
+    @Test
+    public void holdsBackDataUntilMessagesAreReleased() throws Exception {
+        pair.start();
+        for(int i = 0; i < 3 * WINDOW; i++){
+            assertTrue(pair.client.write(String.valueOf(i).getBytes(UTF_8)));
+        }
+        //不释放消息，对方最多只能发出一个窗口的数据
+        long deadline = System.currentTimeMillis() + 10000;
+        while(inbox.size() < WINDOW && System.currentTimeMillis() < deadline){
+            Thread.sleep(5);
+        }
+        Thread.sleep(200);
+        assertEquals(WINDOW, inbox.size());
+        assertEquals(2 * WINDOW, pair.client.getBacklogSize());
+
+        for(int i = 0; i < 3 * WINDOW; i++){
+            assertEquals(String.valueOf(i), take());
+        }
+        assertBacklogDrains();
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 线程池饱和时的测试：读循环不占用执行短任务的线程，写任务被拒绝后稍后重试，不会断开连接
+ * @author NewBies
+ * @date 2018/1/29
+ */
+public class IoExecutorTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private IoExecutor executor;
+    private final List<SessionPair> pairs = new ArrayList<>();
+    private final LinkedBlockingQueue<String> received = new LinkedBlockingQueue<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        for(SessionPair pair : pairs){
+            pair.close();
+        }
+        executor.shutdown();
+    }
+
+    private SessionPair connect() throws Exception {
+        SessionPair pair = new SessionPair(executor, new MessageListener() {
+            @Override
+            public void onMessage(ReceivedMessage message) {
+                message.release();
+            }
+        }, new MessageListener() {
+            @Override
+            public void onMessage(ReceivedMessage message) {
+                ByteBuffer data = message.getData();
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                received.add(new String(bytes, UTF_8));
+                message.release();
+            }
+        });
+        pairs.add(pair);
+        pair.start();
+        return pair;
+    }
+
+    /**
+     * 占用执行短任务的线程直到测试结束
+     */
+    private void occupyWorker(){
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void readLoopsDoNotUseWorkerThreads() throws Exception {
+        executor = new IoExecutor("Test", 1);
+        List<SessionPair> connected = new ArrayList<>();
+        for(int i = 0; i < 4; i++){
+            connected.add(connect());
+        }
+        for(SessionPair pair : connected){
+            assertTrue(pair.client.write("hello".getBytes(UTF_8)));
+            assertEquals("hello", received.poll(5, TimeUnit.SECONDS));
+            assertFalse(pair.client.isClosed());
+            assertFalse(pair.server.isClosed());
+        }
+    }
+
+    @Test
+    public void writerRetriesWhileThePoolIsSaturated() throws Exception {
+        executor = new IoExecutor("Test", 1, 1);
+        SessionPair pair = connect();
+        SessionPair other = connect();
+        //等握手帧发出，之后唯一的线程和队列都被占满
+        assertTrue(pair.client.write("ready".getBytes(UTF_8)));
+        assertEquals("ready", received.poll(5, TimeUnit.SECONDS));
+        //握手期间的写任务可能还在排队，一直提交到被拒绝为止
+        boolean saturated = false;
+        for(int i = 0; i < 10 && !saturated; i++){
+            try {
+                occupyWorker();
+            } catch (RejectedExecutionException e) {
+                saturated = true;
+            }
+        }
+        assertTrue("线程和队列都应该已经占满", saturated);
+
+        assertTrue(pair.client.write("hello".getBytes(UTF_8)));
+        Thread.sleep(100);
+        assertNull(received.poll());
+        assertFalse(pair.client.isClosed());
+        assertFalse(other.client.isClosed());
+
+        release.countDown();
+        assertEquals("hello", received.poll(5, TimeUnit.SECONDS));
+        assertFalse(pair.client.isClosed());
+        assertFalse(pair.server.isClosed());
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 应用的监听器抛出异常时，读线程继续工作，消息被释放，会话保持打开
+ * @author NewBies
+ * @date 2018/1/29
+ */
+public class ListenerFailureTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private IoExecutor executor;
+    private SessionPair pair;
+    private final LinkedBlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        executor = new IoExecutor();
+        pair = new SessionPair(executor, new MessageListener() {
+            @Override
+            public void onMessage(ReceivedMessage message) {
+                message.release();
+            }
+        }, new MessageListener() {
+            @Override
+            public void onMessage(ReceivedMessage message) {
+                ByteBuffer data = message.getData();
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                String text = new String(bytes, UTF_8);
+                if(text.equals("released then boom")){
+                    message.release();
+                    throw new IllegalStateException(text);
+                }
+                if(text.equals("boom")){
+                    throw new IllegalStateException(text);
+                }
+                received.add(text);
+                message.release();
+            }
+        });
+        //窗口为1，没有被释放的消息会让后面的消息永远发不过来
+        pair.server.setFlowControl(1);
+        pair.start();
+    }
+
+    @After
+    public void tearDown() {
+        pair.close();
+        executor.shutdown();
+    }
+
+    private void send(String text){
+        assertTrue(pair.client.write(text.getBytes(UTF_8)));
+    }
+
+    @Test
+    public void keepsReadingAfterTheListenerThrows() throws Exception {
+        send("boom");
+        send("after");
+        assertEquals("after", received.poll(5, TimeUnit.SECONDS));
+        assertFalse(pair.server.isClosed());
+        assertFalse(pair.client.isClosed());
+    }
+
+    @Test
+    public void doesNotReleaseTwiceWhenTheListenerReleasedBeforeThrowing() throws Exception {
+        send("released then boom");
+        send("first");
+        send("boom");
+        send("second");
+        assertEquals("first", received.poll(5, TimeUnit.SECONDS));
+        assertEquals("second", received.poll(5, TimeUnit.SECONDS));
+        assertFalse(pair.server.isClosed());
+    }
+}
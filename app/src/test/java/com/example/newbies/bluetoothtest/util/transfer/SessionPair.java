@@ -0,0 +1,63 @@
+package com.example.newbies.bluetoothtest.util.transfer;
+
+import com.example.newbies.bluetoothtest.util.frame.FrameEncoder;
+import com.example.newbies.bluetoothtest.util.transport.PipedTransport;
+import com.example.newbies.bluetoothtest.util.transport.TransportServerSocket;
+import com.example.newbies.bluetoothtest.util.transport.TransportSocket;
+
+import java.io.IOException;
+
+/**
+ * 测试用的一对会话，通过{@link PipedTransport}在内存中相连，不需要蓝牙硬件
+ * 创建后可以先设置流量控制等参数，再调用{@link #start()}
+ * @author NewBies
+ * @date 2018/1/29
+ */
+public class SessionPair {
+
+    private static final Session.Callback IGNORE_LOST = new Session.Callback() {
+        @Override
+        public void onSessionLost(Session session, IOException cause) {
+            //测试中由各自的断言发现问题
+        }
+    };
+
+    public final Session client;
+    public final Session server;
+
+    public SessionPair(IoExecutor executor, MessageListener clientListener, MessageListener serverListener)
+            throws IOException {
+        this(executor, clientListener, serverListener, 256);
+    }
+
+    /**
+     * @param executor 执行读循环和写任务的线程池
+     * @param clientListener 客户端收到的消息
+     * @param serverListener 服务端收到的消息
+     * @param queueCapacity 发送队列容量
+     * @throws IOException
+     */
+    public SessionPair(IoExecutor executor, MessageListener clientListener, MessageListener serverListener,
+                       int queueCapacity) throws IOException {
+        PipedTransport.Hub hub = new PipedTransport.Hub();
+        TransportServerSocket serverSocket = new PipedTransport(hub, "server").listen(true);
+        TransportSocket clientSocket = new PipedTransport(hub, "client").createSocket("server", true);
+        clientSocket.connect();
+        TransportSocket acceptedSocket = serverSocket.accept();
+        serverSocket.close();
+        client = new Session(1, clientSocket, new FrameEncoder(true), new ReceiveBufferPool(), clientListener,
+                IGNORE_LOST, executor, queueCapacity, 4096, 0);
+        server = new Session(2, acceptedSocket, new FrameEncoder(true), new ReceiveBufferPool(), serverListener,
+                IGNORE_LOST, executor, queueCapacity, 4096, 0);
+    }
+
+    public void start(){
+        client.start();
+        server.start();
+    }
+
+    public void close(){
+        client.close();
+        server.close();
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.newbies.bluetoothtest.util.transport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+
+import static org.junit.Assert.*;
+
+/**
+ * TCP传输的远程地址在重连之后保持不变，按地址匹配的功能才能认出同一台设备
+ * @author NewBies
+ * @date 2018/1/29
+ */
+public class TcpTransportTest {
+
+    private TcpTransport transport;
+    private TransportServerSocket serverSocket;
+
+    @Before
+    public void setUp() throws Exception {
+        int port;
+        ServerSocket probe = new ServerSocket(0);
+        try {
+            port = probe.getLocalPort();
+        } finally {
+            probe.close();
+        }
+        transport = new TcpTransport(port);
+        serverSocket = transport.listen(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        serverSocket.close();
+    }
+
+    @Test
+    public void remoteAddressIsStableAcrossConnections() throws Exception {
+        String[] accepted = new String[2];
+        for(int i = 0; i < accepted.length; i++){
+            TransportSocket client = transport.createSocket("127.0.0.1", true);
+            assertEquals("127.0.0.1", client.getRemoteAddress());
+            client.connect();
+            TransportSocket server = serverSocket.accept();
+            assertEquals("127.0.0.1", client.getRemoteAddress());
+            accepted[i] = server.getRemoteAddress();
+            server.close();
+            client.close();
+        }
+        //两次连接的客户端端口不同，地址仍然相同
+        assertEquals("127.0.0.1", accepted[0]);
+        assertEquals(accepted[0], accepted[1]);
+    }
+}
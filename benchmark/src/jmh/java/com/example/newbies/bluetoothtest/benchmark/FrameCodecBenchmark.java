@@ -0,0 +1,94 @@
+package com.example.newbies.bluetoothtest.benchmark;
+
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+import com.example.newbies.bluetoothtest.util.frame.FrameDecoder;
+import com.example.newbies.bluetoothtest.util.frame.FrameEncoder;
+import com.example.newbies.bluetoothtest.util.frame.FrameListener;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 数据帧编解码的性能测试
+ * @author NewBies
+ * @date 2018/1/16
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameCodecBenchmark implements FrameListener {
+
+    /**
+     * 负载大小(字节)
+     */
+    @Param({"16", "256", "4096"})
+    public int messageSize;
+
+    /**
+     * 是否附加CRC校验码
+     */
+    @Param({"false", "true"})
+    public boolean crc;
+
+    private byte[] payload;
+    private FrameEncoder encoder;
+    private ByteBuffer encodeBuffer;
+    private FrameDecoder decoder;
+    /**
+     * 一个完整的已编码帧
+     */
+    private byte[] frame;
+    private Blackhole blackhole;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        payload = new byte[messageSize];
+        new Random(42).nextBytes(payload);
+        encoder = new FrameEncoder(crc);
+        encodeBuffer = ByteBuffer.allocate(Frame.frameLength(messageSize, true));
+        decoder = new FrameDecoder(this);
+
+        frame = new byte[Frame.frameLength(messageSize, crc)];
+        encoder.encode(ByteBuffer.wrap(frame), Frame.TYPE_DATA, payload, 0, messageSize);
+    }
+
+    @Override
+    public void onFrame(int type, int channel, ByteBuffer payload) {
+        blackhole.consume(payload.get(payload.position()));
+    }
+
+    @Benchmark
+    public int encode() {
+        encodeBuffer.clear();
+        return encoder.encode(encodeBuffer, Frame.TYPE_DATA, payload, 0, messageSize);
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) throws IOException {
+        this.blackhole = blackhole;
+        decoder.decode(frame, 0, frame.length);
+    }
+
+    /**
+     * 一帧被拆成三次读取，模拟RFCOMM上常见的半包情况
+     */
+    @Benchmark
+    public void decodeFragmented(Blackhole blackhole) throws IOException {
+        this.blackhole = blackhole;
+        int first = frame.length / 3;
+        int second = frame.length / 3;
+        decoder.decode(frame, 0, first);
+        decoder.decode(frame, first, second);
+        decoder.decode(frame, first + second, frame.length - first - second);
+    }
+}
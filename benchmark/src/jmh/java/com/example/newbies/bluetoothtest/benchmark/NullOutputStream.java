@@ -0,0 +1,26 @@
+package com.example.newbies.bluetoothtest.benchmark;
+
+import java.io.OutputStream;
+
+/**
+ * 只统计写入字节数的输出流，代替真实的套接字
+ * @author NewBies
+ * @date 2018/1/16
+ */
+class NullOutputStream extends OutputStream {
+
+    volatile long bytes;
+    volatile long writes;
+
+    @Override
+    public void write(int b) {
+        bytes++;
+        writes++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        bytes += len;
+        writes++;
+    }
+}
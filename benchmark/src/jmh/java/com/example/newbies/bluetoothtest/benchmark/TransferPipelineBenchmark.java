@@ -0,0 +1,125 @@
+package com.example.newbies.bluetoothtest.benchmark;
+
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+import com.example.newbies.bluetoothtest.util.frame.FrameEncoder;
+import com.example.newbies.bluetoothtest.util.transfer.CoalescingWriter;
+import com.example.newbies.bluetoothtest.util.transfer.IoExecutor;
+import com.example.newbies.bluetoothtest.util.transfer.MessageListener;
+import com.example.newbies.bluetoothtest.util.transfer.OutboundFrame;
+import com.example.newbies.bluetoothtest.util.transfer.ReceiveBufferPool;
+import com.example.newbies.bluetoothtest.util.transfer.ReceivedMessage;
+import com.example.newbies.bluetoothtest.util.transfer.Session;
+import com.example.newbies.bluetoothtest.util.transport.PipedTransport;
+import com.example.newbies.bluetoothtest.util.transport.TransportServerSocket;
+import com.example.newbies.bluetoothtest.util.transport.TransportSocket;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 完整传输链路的性能测试：会话 -> 写入器 -> 内存管道 -> 解码器 -> 接收缓冲池 -> 监听器
+ * sendOneWay测试单向吞吐量，roundTrip测试请求-回显的往返延迟
+ * @author NewBies
+ * @date 2018/1/16
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransferPipelineBenchmark {
+
+    @Param({"16", "256", "4096"})
+    public int messageSize;
+
+    private IoExecutor executor;
+    private Session client;
+    private Session server;
+    private OutboundFrame request;
+    /**
+     * 服务端收到的消息数
+     */
+    private volatile long serverReceived;
+    /**
+     * 客户端收到的回显数
+     */
+    private volatile long clientReceived;
+    /**
+     * 服务端是否回显
+     */
+    private volatile boolean echo;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        executor = new IoExecutor("Benchmark", 8);
+        PipedTransport.Hub hub = new PipedTransport.Hub();
+        TransportServerSocket serverSocket = new PipedTransport(hub, "server").listen(false);
+        TransportSocket clientSocket = new PipedTransport(hub, "client").createSocket("server", false);
+        clientSocket.connect();
+        TransportSocket acceptedSocket = serverSocket.accept();
+
+        ReceiveBufferPool pool = new ReceiveBufferPool();
+        Session.Callback callback = new Session.Callback() {
+            @Override
+            public void onSessionLost(Session session, IOException cause) {
+                cause.printStackTrace();
+            }
+        };
+        final OutboundFrame response = new OutboundFrame(Frame.TYPE_DATA, ByteBuffer.wrap(new byte[messageSize]));
+        server = new Session(1, acceptedSocket, new FrameEncoder(false), pool, new MessageListener() {
+            @Override
+            public void onMessage(ReceivedMessage message) {
+                message.release();
+                serverReceived++;
+                if(echo){
+                    server.write(response);
+                }
+            }
+        }, callback, executor, CoalescingWriter.DEFAULT_QUEUE_CAPACITY, CoalescingWriter.DEFAULT_BATCH_SIZE, 0);
+        client = new Session(2, clientSocket, new FrameEncoder(false), pool, new MessageListener() {
+            @Override
+            public void onMessage(ReceivedMessage message) {
+                message.release();
+                clientReceived++;
+            }
+        }, callback, executor, CoalescingWriter.DEFAULT_QUEUE_CAPACITY, CoalescingWriter.DEFAULT_BATCH_SIZE, 0);
+        server.start();
+        client.start();
+        request = new OutboundFrame(Frame.TYPE_DATA, ByteBuffer.wrap(new byte[messageSize]));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+        server.close();
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public void sendOneWay() {
+        echo = false;
+        while(!client.write(request)){
+            Thread.yield();
+        }
+    }
+
+    @Benchmark
+    public long roundTrip() {
+        echo = true;
+        long expected = clientReceived + 1;
+        while(!client.write(request)){
+            Thread.yield();
+        }
+        while(clientReceived < expected){
+            Thread.yield();
+        }
+        return expected;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.newbies.bluetoothtest.benchmark;
+
+import com.example.newbies.bluetoothtest.util.frame.Frame;
+import com.example.newbies.bluetoothtest.util.frame.FrameEncoder;
+import com.example.newbies.bluetoothtest.util.transfer.CoalescingWriter;
+import com.example.newbies.bluetoothtest.util.transfer.IoExecutor;
+import com.example.newbies.bluetoothtest.util.transfer.OutboundFrame;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 写路径的性能测试：入队、合并、编码并写出
+ * 输出流只统计字节数，测得的是写入器本身的开销
+ * @author NewBies
+ * @date 2018/1/16
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WritePathBenchmark implements CoalescingWriter.ErrorListener {
+
+    @Param({"16", "256", "4096"})
+    public int messageSize;
+
+    /**
+     * 最长等待合并时间(毫秒)
+     */
+    @Param({"0", "2"})
+    public long lingerMillis;
+
+    private IoExecutor executor;
+    private NullOutputStream sink;
+    private CoalescingWriter writer;
+    private OutboundFrame frame;
+
+    /**
+     * 每条消息平均对应的写操作次数，反映合并的效果
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class WriteCounters {
+        public long socketWrites;
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        executor = new IoExecutor("Benchmark", 4);
+        sink = new NullOutputStream();
+        writer = new CoalescingWriter(sink, new FrameEncoder(false), this, executor,
+                CoalescingWriter.DEFAULT_QUEUE_CAPACITY, CoalescingWriter.DEFAULT_BATCH_SIZE, lingerMillis);
+        frame = new OutboundFrame(Frame.TYPE_DATA, ByteBuffer.wrap(new byte[messageSize]));
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        writer.close();
+        executor.shutdown();
+    }
+
+    @Override
+    public void onWriteError(IOException e) {
+        throw new IllegalStateException(e);
+    }
+
+    /**
+     * 队列满时自旋等待，因此测得的是写入器的持续吞吐量
+     */
+    @Benchmark
+    public void write(WriteCounters counters) {
+        while(!writer.offer(frame)){
+            Thread.yield();
+        }
+        counters.socketWrites = sink.writes;
+    }
+}